@@ -0,0 +1,131 @@
+package weather.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import weather.RestWeatherQueryEndpoint;
+import weather.exception.WeatherException;
+import weather.model.AirportData;
+import weather.model.DataPoint;
+import weather.service.WeatherService;
+
+/**
+ * JMH benchmarks of the service hot paths over the synthetic registries of
+ * {@link ServiceBenchmark}: airport lookup, distance calculation, data point
+ * collection, radius queries through the query endpoint at several radii and
+ * ping. Every fork builds its registry anew.
+ *
+ * Usage: java -cp jmh/target/benchmarks.jar
+ * weather.benchmark.WeatherServiceBenchmark runs all benchmarks on one thread
+ * and on a thread per processor with the GC profiler, reporting the bytes
+ * allocated per operation as gc.alloc.rate.norm. Other options are passed to
+ * JMH: java -jar jmh/target/benchmarks.jar WeatherServiceBenchmark -prof gc -t
+ * 4 -p airports=10000
+ *
+ * @author Abdullah Atmaca
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class WeatherServiceBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int airports;
+
+	/** the radius of the queries, separate so the other benchmarks do not run for each */
+	@State(Scope.Benchmark)
+	public static class Radius {
+
+		@Param({ "0", "100", "1000", "5000" })
+		public String radius;
+	}
+
+	private final WeatherService weatherService = new WeatherService();
+
+	private final RestWeatherQueryEndpoint queryEndpoint = new RestWeatherQueryEndpoint();
+
+	private final DataPoint dataPoint = new DataPoint.Builder().withFirst(10).withMean(20).withMedian(22).withLast(30).withCount(60).build();
+
+	private String[] codes;
+
+	private AirportData[] registered;
+
+	/** replace the registry with the synthetic airports, all with weather data */
+	@Setup(Level.Trial)
+	public void setUp() throws WeatherException {
+		weatherService.reset();
+		List<AirportData> list = ServiceBenchmark.syntheticAirports(airports);
+		weatherService.addAirports(list);
+
+		codes = new String[airports];
+		registered = new AirportData[airports];
+		for (int i = 0; i < airports; i++) {
+			codes[i] = list.get(i).getIata();
+			registered[i] = weatherService.findAirportData(codes[i]);
+			weatherService.addDataPoint(codes[i], "wind", dataPoint);
+		}
+	}
+
+	private String code() {
+		return codes[ThreadLocalRandom.current().nextInt(codes.length)];
+	}
+
+	private AirportData airport() {
+		return registered[ThreadLocalRandom.current().nextInt(registered.length)];
+	}
+
+	@Benchmark
+	public AirportData findAirportData() {
+		return weatherService.findAirportData(code());
+	}
+
+	@Benchmark
+	public double calculateDistance() {
+		return weatherService.calculateDistance(airport(), airport());
+	}
+
+	@Benchmark
+	public void addDataPoint() throws WeatherException {
+		weatherService.addDataPoint(code(), "wind", dataPoint);
+	}
+
+	@Benchmark
+	public Response weather(Radius radius) {
+		return queryEndpoint.weather(code(), radius.radius, null, null);
+	}
+
+	@Benchmark
+	public String ping() {
+		return queryEndpoint.ping();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (int threads : new int[] { 1, Runtime.getRuntime().availableProcessors() }) {
+			new Runner(new OptionsBuilder().include(WeatherServiceBenchmark.class.getName()).threads(threads).addProfiler(GCProfiler.class).build())
+					.run();
+		}
+	}
+}
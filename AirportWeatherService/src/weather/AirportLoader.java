@@ -1,9 +1,7 @@
 package weather;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
 
 import javax.ws.rs.client.Client;
@@ -14,8 +12,8 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 /**
- * A simple airport loader which reads a file from disk and sends entries to the
- * webservice
+ * A simple airport loader which reads a file from disk and streams it to the
+ * webservice in a single request
  *
  * 
  * @author code test administrator
@@ -28,36 +26,22 @@ public class AirportLoader {
 
 	public AirportLoader() {
 		Client client = ClientBuilder.newClient();
-		collect = client.target("http://localhost:9090").path("collect").path("airport");
+		collect = client.target("http://localhost:9090").path("collect").path("airports");
 	}
 
 	public void upload(InputStream airportDataStream) {
-		BufferedReader reader = null;
 		try {
-			reader = new BufferedReader(new InputStreamReader(airportDataStream));
-			String sCurrentLine;
-			while ((sCurrentLine = reader.readLine()) != null) {
-				String[] line = sCurrentLine.split(",");
-
-				String iataCode = line[4].replace("\"", "");
-				String latitude = line[6];
-				String longitude = line[7];
-				String path = iataCode + "/" + latitude + "/" + longitude;
-
-				Response post = collect.path(path).request().post(Entity.entity("", MediaType.TEXT_HTML_TYPE));
-				switch (post.getStatus()) {
-				case 200:
-					break;
-				default:
-					System.out.println("Airport " + iataCode + " not loaded. Response status code: " + post.getStatus());
-				}
+			Response post = collect.request().post(Entity.entity(airportDataStream, MediaType.TEXT_PLAIN_TYPE));
+			switch (post.getStatus()) {
+			case 200:
+				System.out.println("Airports loaded: " + post.readEntity(String.class));
+				break;
+			default:
+				System.out.println("Airports not loaded. Response status code: " + post.getStatus());
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		} finally {
 			try {
-				if (reader != null)
-					reader.close();
+				airportDataStream.close();
 			} catch (IOException ex) {
 				ex.printStackTrace();
 			}
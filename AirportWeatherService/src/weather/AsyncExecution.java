@@ -0,0 +1,82 @@
+package weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import javax.ws.rs.container.AsyncResponse;
+
+import weather.exception.PayloadTooLargeException;
+
+/**
+ * Runs the work of the requests suspended by the async resources of
+ * {@link ExecutionMode#ASYNC}.
+ *
+ * @author Abdullah Atmaca
+ */
+final class AsyncExecution {
+
+	private static volatile Executor executor = ForkJoinPool.commonPool();
+
+	private AsyncExecution() {
+	}
+
+	static void setExecutor(Executor executor) {
+		AsyncExecution.executor = executor;
+	}
+
+	/**
+	 * Compute the response of a suspended request on the executor and resume
+	 * the request with it.
+	 *
+	 * @param response
+	 *            the suspended request
+	 * @param work
+	 *            computes the response entity or {@link javax.ws.rs.core.Response}
+	 */
+	static void resume(AsyncResponse response, Supplier<?> work) {
+		try {
+			executor.execute(() -> {
+				try {
+					response.resume(work.get());
+				} catch (RuntimeException e) {
+					response.resume(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			response.resume(e);
+		}
+	}
+
+	/**
+	 * Read a request body before the request is handed to the executor, so it
+	 * is not read after the resource method returned.
+	 *
+	 * @param body
+	 *            the request body
+	 * @param maxLength
+	 *            the longest body accepted, at most one more byte is read
+	 * @return a stream over the buffered body
+	 * @throws PayloadTooLargeException
+	 *             if the body is longer than maxLength
+	 * @throws IOException
+	 *             if the body can not be read
+	 */
+	static InputStream buffer(InputStream body, int maxLength) throws PayloadTooLargeException, IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = body.read(buffer, 0, (int) Math.min(buffer.length, maxLength + 1L - out.size()))) > 0) {
+			out.write(buffer, 0, n);
+			if (out.size() > maxLength) {
+				throw new PayloadTooLargeException("body longer than " + maxLength + " bytes");
+			}
+		}
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+}
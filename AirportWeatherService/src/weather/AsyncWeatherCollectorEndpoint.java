@@ -0,0 +1,157 @@
+package weather;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import weather.exception.PayloadTooLargeException;
+import weather.service.DataPointParser;
+
+/**
+ * The {@link WeatherCollectorEndpoint} API for {@link ExecutionMode#ASYNC}:
+ * every request is suspended and answered by
+ * {@link RestWeatherCollectorEndpoint} on the async executor. Request bodies
+ * are read before the request is suspended.
+ *
+ * @author Abdullah Atmaca
+ */
+@Path("/collect")
+public class AsyncWeatherCollectorEndpoint {
+
+	public static final Logger logger = Logger.getLogger(AsyncWeatherCollectorEndpoint.class.getName());
+
+	private final RestWeatherCollectorEndpoint delegate = new RestWeatherCollectorEndpoint();
+
+	@GET
+	@Path("/ping")
+	public void ping(@Suspended AsyncResponse response) {
+		AsyncExecution.resume(response, delegate::ping);
+	}
+
+	@POST
+	@Path("/weather/{iata}/{pointType}")
+	public void updateWeather(@Suspended AsyncResponse response, @PathParam("iata") String iataCode, @PathParam("pointType") String pointType,
+			InputStream datapointJson) {
+		InputStream body = buffer(response, datapointJson, DataPointParser.MAX_LENGTH);
+		if (body != null) {
+			AsyncExecution.resume(response, () -> delegate.updateWeather(iataCode, pointType, body));
+		}
+	}
+
+	@POST
+	@Path("/weather")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public void updateWeatherBatch(@Suspended AsyncResponse response, InputStream batchJson) {
+		InputStream body = buffer(response, batchJson, Integer.MAX_VALUE);
+		if (body != null) {
+			AsyncExecution.resume(response, () -> delegate.updateWeatherBatch(body));
+		}
+	}
+
+	@GET
+	@Path("/airports")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void getAirports(@Suspended AsyncResponse response) {
+		AsyncExecution.resume(response, delegate::getAirports);
+	}
+
+	@GET
+	@Path("/airports/updated")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void getUpdateTimes(@Suspended AsyncResponse response) {
+		AsyncExecution.resume(response, delegate::getUpdateTimes);
+	}
+
+	@POST
+	@Path("/airports")
+	@Consumes(MediaType.TEXT_PLAIN)
+	@Produces(MediaType.APPLICATION_JSON)
+	public void addAirports(@Suspended AsyncResponse response, InputStream airportsCsv) {
+		InputStream body = buffer(response, airportsCsv, Integer.MAX_VALUE);
+		if (body != null) {
+			AsyncExecution.resume(response, () -> delegate.addAirports(body));
+		}
+	}
+
+	@GET
+	@Path("/airport/{iata}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void getAirport(@Suspended AsyncResponse response, @PathParam("iata") String iata) {
+		AsyncExecution.resume(response, () -> delegate.getAirport(iata));
+	}
+
+	@POST
+	@Path("/airport/{iata}/{lat}/{long}")
+	public void addAirport(@Suspended AsyncResponse response, @PathParam("iata") String iata, @PathParam("lat") String latString,
+			@PathParam("long") String longString) {
+		AsyncExecution.resume(response, () -> delegate.addAirport(iata, latString, longString));
+	}
+
+	@DELETE
+	@Path("/airport/{iata}")
+	public void deleteAirport(@Suspended AsyncResponse response, @PathParam("iata") String iata) {
+		AsyncExecution.resume(response, () -> delegate.deleteAirport(iata));
+	}
+
+	@GET
+	@Path("/airport/{iata}/data")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void getWeatherData(@Suspended AsyncResponse response, @PathParam("iata") String iata) {
+		AsyncExecution.resume(response, () -> delegate.getWeatherData(iata));
+	}
+
+	@PUT
+	@Path("/airport/{iata}/data")
+	@Consumes(MediaType.APPLICATION_JSON)
+	public void replaceWeatherData(@Suspended AsyncResponse response, @PathParam("iata") String iata, InputStream dataJson) {
+		InputStream body = buffer(response, dataJson, Integer.MAX_VALUE);
+		if (body != null) {
+			AsyncExecution.resume(response, () -> delegate.replaceWeatherData(iata, body));
+		}
+	}
+
+	@DELETE
+	@Path("/airport/{iata}/data")
+	public void clearWeatherData(@Suspended AsyncResponse response, @PathParam("iata") String iata) {
+		AsyncExecution.resume(response, () -> delegate.clearWeatherData(iata));
+	}
+
+	@GET
+	@Path("/exit")
+	public Response exit() {
+		return delegate.exit();
+	}
+
+	/**
+	 * @return the buffered body or null if it was too long or could not be
+	 *         read and the request has been answered
+	 */
+	private static InputStream buffer(AsyncResponse response, InputStream body, int maxLength) {
+		try {
+			return AsyncExecution.buffer(body, maxLength);
+		} catch (PayloadTooLargeException e) {
+			logger.log(Level.INFO, e.getMessage());
+			response.resume(Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).build());
+			return null;
+		} catch (IOException e) {
+			logger.log(Level.INFO, e.getMessage());
+			response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package weather;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * The {@link WeatherQueryEndpoint} API for {@link ExecutionMode#ASYNC}: every
+ * request is suspended and answered by {@link RestWeatherQueryEndpoint} on the
+ * async executor.
+ *
+ * @author Abdullah Atmaca
+ */
+@Path("/query")
+public class AsyncWeatherQueryEndpoint {
+
+	private final RestWeatherQueryEndpoint delegate = new RestWeatherQueryEndpoint();
+
+	@GET
+	@Path("/ping")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void ping(@Suspended AsyncResponse response) {
+		AsyncExecution.resume(response, delegate::ping);
+	}
+
+	@GET
+	@Path("/metrics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void metrics(@Suspended AsyncResponse response) {
+		AsyncExecution.resume(response, delegate::metrics);
+	}
+
+	@GET
+	@Path("/weather/{iata}/{radius}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void weather(@Suspended AsyncResponse response, @PathParam("iata") String iata, @PathParam("radius") String radiusString,
+			@QueryParam("limit") String limitString, @QueryParam("cursor") String cursorString) {
+		AsyncExecution.resume(response, () -> delegate.weather(iata, radiusString, limitString, cursorString));
+	}
+
+	@GET
+	@Path("/history/{iata}/{pointType}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void history(@Suspended AsyncResponse response, @PathParam("iata") String iata, @PathParam("pointType") String pointType,
+			@QueryParam("from") String fromString, @QueryParam("to") String toString) {
+		AsyncExecution.resume(response, () -> delegate.history(iata, pointType, fromString, toString));
+	}
+
+	@GET
+	@Path("/rollup/{iata}/{pointType}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void rollup(@Suspended AsyncResponse response, @PathParam("iata") String iata, @PathParam("pointType") String pointType,
+			@QueryParam("from") String fromString, @QueryParam("to") String toString) {
+		AsyncExecution.resume(response, () -> delegate.rollup(iata, pointType, fromString, toString));
+	}
+}
@@ -0,0 +1,214 @@
+package weather;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import weather.exception.WeatherException;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+import weather.persistence.BinaryCodec;
+import weather.service.AirportEntry;
+import weather.service.AirportRegistry;
+import weather.service.WeatherService;
+
+/**
+ * An optional binary ingestion listener for high frequency collection sites,
+ * served next to the REST collector by a single NIO selector thread.
+ *
+ * Collectors send length prefixed frames: the frame length (int, always
+ * {@link #FRAME_LENGTH}), the packed IATA code as in {@link AirportRegistry}
+ * (int), the {@link DataPointType} ordinal (byte) and the data point encoded by
+ * {@link BinaryCodec}, all big endian. Every frame is answered with a single
+ * {@link #ACCEPTED} or {@link #REJECTED} byte, so collectors can pipeline
+ * frames and read the answers in order. Frames are validated and applied like
+ * the data points posted to the REST collector. A connection sending a frame of
+ * any other length is closed, as is one whose frame could not be applied for
+ * another reason than being invalid, e.g. a failed write ahead log; the other
+ * connections are served on.
+ *
+ * @author Abdullah Atmaca
+ */
+public class BinaryCollectorServer implements AutoCloseable {
+
+	public static final Logger logger = Logger.getLogger(BinaryCollectorServer.class.getName());
+
+	/** packed IATA code, point type, 4 doubles and count */
+	public static final int FRAME_LENGTH = 4 + 1 + 4 * 8 + 4;
+
+	public static final byte ACCEPTED = 0;
+
+	public static final byte REJECTED = 1;
+
+	private static final DataPointType[] TYPES = DataPointType.values();
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final WeatherService weatherService;
+
+	private final ServerSocketChannel serverChannel;
+
+	private final Selector selector;
+
+	private final Thread thread;
+
+	private volatile boolean running = true;
+
+	public BinaryCollectorServer(WeatherService weatherService, int port) throws IOException {
+		this.weatherService = weatherService;
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		thread = new Thread(this::run, "binary-collector");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						try {
+							serve(key);
+						} catch (IOException e) {
+							logger.log(Level.INFO, "closing binary collector connection: " + e.getMessage());
+							key.cancel();
+							key.channel().close();
+						} catch (RuntimeException e) {
+							// e.g. a failed write ahead log, the other connections go on
+							logger.log(Level.SEVERE, "closing binary collector connection", e);
+							key.cancel();
+							key.channel().close();
+						}
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				if (running) {
+					logger.log(Level.SEVERE, e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.register(selector, SelectionKey.OP_READ, new Connection());
+		}
+	}
+
+	private void serve(SelectionKey key) throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+
+		if (key.isReadable() && channel.read(connection.in) < 0) {
+			throw new IOException("end of stream");
+		}
+		process(connection);
+
+		connection.out.flip();
+		channel.write(connection.out);
+		connection.out.compact();
+
+		// stop reading while the collector does not take its answers
+		int ops = connection.out.hasRemaining() ? SelectionKey.OP_READ : 0;
+		if (connection.out.position() > 0) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		key.interestOps(ops);
+	}
+
+	/** apply the complete frames read, as long as there is room for the answers */
+	private void process(Connection connection) throws IOException {
+		ByteBuffer in = connection.in;
+		in.flip();
+		while (in.remaining() >= 4 && connection.out.hasRemaining()) {
+			int length = in.getInt(in.position());
+			if (length != FRAME_LENGTH) {
+				throw new IOException("bad frame length " + length);
+			}
+			if (in.remaining() < 4 + length) {
+				break;
+			}
+			in.getInt();
+			int airport = in.getInt();
+			int type = in.get();
+			DataPoint dp = BinaryCodec.readDataPoint(in);
+			connection.out.put(apply(airport, type, dp) ? ACCEPTED : REJECTED);
+		}
+		in.compact();
+	}
+
+	private boolean apply(int airport, int type, DataPoint dp) {
+		if (type < 0 || type >= TYPES.length) {
+			return false;
+		}
+		// looked up by the packed code, no string per frame
+		AirportEntry entry = weatherService.findAirportEntry(airport);
+		if (entry == null) {
+			return false;
+		}
+		try {
+			weatherService.addDataPoint(entry, TYPES[type], dp, System.currentTimeMillis());
+			return true;
+		} catch (WeatherException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stop listening and close all connections.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+	}
+
+	private static final class Connection {
+
+		final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+		final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+}
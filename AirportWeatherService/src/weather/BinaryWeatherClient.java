@@ -0,0 +1,126 @@
+package weather;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+import weather.persistence.BinaryCodec;
+import weather.service.AirportRegistry;
+
+/**
+ * A client for the {@link BinaryCollectorServer}. Run as a program it posts the
+ * same data points through the binary protocol and the REST collector and
+ * compares their throughput; the server must be started with
+ * -Dweather.binary.port.
+ *
+ * Usage: java weather.BinaryWeatherClient [binary port] [data points]
+ *
+ * @author Abdullah Atmaca
+ */
+public class BinaryWeatherClient implements AutoCloseable {
+
+    private static final String BASE_URI = "http://localhost:9090";
+
+    /** frames sent before waiting for their answers */
+    private static final int WINDOW = 1000;
+
+    private final Socket socket;
+
+    private final DataOutputStream out;
+
+    private final DataInputStream in;
+
+    /** frames sent but not answered yet */
+    private int pending;
+
+    public BinaryWeatherClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+    }
+
+    /**
+     * Send a data point. Frames are buffered, call {@link #flush()} to collect the
+     * answers.
+     *
+     * @return the number of accepted data points among the answers collected to
+     *         keep the window of unanswered frames bounded
+     */
+    public int send(String iata, DataPointType type, DataPoint dp) throws IOException {
+        out.writeInt(BinaryCollectorServer.FRAME_LENGTH);
+        out.writeInt(AirportRegistry.pack(iata));
+        out.writeByte(type.ordinal());
+        BinaryCodec.writeDataPoint(out, dp);
+        pending++;
+        return pending >= WINDOW ? flush() : 0;
+    }
+
+    /**
+     * Send the buffered frames and wait for the answers of all frames sent.
+     *
+     * @return the number of accepted data points among the answers
+     */
+    public int flush() throws IOException {
+        out.flush();
+        int accepted = 0;
+        for (; pending > 0; pending--) {
+            if (in.readByte() == BinaryCollectorServer.ACCEPTED) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        socket.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9091;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        DataPoint dp = new DataPoint.Builder().withFirst(0).withLast(10).withMean(6).withMedian(4).withCount(30).build();
+
+        long start = System.nanoTime();
+        int accepted = 0;
+        try (BinaryWeatherClient client = new BinaryWeatherClient("localhost", port)) {
+            for (int i = 0; i < count; i++) {
+                accepted += client.send("BOS", DataPointType.WIND, dp);
+            }
+            accepted += client.flush();
+        }
+        report("binary", count, accepted, System.nanoTime() - start);
+
+        Client client = ClientBuilder.newClient();
+        WebTarget path = client.target(BASE_URI + "/collect").path("/weather/BOS/wind");
+        start = System.nanoTime();
+        accepted = 0;
+        for (int i = 0; i < count; i++) {
+            Response post = path.request().post(Entity.entity(dp, "application/json"));
+            if (post.getStatus() == Response.Status.OK.getStatusCode()) {
+                accepted++;
+            }
+            post.close();
+        }
+        report("rest", count, accepted, System.nanoTime() - start);
+        client.close();
+    }
+
+    private static void report(String name, int count, int accepted, long nanos) {
+        System.out.println(String.format("%-6s %d data points, %d accepted, %.0f per second", name, count, accepted,
+                count / (nanos / 1e9)));
+    }
+}
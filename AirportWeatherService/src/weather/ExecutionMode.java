@@ -0,0 +1,42 @@
+package weather;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * How the weather server runs the resource methods, selected at startup with
+ * {@link ServerConfig#EXECUTION_MODE}.
+ *
+ * @author Abdullah Atmaca
+ */
+public enum ExecutionMode {
+
+	/** on the Grizzly worker pool, sized by the worker settings */
+	POOL,
+
+	/**
+	 * on a new virtual thread per request, falls back to {@link #POOL} on a JDK
+	 * without virtual threads
+	 */
+	VIRTUAL,
+
+	/**
+	 * resources suspend the request and complete it on a separate executor,
+	 * freeing the Grizzly worker at once
+	 */
+	ASYNC;
+
+	/**
+	 * Create an executor starting a virtual thread per task. Looked up
+	 * reflectively so the server still builds and runs on Java 8.
+	 *
+	 * @return the executor or null if the JDK has no virtual threads
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
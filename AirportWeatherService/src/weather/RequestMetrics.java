@@ -0,0 +1,217 @@
+package weather;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.http.server.HttpServerFilter;
+import org.glassfish.grizzly.http.server.HttpServerProbe;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+
+import weather.monitoring.LogLinearBuckets;
+
+/**
+ * Request instrumentation of the weather server, registered as a Grizzly probe.
+ * Counts the requests, the requests in flight and the client and server errors
+ * of every endpoint and records their latency from receiving the request to
+ * completing the response, including the time suspended requests spend on the
+ * async executor.
+ *
+ * Recording only adds to {@link LongAdder}s and an {@link AtomicLongArray}, so
+ * the worker threads never block on each other. A sample of the requests is
+ * written to the access log by a background thread; if it cannot keep up,
+ * lines are dropped rather than the requests delayed.
+ *
+ * @author Abdullah Atmaca
+ */
+public class RequestMetrics extends HttpServerProbe.Adapter {
+
+	public static final Logger accessLog = Logger.getLogger("weather.access");
+
+	/** the request paths of the endpoints, a path before its extensions */
+	private static final String[][] ENDPOINTS = { { "/collect/ping", "collect.ping" }, { "/collect/weather", "collect.weather" },
+			{ "/collect/airports", "collect.airports" }, { "/collect/airport", "collect.airport" }, { "/collect/exit", "collect.exit" },
+			{ "/query/ping", "query.ping" }, { "/query/weather", "query.weather" }, { "/query/history", "query.history" },
+			{ "/query/rollup", "query.rollup" }, { "/query/metrics", "query.metrics" } };
+
+	private static final String START = RequestMetrics.class.getName() + ".start";
+
+	private static final String ENDPOINT = RequestMetrics.class.getName() + ".endpoint";
+
+	private static final int ACCESS_LOG_QUEUE = 4096;
+
+	private static final RequestMetrics instance = new RequestMetrics(ServerConfig.getAccessLogSample());
+
+	private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+
+	private final Endpoint other = new Endpoint();
+
+	private final double accessLogSample;
+
+	private final BlockingQueue<String> accessLogQueue = new ArrayBlockingQueue<>(ACCESS_LOG_QUEUE);
+
+	private final LongAdder accessLogDropped = new LongAdder();
+
+	private RequestMetrics(double accessLogSample) {
+		for (String[] endpoint : ENDPOINTS) {
+			endpoints.put(endpoint[1], new Endpoint());
+		}
+		endpoints.put("other", other);
+		this.accessLogSample = accessLogSample;
+		if (accessLogSample > 0) {
+			Thread writer = new Thread(this::writeAccessLog, "access-log-writer");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	/**
+	 * @return the metrics of the requests served by this process
+	 */
+	public static RequestMetrics getInstance() {
+		return instance;
+	}
+
+	@Override
+	public void onRequestReceiveEvent(HttpServerFilter filter, Connection connection, Request request) {
+		Endpoint endpoint = endpoint(request.getRequestURI());
+		endpoint.inFlight.increment();
+		request.setAttribute(ENDPOINT, endpoint);
+		request.setAttribute(START, System.nanoTime());
+	}
+
+	@Override
+	public void onRequestCompleteEvent(HttpServerFilter filter, Connection connection, Response response) {
+		Request request = response.getRequest();
+		Object endpoint = request.getAttribute(ENDPOINT);
+		Object start = request.getAttribute(START);
+		if (!(endpoint instanceof Endpoint) || !(start instanceof Long)) {
+			return;
+		}
+		long nanos = System.nanoTime() - (Long) start;
+		int status = response.getStatus();
+		((Endpoint) endpoint).record(nanos, status);
+
+		if (accessLogSample > 0 && ThreadLocalRandom.current().nextDouble() < accessLogSample) {
+			String line = request.getMethod() + " " + request.getRequestURI() + " " + status + " " + TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+			if (!accessLogQueue.offer(line)) {
+				accessLogDropped.increment();
+			}
+		}
+	}
+
+	private Endpoint endpoint(String uri) {
+		if (uri != null) {
+			for (String[] endpoint : ENDPOINTS) {
+				String path = endpoint[0];
+				if (uri.startsWith(path) && (uri.length() == path.length() || uri.charAt(path.length()) == '/')) {
+					return endpoints.get(endpoint[1]);
+				}
+			}
+		}
+		return other;
+	}
+
+	private void writeAccessLog() {
+		while (true) {
+			try {
+				accessLog.info(accessLogQueue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Summarize the metrics of every endpoint that served requests, latencies
+	 * in milliseconds.
+	 *
+	 * @return the metrics by endpoint, and the access log lines dropped
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> retval = new LinkedHashMap<>();
+		long inFlight = 0;
+		for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+			Endpoint endpoint = entry.getValue();
+			inFlight += endpoint.inFlight.sum();
+			if (endpoint.requests.sum() > 0 || endpoint.inFlight.sum() > 0) {
+				retval.put(entry.getKey(), endpoint.toMap());
+			}
+		}
+		retval.put("in_flight", inFlight);
+		retval.put("access_log_dropped", accessLogDropped.sum());
+		return retval;
+	}
+
+	/**
+	 * The counters and the latency histogram of one endpoint. Latencies are
+	 * counted in microseconds in {@link LogLinearBuckets}, 16 per power of two,
+	 * so percentiles are within 6.25% of the recorded latencies.
+	 */
+	private static final class Endpoint {
+
+		/** up to 2^40 microseconds, about 12 days */
+		private static final LogLinearBuckets BUCKETS = new LogLinearBuckets(4, 40);
+
+		final LongAdder requests = new LongAdder();
+
+		final LongAdder inFlight = new LongAdder();
+
+		final LongAdder clientErrors = new LongAdder();
+
+		final LongAdder serverErrors = new LongAdder();
+
+		final LongAdder totalMicros = new LongAdder();
+
+		final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+		final AtomicLongArray latency = new AtomicLongArray(BUCKETS.getBucketCount());
+
+		void record(long nanos, int status) {
+			long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+			inFlight.decrement();
+			requests.increment();
+			if (status >= 500) {
+				serverErrors.increment();
+			} else if (status >= 400) {
+				clientErrors.increment();
+			}
+			totalMicros.add(micros);
+			maxMicros.accumulate(micros);
+			latency.incrementAndGet(BUCKETS.index(micros));
+		}
+
+		Map<String, Object> toMap() {
+			long count = requests.sum();
+			long[] counts = new long[latency.length()];
+			long recorded = 0;
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = latency.get(i);
+				recorded += counts[i];
+			}
+			long max = maxMicros.get();
+			Map<String, Object> retval = new LinkedHashMap<>();
+			retval.put("requests", count);
+			retval.put("in_flight", inFlight.sum());
+			retval.put("client_errors", clientErrors.sum());
+			retval.put("server_errors", serverErrors.sum());
+			retval.put("error_rate", count == 0 ? 0 : (clientErrors.sum() + serverErrors.sum()) / (double) count);
+			retval.put("mean_ms", count == 0 ? 0 : totalMicros.sum() / (double) count / 1000);
+			retval.put("p50_ms", BUCKETS.valueAtPercentile(counts, recorded, max, 50) / 1000.0);
+			retval.put("p90_ms", BUCKETS.valueAtPercentile(counts, recorded, max, 90) / 1000.0);
+			retval.put("p99_ms", BUCKETS.valueAtPercentile(counts, recorded, max, 99) / 1000.0);
+			retval.put("p999_ms", BUCKETS.valueAtPercentile(counts, recorded, max, 99.9) / 1000.0);
+			retval.put("max_ms", max / 1000.0);
+			return retval;
+		}
+	}
+}
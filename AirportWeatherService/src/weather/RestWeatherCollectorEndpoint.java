@@ -1,13 +1,28 @@
 package weather;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -15,10 +30,21 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 
+import weather.exception.PayloadTooLargeException;
 import weather.exception.WeatherException;
 import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
 import weather.model.DataPoint;
+import weather.model.DataPointRecord;
+import weather.model.DataPointType;
+import weather.model.DataPointUpdate;
+import weather.service.AirportCsvParser;
+import weather.service.AirportEntry;
+import weather.service.DataPointParser;
 import weather.service.WeatherService;
 
 /**
@@ -39,6 +65,10 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 	/** shared gson json to object factory */
 	public static final Gson gson = new Gson();
 
+	/** the data points of an airport by point type name */
+	private static final Type WEATHER_DATA = new TypeToken<Map<String, DataPointRecord[]>>() {
+	}.getType();
+
 	@GET
 	@Path("/ping")
 	@Override
@@ -49,9 +79,19 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 	@POST
 	@Path("/weather/{iata}/{pointType}")
 	@Override
-	public Response updateWeather(@PathParam("iata") String iataCode, @PathParam("pointType") String pointType, String datapointJson) {
+	public Response updateWeather(@PathParam("iata") String iataCode, @PathParam("pointType") String pointType, InputStream datapointJson) {
+		DataPoint dp;
 		try {
-			weatherService.addDataPoint(iataCode, pointType, gson.fromJson(datapointJson, DataPoint.class));
+			dp = DataPointParser.forCurrentThread().parse(datapointJson);
+		} catch (PayloadTooLargeException e) {
+			logger.log(Level.INFO, e.getMessage());
+			return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).build();
+		} catch (IOException | WeatherException e) {
+			logger.log(Level.INFO, e.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		try {
+			weatherService.addDataPoint(iataCode, pointType, dp);
 			return Response.status(Response.Status.OK).build();
 		} catch (WeatherException e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
@@ -60,6 +100,43 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 
 	}
 
+	@POST
+	@Path("/weather")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response updateWeatherBatch(InputStream batchJson) {
+		// records grouped by airport, in order of first appearance
+		Map<String, List<DataPointUpdate>> byAirport = new LinkedHashMap<>();
+		Map<String, List<Integer>> positions = new LinkedHashMap<>();
+		int count = 0;
+
+		try (JsonReader reader = new JsonReader(new InputStreamReader(batchJson, StandardCharsets.UTF_8))) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				DataPointUpdate update = gson.fromJson(reader, DataPointUpdate.class);
+				String iata = update == null ? null : update.getIata();
+				byAirport.computeIfAbsent(iata, k -> new ArrayList<>()).add(update);
+				positions.computeIfAbsent(iata, k -> new ArrayList<>()).add(count++);
+			}
+			reader.endArray();
+		} catch (IOException | JsonParseException | IllegalStateException e) {
+			logger.log(Level.SEVERE, "Bad batch update: " + e.getMessage(), e);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+
+		int[] retval = new int[count];
+		for (Map.Entry<String, List<DataPointUpdate>> group : byAirport.entrySet()) {
+			List<Integer> groupPositions = positions.get(group.getKey());
+			boolean[] applied = group.getKey() == null ? new boolean[group.getValue().size()]
+					: weatherService.addDataPoints(group.getKey(), group.getValue());
+			for (int i = 0; i < applied.length; i++) {
+				retval[groupPositions.get(i)] = applied[i] ? Response.Status.OK.getStatusCode() : Response.Status.BAD_REQUEST.getStatusCode();
+			}
+		}
+		return Response.status(Response.Status.OK).entity(retval).build();
+	}
+
 	@GET
 	@Path("/airports")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -72,6 +149,43 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 		return Response.status(Response.Status.OK).entity(retval).build();
 	}
 
+	@GET
+	@Path("/airports/updated")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response getUpdateTimes() {
+		Map<String, Long> retval = new HashMap<>();
+		for (AirportEntry entry : weatherService.getAirportEntries()) {
+			AtmosphericInformation ai = entry.getAtmosphericInformation();
+			if (ai.hasData()) {
+				retval.put(entry.getAirportData().getIata(), ai.getLastUpdateTime());
+			}
+		}
+		return Response.status(Response.Status.OK).entity(gson.toJson(retval)).build();
+	}
+
+	@POST
+	@Path("/airports")
+	@Consumes(MediaType.TEXT_PLAIN)
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response addAirports(InputStream airportsCsv) {
+		AirportCsvParser parser = new AirportCsvParser();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(airportsCsv, StandardCharsets.UTF_8))) {
+			parser.read(reader);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+
+		int loaded = weatherService.addAirports(parser.parse());
+
+		Map<String, Integer> retval = new HashMap<>();
+		retval.put("loaded", loaded);
+		retval.put("rejected", parser.getLineCount() - loaded);
+		return Response.status(Response.Status.OK).entity(gson.toJson(retval)).build();
+	}
+
 	@GET
 	@Path("/airport/{iata}")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -95,8 +209,7 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 			AirportData ad = weatherService.findAirportData(iata);
 			double latitude = Double.valueOf(latString);
 			double longtitude = Double.valueOf(longString);
-			if (iata != null && iata.length() == 3 && ad == null && latitude <= 90 && latitude >= -90 && longtitude <= 180
-					&& longtitude >= -180) {
+			if (ad == null && WeatherService.isValidAirport(iata, latitude, longtitude)) {
 				weatherService.addAirport(iata, latitude, longtitude);
 				return Response.status(Response.Status.OK).build();
 			} else {
@@ -127,6 +240,62 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 
 	}
 
+	@GET
+	@Path("/airport/{iata}/data")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response getWeatherData(@PathParam("iata") String iata) {
+		try {
+			return Response.status(Response.Status.OK).entity(gson.toJson(weatherService.getWeatherData(iata))).build();
+		} catch (WeatherException e) {
+			logger.log(Level.SEVERE, e.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+	}
+
+	@PUT
+	@Path("/airport/{iata}/data")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Override
+	public Response replaceWeatherData(@PathParam("iata") String iata, InputStream dataJson) {
+		Map<DataPointType, List<DataPointRecord>> data = new EnumMap<>(DataPointType.class);
+		try (InputStreamReader reader = new InputStreamReader(dataJson, StandardCharsets.UTF_8)) {
+			Map<String, DataPointRecord[]> records = gson.fromJson(reader, WEATHER_DATA);
+			if (records == null) {
+				throw new JsonParseException("no data");
+			}
+			for (Map.Entry<String, DataPointRecord[]> points : records.entrySet()) {
+				DataPointType type = DataPointType.fromName(points.getKey());
+				if (type == null || points.getValue() == null) {
+					throw new JsonParseException("unknown point type " + points.getKey());
+				}
+				data.put(type, Arrays.asList(points.getValue()));
+			}
+		} catch (IOException | JsonParseException e) {
+			logger.log(Level.SEVERE, "Bad weather data of " + iata + ": " + e.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		try {
+			weatherService.replaceWeatherData(iata, data);
+			return Response.status(Response.Status.OK).build();
+		} catch (WeatherException e) {
+			logger.log(Level.SEVERE, e.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+	}
+
+	@DELETE
+	@Path("/airport/{iata}/data")
+	@Override
+	public Response clearWeatherData(@PathParam("iata") String iata) {
+		if (weatherService.clearWeatherData(iata)) {
+			return Response.status(Response.Status.OK).build();
+		} else {
+			logger.log(Level.SEVERE, "Bad parameter iata = " + iata);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+	}
+
 	@GET
 	@Path("/exit")
 	@Override
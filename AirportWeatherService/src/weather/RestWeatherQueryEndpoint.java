@@ -1,22 +1,31 @@
 package weather;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import com.google.gson.Gson;
 
-import weather.model.AirportData;
+import weather.exception.WeatherException;
 import weather.model.AtmosphericInformation;
+import weather.replication.ReplicaClient;
+import weather.service.AirportEntry;
+import weather.service.QueryResultCache;
+import weather.service.RequestStatistics;
 import weather.service.WeatherService;
 
 /**
@@ -45,6 +54,12 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	 * Retrieve service health including total size of valid data points and
 	 * request frequency information.
 	 *
+	 * The data size, the request total and the radius histogram are maintained
+	 * as updates and requests arrive, so reading them does not depend on the
+	 * number of airports. iata_freq lists every known airport though: it is
+	 * built from a copy of the registry entries, taken under the registry lock,
+	 * so ping remains O(airports) in time and response size.
+	 *
 	 * @return health stats for the service as a string
 	 */
 	@GET
@@ -54,57 +69,48 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	public String ping() {
 		Map<String, Object> retval = new HashMap<>();
 
-		int datasize = 0;
-		for (AtmosphericInformation ai : weatherService.getAtmosphericInformations()) {
-			// we only count recent readings
-			if (ai.getCloudCover() != null || ai.getHumidity() != null || ai.getPressure() != null || ai.getPrecipitation() != null
-					|| ai.getTemperature() != null || ai.getWind() != null) {
-				// updated in the last day
-				if (ai.getLastUpdateTime() > System.currentTimeMillis() - 86400000) {
-					datasize++;
-				}
-			}
-		}
-		retval.put("datasize", datasize);
+		// airports with readings updated in the last day, maintained on update
+		retval.put("datasize", weatherService.getRecentDataSize());
 
-		double totalNoOfRequests = 0;
-		if (weatherService.getRequestFrequency().size() != 0) {
-			for (Integer value : weatherService.getRequestFrequency().values()) {
-				totalNoOfRequests += value;
-			}
-		}
+		RequestStatistics stats = weatherService.getRequestStatistics();
+		double totalNoOfRequests = stats.getTotalRequests();
 
-		Map<String, Double> freq = new HashMap<>();
+		List<AirportEntry> entries = weatherService.getAirportEntries();
+		Map<String, Double> freq = new HashMap<>(entries.size() * 4 / 3 + 1);
 		// fraction of queries
-		for (AirportData data : weatherService.getAirports()) {
+		for (AirportEntry entry : entries) {
 			double frac = 0;
 			if (totalNoOfRequests != 0) {
-				frac = ((double) weatherService.getRequestFrequency().getOrDefault(data, 0)) / totalNoOfRequests;
+				frac = stats.getRequests(entry) / totalNoOfRequests;
 			}
-			freq.put(data.getIata(), frac);
+			freq.put(entry.getAirportData().getIata(), frac);
 		}
 		retval.put("iata_freq", freq);
 
-		int m = weatherService.getRadiusFreq().keySet().stream().max(Double::compare).orElse(1000.0).intValue() + 1;
-		
-		//Do not permit radius query greater than 1001
-		if (m>1001) {
-			m=1001;
-		}
+		// radius queries of 1000 KM and more share the last bucket
+		retval.put("radius_freq", stats.getRadiusHistogram());
 
-		int[] hist = new int[m];
-		for (Map.Entry<Double, Integer> e : weatherService.getRadiusFreq().entrySet()) {
-			int i = e.getKey().intValue();
-			if (i>1000) {
-				i=1000;
-			}
-			hist[i] += e.getValue();
+		QueryResultCache cache = weatherService.getQueryCache();
+		retval.put("cache_hits", cache.getHits());
+		retval.put("cache_misses", cache.getMisses());
+
+		// how far a replica may be behind its primary
+		ReplicaClient replica = ReplicaClient.getInstance();
+		if (replica != null) {
+			retval.put("replication", replica.getStatus());
 		}
-		retval.put("radius_freq", hist);
 
 		return gson.toJson(retval);
 	}
 
+	@GET
+	@Path("/metrics")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public String metrics() {
+		return gson.toJson(RequestMetrics.getInstance().toMap());
+	}
+
 	/**
 	 * Given a query in json format {'iata': CODE, 'radius': km} extracts the
 	 * requested airport information and return a list of matching atmosphere
@@ -114,6 +120,10 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	 *            the iataCode
 	 * @param radiusString
 	 *            the radius in km
+	 * @param limitString
+	 *            the maximum number of results, streams the result if given
+	 * @param cursorString
+	 *            the number of results to skip, streams the result if given
 	 *
 	 * @return a list of atmospheric information
 	 */
@@ -121,35 +131,214 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	@Path("/weather/{iata}/{radius}")
 	@Produces(MediaType.APPLICATION_JSON)
 	@Override
-	public Response weather(@PathParam("iata") String iata, @PathParam("radius") String radiusString) {
+	public Response weather(@PathParam("iata") String iata, @PathParam("radius") String radiusString, @QueryParam("limit") String limitString,
+			@QueryParam("cursor") String cursorString) {
 
-		AirportData airportData = weatherService.findAirportData(iata);
-		if (airportData == null) {
+		AirportEntry entry = weatherService.findAirportEntry(iata);
+		if (entry == null) {
 			logger.info("Airport not found");
 			return Response.status(Response.Status.BAD_REQUEST).build();
 		}
-		double radius = radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.valueOf(radiusString);
-		weatherService.updateRequestFrequency(airportData, radius);
+		double radius = radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.parseDouble(radiusString);
+		weatherService.updateRequestFrequency(entry, radius);
 
-		List<AtmosphericInformation> retval = new ArrayList<>();
+		if (limitString != null || cursorString != null) {
+			int limit;
+			int cursor;
+			try {
+				limit = limitString == null ? Integer.MAX_VALUE : Integer.parseInt(limitString.trim());
+				cursor = cursorString == null ? 0 : Integer.parseInt(cursorString.trim());
+			} catch (NumberFormatException e) {
+				logger.info(e.getMessage());
+				return Response.status(Response.Status.BAD_REQUEST).build();
+			}
+			if (limit < 0 || cursor < 0) {
+				return Response.status(Response.Status.BAD_REQUEST).build();
+			}
+			return Response.status(Response.Status.OK).entity(stream(entry, radius, cursor, limit)).build();
+		}
+
+		List<AtmosphericInformation> retval;
 		if (radius == 0) {
-			AtmosphericInformation ai = weatherService.getAtmosphericInformation(iata);
-			if (ai.getCloudCover() != null || ai.getHumidity() != null || ai.getPrecipitation() != null || ai.getPressure() != null
-					|| ai.getTemperature() != null || ai.getWind() != null) {
+			retval = new ArrayList<>();
+			AtmosphericInformation ai = entry.getAtmosphericInformation();
+			if (ai.hasData()) {
 				retval.add(ai);
 			}
 		} else {
-			for (AirportData ad : weatherService.getAirports()) {
-				if (weatherService.calculateDistance(airportData, ad) <= radius) {
-					AtmosphericInformation ai = weatherService.getAirportAtmosphericInfoMap().get(ad);
-					if (ai.getCloudCover() != null || ai.getHumidity() != null || ai.getPrecipitation() != null || ai.getPressure() != null
-							|| ai.getTemperature() != null || ai.getWind() != null) {
-						retval.add(ai);
-					}
+			retval = weatherService.getAtmosphericInformationWithin(entry, radius);
+		}
+		return Response.status(Response.Status.OK).entity(toJson(retval)).build();
+	}
+
+	/**
+	 * Write a list of atmospheric information as a JSON array by concatenating
+	 * the pre-serialized JSON of each snapshot.
+	 *
+	 * @param infos
+	 *            the atmospheric information
+	 * @return the response entity
+	 */
+	private static StreamingOutput toJson(List<AtmosphericInformation> infos) {
+		return output -> {
+			byte[][] fragments = new byte[infos.size()][];
+			int length = 2 + Math.max(0, fragments.length - 1);
+			for (int i = 0; i < fragments.length; i++) {
+				fragments[i] = infos.get(i).toJson();
+				length += fragments[i].length;
+			}
+			byte[] buffer = new byte[length];
+			int pos = 0;
+			buffer[pos++] = '[';
+			for (int i = 0; i < fragments.length; i++) {
+				if (i > 0) {
+					buffer[pos++] = ',';
+				}
+				System.arraycopy(fragments[i], 0, buffer, pos, fragments[i].length);
+				pos += fragments[i].length;
+			}
+			buffer[pos] = ']';
+			output.write(buffer);
+		};
+	}
+
+	/**
+	 * Write one page of the atmospheric information of the airports with data
+	 * within the radius while they are found, without collecting the result.
+	 *
+	 * @param entry
+	 *            the airport in the center of the query
+	 * @param radius
+	 *            the query radius in KM
+	 * @param cursor
+	 *            the number of results to skip
+	 * @param limit
+	 *            the maximum number of results to write
+	 * @return the response entity
+	 */
+	private StreamingOutput stream(AirportEntry entry, double radius, int cursor, int limit) {
+		return output -> {
+			output.write('[');
+			if (limit > 0) {
+				PageWriter writer = new PageWriter(output, cursor, limit);
+				weatherService.visitAirportsWithin(entry, radius, writer);
+				if (writer.error != null) {
+					throw writer.error;
+				}
+			}
+			output.write(']');
+		};
+	}
+
+	/**
+	 * Writes the pre-serialized JSON of the visited airports with data, skipping
+	 * the first ones, until the limit is reached or the output fails.
+	 */
+	private static class PageWriter implements Predicate<AirportEntry> {
+
+		private final OutputStream output;
+
+		private int skip;
+
+		private int remaining;
+
+		private boolean first = true;
+
+		private IOException error;
+
+		PageWriter(OutputStream output, int skip, int limit) {
+			this.output = output;
+			this.skip = skip;
+			this.remaining = limit;
+		}
+
+		@Override
+		public boolean test(AirportEntry neighbour) {
+			AtmosphericInformation ai = neighbour.getAtmosphericInformation();
+			if (!ai.hasData()) {
+				return true;
+			}
+			if (skip > 0) {
+				skip--;
+				return true;
+			}
+			try {
+				if (!first) {
+					output.write(',');
 				}
+				output.write(ai.toJson());
+			} catch (IOException e) {
+				error = e;
+				return false;
 			}
+			first = false;
+			return --remaining > 0;
+		}
+	}
+
+	/**
+	 * Retrieve the recent history of one type of data point for an airport.
+	 *
+	 * @param iata
+	 *            the iataCode
+	 * @param pointType
+	 *            the point type
+	 * @param fromString
+	 *            start of the time range in milliseconds since UTC epoch
+	 * @param toString
+	 *            end of the time range in milliseconds since UTC epoch
+	 *
+	 * @return a list of data points with their collection time
+	 */
+	@GET
+	@Path("/history/{iata}/{pointType}")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response history(@PathParam("iata") String iata, @PathParam("pointType") String pointType, @QueryParam("from") String fromString,
+			@QueryParam("to") String toString) {
+		try {
+			long from = parseTime(fromString, Long.MIN_VALUE);
+			long to = parseTime(toString, Long.MAX_VALUE);
+			return Response.status(Response.Status.OK).entity(weatherService.getHistory(iata, pointType, from, to)).build();
+		} catch (WeatherException | NumberFormatException e) {
+			logger.info(e.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
 		}
-		return Response.status(Response.Status.OK).entity(retval).build();
+	}
+
+	/**
+	 * Retrieve the min, max and mean of one type of data point for an airport
+	 * over a time range.
+	 *
+	 * @param iata
+	 *            the iataCode
+	 * @param pointType
+	 *            the point type
+	 * @param fromString
+	 *            start of the time range in milliseconds since UTC epoch
+	 * @param toString
+	 *            end of the time range in milliseconds since UTC epoch
+	 *
+	 * @return a list of rollup buckets
+	 */
+	@GET
+	@Path("/rollup/{iata}/{pointType}")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response rollup(@PathParam("iata") String iata, @PathParam("pointType") String pointType, @QueryParam("from") String fromString,
+			@QueryParam("to") String toString) {
+		try {
+			long from = parseTime(fromString, Long.MIN_VALUE);
+			long to = parseTime(toString, Long.MAX_VALUE);
+			return Response.status(Response.Status.OK).entity(weatherService.getRollup(iata, pointType, from, to)).build();
+		} catch (WeatherException | NumberFormatException e) {
+			logger.info(e.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+	}
+
+	private static long parseTime(String time, long defaultValue) {
+		return time == null || time.trim().isEmpty() ? defaultValue : Long.parseLong(time.trim());
 	}
 
 	/**
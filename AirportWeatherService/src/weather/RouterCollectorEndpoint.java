@@ -0,0 +1,318 @@
+package weather;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+
+import weather.cluster.ShardClient;
+import weather.cluster.ShardClient.Reply;
+import weather.cluster.ShardRouter;
+import weather.model.AirportData;
+import weather.service.AirportCsvParser;
+
+/**
+ * The {@link WeatherCollectorEndpoint} API of a cluster router. Data points
+ * are forwarded to the shard owning their airport, airports are registered on
+ * every shard so each shard can answer radius queries around any airport,
+ * and noted by the router to partition them. Registrations are not atomic
+ * across shards: if a shard fails, the request fails and can be repeated.
+ *
+ * @author Abdullah Atmaca
+ */
+@Path("/collect")
+public class RouterCollectorEndpoint implements WeatherCollectorEndpoint {
+
+	public static final Logger logger = Logger.getLogger(RouterCollectorEndpoint.class.getName());
+
+	/** shared gson json to object factory */
+	public static final Gson gson = new Gson();
+
+	private final ShardRouter router = ShardRouter.getInstance();
+
+	@GET
+	@Path("/ping")
+	@Override
+	public Response ping() {
+		int unreachable = 0;
+		for (Reply reply : router.broadcast("GET", "/collect/ping", null, null)) {
+			if (!reply.isOk()) {
+				unreachable++;
+			}
+		}
+		if (unreachable > 0) {
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+					.entity(unreachable + " of " + router.getShardCount() + " shards not ready").build();
+		}
+		return Response.status(Response.Status.OK).entity("ready").build();
+	}
+
+	@POST
+	@Path("/weather/{iata}/{pointType}")
+	@Override
+	public Response updateWeather(@PathParam("iata") String iataCode, @PathParam("pointType") String pointType, InputStream datapointJson) {
+		byte[] body;
+		try {
+			body = ShardClient.readAll(datapointJson);
+		} catch (IOException e) {
+			logger.log(Level.INFO, e.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		return router.routed(() -> {
+			Reply reply = router.forward(iataCode, "POST", "/collect/weather/" + ShardRouter.segment(iataCode) + "/" + ShardRouter.segment(pointType),
+					body, MediaType.APPLICATION_JSON);
+			if (reply.isOk()) {
+				router.collected(iataCode);
+			}
+			return Response.status(reply.getStatus()).build();
+		});
+	}
+
+	/**
+	 * Split the batch by the shards owning the airports, forward the parts in
+	 * parallel and answer the statuses in the order of the batch.
+	 */
+	@POST
+	@Path("/weather")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response updateWeatherBatch(InputStream batchJson) {
+		JsonArray records;
+		try {
+			records = gson.fromJson(new String(ShardClient.readAll(batchJson), StandardCharsets.UTF_8), JsonArray.class);
+		} catch (IOException | JsonParseException | IllegalStateException e) {
+			logger.log(Level.SEVERE, "Bad batch update: " + e.getMessage(), e);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		if (records == null) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+
+		return router.routed(() -> Response.status(Response.Status.OK).entity(forwardBatch(records)).build());
+	}
+
+	private int[] forwardBatch(JsonArray records) {
+		int[] retval = new int[records.size()];
+		String[] codes = new String[records.size()];
+		Map<Integer, JsonArray> parts = new LinkedHashMap<>();
+		Map<Integer, List<Integer>> positions = new LinkedHashMap<>();
+		for (int i = 0; i < records.size(); i++) {
+			codes[i] = iataOf(records.get(i));
+			if (codes[i] == null) {
+				retval[i] = Response.Status.BAD_REQUEST.getStatusCode();
+				continue;
+			}
+			int shard = router.shardOf(codes[i]);
+			parts.computeIfAbsent(shard, k -> new JsonArray()).add(records.get(i));
+			positions.computeIfAbsent(shard, k -> new ArrayList<>()).add(i);
+		}
+
+		Map<Integer, CompletableFuture<Reply>> pending = new LinkedHashMap<>();
+		for (Map.Entry<Integer, JsonArray> part : parts.entrySet()) {
+			pending.put(part.getKey(), router.sendAsync(part.getKey(), "POST", "/collect/weather",
+					gson.toJson(part.getValue()).getBytes(StandardCharsets.UTF_8), MediaType.APPLICATION_JSON));
+		}
+		for (Map.Entry<Integer, CompletableFuture<Reply>> entry : pending.entrySet()) {
+			Reply reply = entry.getValue().join();
+			List<Integer> partPositions = positions.get(entry.getKey());
+			int[] statuses = null;
+			if (reply.isOk()) {
+				try {
+					statuses = gson.fromJson(new String(reply.getBody(), StandardCharsets.UTF_8), int[].class);
+				} catch (JsonParseException e) {
+					logger.log(Level.WARNING, "Bad batch reply: " + e.getMessage());
+				}
+			}
+			for (int i = 0; i < partPositions.size(); i++) {
+				int position = partPositions.get(i);
+				retval[position] = statuses != null && i < statuses.length ? statuses[i] : ShardClient.UNREACHABLE;
+				if (retval[position] == Response.Status.OK.getStatusCode()) {
+					router.collected(codes[position]);
+				}
+			}
+		}
+		return retval;
+	}
+
+	private static String iataOf(JsonElement record) {
+		if (record == null || !record.isJsonObject()) {
+			return null;
+		}
+		JsonElement iata = record.getAsJsonObject().get("iata");
+		return iata == null || !iata.isJsonPrimitive() ? null : iata.getAsString();
+	}
+
+	@GET
+	@Path("/airports")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response getAirports() {
+		return relay(router.sendToAny("GET", "/collect/airports"));
+	}
+
+	/**
+	 * The latest update time of each airport on any shard.
+	 */
+	@GET
+	@Path("/airports/updated")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response getUpdateTimes() {
+		Map<String, Long> retval = new HashMap<>();
+		for (Reply reply : router.broadcast("GET", "/collect/airports/updated", null, null)) {
+			Map<String, Long> times = ShardRouter.parseUpdateTimes(reply);
+			if (times == null) {
+				return relay(reply);
+			}
+			times.forEach((code, time) -> retval.merge(code, time, Math::max));
+		}
+		return Response.status(Response.Status.OK).entity(gson.toJson(retval)).build();
+	}
+
+	@POST
+	@Path("/airports")
+	@Consumes(MediaType.TEXT_PLAIN)
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response addAirports(InputStream airportsCsv) {
+		byte[] body;
+		try {
+			body = ShardClient.readAll(airportsCsv);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		Response retval = combine(router.broadcast("POST", "/collect/airports", body, MediaType.TEXT_PLAIN));
+		if (retval.getStatus() == Response.Status.OK.getStatusCode()) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+				router.airportsAdded(new AirportCsvParser().read(reader).parse());
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, e.getMessage(), e);
+			}
+		}
+		return retval;
+	}
+
+	@GET
+	@Path("/airport/{iata}")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response getAirport(@PathParam("iata") String iata) {
+		return relay(router.forward(iata, "GET", "/collect/airport/" + ShardRouter.segment(iata), null, null));
+	}
+
+	@POST
+	@Path("/airport/{iata}/{lat}/{long}")
+	@Override
+	public Response addAirport(@PathParam("iata") String iata, @PathParam("lat") String latString, @PathParam("long") String longString) {
+		Response retval = combine(router.broadcast("POST",
+				"/collect/airport/" + ShardRouter.segment(iata) + "/" + ShardRouter.segment(latString) + "/" + ShardRouter.segment(longString), null,
+				null));
+		if (retval.getStatus() == Response.Status.OK.getStatusCode()) {
+			// the shards accepted the coordinates
+			router.airportsAdded(Collections.singletonList(new AirportData(iata, Double.parseDouble(latString), Double.parseDouble(longString))));
+		}
+		return retval;
+	}
+
+	@DELETE
+	@Path("/airport/{iata}")
+	@Override
+	public Response deleteAirport(@PathParam("iata") String iata) {
+		Response retval = combine(router.broadcast("DELETE", "/collect/airport/" + ShardRouter.segment(iata), null, null));
+		if (retval.getStatus() == Response.Status.OK.getStatusCode()) {
+			router.airportDeleted(iata);
+		}
+		return retval;
+	}
+
+	@GET
+	@Path("/airport/{iata}/data")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response getWeatherData(@PathParam("iata") String iata) {
+		return router.routed(() -> relay(router.forward(iata, "GET", "/collect/airport/" + ShardRouter.segment(iata) + "/data", null, null)));
+	}
+
+	@PUT
+	@Path("/airport/{iata}/data")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Override
+	public Response replaceWeatherData(@PathParam("iata") String iata, InputStream dataJson) {
+		byte[] body;
+		try {
+			body = ShardClient.readAll(dataJson);
+		} catch (IOException e) {
+			logger.log(Level.INFO, e.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		return router.routed(() -> {
+			Reply reply = router.forward(iata, "PUT", "/collect/airport/" + ShardRouter.segment(iata) + "/data", body, MediaType.APPLICATION_JSON);
+			if (reply.isOk()) {
+				router.collected(iata);
+			}
+			return Response.status(reply.getStatus()).build();
+		});
+	}
+
+	@DELETE
+	@Path("/airport/{iata}/data")
+	@Override
+	public Response clearWeatherData(@PathParam("iata") String iata) {
+		return router.routed(() -> relay(router.forward(iata, "DELETE", "/collect/airport/" + ShardRouter.segment(iata) + "/data", null, null)));
+	}
+
+	/**
+	 * Stop the shards and the router.
+	 */
+	@GET
+	@Path("/exit")
+	@Override
+	public Response exit() {
+		router.broadcast("GET", "/collect/exit", null, null);
+		System.exit(0);
+		return Response.noContent().build();
+	}
+
+	private static Response relay(Reply reply) {
+		return Response.status(reply.getStatus()).entity(reply.getBody()).build();
+	}
+
+	/** the reply of the first shard if all shards succeeded, else the first failure */
+	private static Response combine(List<Reply> replies) {
+		for (Reply reply : replies) {
+			if (!reply.isOk()) {
+				return relay(reply);
+			}
+		}
+		return relay(replies.get(0));
+	}
+}
@@ -0,0 +1,266 @@
+package weather;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import weather.cluster.ShardClient.Reply;
+import weather.cluster.ShardRouter;
+
+/**
+ * The {@link WeatherQueryEndpoint} API of a cluster router. Radius queries are
+ * scattered to the shards which may own airports within the radius, every
+ * shard answers the airports with data it owns, and the answers are
+ * concatenated in shard order. History and rollups are served by the shard
+ * owning the airport.
+ *
+ * @author Abdullah Atmaca
+ */
+@Path("/query")
+public class RouterQueryEndpoint implements WeatherQueryEndpoint {
+
+	public static final Logger logger = Logger.getLogger(RouterQueryEndpoint.class.getName());
+
+	/** shared gson json to object factory */
+	public static final Gson gson = new Gson();
+
+	private final ShardRouter router = ShardRouter.getInstance();
+
+	/**
+	 * Sums the data sizes and cache counters of the shards, and adds the mean
+	 * number of shards a radius query was sent to. The request frequencies are
+	 * those of the first shard reached, which sees the radius queries sent to
+	 * it.
+	 */
+	@GET
+	@Path("/ping")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public String ping() {
+		JsonObject retval = null;
+		long datasize = 0;
+		long cacheHits = 0;
+		long cacheMisses = 0;
+		int reached = 0;
+		for (Reply reply : router.broadcast("GET", "/query/ping", null, null)) {
+			if (!reply.isOk()) {
+				continue;
+			}
+			JsonObject ping;
+			try {
+				ping = gson.fromJson(new String(reply.getBody(), StandardCharsets.UTF_8), JsonObject.class);
+			} catch (JsonParseException e) {
+				continue;
+			}
+			if (ping == null) {
+				continue;
+			}
+			if (retval == null) {
+				retval = ping;
+			}
+			datasize += longOf(ping, "datasize");
+			cacheHits += longOf(ping, "cache_hits");
+			cacheMisses += longOf(ping, "cache_misses");
+			reached++;
+		}
+		if (retval == null) {
+			retval = new JsonObject();
+		}
+		retval.addProperty("datasize", datasize);
+		retval.addProperty("cache_hits", cacheHits);
+		retval.addProperty("cache_misses", cacheMisses);
+		retval.addProperty("shards", router.getShardCount());
+		retval.addProperty("shards_reached", reached);
+		long radiusQueries = router.getRadiusQueries();
+		retval.addProperty("radius_queries", radiusQueries);
+		retval.addProperty("radius_fan_out", radiusQueries == 0 ? 0 : (double) router.getRadiusQueryShards() / radiusQueries);
+		return gson.toJson(retval);
+	}
+
+	private static long longOf(JsonObject object, String member) {
+		JsonElement value = object.get(member);
+		return value == null || !value.isJsonPrimitive() ? 0 : value.getAsLong();
+	}
+
+	/**
+	 * The request metrics of the router, including the time spent waiting for
+	 * the shards.
+	 */
+	@GET
+	@Path("/metrics")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public String metrics() {
+		return gson.toJson(RequestMetrics.getInstance().toMap());
+	}
+
+	/**
+	 * Scatter the radius query to the shards which may own airports within the
+	 * radius and merge their answers. A page is cut from the merged answers, so
+	 * every shard is asked for up to the cursor plus the limit results.
+	 */
+	@GET
+	@Path("/weather/{iata}/{radius}")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response weather(@PathParam("iata") String iata, @PathParam("radius") String radiusString, @QueryParam("limit") String limitString,
+			@QueryParam("cursor") String cursorString) {
+		String path = "/query/weather/" + ShardRouter.segment(iata) + "/" + ShardRouter.segment(radiusString == null ? "" : radiusString);
+		double radius = parseRadius(radiusString);
+
+		if (limitString == null && cursorString == null) {
+			List<Reply> replies = router.routed(() -> router.scatterWithin(iata, radius, path));
+			Reply failure = firstFailure(replies);
+			if (failure != null) {
+				return Response.status(failure.getStatus()).build();
+			}
+			return Response.status(Response.Status.OK).entity(concatenate(replies)).build();
+		}
+
+		int limit;
+		int cursor;
+		try {
+			limit = limitString == null ? Integer.MAX_VALUE : Integer.parseInt(limitString.trim());
+			cursor = cursorString == null ? 0 : Integer.parseInt(cursorString.trim());
+		} catch (NumberFormatException e) {
+			logger.info(e.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		if (limit < 0 || cursor < 0) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		long perShard = Math.min(Integer.MAX_VALUE, (long) cursor + limit);
+		List<Reply> replies = router.routed(() -> router.scatterWithin(iata, radius, path + "?limit=" + perShard + "&cursor=0"));
+		Reply failure = firstFailure(replies);
+		if (failure != null) {
+			return Response.status(failure.getStatus()).build();
+		}
+		JsonArray page = new JsonArray();
+		int skip = cursor;
+		for (Reply reply : replies) {
+			JsonArray results;
+			try {
+				results = gson.fromJson(new String(reply.getBody(), StandardCharsets.UTF_8), JsonArray.class);
+			} catch (JsonParseException e) {
+				return Response.status(Response.Status.BAD_GATEWAY).build();
+			}
+			if (results == null) {
+				return Response.status(Response.Status.BAD_GATEWAY).build();
+			}
+			for (JsonElement result : results) {
+				if (skip > 0) {
+					skip--;
+				} else if (page.size() < limit) {
+					page.add(result);
+				}
+			}
+		}
+		return Response.status(Response.Status.OK).entity(gson.toJson(page)).build();
+	}
+
+	/**
+	 * @return the radius as the shards read it, NaN if they can not so all
+	 *         shards answer the failure
+	 */
+	private static double parseRadius(String radiusString) {
+		try {
+			return radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.parseDouble(radiusString);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * @return the failed reply with the lowest status, e.g. an unknown airport
+	 *         before an unreachable shard, or null if all succeeded
+	 */
+	private static Reply firstFailure(List<Reply> replies) {
+		Reply failure = null;
+		for (Reply reply : replies) {
+			if (!reply.isOk() && (failure == null || reply.getStatus() < failure.getStatus())) {
+				failure = reply;
+			}
+		}
+		return failure;
+	}
+
+	/** join the JSON arrays of the replies into one without parsing them */
+	private static byte[] concatenate(List<Reply> replies) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write('[');
+		boolean first = true;
+		for (Reply reply : replies) {
+			byte[] body = reply.getBody();
+			int from = 0;
+			int to = body.length - 1;
+			while (from <= to && body[from] != '[') {
+				from++;
+			}
+			while (to > from && body[to] != ']') {
+				to--;
+			}
+			// the elements between the brackets, if any
+			int start = from + 1;
+			while (start < to && Character.isWhitespace(body[start])) {
+				start++;
+			}
+			if (start >= to) {
+				continue;
+			}
+			if (!first) {
+				out.write(',');
+			}
+			out.write(body, start, to - start);
+			first = false;
+		}
+		out.write(']');
+		return out.toByteArray();
+	}
+
+	@GET
+	@Path("/history/{iata}/{pointType}")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response history(@PathParam("iata") String iata, @PathParam("pointType") String pointType, @QueryParam("from") String fromString,
+			@QueryParam("to") String toString) {
+		return forward(iata, "/query/history/", pointType, fromString, toString);
+	}
+
+	@GET
+	@Path("/rollup/{iata}/{pointType}")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Override
+	public Response rollup(@PathParam("iata") String iata, @PathParam("pointType") String pointType, @QueryParam("from") String fromString,
+			@QueryParam("to") String toString) {
+		return forward(iata, "/query/rollup/", pointType, fromString, toString);
+	}
+
+	private Response forward(String iata, String prefix, String pointType, String fromString, String toString) {
+		StringBuilder path = new StringBuilder(prefix).append(ShardRouter.segment(iata)).append('/').append(ShardRouter.segment(pointType));
+		char separator = '?';
+		if (fromString != null) {
+			path.append(separator).append("from=").append(ShardRouter.segment(fromString));
+			separator = '&';
+		}
+		if (toString != null) {
+			path.append(separator).append("to=").append(ShardRouter.segment(toString));
+		}
+		Reply reply = router.forward(iata, "GET", path.toString(), null, null);
+		return Response.status(reply.getStatus()).entity(reply.getBody()).build();
+	}
+}
@@ -0,0 +1,206 @@
+package weather;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import weather.cluster.Partitioning;
+import weather.persistence.WriteAheadLog;
+
+/**
+ * Settings of the weather server, read from system properties so they can be
+ * given on the command line, e.g. -Dweather.snapshot.file=weather.snapshot
+ *
+ * @author Abdullah Atmaca
+ */
+public class ServerConfig {
+
+	/** HTTP port of the server */
+	public static final String PORT = "weather.port";
+
+	/** comma separated base URLs of the shards, the server routes to them if set */
+	public static final String CLUSTER_SHARDS = "weather.cluster.shards";
+
+	/** how the router assigns airports to shards: hash or geo */
+	public static final String CLUSTER_PARTITIONING = "weather.cluster.partitioning";
+
+	/** airports of the largest shard relative to the mean before a geo partitioning is rebalanced */
+	public static final String CLUSTER_REBALANCE_THRESHOLD = "weather.cluster.rebalance.threshold";
+
+	/** port on which a primary serves its mutations to replicas, replication is disabled if not set */
+	public static final String REPLICATION_PORT = "weather.replication.port";
+
+	/** number of mutations a primary keeps for replicas resuming after a lost connection */
+	public static final String REPLICATION_BACKLOG = "weather.replication.backlog";
+
+	/** host:port of the replication port of the primary, the server is a query only replica if set */
+	public static final String REPLICATION_PRIMARY = "weather.replication.primary";
+
+	/** snapshot file, snapshots are disabled if not set */
+	public static final String SNAPSHOT_FILE = "weather.snapshot.file";
+
+	/** seconds between periodic snapshots */
+	public static final String SNAPSHOT_INTERVAL = "weather.snapshot.interval";
+
+	/** base path of the write ahead log segments, the log is disabled if not set */
+	public static final String WAL_FILE = "weather.wal.file";
+
+	/** durability of the write ahead log: none, batched or request */
+	public static final String WAL_DURABILITY = "weather.wal.durability";
+
+	/** port of the binary collector, the binary collector is disabled if not set */
+	public static final String BINARY_PORT = "weather.binary.port";
+
+	/** execution mode of the resources: pool, virtual or async */
+	public static final String EXECUTION_MODE = "weather.execution";
+
+	/** number of Grizzly worker threads, the Grizzly default if not set */
+	public static final String WORKER_THREADS = "weather.workers";
+
+	/** limit of requests queued for the workers, -1 for no limit, applied with the worker threads */
+	public static final String WORKER_QUEUE = "weather.workers.queue";
+
+	/** number of Grizzly selector threads, the Grizzly default if not set */
+	public static final String SELECTOR_THREADS = "weather.selectors";
+
+	/** threads completing async requests, virtual threads if not set and available */
+	public static final String ASYNC_THREADS = "weather.async.threads";
+
+	/** fraction of the requests written to the access log, 0 to disable it */
+	public static final String ACCESS_LOG_SAMPLE = "weather.accesslog.sample";
+
+	/** file of a continuous flight recording written on exit, no recording if not set */
+	public static final String JFR_FILE = "weather.jfr";
+
+	/** data points kept per airport and data point type, at least 1 */
+	public static final String HISTORY_CAPACITY = "weather.history.capacity";
+
+	/** comma separated numbers of minute, hour and day rollup buckets kept per airport and data point type, 0 disables a tier */
+	public static final String ROLLUP_BUCKETS = "weather.rollup.buckets";
+
+	private ServerConfig() {
+	}
+
+	/**
+	 * Check the settings which are read when the service classes are loaded, so
+	 * a bad value stops the server at startup instead of failing requests.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a setting is out of range
+	 */
+	public static void validate() {
+		getHistoryCapacity();
+		getRollupBuckets();
+	}
+
+	public static int getPort() {
+		return Integer.getInteger(PORT, 9090);
+	}
+
+	public static List<String> getClusterShards() {
+		String shards = System.getProperty(CLUSTER_SHARDS);
+		if (shards == null || shards.trim().isEmpty()) {
+			return null;
+		}
+		List<String> retval = new ArrayList<>();
+		for (String shard : shards.split(",")) {
+			if (!shard.trim().isEmpty()) {
+				retval.add(shard.trim());
+			}
+		}
+		return retval;
+	}
+
+	public static Partitioning.Strategy getClusterPartitioning() {
+		return Partitioning.Strategy.valueOf(System.getProperty(CLUSTER_PARTITIONING, "hash").toUpperCase());
+	}
+
+	public static double getClusterRebalanceThreshold() {
+		return Double.parseDouble(System.getProperty(CLUSTER_REBALANCE_THRESHOLD, "1.2"));
+	}
+
+	public static Integer getReplicationPort() {
+		return Integer.getInteger(REPLICATION_PORT);
+	}
+
+	public static int getReplicationBacklog() {
+		return Integer.getInteger(REPLICATION_BACKLOG, 65536);
+	}
+
+	public static String getReplicationPrimary() {
+		return System.getProperty(REPLICATION_PRIMARY);
+	}
+
+	public static String getSnapshotFile() {
+		return System.getProperty(SNAPSHOT_FILE);
+	}
+
+	public static long getSnapshotIntervalSeconds() {
+		return Long.getLong(SNAPSHOT_INTERVAL, 300);
+	}
+
+	public static String getWalFile() {
+		return System.getProperty(WAL_FILE);
+	}
+
+	public static WriteAheadLog.Durability getWalDurability() {
+		return WriteAheadLog.Durability.valueOf(System.getProperty(WAL_DURABILITY, "batched").toUpperCase());
+	}
+
+	public static Integer getBinaryPort() {
+		return Integer.getInteger(BINARY_PORT);
+	}
+
+	public static ExecutionMode getExecutionMode() {
+		return ExecutionMode.valueOf(System.getProperty(EXECUTION_MODE, "pool").toUpperCase());
+	}
+
+	public static Integer getWorkerThreads() {
+		return Integer.getInteger(WORKER_THREADS);
+	}
+
+	public static int getWorkerQueueLimit() {
+		return Integer.getInteger(WORKER_QUEUE, -1);
+	}
+
+	public static Integer getSelectorThreads() {
+		return Integer.getInteger(SELECTOR_THREADS);
+	}
+
+	public static Integer getAsyncThreads() {
+		return Integer.getInteger(ASYNC_THREADS);
+	}
+
+	public static double getAccessLogSample() {
+		return Double.parseDouble(System.getProperty(ACCESS_LOG_SAMPLE, "0.01"));
+	}
+
+	public static String getJfrFile() {
+		return System.getProperty(JFR_FILE);
+	}
+
+	public static int getHistoryCapacity() {
+		int capacity = Integer.getInteger(HISTORY_CAPACITY, 64);
+		if (capacity < 1) {
+			throw new IllegalArgumentException(HISTORY_CAPACITY + " must be at least 1: " + capacity);
+		}
+		return capacity;
+	}
+
+	/**
+	 * @return the numbers of minute, hour and day rollup buckets
+	 */
+	public static int[] getRollupBuckets() {
+		String[] values = System.getProperty(ROLLUP_BUCKETS, "120,72,90").split(",");
+		if (values.length != 3) {
+			throw new IllegalArgumentException(ROLLUP_BUCKETS + " must list minute, hour and day buckets: " + System.getProperty(ROLLUP_BUCKETS));
+		}
+		int[] buckets = new int[3];
+		for (int i = 0; i < 3; i++) {
+			buckets[i] = Integer.parseInt(values[i].trim());
+			if (buckets[i] < 0) {
+				throw new IllegalArgumentException(ROLLUP_BUCKETS + " must not be negative: " + System.getProperty(ROLLUP_BUCKETS));
+			}
+		}
+		return buckets;
+	}
+}
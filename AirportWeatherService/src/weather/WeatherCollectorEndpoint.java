@@ -1,5 +1,7 @@
 package weather;
 
+import java.io.InputStream;
+
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -37,7 +39,22 @@ public interface WeatherCollectorEndpoint {
     @Path("/weather/{iata}/{pointType}")
     Response updateWeather(@PathParam("iata") String iataCode,
                            @PathParam("pointType") String pointType,
-                           String datapointJson);
+                           InputStream datapointJson);
+
+    /**
+     * Update the atmospheric information of several airports at once with a json formatted list of
+     * records, each a dict with iata, pointType and dataPoint keys. The dataPoint holds the same keys
+     * as for {@link #updateWeather(String, String, InputStream)}.
+     *
+     * @param batchJson the json formatted list of records
+     *
+     * @return HTTP Response code and a json formatted list with an HTTP status code for each record
+     */
+    @POST
+    @Path("/weather")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response updateWeatherBatch(InputStream batchJson);
 
     /**
      * Return a list of known airports as a json formatted list
@@ -49,6 +66,31 @@ public interface WeatherCollectorEndpoint {
     @Produces(MediaType.APPLICATION_JSON)
     Response getAirports();
 
+    /**
+     * Return the airports with collected data and the update time of their latest data, e.g. for a
+     * cluster router to learn which shard holds the data of an airport.
+     *
+     * @return HTTP Response code and a json formatted dict from IATA code to the update time in
+     *         milliseconds since UTC epoch
+     */
+    @GET
+    @Path("/airports/updated")
+    @Produces(MediaType.APPLICATION_JSON)
+    Response getUpdateTimes();
+
+    /**
+     * Add all airports of a file in the airports.dat format to the known airport list in one step.
+     * Lines which are not valid and airports which are already known are skipped.
+     *
+     * @param airportsCsv the file content, one comma separated line per airport
+     * @return HTTP Response code and a json formatted dict with the number of loaded and rejected lines
+     */
+    @POST
+    @Path("/airports")
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response addAirports(InputStream airportsCsv);
+
     /**
      * Retrieve airport data, including latitude and longitude for a particular airport
      *
@@ -84,6 +126,41 @@ public interface WeatherCollectorEndpoint {
     @Path("/airport/{iata}")
     Response deleteAirport(@PathParam("iata") String iata);
 
+    /**
+     * Retrieve all collected data points of an airport with their collection times, e.g. to move
+     * the airport to another shard.
+     *
+     * @param iata the 3 letter airport code
+     * @return HTTP Response code and a json formatted dict from point type to a list of records, each
+     *         a dict with timestamp and dataPoint keys, oldest first
+     */
+    @GET
+    @Path("/airport/{iata}/data")
+    @Produces(MediaType.APPLICATION_JSON)
+    Response getWeatherData(@PathParam("iata") String iata);
+
+    /**
+     * Replace the collected data points of an airport, keeping their collection times.
+     *
+     * @param iata the 3 letter airport code
+     * @param dataJson the data points in the format of {@link #getWeatherData(String)}
+     * @return HTTP Response code, the data is unchanged unless it is 200
+     */
+    @PUT
+    @Path("/airport/{iata}/data")
+    @Consumes(MediaType.APPLICATION_JSON)
+    Response replaceWeatherData(@PathParam("iata") String iata, InputStream dataJson);
+
+    /**
+     * Drop the collected data points of an airport, keeping the airport.
+     *
+     * @param iata the 3 letter airport code
+     * @return HTTP Response code for the clear operation
+     */
+    @DELETE
+    @Path("/airport/{iata}/data")
+    Response clearWeatherData(@PathParam("iata") String iata);
+
     @GET
     @Path("/exit")
     Response exit();
@@ -4,10 +4,13 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import weather.model.AtmosphericInformation;
+import weather.model.DataPointRecord;
+import weather.model.RollupBucket;
 
 /**
  * The query only API for the Weather Server App. This API is made available to the public internet.
@@ -27,12 +30,28 @@ public interface WeatherQueryEndpoint {
     @Path("/ping")
     String ping();
 
+    /**
+     * Retrieve the request metrics of the server: for every endpoint the number of requests, the
+     * requests in flight, the client and server errors and the latency percentiles in milliseconds.
+     *
+     * @return a JSON formatted dict with the metrics by endpoint
+     */
+    @GET
+    @Path("/metrics")
+    String metrics();
+
     /**
      * Retrieve the most up to date atmospheric information from the given airport and other airports in the given
      * radius.
      *
+     * Passing a limit or a cursor streams the result as the airports are found instead of collecting it
+     * first, and pages through it: the cursor is the number of results to skip and a page shorter than
+     * the limit is the last one.
+     *
      * @param iata the three letter airport code
      * @param radiusString the radius, in km, from which to collect weather data
+     * @param limitString the maximum number of results to return, optional
+     * @param cursorString the number of results to skip, optional
      *
      * @return an HTTP Response and a list of {@link AtmosphericInformation} from the requested airport and
      * airports in the given radius
@@ -40,5 +59,40 @@ public interface WeatherQueryEndpoint {
     @GET
     @Path("/weather/{iata}/{radius}")
     @Produces(MediaType.APPLICATION_JSON)
-    Response weather(@PathParam("iata") String iata, @PathParam("radius") String radiusString);
+    Response weather(@PathParam("iata") String iata, @PathParam("radius") String radiusString,
+                     @QueryParam("limit") String limitString, @QueryParam("cursor") String cursorString);
+
+    /**
+     * Retrieve the recent history of one type of data point for the given airport. Only a bounded
+     * number of the most recent data points is kept per airport and type.
+     *
+     * @param iata the three letter airport code
+     * @param pointType the point type
+     * @param fromString start of the time range in milliseconds since UTC epoch, inclusive, optional
+     * @param toString end of the time range in milliseconds since UTC epoch, inclusive, optional
+     *
+     * @return an HTTP Response and a list of {@link DataPointRecord}, oldest first
+     */
+    @GET
+    @Path("/history/{iata}/{pointType}")
+    @Produces(MediaType.APPLICATION_JSON)
+    Response history(@PathParam("iata") String iata, @PathParam("pointType") String pointType,
+                     @QueryParam("from") String fromString, @QueryParam("to") String toString);
+
+    /**
+     * Retrieve the min, max and mean of one type of data point for the given airport over a time
+     * range, from minute, hour or day rollups depending on how far back the range starts.
+     *
+     * @param iata the three letter airport code
+     * @param pointType the point type
+     * @param fromString start of the time range in milliseconds since UTC epoch, inclusive, optional
+     * @param toString end of the time range in milliseconds since UTC epoch, inclusive, optional
+     *
+     * @return an HTTP Response and a list of {@link RollupBucket}, oldest first
+     */
+    @GET
+    @Path("/rollup/{iata}/{pointType}")
+    @Produces(MediaType.APPLICATION_JSON)
+    Response rollup(@PathParam("iata") String iata, @PathParam("pointType") String pointType,
+                    @QueryParam("from") String fromString, @QueryParam("to") String toString);
 }
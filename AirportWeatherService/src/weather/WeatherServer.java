@@ -4,17 +4,33 @@ import static java.lang.String.format;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.http.server.HttpServer;
-import org.glassfish.grizzly.http.server.HttpServerFilter;
-import org.glassfish.grizzly.http.server.HttpServerProbe;
-import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
+import weather.cluster.ShardRouter;
+import weather.monitoring.FlightRecording;
+import weather.monitoring.WeatherEvents;
+import weather.persistence.PersistenceManager;
+import weather.replication.ReplicaClient;
+import weather.replication.ReplicationLog;
+import weather.replication.ReplicationServer;
+import weather.service.WeatherService;
+
 /**
  * This main method will be use by the automated functional grader. You
  * shouldn't move this class or remove the main method. You may change the
@@ -24,38 +40,207 @@ import org.glassfish.jersey.server.ResourceConfig;
  */
 public class WeatherServer {
 
-	private static final String BASE_URL = "http://localhost:9090/";
+	private static final String BASE_URL = "http://localhost:" + ServerConfig.getPort() + "/";
 
 	public static void main(String[] args) {
+		ServerConfig.validate();
 		try {
 			System.out.println("Starting Weather App local testing server: " + BASE_URL);
 
+			if (ServerConfig.getJfrFile() != null && !WeatherEvents.isAvailable()) {
+				System.out.println("No flight recorder in this JVM, not recording to " + ServerConfig.getJfrFile());
+			} else if (ServerConfig.getJfrFile() != null) {
+				FlightRecording.start(Paths.get(ServerConfig.getJfrFile()));
+				System.out.println(format("Flight recording to %s on exit", ServerConfig.getJfrFile()));
+			}
+
+			// a replica takes its state from the primary
+			final boolean replica = ServerConfig.getReplicationPrimary() != null;
+			final PersistenceManager persistence = replica ? null : createPersistenceManager();
+			if (persistence != null) {
+				long start = System.nanoTime();
+				persistence.start();
+				System.out.println(format("Restored persisted state in %d ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+			}
+
+			final ReplicationServer replication = replica || ServerConfig.getReplicationPort() == null ? null : createReplicationServer();
+			final ReplicaClient replicaClient = replica ? new ReplicaClient(new WeatherService(), ServerConfig.getReplicationPrimary()) : null;
+			if (replicaClient != null) {
+				long start = System.nanoTime();
+				replicaClient.start();
+				if (replicaClient.awaitSynced(60, TimeUnit.SECONDS)) {
+					System.out.println(format("Replicated %s in %d ms", ServerConfig.getReplicationPrimary(),
+							TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+				} else {
+					Logger.getLogger(WeatherServer.class.getName()).warning("not caught up with " + ServerConfig.getReplicationPrimary() + " yet");
+				}
+				ReplicaClient.setInstance(replicaClient);
+			}
+
+			final ExecutionMode mode = ServerConfig.getExecutionMode();
 			final ResourceConfig resourceConfig = new ResourceConfig();
-			resourceConfig.register(RestWeatherCollectorEndpoint.class);
-			resourceConfig.register(RestWeatherQueryEndpoint.class);
+			if (ServerConfig.getClusterShards() != null) {
+				// keep the connections to the shards alive under concurrent forwarding
+				if (System.getProperty("http.maxConnections") == null) {
+					System.setProperty("http.maxConnections", "256");
+				}
+				ShardRouter router = new ShardRouter(ServerConfig.getClusterShards(), ServerConfig.getClusterPartitioning(),
+						ServerConfig.getClusterRebalanceThreshold());
+				int airports = router.loadAirports();
+				ShardRouter.setInstance(router);
+				resourceConfig.register(RouterCollectorEndpoint.class);
+				resourceConfig.register(RouterQueryEndpoint.class);
+				System.out.println(format("Routing %d airports to %d shards by %s", airports, ServerConfig.getClusterShards().size(),
+						ServerConfig.getClusterPartitioning().name().toLowerCase()));
+			} else if (mode == ExecutionMode.ASYNC) {
+				AsyncExecution.setExecutor(createAsyncExecutor());
+				if (!replica) {
+					resourceConfig.register(AsyncWeatherCollectorEndpoint.class);
+				}
+				resourceConfig.register(AsyncWeatherQueryEndpoint.class);
+			} else {
+				if (!replica) {
+					resourceConfig.register(RestWeatherCollectorEndpoint.class);
+				}
+				resourceConfig.register(RestWeatherQueryEndpoint.class);
+			}
 
 			HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URL), resourceConfig, false);
+			configureWorkers(server, mode);
+			final BinaryCollectorServer binaryCollector = ServerConfig.getBinaryPort() == null || replica ? null
+					: new BinaryCollectorServer(new WeatherService(), ServerConfig.getBinaryPort());
 			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 				server.shutdownNow();
+				try {
+					if (replication != null) {
+						replication.close();
+					}
+					if (replicaClient != null) {
+						replicaClient.close();
+					}
+				} catch (IOException ex) {
+					Logger.getLogger(WeatherServer.class.getName()).log(Level.WARNING, "closing replication failed", ex);
+				}
+				if (binaryCollector != null) {
+					try {
+						binaryCollector.close();
+					} catch (IOException ex) {
+						Logger.getLogger(WeatherServer.class.getName()).log(Level.WARNING, "closing binary collector failed", ex);
+					}
+				}
+				if (persistence != null) {
+					try {
+						persistence.close();
+					} catch (IOException | RuntimeException ex) {
+						Logger.getLogger(WeatherServer.class.getName()).log(Level.SEVERE, "final snapshot failed", ex);
+					}
+				}
 			}));
 
-			HttpServerProbe probe = new HttpServerProbe.Adapter() {
-				public void onRequestReceiveEvent(HttpServerFilter filter, Connection connection, Request request) {
-					System.out.println(request.getRequestURI());
-				}
-			};
-			server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(probe);
+			if (persistence != null) {
+				ScheduledExecutorService snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread t = new Thread(r, "snapshot-writer");
+					t.setDaemon(true);
+					return t;
+				});
+				long interval = ServerConfig.getSnapshotIntervalSeconds();
+				snapshotScheduler.scheduleWithFixedDelay(() -> checkpoint(persistence), interval, interval, TimeUnit.SECONDS);
+			}
+
+			server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(RequestMetrics.getInstance());
 
 			// the autograder waits for this output before running automated
 			// tests, please don't remove it
 			server.start();
+			if (binaryCollector != null) {
+				binaryCollector.start();
+				System.out.println(format("Binary collector listening on port %d", binaryCollector.getPort()));
+			}
+			if (replication != null) {
+				replication.start();
+				System.out.println(format("Replication listening on port %d", replication.getPort()));
+			}
 			System.out.println(format("Weather Server started.\n url=%s\n", BASE_URL));
 
 			// blocks until the process is terminated
 			Thread.currentThread().join();
 			server.shutdown();
-		} catch (IOException | InterruptedException ex) {
+		} catch (IOException | InterruptedException | ParseException ex) {
 			Logger.getLogger(WeatherServer.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
+
+	/**
+	 * Apply the execution mode and the thread settings to the transports of the
+	 * server, which must not be started yet.
+	 */
+	private static void configureWorkers(HttpServer server, ExecutionMode mode) {
+		ExecutorService virtualThreads = null;
+		if (mode == ExecutionMode.VIRTUAL) {
+			virtualThreads = ExecutionMode.newVirtualThreadPerTaskExecutor();
+			if (virtualThreads == null) {
+				Logger.getLogger(WeatherServer.class.getName()).warning("no virtual threads on this JDK, using the worker pool");
+			}
+		}
+		for (NetworkListener listener : server.getListeners()) {
+			TCPNIOTransport transport = listener.getTransport();
+			if (ServerConfig.getSelectorThreads() != null) {
+				transport.setSelectorRunnersCount(ServerConfig.getSelectorThreads());
+			}
+			if (virtualThreads != null) {
+				transport.setWorkerThreadPool(virtualThreads);
+			} else if (ServerConfig.getWorkerThreads() != null) {
+				transport.setWorkerThreadPoolConfig(ThreadPoolConfig.defaultConfig().setPoolName("weather-worker")
+						.setCorePoolSize(ServerConfig.getWorkerThreads()).setMaxPoolSize(ServerConfig.getWorkerThreads())
+						.setQueueLimit(ServerConfig.getWorkerQueueLimit()));
+			}
+		}
+		ExecutionMode effective = mode == ExecutionMode.VIRTUAL && virtualThreads == null ? ExecutionMode.POOL : mode;
+		System.out.println(format("Execution mode %s", effective.name().toLowerCase()));
+	}
+
+	private static Executor createAsyncExecutor() {
+		Integer threads = ServerConfig.getAsyncThreads();
+		if (threads == null) {
+			ExecutorService virtualThreads = ExecutionMode.newVirtualThreadPerTaskExecutor();
+			if (virtualThreads != null) {
+				return virtualThreads;
+			}
+			threads = Runtime.getRuntime().availableProcessors() * 2;
+		}
+		AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "weather-async-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Publish the mutations of the weather service to replicas, from the state
+	 * restored on.
+	 */
+	private static ReplicationServer createReplicationServer() throws IOException {
+		WeatherService weatherService = new WeatherService();
+		ReplicationLog log = new ReplicationLog(ServerConfig.getReplicationBacklog());
+		weatherService.addMutationListener(log);
+		return new ReplicationServer(weatherService, log, ServerConfig.getReplicationPort());
+	}
+
+	private static PersistenceManager createPersistenceManager() {
+		if (ServerConfig.getSnapshotFile() == null && ServerConfig.getWalFile() == null) {
+			return null;
+		}
+		return new PersistenceManager(new WeatherService(),
+				ServerConfig.getSnapshotFile() == null ? null : Paths.get(ServerConfig.getSnapshotFile()),
+				ServerConfig.getWalFile() == null ? null : Paths.get(ServerConfig.getWalFile()), ServerConfig.getWalDurability());
+	}
+
+	private static void checkpoint(PersistenceManager persistence) {
+		try {
+			persistence.checkpoint();
+		} catch (IOException | RuntimeException ex) {
+			Logger.getLogger(WeatherServer.class.getName()).log(Level.SEVERE, "snapshot failed", ex);
+		}
+	}
 }
@@ -0,0 +1,114 @@
+package weather.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import weather.cluster.LocalCluster;
+import weather.model.AirportData;
+
+/**
+ * Measures the throughput and latency of a {@link LocalCluster} by the number
+ * of shards. For every shard count a cluster is started, loaded with synthetic
+ * airports through the router, each airport given a wind data point, and
+ * driven by the {@link LoadGenerator} in a closed loop through the router.
+ *
+ * All processes share the cores of this host, so the results show the cost
+ * of routing and scattering more than the capacity gained by more hosts.
+ *
+ * Usage: java weather.benchmark.ClusterBenchmark [-shards 1,2,4]
+ * [-airports 5000] [-port 9190] followed by {@link LoadGenerator} options
+ *
+ * @author Abdullah Atmaca
+ */
+public class ClusterBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int[] shardCounts = { 1, 2, 4 };
+		int airports = 5000;
+		int port = 9190;
+		List<String> loadArgs = new ArrayList<>(Arrays.asList("-mode", "closed", "-threads", "16", "-duration", "20", "-warmup", "5"));
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-shards":
+				shardCounts = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+				break;
+			case "-airports":
+				airports = Integer.parseInt(args[i + 1]);
+				break;
+			case "-port":
+				port = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				// later options override the defaults
+				loadArgs.add(args[i]);
+				loadArgs.add(args[i + 1]);
+			}
+		}
+
+		List<String> rows = new ArrayList<>();
+		for (int shards : shardCounts) {
+			System.out.println(String.format("== %d shards", shards));
+			try (LocalCluster cluster = LocalCluster.start(shards, port)) {
+				load(cluster.getRouterUrl(), ServiceBenchmark.syntheticAirports(airports));
+				List<String> runArgs = new ArrayList<>(loadArgs);
+				runArgs.add("-url");
+				runArgs.add(cluster.getRouterUrl().substring(0, cluster.getRouterUrl().length() - 1));
+				LoadGenerator generator = LoadGenerator.fromArgs(runArgs.toArray(new String[runArgs.size()]));
+				Map<String, LatencyHistogram> latencies = generator.run();
+				long requests = 0;
+				for (LatencyHistogram h : latencies.values()) {
+					requests += h.getTotalCount();
+				}
+				LatencyHistogram query = latencies.get("query.weather");
+				LatencyHistogram collect = latencies.get("collect.weather");
+				rows.add(String.format(Locale.ROOT, "%6d %12.1f %12.3f %12.3f %12.3f %12.3f", shards, requests / generator.getDurationSeconds(),
+						query.getValueAtPercentile(50) / 1e6, query.getValueAtPercentile(99) / 1e6, collect.getValueAtPercentile(50) / 1e6,
+						collect.getValueAtPercentile(99) / 1e6));
+			}
+		}
+
+		System.out.println();
+		System.out.println(String.format("%6s %12s %12s %12s %12s %12s", "shards", "req/s", "query p50", "query p99", "collect p50", "collect p99"));
+		for (String row : rows) {
+			System.out.println(row);
+		}
+	}
+
+	/** register the airports and give each a data point, through the router */
+	static void load(String routerUrl, List<AirportData> airports) throws IOException {
+		StringBuilder csv = new StringBuilder();
+		StringBuilder batch = new StringBuilder("[");
+		for (int i = 0; i < airports.size(); i++) {
+			AirportData ad = airports.get(i);
+			csv.append(String.format(Locale.ROOT, "%d,\"%s\",\"\",\"\",\"%s\",\"\",%.6f,%.6f,0,0,\"U\"%n", i, ad.getIata(), ad.getIata(),
+					ad.getLatitude(), ad.getLongitude()));
+			batch.append(i > 0 ? "," : "").append("{\"iata\":\"").append(ad.getIata())
+					.append("\",\"pointType\":\"wind\",\"dataPoint\":{\"mean\":20,\"first\":10,\"second\":20,\"third\":30,\"count\":10}}");
+		}
+		batch.append(']');
+		post(routerUrl + "collect/airports", csv.toString(), "text/plain");
+		post(routerUrl + "collect/weather", batch.toString(), "application/json");
+	}
+
+	private static void post(String url, String body, String contentType) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", contentType);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		}
+		if (connection.getResponseCode() != 200) {
+			throw new IOException("POST " + url + " failed with " + connection.getResponseCode());
+		}
+		connection.getInputStream().close();
+	}
+}
@@ -0,0 +1,87 @@
+package weather.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+import weather.service.DataPointParser;
+
+/**
+ * Compares the collector's Gson path, decoding the body to a string, binding it
+ * with Gson and resolving the point type with
+ * <code>valueOf(toUpperCase())</code>, with {@link DataPointParser} and
+ * {@link DataPointType#fromName(String)}. Prints the time and the bytes
+ * allocated per data point.
+ *
+ * Usage: java weather.benchmark.DataPointParserBenchmark [iterations]
+ *
+ * @author Abdullah Atmaca
+ */
+public class DataPointParserBenchmark {
+
+	private static final String[] DOCUMENTS = { "{\"mean\":22.5,\"first\":10,\"second\":20,\"third\":30,\"count\":10}",
+			"{ \"count\": 1200, \"third\": 34.25, \"second\": 21.0, \"first\": -3.75, \"mean\": 20.125 }",
+			"{\"first\":720.5,\"mean\":742.33,\"second\":745,\"third\":760.125,\"count\":96}" };
+
+	private static final String[] POINT_TYPES = { "temperature", "wind", "PRESSURE" };
+
+	private static final Gson gson = new Gson();
+
+	/** defeats dead code elimination */
+	private static double sink;
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		byte[][] bodies = new byte[DOCUMENTS.length][];
+		for (int i = 0; i < DOCUMENTS.length; i++) {
+			bodies[i] = DOCUMENTS[i].getBytes(StandardCharsets.UTF_8);
+		}
+
+		for (int round = 0; round < 3; round++) {
+			report("gson", round, iterations, () -> {
+				for (int i = 0; i < iterations; i++) {
+					int k = i % bodies.length;
+					DataPoint dp = gson.fromJson(new String(bodies[k], StandardCharsets.UTF_8), DataPoint.class);
+					DataPointType type = DataPointType.valueOf(POINT_TYPES[k].toUpperCase());
+					sink += dp.getMean() + type.ordinal();
+				}
+			});
+			report("parser", round, iterations, () -> {
+				DataPointParser parser = DataPointParser.forCurrentThread();
+				try {
+					for (int i = 0; i < iterations; i++) {
+						int k = i % bodies.length;
+						DataPoint dp = parser.parse(bodies[k], 0, bodies[k].length);
+						DataPointType type = DataPointType.fromName(POINT_TYPES[k]);
+						sink += dp.getMean() + type.ordinal();
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+		}
+		System.out.println("checksum " + sink);
+	}
+
+	private static void report(String name, int round, int iterations, Runnable run) {
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		run.run();
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+		System.out.printf("%-8s round %d: %8.1f ns/op %8.1f B/op%n", name, round, (double) elapsed / iterations,
+				allocated < 0 ? Double.NaN : (double) allocated / iterations);
+	}
+
+	/** bytes allocated by the current thread, or a negative value if not supported */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
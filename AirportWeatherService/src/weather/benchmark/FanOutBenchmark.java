@@ -0,0 +1,122 @@
+package weather.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import weather.ServerConfig;
+import weather.cluster.LocalCluster;
+import weather.cluster.ShardClient;
+import weather.model.AirportData;
+
+/**
+ * Compares the fan-out of radius queries through the router of a
+ * {@link LocalCluster} partitioned by IATA hash and one partitioned by region.
+ * Both clusters are loaded with the same synthetic airports and data points
+ * and sent the same queries for every radius. For each radius the mean number
+ * of shards a query was sent to, read from the router's ping, the mean
+ * latency and the number of results are printed. The results must be the same
+ * for both partitionings, a difference is reported as a mismatch.
+ *
+ * Usage: java weather.benchmark.FanOutBenchmark [-shards 4] [-airports 5000]
+ * [-queries 200] [-radii 0,50,200,1000,5000,20000] [-port 9190]
+ *
+ * @author Abdullah Atmaca
+ */
+public class FanOutBenchmark {
+
+	private static final Gson gson = new Gson();
+
+	public static void main(String[] args) throws Exception {
+		int shards = 4;
+		int airports = 5000;
+		int queries = 200;
+		double[] radii = { 0, 50, 200, 1000, 5000, 20000 };
+		int port = 9190;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-shards":
+				shards = Integer.parseInt(args[i + 1]);
+				break;
+			case "-airports":
+				airports = Integer.parseInt(args[i + 1]);
+				break;
+			case "-queries":
+				queries = Integer.parseInt(args[i + 1]);
+				break;
+			case "-radii":
+				radii = Arrays.stream(args[i + 1].split(",")).mapToDouble(Double::parseDouble).toArray();
+				break;
+			case "-port":
+				port = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+
+		List<AirportData> list = ServiceBenchmark.syntheticAirports(airports);
+		Random random = new Random(7);
+		String[] origins = new String[queries];
+		for (int i = 0; i < queries; i++) {
+			origins[i] = list.get(random.nextInt(list.size())).getIata();
+		}
+
+		String[] strategies = { "hash", "geo" };
+		// by strategy and radius
+		double[][] fanOut = new double[strategies.length][radii.length];
+		double[][] millis = new double[strategies.length][radii.length];
+		long[][] results = new long[strategies.length][radii.length];
+		for (int s = 0; s < strategies.length; s++) {
+			System.setProperty(ServerConfig.CLUSTER_PARTITIONING, strategies[s]);
+			System.out.println(String.format("== %d shards by %s", shards, strategies[s]));
+			try (LocalCluster cluster = LocalCluster.start(shards, port)) {
+				String routerUrl = cluster.getRouterUrl();
+				ClusterBenchmark.load(routerUrl, list);
+				for (int r = 0; r < radii.length; r++) {
+					JsonObject before = get(routerUrl + "query/ping", JsonObject.class);
+					long start = System.nanoTime();
+					for (String origin : origins) {
+						results[s][r] += get(String.format(Locale.ROOT, "%squery/weather/%s/%s", routerUrl, origin, radii[r]), JsonArray.class).size();
+					}
+					millis[s][r] = (System.nanoTime() - start) / 1e6 / queries;
+					JsonObject after = get(routerUrl + "query/ping", JsonObject.class);
+					fanOut[s][r] = (shardsReached(after) - shardsReached(before))
+							/ (after.get("radius_queries").getAsLong() - before.get("radius_queries").getAsLong());
+				}
+			}
+		}
+
+		System.out.println();
+		System.out.println(String.format("%10s %12s %12s %12s %12s %12s", "radius", "hash shards", "geo shards", "hash ms", "geo ms", "results"));
+		for (int r = 0; r < radii.length; r++) {
+			System.out.println(String.format(Locale.ROOT, "%10.0f %12.2f %12.2f %12.3f %12.3f %12d%s", radii[r], fanOut[0][r], fanOut[1][r], millis[0][r],
+					millis[1][r], results[1][r], results[0][r] == results[1][r] ? "" : " mismatch, hash found " + results[0][r]));
+		}
+	}
+
+	/** the number of shards all radius queries so far were sent to */
+	private static double shardsReached(JsonObject ping) {
+		return ping.get("radius_fan_out").getAsDouble() * ping.get("radius_queries").getAsLong();
+	}
+
+	private static <T> T get(String url, Class<T> type) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		if (connection.getResponseCode() != 200) {
+			throw new IOException("GET " + url + " failed with " + connection.getResponseCode());
+		}
+		try (InputStream in = connection.getInputStream()) {
+			return gson.fromJson(new String(ShardClient.readAll(in), StandardCharsets.UTF_8), type);
+		}
+	}
+}
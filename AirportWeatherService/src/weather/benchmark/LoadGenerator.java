@@ -0,0 +1,358 @@
+package weather.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.Gson;
+
+/**
+ * A load generator for a local weather server, mixing collect and radius query
+ * requests over a skewed airport and radius distribution and recording the
+ * latency of each endpoint in a {@link LatencyHistogram}.
+ *
+ * In the closed loop each thread sends its next request when the previous one
+ * completed. In the open loop requests are sent at a fixed rate regardless of
+ * the responses, and latency is measured from the time a request was due
+ * rather than when it was sent, so a stalled server is not hidden by the
+ * requests it kept from being sent (coordinated omission).
+ *
+ * Airports are picked with a Zipf distribution over the airports known to the
+ * server, radii from a weighted list. The airports must be loaded before, e.g.
+ * with {@link weather.AirportLoader}.
+ *
+ * Usage: java weather.benchmark.LoadGenerator [-url http://localhost:9090]
+ * [-mode open|closed] [-rate 1000] [-threads 16] [-duration 60] [-warmup 10]
+ * [-collect 0.2] [-zipf 1.0] [-radii 0:50,100:25,500:15,2000:10] [-out dir]
+ *
+ * @author Abdullah Atmaca
+ */
+public class LoadGenerator {
+
+	private static final String COLLECT = "collect.weather";
+
+	private static final String QUERY = "query.weather";
+
+	private static final String[] POINT_TYPES = { "wind", "temperature", "humidity", "pressure", "cloudcover", "precipitation" };
+
+	private String url = "http://localhost:9090";
+
+	private boolean openLoop = true;
+
+	/** requests per second of the open loop */
+	private double rate = 1000;
+
+	private int threads = 16;
+
+	private long durationMillis = 60000;
+
+	private long warmupMillis = 10000;
+
+	/** fraction of collect requests */
+	private double collectFraction = 0.2;
+
+	private double zipfExponent = 1.0;
+
+	private int[] radii = { 0, 100, 500, 2000 };
+
+	private double[] radiusWeights = { 50, 25, 15, 10 };
+
+	private File out;
+
+	private String[] airports;
+
+	/** cumulative Zipf weights of the airports by rank */
+	private double[] airportWeights;
+
+	public static void main(String[] args) throws Exception {
+		fromArgs(args).run();
+	}
+
+	/**
+	 * @param args
+	 *            the options of {@link #main(String[])}
+	 * @return a load generator with the given options
+	 */
+	static LoadGenerator fromArgs(String[] args) {
+		LoadGenerator generator = new LoadGenerator();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "-url":
+				generator.url = value;
+				break;
+			case "-mode":
+				generator.openLoop = "open".equals(value);
+				break;
+			case "-rate":
+				generator.rate = Double.parseDouble(value);
+				break;
+			case "-threads":
+				generator.threads = Integer.parseInt(value);
+				break;
+			case "-duration":
+				generator.durationMillis = (long) (Double.parseDouble(value) * 1000);
+				break;
+			case "-warmup":
+				generator.warmupMillis = (long) (Double.parseDouble(value) * 1000);
+				break;
+			case "-collect":
+				generator.collectFraction = Double.parseDouble(value);
+				break;
+			case "-zipf":
+				generator.zipfExponent = Double.parseDouble(value);
+				break;
+			case "-radii":
+				generator.parseRadii(value);
+				break;
+			case "-out":
+				generator.out = new File(value);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+		return generator;
+	}
+
+	double getDurationSeconds() {
+		return durationMillis / 1000.0;
+	}
+
+	private void parseRadii(String list) {
+		String[] entries = list.split(",");
+		radii = new int[entries.length];
+		radiusWeights = new double[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			String[] entry = entries[i].split(":");
+			radii[i] = Integer.parseInt(entry[0]);
+			radiusWeights[i] = entry.length > 1 ? Double.parseDouble(entry[1]) : 1;
+		}
+	}
+
+	/**
+	 * Run the load and print the report.
+	 *
+	 * @return the latencies by endpoint
+	 */
+	Map<String, LatencyHistogram> run() throws Exception {
+		loadAirports();
+		System.out.println(String.format("%s loop, %d threads%s, %d airports, %.0f%% collect, %ds after %ds warmup", openLoop ? "open" : "closed",
+				threads, openLoop ? String.format(" at %.0f requests/s", rate) : "", airports.length, collectFraction * 100,
+				durationMillis / 1000, warmupMillis / 1000));
+
+		long start = System.nanoTime();
+		long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+		long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		List<Worker> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Worker worker = new Worker(t, start, measureFrom, end);
+			workers.add(worker);
+			worker.start();
+		}
+		Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+		Map<String, Long> errors = new LinkedHashMap<>();
+		for (String endpoint : new String[] { COLLECT, QUERY }) {
+			histograms.put(endpoint, new LatencyHistogram());
+			errors.put(endpoint, 0L);
+		}
+		for (Worker worker : workers) {
+			worker.join();
+			for (String endpoint : histograms.keySet()) {
+				histograms.get(endpoint).add(worker.histograms.get(endpoint));
+				errors.put(endpoint, errors.get(endpoint) + worker.errors.get(endpoint));
+			}
+		}
+		report(histograms, errors);
+		return histograms;
+	}
+
+	/** fetch the known airports and set up their Zipf distribution in random rank order */
+	private void loadAirports() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url + "/collect/airports").openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			airports = new Gson().fromJson(new InputStreamReader(in, StandardCharsets.UTF_8), String[].class);
+		}
+		if (airports == null || airports.length == 0) {
+			throw new IllegalStateException("the server knows no airports, load them first");
+		}
+		List<String> ranked = new ArrayList<>();
+		Collections.addAll(ranked, airports);
+		Collections.shuffle(ranked, new Random(42));
+		airports = ranked.toArray(new String[ranked.size()]);
+		airportWeights = new double[airports.length];
+		double sum = 0;
+		for (int i = 0; i < airports.length; i++) {
+			sum += 1 / Math.pow(i + 1, zipfExponent);
+			airportWeights[i] = sum;
+		}
+	}
+
+	private String nextAirport(ThreadLocalRandom random) {
+		double x = random.nextDouble() * airportWeights[airportWeights.length - 1];
+		int low = 0;
+		int high = airportWeights.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (airportWeights[mid] < x) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return airports[low];
+	}
+
+	private int nextRadius(ThreadLocalRandom random) {
+		double total = 0;
+		for (double weight : radiusWeights) {
+			total += weight;
+		}
+		double x = random.nextDouble() * total;
+		for (int i = 0; i < radii.length; i++) {
+			x -= radiusWeights[i];
+			if (x < 0) {
+				return radii[i];
+			}
+		}
+		return radii[radii.length - 1];
+	}
+
+	private void report(Map<String, LatencyHistogram> histograms, Map<String, Long> errors) throws IOException {
+		System.out.println(String.format("%-16s %9s %7s %10s %9s %9s %9s %9s %9s %9s", "endpoint", "requests", "errors", "req/s", "mean ms",
+				"p50", "p90", "p99", "p99.9", "max"));
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			LatencyHistogram h = entry.getValue();
+			System.out.println(String.format("%-16s %9d %7d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f", entry.getKey(), h.getTotalCount(),
+					errors.get(entry.getKey()), h.getTotalCount() / (durationMillis / 1000.0), h.getMean() / 1e6, h.getValueAtPercentile(50) / 1e6,
+					h.getValueAtPercentile(90) / 1e6, h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6));
+			if (out != null) {
+				out.mkdirs();
+				try (PrintStream file = new PrintStream(new FileOutputStream(new File(out, entry.getKey() + ".hgrm")), false, "UTF-8")) {
+					h.outputPercentileDistribution(file, 1e6);
+				}
+			}
+		}
+		if (out != null) {
+			System.out.println("latency distributions in milliseconds written to " + out);
+		}
+	}
+
+	private class Worker extends Thread {
+
+		private final long start;
+
+		private final long measureFrom;
+
+		private final long end;
+
+		/** nanoseconds between the requests of this thread in the open loop */
+		private final long interval;
+
+		final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+
+		final Map<String, Long> errors = new LinkedHashMap<>();
+
+		Worker(int index, long start, long measureFrom, long end) {
+			super("load-" + index);
+			setDaemon(true);
+			this.interval = (long) (threads * 1e9 / rate);
+			// spread the schedules of the threads over one interval
+			this.start = start + interval * index / threads;
+			this.measureFrom = measureFrom;
+			this.end = end;
+			histograms.put(COLLECT, new LatencyHistogram());
+			histograms.put(QUERY, new LatencyHistogram());
+			errors.put(COLLECT, 0L);
+			errors.put(QUERY, 0L);
+		}
+
+		@Override
+		public void run() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			long due = start;
+			while (true) {
+				long now = System.nanoTime();
+				if (openLoop) {
+					if (due > now) {
+						LockSupport.parkNanos(due - now);
+						now = System.nanoTime();
+					}
+				} else {
+					due = now;
+				}
+				if (due >= end) {
+					return;
+				}
+
+				String endpoint = random.nextDouble() < collectFraction ? COLLECT : QUERY;
+				boolean ok = endpoint == COLLECT ? collect(random) : query(random);
+				long latency = System.nanoTime() - due;
+				if (due >= measureFrom) {
+					histograms.get(endpoint).record(latency);
+					if (!ok) {
+						errors.put(endpoint, errors.get(endpoint) + 1);
+					}
+				}
+				due += interval;
+			}
+		}
+
+		private boolean collect(ThreadLocalRandom random) {
+			int type = random.nextInt(POINT_TYPES.length);
+			double mean = type == 3 ? 650 + random.nextDouble() * 150 : random.nextDouble() * 50;
+			String body = String.format(Locale.ROOT, "{\"mean\":%.2f,\"first\":%.2f,\"second\":%.2f,\"third\":%.2f,\"count\":%d}", mean, mean * 0.9, mean,
+					mean * 1.1, 1 + random.nextInt(100));
+			return send("POST", url + "/collect/weather/" + nextAirport(random) + "/" + POINT_TYPES[type], body);
+		}
+
+		private boolean query(ThreadLocalRandom random) {
+			return send("GET", url + "/query/weather/" + nextAirport(random) + "/" + nextRadius(random), null);
+		}
+
+		/** @return true on a 2xx response */
+		private boolean send(String method, String target, String body) {
+			try {
+				HttpURLConnection connection = (HttpURLConnection) new URL(target).openConnection();
+				connection.setRequestMethod(method);
+				if (body != null) {
+					connection.setDoOutput(true);
+					connection.setRequestProperty("Content-Type", "application/json");
+					try (OutputStream os = connection.getOutputStream()) {
+						os.write(body.getBytes(StandardCharsets.UTF_8));
+					}
+				}
+				int status = connection.getResponseCode();
+				// read the body to the end so the connection is kept alive
+				try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+					if (in != null) {
+						byte[] buffer = new byte[8192];
+						while (in.read(buffer) != -1) {
+							// discard
+						}
+					}
+				}
+				return status / 100 == 2;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+	}
+}
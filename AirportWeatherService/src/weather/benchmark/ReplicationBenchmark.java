@@ -0,0 +1,170 @@
+package weather.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import weather.cluster.LocalReplicaSet;
+import weather.cluster.ShardClient;
+import weather.model.AirportData;
+
+/**
+ * Measures how far the replicas of a {@link LocalReplicaSet} fall behind their
+ * primary. The primary is loaded with synthetic airports and driven with
+ * collect requests only by the {@link LoadGenerator}, while the staleness
+ * reported by the ping of every replica is sampled. Afterwards the answers of
+ * the replicas to a radius query covering the globe are compared with the
+ * primary's until they match, and the first replica is restarted to time its
+ * catch up from a snapshot.
+ *
+ * Usage: java weather.benchmark.ReplicationBenchmark [-replicas 2]
+ * [-airports 5000] [-port 9190] followed by {@link LoadGenerator} options
+ *
+ * @author Abdullah Atmaca
+ */
+public class ReplicationBenchmark {
+
+	private static final Gson gson = new Gson();
+
+	private static final long SAMPLE_MILLIS = 100;
+
+	private static final long CONVERGE_TIMEOUT_MILLIS = 10000;
+
+	public static void main(String[] args) throws Exception {
+		int replicas = 2;
+		int airports = 5000;
+		int port = 9190;
+		List<String> loadArgs = new ArrayList<>(
+				Arrays.asList("-mode", "closed", "-threads", "8", "-duration", "20", "-warmup", "0", "-collect", "1"));
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-replicas":
+				replicas = Integer.parseInt(args[i + 1]);
+				break;
+			case "-airports":
+				airports = Integer.parseInt(args[i + 1]);
+				break;
+			case "-port":
+				port = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				// later options override the defaults
+				loadArgs.add(args[i]);
+				loadArgs.add(args[i + 1]);
+			}
+		}
+
+		List<AirportData> list = ServiceBenchmark.syntheticAirports(airports);
+		String everything = "query/weather/" + list.get(0).getIata() + "/20040";
+		try (LocalReplicaSet replicaSet = LocalReplicaSet.start(replicas, port)) {
+			String primaryUrl = replicaSet.getPrimaryUrl();
+			List<String> replicaUrls = replicaSet.getReplicaUrls();
+			ClusterBenchmark.load(primaryUrl, list);
+
+			// sample the staleness of the replicas while the primary is loaded
+			long[] max = new long[replicas];
+			long[] sum = new long[replicas];
+			int[] samples = new int[replicas];
+			Thread sampler = new Thread(() -> {
+				while (!Thread.currentThread().isInterrupted()) {
+					for (int r = 0; r < replicaUrls.size(); r++) {
+						try {
+							long staleness = staleness(replicaUrls.get(r));
+							max[r] = Math.max(max[r], staleness);
+							sum[r] += staleness;
+							samples[r]++;
+						} catch (IOException e) {
+							// not counted
+						}
+					}
+					try {
+						Thread.sleep(SAMPLE_MILLIS);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}, "staleness-sampler");
+			sampler.start();
+			List<String> runArgs = new ArrayList<>(loadArgs);
+			runArgs.add("-url");
+			runArgs.add(primaryUrl.substring(0, primaryUrl.length() - 1));
+			LoadGenerator generator = LoadGenerator.fromArgs(runArgs.toArray(new String[runArgs.size()]));
+			Map<String, LatencyHistogram> latencies = generator.run();
+			sampler.interrupt();
+			sampler.join();
+			LatencyHistogram collect = latencies.get("collect.weather");
+
+			System.out.println();
+			System.out.println(String.format(Locale.ROOT, "primary: %.1f collect/s, p50 %.3f ms, p99 %.3f ms",
+					collect.getTotalCount() / generator.getDurationSeconds(), collect.getValueAtPercentile(50) / 1e6,
+					collect.getValueAtPercentile(99) / 1e6));
+			System.out.println(String.format("%10s %16s %16s %16s", "replica", "max stale ms", "mean stale ms", "converged ms"));
+			for (int r = 0; r < replicas; r++) {
+				long converged = converge(primaryUrl, replicaUrls.get(r), everything);
+				System.out.println(String.format(Locale.ROOT, "%10d %16d %16.1f %16s", r, max[r], samples[r] == 0 ? 0.0 : (double) sum[r] / samples[r],
+						converged < 0 ? "differs" : String.valueOf(converged)));
+			}
+
+			long start = System.nanoTime();
+			replicaSet.restartReplica(0);
+			long restarted = (System.nanoTime() - start) / 1000000;
+			long converged = converge(primaryUrl, replicaUrls.get(0), everything);
+			System.out.println(String.format("replica 0 restarted from a snapshot in %d ms, %s", restarted,
+					converged < 0 ? "differs from the primary" : "matches the primary"));
+		}
+	}
+
+	private static long staleness(String url) throws IOException {
+		JsonObject ping = gson.fromJson(get(url + "query/ping"), JsonObject.class);
+		return ping.getAsJsonObject("replication").get("staleness_ms").getAsLong();
+	}
+
+	/**
+	 * @return the milliseconds until the replica answered the query like the
+	 *         primary, -1 if it did not within the timeout
+	 */
+	private static long converge(String primaryUrl, String replicaUrl, String query) throws IOException, InterruptedException {
+		List<String> expected = sorted(get(primaryUrl + query));
+		long start = System.currentTimeMillis();
+		while (System.currentTimeMillis() - start < CONVERGE_TIMEOUT_MILLIS) {
+			if (sorted(get(replicaUrl + query)).equals(expected)) {
+				return System.currentTimeMillis() - start;
+			}
+			Thread.sleep(SAMPLE_MILLIS);
+		}
+		return -1;
+	}
+
+	/** the elements of a JSON array, the servers may list them in different orders */
+	private static List<String> sorted(String json) {
+		List<String> retval = new ArrayList<>();
+		for (JsonElement element : gson.fromJson(json, JsonArray.class)) {
+			retval.add(element.toString());
+		}
+		Collections.sort(retval);
+		return retval;
+	}
+
+	private static String get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		if (connection.getResponseCode() != 200) {
+			throw new IOException("GET " + url + " failed with " + connection.getResponseCode());
+		}
+		try (InputStream in = connection.getInputStream()) {
+			return new String(ShardClient.readAll(in), StandardCharsets.UTF_8);
+		}
+	}
+}
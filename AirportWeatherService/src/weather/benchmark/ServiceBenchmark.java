@@ -0,0 +1,272 @@
+package weather.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import weather.RestWeatherQueryEndpoint;
+import weather.model.AirportData;
+import weather.model.DataPoint;
+import weather.service.WeatherService;
+
+/**
+ * Benchmarks of the service hot paths over synthetic registries: airport
+ * lookup, distance calculation, data point collection, radius queries through
+ * the query endpoint at several radii and ping.
+ *
+ * A quick check without a build: every benchmark runs warmup iterations and
+ * then time boxed measurement iterations on each thread count in this JVM, and
+ * reports the throughput, the time per operation, the bytes the measuring
+ * threads allocated per operation as ThreadMXBean counts them and the
+ * collections during measurement. Nothing is forked and results are only
+ * hashed, so the numbers are not comparable to those of JMH. The module in
+ * jmh runs the same benchmarks with JMH as WeatherServiceBenchmark, forked and
+ * with the GC profiler. Airports are spread around a few hundred clusters,
+ * like real airports around cities.
+ *
+ * Usage: java weather.benchmark.ServiceBenchmark [-sizes 100,10000,100000]
+ * [-threads 1,8] [-warmup 2] [-iterations 3] [-time 1] [-include regex]
+ *
+ * @author Abdullah Atmaca
+ */
+public class ServiceBenchmark {
+
+	/** a benchmarked operation, the result is consumed so it is not optimized away */
+	private interface Operation {
+		Object run(ThreadLocalRandom random) throws Exception;
+	}
+
+	/** consumes the results of the operations */
+	private static volatile int blackhole;
+
+	private static final String CODE_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789abcdefghijklmnopqrstuvwxyz";
+
+	private final WeatherService weatherService = new WeatherService();
+
+	private final RestWeatherQueryEndpoint queryEndpoint = new RestWeatherQueryEndpoint();
+
+	private final DataPoint dataPoint = new DataPoint.Builder().withFirst(10).withMean(20).withMedian(22).withLast(30).withCount(60).build();
+
+	private String[] codes;
+
+	private AirportData[] airports;
+
+	private int warmupIterations = 2;
+
+	private int measurementIterations = 3;
+
+	private long iterationMillis = 1000;
+
+	/** cleared to end an iteration */
+	private volatile boolean running;
+
+	public static void main(String[] args) throws Exception {
+		ServiceBenchmark benchmark = new ServiceBenchmark();
+		int[] sizes = { 100, 10000, 100000 };
+		int[] threads = { 1, Runtime.getRuntime().availableProcessors() };
+		Pattern include = Pattern.compile(".*");
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-sizes":
+				sizes = parseInts(args[i + 1]);
+				break;
+			case "-threads":
+				threads = parseInts(args[i + 1]);
+				break;
+			case "-warmup":
+				benchmark.warmupIterations = Integer.parseInt(args[i + 1]);
+				break;
+			case "-iterations":
+				benchmark.measurementIterations = Integer.parseInt(args[i + 1]);
+				break;
+			case "-time":
+				benchmark.iterationMillis = (long) (Double.parseDouble(args[i + 1]) * 1000);
+				break;
+			case "-include":
+				include = Pattern.compile(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+
+		System.out.println(String.format("%-20s %8s %7s %14s %12s %10s %5s", "Benchmark", "airports", "threads", "ops/s", "ns/op", "B/op", "gc"));
+		for (int size : sizes) {
+			benchmark.setUp(size);
+			for (Map.Entry<String, Operation> op : benchmark.operations().entrySet()) {
+				if (!include.matcher(op.getKey()).matches()) {
+					continue;
+				}
+				for (int t : threads) {
+					benchmark.run(op.getKey(), size, t, op.getValue());
+				}
+			}
+		}
+	}
+
+	private Map<String, Operation> operations() {
+		Map<String, Operation> operations = new LinkedHashMap<>();
+		operations.put("findAirportData", random -> weatherService.findAirportData(codes[random.nextInt(codes.length)]));
+		operations.put("calculateDistance",
+				random -> weatherService.calculateDistance(airports[random.nextInt(airports.length)], airports[random.nextInt(airports.length)]));
+		operations.put("addDataPoint", random -> {
+			weatherService.addDataPoint(codes[random.nextInt(codes.length)], "wind", dataPoint);
+			return null;
+		});
+		for (int radius : new int[] { 0, 100, 1000, 5000 }) {
+			String r = String.valueOf(radius);
+			operations.put("weather.r" + radius, random -> queryEndpoint.weather(codes[random.nextInt(codes.length)], r, null, null));
+		}
+		operations.put("ping", random -> queryEndpoint.ping());
+		return operations;
+	}
+
+	/** replace the registry with the given number of synthetic airports, all with weather data */
+	private void setUp(int size) throws Exception {
+		weatherService.reset();
+		List<AirportData> list = syntheticAirports(size);
+		weatherService.addAirports(list);
+
+		codes = new String[size];
+		airports = new AirportData[size];
+		for (int i = 0; i < size; i++) {
+			codes[i] = list.get(i).getIata();
+			airports[i] = weatherService.findAirportData(codes[i]);
+			weatherService.addDataPoint(codes[i], "wind", dataPoint);
+		}
+	}
+
+	/**
+	 * @return the given number of airports with distinct codes, spread around a
+	 *         few hundred clusters, the same on every call
+	 */
+	static List<AirportData> syntheticAirports(int size) {
+		Random random = new Random(42);
+		double[][] clusters = new double[Math.max(1, size / 200)][];
+		for (int i = 0; i < clusters.length; i++) {
+			clusters[i] = new double[] { Math.toDegrees(Math.asin(2 * random.nextDouble() - 1)) * 0.8, 360 * random.nextDouble() - 180 };
+		}
+		List<AirportData> list = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			double[] center = clusters[random.nextInt(clusters.length)];
+			double latitude = Math.max(-90, Math.min(90, center[0] + 3 * random.nextGaussian()));
+			double longitude = center[1] + 3 * random.nextGaussian();
+			longitude = longitude > 180 ? longitude - 360 : longitude < -180 ? longitude + 360 : longitude;
+			list.add(new AirportData(code(i), latitude, longitude));
+		}
+		return list;
+	}
+
+	private static String code(int i) {
+		int n = CODE_CHARS.length();
+		return new String(new char[] { CODE_CHARS.charAt(i / n / n % n), CODE_CHARS.charAt(i / n % n), CODE_CHARS.charAt(i % n) });
+	}
+
+	private void run(String name, int size, int threads, Operation op) {
+		try {
+			for (int i = 0; i < warmupIterations; i++) {
+				iteration(threads, op);
+			}
+			long ops = 0;
+			long nanos = 0;
+			long allocated = 0;
+			long collections = 0;
+			for (int i = 0; i < measurementIterations; i++) {
+				long[] result = iteration(threads, op);
+				ops += result[0];
+				nanos += result[1];
+				allocated += result[2];
+				collections += result[3];
+			}
+			double seconds = nanos / 1e9;
+			System.out.println(String.format("%-20s %8d %7d %14.0f %12.1f %10.1f %5d", name, size, threads, ops / seconds, threads * nanos / (double) ops,
+					allocated < 0 ? Double.NaN : allocated / (double) ops, collections));
+		} catch (Exception e) {
+			System.out.println(String.format("%-20s %8d %7d failed: %s", name, size, threads, e));
+		}
+	}
+
+	/**
+	 * Run the operation on the given number of threads for one iteration.
+	 *
+	 * @return operations, elapsed nanoseconds, bytes allocated and collections
+	 */
+	private long[] iteration(int threads, Operation op) throws Exception {
+		CyclicBarrier start = new CyclicBarrier(threads + 1);
+		long[] ops = new long[threads];
+		long[] allocated = new long[threads];
+		Throwable[] failure = new Throwable[1];
+		running = true;
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int index = t;
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				int sink = 0;
+				try {
+					start.await();
+					long before = allocatedBytes();
+					long count = 0;
+					while (running) {
+						Object result = op.run(random);
+						sink += result == null ? 0 : System.identityHashCode(result);
+						count++;
+					}
+					allocated[index] = before < 0 ? -1 : allocatedBytes() - before;
+					ops[index] = count;
+				} catch (Throwable e) {
+					failure[0] = e;
+					running = false;
+				}
+				blackhole += sink;
+			});
+			workers[t].start();
+		}
+		long collections = collections();
+		start.await();
+		long begin = System.nanoTime();
+		Thread.sleep(iterationMillis);
+		running = false;
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long elapsed = System.nanoTime() - begin;
+		if (failure[0] != null) {
+			throw new Exception(failure[0]);
+		}
+		long totalAllocated = 0;
+		for (long a : allocated) {
+			totalAllocated = a < 0 || totalAllocated < 0 ? -1 : totalAllocated + a;
+		}
+		return new long[] { Arrays.stream(ops).sum(), elapsed, totalAllocated, collections() - collections };
+	}
+
+	/** bytes allocated by the current thread, or a negative value if not supported */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static int[] parseInts(String list) {
+		return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+}
@@ -0,0 +1,117 @@
+package weather.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+import weather.model.AirportData;
+import weather.service.AirportRegistry;
+
+/**
+ * Assigns airports to shards by consistent hashing of their IATA codes. Every
+ * shard owns {@link #VIRTUAL_NODES} points on a 64 bit ring, placed by the hash
+ * of its name, and an airport belongs to the shard of the first point at or
+ * after the hash of its packed IATA code. Adding or removing a shard only moves
+ * the airports of the ring segments it gains or loses, about one in the number
+ * of shards.
+ *
+ * @author Abdullah Atmaca
+ */
+public class ConsistentHash implements Partitioning {
+
+	/** ring points per shard, enough to spread the airports within a few percent */
+	public static final int VIRTUAL_NODES = 256;
+
+	/** the ring points in ascending order */
+	private final long[] points;
+
+	/** the shard of each ring point */
+	private final int[] shards;
+
+	private final int shardCount;
+
+	/**
+	 * @param names
+	 *            stable names of the shards, e.g. their URLs
+	 */
+	public ConsistentHash(List<String> names) {
+		if (names.isEmpty()) {
+			throw new IllegalArgumentException("no shards");
+		}
+		shardCount = names.size();
+		long[] ring = new long[shardCount * VIRTUAL_NODES];
+		for (int s = 0; s < shardCount; s++) {
+			long seed = hash(names.get(s).getBytes(StandardCharsets.UTF_8));
+			for (int v = 0; v < VIRTUAL_NODES; v++) {
+				ring[s * VIRTUAL_NODES + v] = mix(seed + v * 0x9E3779B97F4A7C15L);
+			}
+		}
+		// sort the points and their shards together, by index
+		Integer[] order = new Integer[ring.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(ring[a], ring[b]));
+		points = new long[ring.length];
+		shards = new int[ring.length];
+		for (int i = 0; i < order.length; i++) {
+			points[i] = ring[order[i]];
+			shards[i] = order[i] / VIRTUAL_NODES;
+		}
+	}
+
+	@Override
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * @param iataCode
+	 *            the 3 letter IATA code
+	 * @return the index of the shard owning the airport
+	 */
+	public int shardOf(String iataCode) {
+		long hash = mix(AirportRegistry.pack(iataCode));
+		int i = Arrays.binarySearch(points, hash);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return shards[i == points.length ? 0 : i];
+	}
+
+	@Override
+	public int shardOf(AirportData airport) {
+		return shardOf(airport.getIata());
+	}
+
+	@Override
+	public BitSet shardsWithin(AirportData origin, double radius) {
+		BitSet retval = new BitSet(shardCount);
+		retval.set(0, shardCount);
+		return retval;
+	}
+
+	@Override
+	public Partitioning rebalance(Collection<AirportData> airports, double threshold) {
+		return this;
+	}
+
+	/** FNV-1a */
+	private static long hash(byte[] bytes) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : bytes) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/** the finalizer of SplitMix64 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,201 @@
+package weather.cluster;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+import weather.model.AirportData;
+import weather.service.WeatherService;
+
+/**
+ * Assigns airports to shards by region. The globe is divided into
+ * {@link #SIDE} x {@link #SIDE} cells of latitude and longitude, numbered along
+ * a Z-order curve by interleaving the bits of their column and row like a
+ * geohash, and every shard owns a contiguous range of the curve, i.e. a few
+ * geohash prefixes. Nearby airports mostly share a shard, so a radius query
+ * only needs the shards owning the cells its circle touches, fewer the
+ * smaller the radius.
+ *
+ * The ranges are cut so the shards own about the same number of airports.
+ * Instances are immutable, {@link #rebalance(Collection, double)} returns new
+ * ranges for the current airports.
+ *
+ * @author Abdullah Atmaca
+ */
+public class GeoPartitioning implements Partitioning {
+
+	/** bits of the column and of the row of a cell */
+	static final int BITS = 7;
+
+	/** cells per row and per column, 2.8 degrees of longitude by 1.4 of latitude */
+	static final int SIDE = 1 << BITS;
+
+	static final int CELLS = SIDE * SIDE;
+
+	/** the first cell of the range of each shard, ascending, starting with 0 */
+	private final int[] starts;
+
+	/**
+	 * Equal ranges of cells, for a cluster without airports.
+	 *
+	 * @param shards
+	 *            the number of shards
+	 */
+	public GeoPartitioning(int shards) {
+		this(equalStarts(shards));
+	}
+
+	private GeoPartitioning(int[] starts) {
+		this.starts = starts;
+	}
+
+	private static int[] equalStarts(int shards) {
+		if (shards < 1 || shards > CELLS) {
+			throw new IllegalArgumentException("cannot partition into " + shards + " shards");
+		}
+		int[] starts = new int[shards];
+		for (int s = 0; s < shards; s++) {
+			starts[s] = (int) ((long) CELLS * s / shards);
+		}
+		return starts;
+	}
+
+	/**
+	 * @param shards
+	 *            the number of shards
+	 * @param airports
+	 *            the airports to spread
+	 * @return ranges giving every shard about the same number of airports, as
+	 *         far as the cells allow
+	 */
+	public static GeoPartitioning balanced(int shards, Collection<AirportData> airports) {
+		if (airports.isEmpty()) {
+			return new GeoPartitioning(shards);
+		}
+		equalStarts(shards);
+		int[] counts = new int[CELLS];
+		for (AirportData ad : airports) {
+			counts[cellOf(ad.getLatitude(), ad.getLongitude())]++;
+		}
+		int[] starts = new int[shards];
+		long total = airports.size();
+		long seen = 0;
+		int cell = 0;
+		for (int s = 1; s < shards; s++) {
+			long target = total * s / shards;
+			// every shard gets at least one cell
+			int last = CELLS - (shards - s);
+			while (cell < last && (cell <= starts[s - 1] || seen + counts[cell] <= target)) {
+				seen += counts[cell++];
+			}
+			starts[s] = cell;
+		}
+		return new GeoPartitioning(starts);
+	}
+
+	@Override
+	public int getShardCount() {
+		return starts.length;
+	}
+
+	@Override
+	public int shardOf(AirportData airport) {
+		return shardOfCell(cellOf(airport.getLatitude(), airport.getLongitude()));
+	}
+
+	private int shardOfCell(int cell) {
+		int i = Arrays.binarySearch(starts, cell);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	/**
+	 * Visits the cells of the bounding box of the query circle, the same box
+	 * the shards search, so every airport a shard finds is in a visited cell.
+	 */
+	@Override
+	public BitSet shardsWithin(AirportData origin, double radius) {
+		double delta = Math.toDegrees(Math.max(0, radius) / WeatherService.R);
+		double latMin = origin.getLatitude() - delta;
+		double latMax = origin.getLatitude() + delta;
+
+		int firstColumn = 0;
+		int lastColumn = SIDE - 1;
+		// a circle containing a pole covers all longitudes
+		if (latMin > -90 && latMax < 90) {
+			double ratio = Math.sin(Math.toRadians(delta)) / Math.cos(Math.toRadians(origin.getLatitude()));
+			if (ratio < 1) {
+				double deltaLon = Math.toDegrees(Math.asin(ratio));
+				int first = column(origin.getLongitude() - deltaLon);
+				int last = column(origin.getLongitude() + deltaLon);
+				if (last - first + 1 < SIDE) {
+					firstColumn = first;
+					lastColumn = last;
+				}
+			}
+		}
+
+		BitSet retval = new BitSet(starts.length);
+		retval.set(shardOf(origin));
+		int lastRow = row(Math.min(latMax, 90));
+		for (int r = row(Math.max(latMin, -90)); r <= lastRow && retval.cardinality() < starts.length; r++) {
+			for (int c = firstColumn; c <= lastColumn; c++) {
+				// columns outside [0, SIDE) wrap around the antimeridian
+				retval.set(shardOfCell(interleave(Math.floorMod(c, SIDE), r)));
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	public Partitioning rebalance(Collection<AirportData> airports, double threshold) {
+		double current = imbalance(airports);
+		if (current <= threshold) {
+			return this;
+		}
+		GeoPartitioning balanced = balanced(starts.length, airports);
+		return balanced.imbalance(airports) < current ? balanced : this;
+	}
+
+	/**
+	 * @return the number of airports of the largest shard relative to the
+	 *         mean, 1 if they are spread evenly
+	 */
+	public double imbalance(Collection<AirportData> airports) {
+		if (airports.isEmpty()) {
+			return 1;
+		}
+		int[] counts = new int[starts.length];
+		int max = 0;
+		for (AirportData ad : airports) {
+			max = Math.max(max, ++counts[shardOf(ad)]);
+		}
+		return (double) max * starts.length / airports.size();
+	}
+
+	/**
+	 * @return the index of the cell of the location on the Z-order curve
+	 */
+	static int cellOf(double latitude, double longitude) {
+		return interleave(Math.max(0, Math.min(SIDE - 1, column(longitude))), row(latitude));
+	}
+
+	/** the column of a longitude, outside [0, SIDE) beyond the antimeridian */
+	private static int column(double longitude) {
+		return (int) Math.floor((longitude + 180) * SIDE / 360);
+	}
+
+	private static int row(double latitude) {
+		return Math.max(0, Math.min(SIDE - 1, (int) Math.floor((latitude + 90) * SIDE / 180)));
+	}
+
+	/** the bits of the column and the row alternating, column first as in a geohash */
+	private static int interleave(int column, int row) {
+		return spread(column) << 1 | spread(row);
+	}
+
+	private static int spread(int value) {
+		value = (value | value << 4) & 0x0f0f;
+		value = (value | value << 2) & 0x3333;
+		return (value | value << 1) & 0x5555;
+	}
+}
@@ -0,0 +1,105 @@
+package weather.cluster;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import weather.ServerConfig;
+
+/**
+ * A cluster of weather servers on localhost for testing and benchmarks: one
+ * process per shard and a router process in front of them on the given port,
+ * the shards on the following ports. The servers are started with the
+ * classpath and the weather.* system properties of this process.
+ *
+ * As the weather service state is shared by all instances in a JVM, every
+ * server needs its own process.
+ *
+ * Usage: java weather.cluster.LocalCluster [shards] [port]
+ *
+ * @author Abdullah Atmaca
+ */
+public class LocalCluster implements AutoCloseable {
+
+	private final ServerProcesses processes = new ServerProcesses();
+
+	private final List<String> shardUrls = new ArrayList<>();
+
+	private String routerUrl;
+
+	private ServerProcesses.Server router;
+
+	private LocalCluster() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int shards = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 9090;
+		LocalCluster cluster = start(shards, port);
+		Runtime.getRuntime().addShutdownHook(new Thread(cluster::close));
+		System.out.println("Shards: " + String.join(" ", cluster.getShardUrls()));
+		System.out.println("Router: " + cluster.getRouterUrl() + ", stop it with " + cluster.getRouterUrl() + "collect/exit");
+		cluster.router.getProcess().waitFor();
+		cluster.close();
+	}
+
+	/**
+	 * Start the shards and then the router, and wait until all of them serve
+	 * requests.
+	 *
+	 * @param shards
+	 *            the number of shards
+	 * @param port
+	 *            the port of the router, the shards listen on the following
+	 *            ports
+	 * @return the running cluster
+	 * @throws IOException
+	 *             if a server could not be started
+	 */
+	public static LocalCluster start(int shards, int port) throws IOException, InterruptedException {
+		LocalCluster cluster = new LocalCluster();
+		try {
+			List<ServerProcesses.Server> starting = new ArrayList<>();
+			for (int s = 0; s < shards; s++) {
+				int shardPort = port + 1 + s;
+				cluster.shardUrls.add("http://localhost:" + shardPort + "/");
+				starting.add(cluster.processes.launch("shard-" + s, Collections.singletonMap(ServerConfig.PORT, String.valueOf(shardPort))));
+			}
+			for (ServerProcesses.Server shard : starting) {
+				shard.await();
+			}
+			Map<String, String> properties = new HashMap<>();
+			properties.put(ServerConfig.PORT, String.valueOf(port));
+			properties.put(ServerConfig.CLUSTER_SHARDS, String.join(",", cluster.shardUrls));
+			cluster.router = cluster.processes.launch("router", properties);
+			cluster.router.await();
+			cluster.routerUrl = "http://localhost:" + port + "/";
+			return cluster;
+		} catch (IOException | InterruptedException | RuntimeException e) {
+			cluster.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the URL of the router, e.g. http://localhost:9090/
+	 */
+	public String getRouterUrl() {
+		return routerUrl;
+	}
+
+	public List<String> getShardUrls() {
+		return shardUrls;
+	}
+
+	/**
+	 * Stop all servers of the cluster.
+	 */
+	@Override
+	public void close() {
+		processes.close();
+	}
+}
@@ -0,0 +1,131 @@
+package weather.cluster;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import weather.ServerConfig;
+
+/**
+ * A primary weather server and query only replicas following it on localhost
+ * for testing and benchmarks, one process each. The primary listens on the
+ * given port, the replicas on the following ports, and the primary serves its
+ * mutations on the port after the last replica. The servers are started with
+ * the classpath and the weather.* system properties of this process.
+ *
+ * Usage: java weather.cluster.LocalReplicaSet [replicas] [port]
+ *
+ * @author Abdullah Atmaca
+ */
+public class LocalReplicaSet implements AutoCloseable {
+
+	private final ServerProcesses processes = new ServerProcesses();
+
+	private final List<ServerProcesses.Server> replicas = new ArrayList<>();
+
+	private final List<String> replicaUrls = new ArrayList<>();
+
+	private ServerProcesses.Server primary;
+
+	private String primaryUrl;
+
+	private int port;
+
+	private int replicationPort;
+
+	private LocalReplicaSet() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int replicas = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 9090;
+		LocalReplicaSet replicaSet = start(replicas, port);
+		Runtime.getRuntime().addShutdownHook(new Thread(replicaSet::close));
+		System.out.println("Primary: " + replicaSet.getPrimaryUrl() + ", stop it with " + replicaSet.getPrimaryUrl() + "collect/exit");
+		System.out.println("Replicas: " + String.join(" ", replicaSet.getReplicaUrls()));
+		replicaSet.primary.getProcess().waitFor();
+		replicaSet.close();
+	}
+
+	/**
+	 * Start the primary and then the replicas, and wait until the replicas
+	 * have caught up with the primary and all of them serve requests.
+	 *
+	 * @param replicas
+	 *            the number of replicas
+	 * @param port
+	 *            the port of the primary, the replicas listen on the following
+	 *            ports
+	 * @return the running replica set
+	 * @throws IOException
+	 *             if a server could not be started
+	 */
+	public static LocalReplicaSet start(int replicas, int port) throws IOException, InterruptedException {
+		LocalReplicaSet replicaSet = new LocalReplicaSet();
+		replicaSet.port = port;
+		replicaSet.replicationPort = port + replicas + 1;
+		try {
+			Map<String, String> properties = new HashMap<>();
+			properties.put(ServerConfig.PORT, String.valueOf(port));
+			properties.put(ServerConfig.REPLICATION_PORT, String.valueOf(replicaSet.replicationPort));
+			replicaSet.primary = replicaSet.processes.launch("primary", properties);
+			replicaSet.primary.await();
+			replicaSet.primaryUrl = "http://localhost:" + port + "/";
+
+			for (int r = 0; r < replicas; r++) {
+				replicaSet.replicas.add(replicaSet.launchReplica(r));
+				replicaSet.replicaUrls.add("http://localhost:" + (port + 1 + r) + "/");
+			}
+			for (ServerProcesses.Server replica : replicaSet.replicas) {
+				replica.await();
+			}
+			return replicaSet;
+		} catch (IOException | InterruptedException | RuntimeException e) {
+			replicaSet.close();
+			throw e;
+		}
+	}
+
+	private ServerProcesses.Server launchReplica(int r) throws IOException {
+		Map<String, String> properties = new HashMap<>();
+		properties.put(ServerConfig.PORT, String.valueOf(port + 1 + r));
+		properties.put(ServerConfig.REPLICATION_PRIMARY, "localhost:" + replicationPort);
+		return processes.launch("replica-" + r, properties);
+	}
+
+	/**
+	 * Stop a replica and start it again, it catches up from a new snapshot of
+	 * the primary.
+	 *
+	 * @param r
+	 *            the index of the replica
+	 * @throws IOException
+	 *             if the replica could not be started
+	 */
+	public void restartReplica(int r) throws IOException, InterruptedException {
+		processes.stop(replicas.get(r));
+		replicas.set(r, launchReplica(r));
+		replicas.get(r).await();
+	}
+
+	/**
+	 * @return the URL of the primary, e.g. http://localhost:9090/
+	 */
+	public String getPrimaryUrl() {
+		return primaryUrl;
+	}
+
+	public List<String> getReplicaUrls() {
+		return replicaUrls;
+	}
+
+	/**
+	 * Stop all servers of the replica set.
+	 */
+	@Override
+	public void close() {
+		processes.close();
+	}
+}
@@ -0,0 +1,51 @@
+package weather.cluster;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+import weather.model.AirportData;
+
+/**
+ * Assigns the airports of a cluster to its shards. The shard owning an airport
+ * keeps its data points, every shard knows all airports.
+ *
+ * @author Abdullah Atmaca
+ */
+public interface Partitioning {
+
+	/** how airports are assigned to shards, selected with weather.cluster.partitioning */
+	enum Strategy {
+		/** by the hash of the IATA code, see {@link ConsistentHash} */
+		HASH,
+		/** by the region of the location, see {@link GeoPartitioning} */
+		GEO
+	}
+
+	int getShardCount();
+
+	/**
+	 * @return the index of the shard owning the airport
+	 */
+	int shardOf(AirportData airport);
+
+	/**
+	 * @param origin
+	 *            the airport in the center of the query circle
+	 * @param radius
+	 *            the query radius in KM
+	 * @return the shards which may own airports within the radius, at least the
+	 *         owner of the origin
+	 */
+	BitSet shardsWithin(AirportData origin, double radius);
+
+	/**
+	 * @param airports
+	 *            all airports of the cluster
+	 * @param threshold
+	 *            the largest tolerated number of airports of a shard relative
+	 *            to the mean
+	 * @return a partitioning spreading the airports more evenly, or this
+	 *         partitioning if it is within the threshold or can not be improved
+	 */
+	Partitioning rebalance(Collection<AirportData> airports, double threshold);
+}
@@ -0,0 +1,153 @@
+package weather.cluster;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import weather.ServerConfig;
+import weather.WeatherServer;
+
+/**
+ * Weather servers on localhost, one process each, started with the classpath
+ * and the weather.* system properties of this process. The properties placing
+ * a server in a cluster or replica set are not passed on, each server is
+ * given its own.
+ *
+ * @author Abdullah Atmaca
+ */
+class ServerProcesses implements AutoCloseable {
+
+	private static final String STARTED = "Weather Server started.";
+
+	private static final long START_TIMEOUT_SECONDS = 60;
+
+	private static final List<String> PLACEMENT = Arrays.asList(ServerConfig.PORT, ServerConfig.CLUSTER_SHARDS, ServerConfig.REPLICATION_PORT,
+			ServerConfig.REPLICATION_PRIMARY);
+
+	private final List<Process> processes = new ArrayList<>();
+
+	/**
+	 * A started server.
+	 */
+	static final class Server {
+
+		private final String name;
+
+		private final Process process;
+
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		private Server(String name, Process process) {
+			this.name = name;
+			this.process = process;
+		}
+
+		Process getProcess() {
+			return process;
+		}
+
+		/**
+		 * Wait until the server serves requests.
+		 *
+		 * @throws IOException
+		 *             if the server exited or did not start in time
+		 */
+		void await() throws IOException, InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(START_TIMEOUT_SECONDS);
+			while (!started.await(100, TimeUnit.MILLISECONDS)) {
+				if (!process.isAlive()) {
+					throw new IOException(name + " exited with " + process.exitValue());
+				}
+				if (System.nanoTime() > deadline) {
+					throw new IOException(name + " did not start within " + START_TIMEOUT_SECONDS + " s");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start a server process.
+	 *
+	 * @param name
+	 *            the name of the server in messages
+	 * @param properties
+	 *            the system properties placing the server, at least its port
+	 * @return the server, which may not serve requests yet
+	 */
+	Server launch(String name, Map<String, String> properties) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for (String property : System.getProperties().stringPropertyNames()) {
+			if (property.startsWith("weather.") && !PLACEMENT.contains(property)) {
+				command.add("-D" + property + "=" + System.getProperty(property));
+			}
+		}
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			command.add("-D" + property.getKey() + "=" + property.getValue());
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(WeatherServer.class.getName());
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		processes.add(process);
+		Server server = new Server(name, process);
+		// drain the output, which tells when the server is started
+		Thread reader = new Thread(() -> {
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.startsWith(STARTED)) {
+						server.started.countDown();
+					}
+				}
+			} catch (IOException e) {
+				// the process ended
+			}
+		}, name + "-output");
+		reader.setDaemon(true);
+		reader.start();
+		return server;
+	}
+
+	/**
+	 * Stop a server.
+	 */
+	void stop(Server server) {
+		stop(server.process);
+		processes.remove(server.process);
+	}
+
+	/**
+	 * Stop all servers.
+	 */
+	@Override
+	public void close() {
+		for (Process process : processes) {
+			process.destroy();
+		}
+		for (Process process : processes) {
+			stop(process);
+		}
+		processes.clear();
+	}
+
+	private static void stop(Process process) {
+		process.destroy();
+		try {
+			if (!process.waitFor(10, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package weather.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Sends requests to one shard of the cluster over kept alive HTTP connections.
+ *
+ * @author Abdullah Atmaca
+ */
+public class ShardClient {
+
+	/** status of a reply when the shard could not be reached */
+	public static final int UNREACHABLE = 502;
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+	private static final int READ_TIMEOUT_MILLIS = 30000;
+
+	private final String baseUrl;
+
+	/**
+	 * @param baseUrl
+	 *            the URL of the shard, e.g. http://localhost:9091/
+	 */
+	public ShardClient(String baseUrl) {
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+	}
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	/**
+	 * Send a request and read the whole reply.
+	 *
+	 * @param method
+	 *            the HTTP method
+	 * @param path
+	 *            the path and query, e.g. /query/weather/BOS/100
+	 * @param body
+	 *            the request body or null
+	 * @param contentType
+	 *            the content type of the body
+	 * @return the reply, with the status {@link #UNREACHABLE} if the request
+	 *         failed
+	 */
+	public Reply send(String method, String path, byte[] body, String contentType) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+			connection.setRequestMethod(method);
+			connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+			connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+			if (body != null) {
+				connection.setDoOutput(true);
+				connection.setFixedLengthStreamingMode(body.length);
+				connection.setRequestProperty("Content-Type", contentType);
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(body);
+				}
+			}
+			int status = connection.getResponseCode();
+			// read to the end so the connection is kept alive
+			try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				return new Reply(status, in == null ? new byte[0] : readAll(in));
+			}
+		} catch (IOException e) {
+			return new Reply(UNREACHABLE, new byte[0]);
+		}
+	}
+
+	/**
+	 * @return the remaining bytes of the stream
+	 */
+	public static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * The status and body of a shard's reply.
+	 */
+	public static final class Reply {
+
+		private final int status;
+
+		private final byte[] body;
+
+		Reply(int status, byte[] body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		public boolean isOk() {
+			return status / 100 == 2;
+		}
+	}
+}
@@ -0,0 +1,619 @@
+package weather.cluster;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import weather.cluster.ShardClient.Reply;
+import weather.model.AirportData;
+
+/**
+ * Routes requests to the shards of a cluster. Airports are owned by the shard
+ * chosen by the {@link Partitioning}, so data points and per airport queries
+ * go to one shard, while airport registrations are sent to every shard so each
+ * shard can answer radius queries around any airport. Radius queries are
+ * scattered to the shards which may own airports within the radius: all of
+ * them when partitioning by {@link ConsistentHash}, the shards of the nearby
+ * regions when partitioning by {@link GeoPartitioning}.
+ *
+ * The router keeps the locations of the airports to route by region. When
+ * registrations leave a region partitioning unbalanced, the router moves the
+ * ranges on a background thread: the data points of the airports changing
+ * shard are copied to their new shard with their collection times, which
+ * rebuilds history and rollups there, and then dropped on the old shard,
+ * which keeps the airports. Routing waits while airports move. The
+ * partitioning lives in the router only: a restarted router partitions the
+ * airports of the shards anew and asks the shards which airports they hold
+ * data of, then moves the data the new partitioning assigns elsewhere.
+ *
+ * @author Abdullah Atmaca
+ */
+public class ShardRouter {
+
+	public static final Logger logger = Logger.getLogger(ShardRouter.class.getName());
+
+	private static final Gson gson = new Gson();
+
+	/** status of a shard rejecting a request without changing anything */
+	private static final int BAD_REQUEST = 400;
+
+	/** the update times of the airports of a shard by IATA code */
+	private static final Type UPDATE_TIMES = new TypeToken<Map<String, Long>>() {
+	}.getType();
+
+	private static volatile ShardRouter instance;
+
+	private final List<ShardClient> shards = new ArrayList<>();
+
+	/** routes airports the router does not know, the shards reject them */
+	private final ConsistentHash ring;
+
+	private volatile Partitioning partitioning;
+
+	/** the largest number of airports of a shard relative to the mean before rebalancing */
+	private final double rebalanceThreshold;
+
+	/** the airports registered through this router, by IATA code */
+	private final Map<String, AirportData> airports = new ConcurrentHashMap<>();
+
+	/** the airports which were sent data points, moved when they change shard */
+	private final Set<String> collected = ConcurrentHashMap.newKeySet();
+
+	/** held shared while routing by the partitioning, exclusive while moving airports */
+	private final ReadWriteLock migration = new ReentrantReadWriteLock();
+
+	/**
+	 * shards which could not drop the data of an airport that moved away,
+	 * by IATA code, cleared again on every rebalance, guarded by this
+	 */
+	private final Map<String, BitSet> stale = new HashMap<>();
+
+	/** whether a rebalance is queued and has not started yet */
+	private final AtomicBoolean rebalanceQueued = new AtomicBoolean();
+
+	private final LongAdder radiusQueries = new LongAdder();
+
+	private final LongAdder radiusShards = new LongAdder();
+
+	/** sends the requests of a scatter in parallel, the caller sends the last one */
+	private final ExecutorService executor;
+
+	/** rebalances off the request threads, one at a time */
+	private final ExecutorService rebalancer;
+
+	/**
+	 * Route by the hash of the IATA codes.
+	 *
+	 * @param shardUrls
+	 *            the base URLs of the shards, in the same order on every router
+	 */
+	public ShardRouter(List<String> shardUrls) {
+		this(shardUrls, Partitioning.Strategy.HASH, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param shardUrls
+	 *            the base URLs of the shards, in the same order on every router
+	 * @param strategy
+	 *            how airports are assigned to shards
+	 * @param rebalanceThreshold
+	 *            the largest number of airports of a shard relative to the mean
+	 *            before the airports are spread anew
+	 */
+	public ShardRouter(List<String> shardUrls, Partitioning.Strategy strategy, double rebalanceThreshold) {
+		for (String url : shardUrls) {
+			shards.add(new ShardClient(url));
+		}
+		List<String> names = new ArrayList<>();
+		for (ShardClient shard : shards) {
+			names.add(shard.getBaseUrl());
+		}
+		ring = new ConsistentHash(names);
+		partitioning = strategy == Partitioning.Strategy.GEO ? new GeoPartitioning(shards.size()) : ring;
+		this.rebalanceThreshold = rebalanceThreshold;
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "shard-router-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		rebalancer = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "shard-router-rebalance");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Set the router of the router endpoints.
+	 */
+	public static void setInstance(ShardRouter router) {
+		instance = router;
+	}
+
+	/**
+	 * @return the router of the router endpoints
+	 */
+	public static ShardRouter getInstance() {
+		if (instance == null) {
+			throw new IllegalStateException("no cluster configured");
+		}
+		return instance;
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	public Partitioning getPartitioning() {
+		return partitioning;
+	}
+
+	/**
+	 * @return the index of the shard owning the airport
+	 */
+	public int shardOf(String iataCode) {
+		AirportData ad = airports.get(iataCode);
+		return ad == null ? ring.shardOf(iataCode) : partitioning.shardOf(ad);
+	}
+
+	/**
+	 * Send a request to the shard owning an airport.
+	 */
+	public Reply forward(String iataCode, String method, String path, byte[] body, String contentType) {
+		return shards.get(shardOf(iataCode)).send(method, path, body, contentType);
+	}
+
+	/**
+	 * Run an action routing by the partitioning, moving airports waits until
+	 * it is done.
+	 */
+	public <T> T routed(Supplier<T> action) {
+		migration.readLock().lock();
+		try {
+			return action.get();
+		} finally {
+			migration.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Note that an airport was sent data points, to move them with it.
+	 */
+	public void collected(String iataCode) {
+		if (!collected.contains(iataCode)) {
+			collected.add(iataCode);
+		}
+	}
+
+	/**
+	 * Send a radius query to the shards which may own airports within the
+	 * radius, to all of them if the airport is not known to the router.
+	 *
+	 * @param radius
+	 *            the radius in KM or NaN to ask all shards
+	 * @return the replies in shard order
+	 */
+	public List<Reply> scatterWithin(String iataCode, double radius, String path) {
+		AirportData ad = airports.get(iataCode);
+		BitSet targets;
+		if (ad == null || Double.isNaN(radius)) {
+			targets = new BitSet(shards.size());
+			targets.set(0, shards.size());
+		} else {
+			targets = partitioning.shardsWithin(ad, radius);
+		}
+		radiusQueries.increment();
+		radiusShards.add(targets.cardinality());
+		return scatter(targets, "GET", path, null, null);
+	}
+
+	/**
+	 * @return the number of radius queries scattered
+	 */
+	public long getRadiusQueries() {
+		return radiusQueries.sum();
+	}
+
+	/**
+	 * @return the number of shards the radius queries were sent to
+	 */
+	public long getRadiusQueryShards() {
+		return radiusShards.sum();
+	}
+
+	/**
+	 * Send a request to the given shard on a router thread.
+	 */
+	public CompletableFuture<Reply> sendAsync(int shard, String method, String path, byte[] body, String contentType) {
+		return CompletableFuture.supplyAsync(() -> shards.get(shard).send(method, path, body, contentType), executor);
+	}
+
+	/**
+	 * Send the same request to all shards in parallel.
+	 *
+	 * @return the replies in shard order
+	 */
+	public List<Reply> broadcast(String method, String path, byte[] body, String contentType) {
+		BitSet all = new BitSet(shards.size());
+		all.set(0, shards.size());
+		return scatter(all, method, path, body, contentType);
+	}
+
+	/**
+	 * Send the same request to the given shards in parallel.
+	 *
+	 * @return the replies in shard order
+	 */
+	public List<Reply> scatter(BitSet targets, String method, String path, byte[] body, String contentType) {
+		List<CompletableFuture<Reply>> pending = new ArrayList<>();
+		int last = targets.length() - 1;
+		for (int s = targets.nextSetBit(0); s >= 0 && s < last; s = targets.nextSetBit(s + 1)) {
+			pending.add(sendAsync(s, method, path, body, contentType));
+		}
+		List<Reply> replies = new ArrayList<>();
+		if (last < 0) {
+			return replies;
+		}
+		Reply lastReply = shards.get(last).send(method, path, body, contentType);
+		for (CompletableFuture<Reply> reply : pending) {
+			replies.add(reply.join());
+		}
+		replies.add(lastReply);
+		return replies;
+	}
+
+	/**
+	 * Send a request to the shards in order until one can be reached, for
+	 * state all shards share.
+	 */
+	public Reply sendToAny(String method, String path) {
+		Reply reply = null;
+		for (ShardClient shard : shards) {
+			reply = shard.send(method, path, null, null);
+			if (reply.getStatus() != ShardClient.UNREACHABLE) {
+				break;
+			}
+		}
+		return reply;
+	}
+
+	/**
+	 * Learn the airports registered on the shards, for a router started in
+	 * front of a running cluster, and partition them. The shards holding data
+	 * of each airport are asked as well: the latest data moves to the owner of
+	 * the airport if it is elsewhere, e.g. as the airports were registered in
+	 * another order since the last partitioning, and older data left on other
+	 * shards is dropped.
+	 *
+	 * @return the number of airports known
+	 * @throws IllegalStateException
+	 *             if a shard is not available or data could not be moved, as
+	 *             routing would miss the data of some airports
+	 */
+	public int loadAirports() {
+		Reply reply = sendToAny("GET", "/collect/airports");
+		String[] codes = reply.isOk() ? parse(reply, String[].class) : null;
+		if (codes == null) {
+			logger.warning("Airports of the shards not available: " + reply.getStatus());
+			return 0;
+		}
+		List<AirportData> loaded = new ArrayList<>();
+		for (String code : codes) {
+			JsonObject airport = parse(forward(code, "GET", "/collect/airport/" + segment(code), null, null), JsonObject.class);
+			if (airport != null && airport.has("latitude") && airport.has("longitude")) {
+				loaded.add(new AirportData(code, airport.get("latitude").getAsDouble(), airport.get("longitude").getAsDouble()));
+			}
+		}
+		List<Reply> replies = broadcast("GET", "/collect/airports/updated", null, null);
+		List<Map<String, Long>> updated = new ArrayList<>();
+		for (int s = 0; s < replies.size(); s++) {
+			Map<String, Long> times = parseUpdateTimes(replies.get(s));
+			if (times == null) {
+				throw new IllegalStateException("Data held by shard " + s + " not available: " + replies.get(s).getStatus());
+			}
+			updated.add(times);
+		}
+
+		synchronized (this) {
+			migration.writeLock().lock();
+			try {
+				for (AirportData ad : loaded) {
+					airports.put(ad.getIata(), ad);
+				}
+				if (partitioning instanceof GeoPartitioning) {
+					partitioning = GeoPartitioning.balanced(shards.size(), airports.values());
+				}
+				place(updated);
+			} finally {
+				migration.writeLock().unlock();
+			}
+		}
+		return airports.size();
+	}
+
+	/**
+	 * Move the latest data of each airport to its owner and drop the data
+	 * other shards hold of it.
+	 *
+	 * @param updated
+	 *            the update times of the airports each shard holds data of
+	 */
+	private void place(List<Map<String, Long>> updated) {
+		Map<String, Integer> holders = new HashMap<>();
+		for (int s = 0; s < updated.size(); s++) {
+			for (Map.Entry<String, Long> time : updated.get(s).entrySet()) {
+				Integer holder = holders.get(time.getKey());
+				if (holder == null || updated.get(holder).get(time.getKey()) < time.getValue()) {
+					holders.put(time.getKey(), s);
+				}
+			}
+		}
+		holders.keySet().retainAll(airports.keySet());
+
+		int moved = move(holders, partitioning);
+		if (moved < 0) {
+			throw new IllegalStateException("Data of the airports could not be moved to their owners");
+		}
+		collected.addAll(holders.keySet());
+		for (int s = 0; s < updated.size(); s++) {
+			for (String code : updated.get(s).keySet()) {
+				AirportData ad = airports.get(code);
+				if (ad != null && holders.get(code) != s && partitioning.shardOf(ad) != s) {
+					// an older copy, e.g. left by a failed clear
+					clear(s, code);
+				}
+			}
+		}
+		if (moved > 0) {
+			logger.info(String.format("Moved the data of %d airports to their owners", moved));
+		}
+	}
+
+	/**
+	 * Note airports registered on all shards and rebalance in the background
+	 * if needed.
+	 */
+	public void airportsAdded(Collection<AirportData> added) {
+		for (AirportData ad : added) {
+			// the shards keep the first registration of a code
+			airports.putIfAbsent(ad.getIata(), ad);
+		}
+		queueRebalance();
+	}
+
+	/**
+	 * Note an airport deleted from all shards and rebalance in the background
+	 * if needed.
+	 */
+	public void airportDeleted(String iataCode) {
+		airports.remove(iataCode);
+		collected.remove(iataCode);
+		queueRebalance();
+	}
+
+	/**
+	 * Rebalance on the rebalance thread, unless a rebalance is queued already
+	 * which will see the current airports.
+	 */
+	private void queueRebalance() {
+		if (rebalanceQueued.compareAndSet(false, true)) {
+			rebalancer.execute(() -> {
+				rebalanceQueued.set(false);
+				try {
+					rebalance();
+				} catch (RuntimeException e) {
+					logger.log(Level.SEVERE, "Rebalance failed", e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Spread the airports anew if the partitioning is out of balance, moving
+	 * the data of the airports changing shard. Routing waits until the
+	 * airports are moved. If a shard fails the partitioning is kept.
+	 */
+	private synchronized void rebalance() {
+		clearStale();
+		Partitioning target = partitioning.rebalance(Collections.unmodifiableCollection(airports.values()), rebalanceThreshold);
+		if (target == partitioning) {
+			return;
+		}
+		migration.writeLock().lock();
+		try {
+			long start = System.nanoTime();
+			Map<String, Integer> holders = new HashMap<>();
+			for (String code : collected) {
+				AirportData ad = airports.get(code);
+				if (ad != null) {
+					holders.put(code, partitioning.shardOf(ad));
+				}
+			}
+			int moved = move(holders, target);
+			if (moved >= 0) {
+				partitioning = target;
+				logger.info(String.format("Rebalanced %d airports, moved %d in %d ms", airports.size(), moved,
+						(System.nanoTime() - start) / 1000000));
+			}
+		} finally {
+			migration.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Move the data of the airports to their owner under the given
+	 * partitioning: copy the data points with their collection times from the
+	 * shard holding them to the owner, which replaces any data it has, and
+	 * once all copies succeeded drop them on the holders. Routing must wait.
+	 *
+	 * @param holders
+	 *            the shard holding the data, by IATA code
+	 * @return the number of airports moved, or -1 if a copy failed, then the
+	 *         copies are dropped again and the holders keep the data
+	 */
+	private int move(Map<String, Integer> holders, Partitioning to) {
+		List<Move> moves = new ArrayList<>();
+		for (Map.Entry<String, Integer> holder : holders.entrySet()) {
+			AirportData ad = airports.get(holder.getKey());
+			if (ad != null && to.shardOf(ad) != holder.getValue()) {
+				moves.add(new Move(ad.getIata(), holder.getValue(), to.shardOf(ad)));
+			}
+		}
+
+		for (int i = 0; i < moves.size(); i++) {
+			Move move = moves.get(i);
+			Reply data = shards.get(move.from).send("GET", dataPath(move.iata), null, null);
+			Reply copy = data.isOk() ? shards.get(move.to).send("PUT", dataPath(move.iata), data.getBody(), "application/json") : null;
+			if (copy == null || !copy.isOk()) {
+				logger.warning("Rebalance failed, moving " + move.iata + " from shard " + move.from + " to shard " + move.to + " answered "
+						+ (copy == null ? data : copy).getStatus());
+				// a rejected copy leaves the data of the target unchanged
+				int copied = copy == null || copy.getStatus() == BAD_REQUEST ? i : i + 1;
+				for (Move undo : moves.subList(0, copied)) {
+					clear(undo.to, undo.iata);
+				}
+				return -1;
+			}
+		}
+		for (Move move : moves) {
+			clear(move.from, move.iata);
+		}
+		return moves.size();
+	}
+
+	/**
+	 * Drop the data of an airport on a shard, keeping the airport. A shard
+	 * which fails keeps data it does not own, which radius queries reaching
+	 * it return next to the data of the owner, so it is tried again on every
+	 * rebalance until it succeeds.
+	 *
+	 * @return true if the data was dropped
+	 */
+	private synchronized boolean clear(int shard, String iataCode) {
+		Reply reply = shards.get(shard).send("DELETE", dataPath(iataCode), null, null);
+		if (!reply.isOk()) {
+			logger.severe("Data of " + iataCode + " left on shard " + shard + " which does not own it, clearing answered " + reply.getStatus());
+			stale.computeIfAbsent(iataCode, k -> new BitSet(shards.size())).set(shard);
+			return false;
+		}
+		BitSet shardsLeft = stale.get(iataCode);
+		if (shardsLeft != null) {
+			shardsLeft.clear(shard);
+			if (shardsLeft.isEmpty()) {
+				stale.remove(iataCode);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Try again to drop the data left on shards which do not own it.
+	 */
+	private synchronized void clearStale() {
+		for (Map.Entry<String, BitSet> left : new ArrayList<>(stale.entrySet())) {
+			AirportData ad = airports.get(left.getKey());
+			if (ad == null) {
+				// deleted since
+				stale.remove(left.getKey());
+				continue;
+			}
+			BitSet shardsLeft = (BitSet) left.getValue().clone();
+			for (int shard = shardsLeft.nextSetBit(0); shard >= 0; shard = shardsLeft.nextSetBit(shard + 1)) {
+				if (partitioning.shardOf(ad) == shard) {
+					// owned again, moving the airport back replaced the data
+					left.getValue().clear(shard);
+				} else {
+					clear(shard, left.getKey());
+				}
+			}
+			if (left.getValue().isEmpty()) {
+				stale.remove(left.getKey());
+			}
+		}
+	}
+
+	/**
+	 * @return the number of airports with data left on shards which do not own
+	 *         it, see {@link #clear(int, String)}
+	 */
+	public synchronized int getStaleAirports() {
+		return stale.size();
+	}
+
+	private static String dataPath(String iataCode) {
+		return "/collect/airport/" + segment(iataCode) + "/data";
+	}
+
+	/** the data of an airport changing shard */
+	private static final class Move {
+
+		final String iata;
+
+		final int from;
+
+		final int to;
+
+		Move(String iata, int from, int to) {
+			this.iata = iata;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * @return the update times of the airports by IATA code from a reply to
+	 *         /collect/airports/updated, or null if the shard failed
+	 */
+	public static Map<String, Long> parseUpdateTimes(Reply reply) {
+		return parse(reply, UPDATE_TIMES);
+	}
+
+	private static <T> T parse(Reply reply, Type type) {
+		if (!reply.isOk()) {
+			return null;
+		}
+		try {
+			return gson.fromJson(new String(reply.getBody(), StandardCharsets.UTF_8), type);
+		} catch (JsonParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the string encoded as a path segment
+	 */
+	public static String segment(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
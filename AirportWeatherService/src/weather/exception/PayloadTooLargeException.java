@@ -0,0 +1,15 @@
+package weather.exception;
+
+/**
+ * A request body is larger than the endpoint accepts.
+ * 
+ * @author Abdullah Atmaca
+ */
+public class PayloadTooLargeException extends WeatherException {
+
+	private static final long serialVersionUID = 5214563179024838412L;
+
+	public PayloadTooLargeException(String message) {
+		super(message);
+	}
+}
@@ -151,4 +151,8 @@ public class AirportData {
 
 		return false;
 	}
+
+	public int hashCode() {
+		return getIata() == null ? 0 : getIata().hashCode();
+	}
 }
@@ -1,104 +1,128 @@
 package weather.model;
 
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
 /**
- * encapsulates sensor information for a particular location
+ * encapsulates sensor information for a particular location. Instances are
+ * immutable snapshots, {@link #update(DataPointType, DataPoint)} returns a new
+ * snapshot so readers always see a consistent set of data points and their
+ * update time.
  */
 public class AtmosphericInformation {
 
 	/** temperature in degrees celsius */
-	private DataPoint temperature;
+	private final DataPoint temperature;
 
 	/** wind speed in km/h */
-	private DataPoint wind;
+	private final DataPoint wind;
 
 	/** humidity in percent */
-	private DataPoint humidity;
+	private final DataPoint humidity;
 
 	/** precipitation in cm */
-	private DataPoint precipitation;
+	private final DataPoint precipitation;
 
 	/** pressure in mmHg */
-	private DataPoint pressure;
+	private final DataPoint pressure;
 
 	/** cloud cover percent from 0 - 100 (integer) */
-	private DataPoint cloudCover;
+	private final DataPoint cloudCover;
 
 	/** the last time this data was updated, in milliseconds since UTC epoch */
-	private long lastUpdateTime;
+	private final long lastUpdateTime;
 
-	public AtmosphericInformation() {
+	/**
+	 * writes non-finite values as NaN or Infinity instead of failing, should a
+	 * restored snapshot hold one which ingest would reject
+	 */
+	private static final Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
 
+	/** UTF-8 JSON of this snapshot, created on first use */
+	private transient volatile byte[] json;
+
+	public AtmosphericInformation() {
+		this(null, null, null, null, null, null, 0);
 	}
 
 	protected AtmosphericInformation(DataPoint temperature, DataPoint wind, DataPoint humidity, DataPoint percipitation, DataPoint pressure,
 			DataPoint cloudCover) {
+		this(temperature, wind, humidity, percipitation, pressure, cloudCover, System.currentTimeMillis());
+	}
+
+	public AtmosphericInformation(DataPoint temperature, DataPoint wind, DataPoint humidity, DataPoint percipitation, DataPoint pressure,
+			DataPoint cloudCover, long lastUpdateTime) {
 		this.temperature = temperature;
 		this.wind = wind;
 		this.humidity = humidity;
 		this.precipitation = percipitation;
 		this.pressure = pressure;
 		this.cloudCover = cloudCover;
-		this.lastUpdateTime = System.currentTimeMillis();
+		this.lastUpdateTime = lastUpdateTime;
 	}
 
 	public DataPoint getTemperature() {
 		return temperature;
 	}
 
-	public void setTemperature(DataPoint temperature) {
-		this.temperature = temperature;
-	}
-
 	public DataPoint getWind() {
 		return wind;
 	}
 
-	public void setWind(DataPoint wind) {
-		this.wind = wind;
-	}
-
 	public DataPoint getHumidity() {
 		return humidity;
 	}
 
-	public void setHumidity(DataPoint humidity) {
-		this.humidity = humidity;
-	}
-
 	public DataPoint getPrecipitation() {
 		return precipitation;
 	}
 
-	public void setPrecipitation(DataPoint precipitation) {
-		this.precipitation = precipitation;
-	}
-
 	public DataPoint getPressure() {
 		return pressure;
 	}
 
-	public void setPressure(DataPoint pressure) {
-		this.pressure = pressure;
-	}
-
 	public DataPoint getCloudCover() {
 		return cloudCover;
 	}
 
-	public void setCloudCover(DataPoint cloudCover) {
-		this.cloudCover = cloudCover;
-	}
-
 	public long getLastUpdateTime() {
 		return this.lastUpdateTime;
 	}
 
-	public void setLastUpdateTime(long lastUpdateTime) {
-		this.lastUpdateTime = lastUpdateTime;
+	/**
+	 * @param dptype
+	 *            a data point type
+	 * @return the data point of the given type or null if not collected yet
+	 */
+	public DataPoint getDataPoint(DataPointType dptype) {
+		switch (dptype) {
+		case WIND:
+			return wind;
+		case TEMPERATURE:
+			return temperature;
+		case HUMIDITY:
+			return humidity;
+		case PRESSURE:
+			return pressure;
+		case CLOUDCOVER:
+			return cloudCover;
+		case PRECIPITATION:
+			return precipitation;
+		default:
+			throw new IllegalArgumentException("unknown data point type " + dptype);
+		}
 	}
 
 	public boolean checkValidity(DataPointType dptype, DataPoint dp) {
 
+		// infinite or NaN values can not be written as JSON
+		if (!Double.isFinite(dp.getMean()) || !Double.isFinite(dp.getFirst()) || !Double.isFinite(dp.getSecond())
+				|| !Double.isFinite(dp.getThird())) {
+			return false;
+		}
+
 		boolean validity = true;
 
 		switch (dptype) {
@@ -128,33 +152,91 @@ public class AtmosphericInformation {
 		return validity;
 	}
 
-	public void update(DataPointType dptype, DataPoint dp) {
+	/**
+	 * The JSON of this snapshot. Snapshots are immutable, so it is serialized
+	 * once and every response containing the snapshot copies the same bytes.
+	 *
+	 * @return the UTF-8 JSON, which must not be modified
+	 */
+	public byte[] toJson() {
+		byte[] bytes = json;
+		if (bytes == null) {
+			bytes = gson.toJson(this).getBytes(StandardCharsets.UTF_8);
+			json = bytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return true if at least one data point has been collected
+	 */
+	public boolean hasData() {
+		return cloudCover != null || humidity != null || pressure != null || precipitation != null || temperature != null || wind != null;
+	}
+
+	/**
+	 * Create a new snapshot with the given data point replaced, updated now.
+	 *
+	 * @param dptype
+	 *            the type of the data point
+	 * @param dp
+	 *            the data point
+	 * @return the new snapshot, this instance is not modified
+	 * @throws IllegalStateException
+	 *             if the data point is not valid for its type
+	 */
+	public AtmosphericInformation update(DataPointType dptype, DataPoint dp) {
+		return update(dptype, dp, System.currentTimeMillis());
+	}
+
+	/**
+	 * Create a new snapshot with the given data point replaced.
+	 *
+	 * @param dptype
+	 *            the type of the data point
+	 * @param dp
+	 *            the data point
+	 * @param updateTime
+	 *            the update time of the new snapshot, in milliseconds since UTC
+	 *            epoch
+	 * @return the new snapshot, this instance is not modified
+	 * @throws IllegalStateException
+	 *             if the data point is not valid for its type
+	 */
+	public AtmosphericInformation update(DataPointType dptype, DataPoint dp, long updateTime) {
 
 		if (checkValidity(dptype, dp)) {
 
+			DataPoint temperature = this.temperature;
+			DataPoint wind = this.wind;
+			DataPoint humidity = this.humidity;
+			DataPoint precipitation = this.precipitation;
+			DataPoint pressure = this.pressure;
+			DataPoint cloudCover = this.cloudCover;
+
 			switch (dptype) {
 			case WIND:
-				setWind(dp);
+				wind = dp;
 				break;
 			case TEMPERATURE:
-				setTemperature(dp);
+				temperature = dp;
 				break;
 			case HUMIDITY:
-				setHumidity(dp);
+				humidity = dp;
 				break;
 			case PRESSURE:
-				setPressure(dp);
+				pressure = dp;
 				break;
 			case CLOUDCOVER:
-				setCloudCover(dp);
+				cloudCover = dp;
 				break;
 			case PRECIPITATION:
-				setPrecipitation(dp);
+				precipitation = dp;
 				break;
 			default:
 				throw new IllegalStateException("couldn't update atmospheric data");
 			}
-			setLastUpdateTime(System.currentTimeMillis());
+			return new AtmosphericInformation(temperature, wind, humidity, precipitation, pressure, cloudCover, updateTime);
 		} else {
 			throw new IllegalStateException("couldn't update atmospheric data");
 		}
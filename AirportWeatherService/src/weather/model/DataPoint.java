@@ -5,32 +5,34 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 
 /**
  * A collected point, including some information about the range of collected
- * values
+ * values. Instances are immutable, so the {@link AtmosphericInformation}
+ * snapshots sharing them can not be changed after they are published.
  *
  * @author code test administrator
  */
 public class DataPoint {
 
-	public double mean = 0.0;
+	private final double mean;
 
-	public double first = 0;
+	private final double first;
 
-	public double second = 0.0;
+	private final double second;
 
-	public double third = 0;
+	private final double third;
 
-	public int count = 0;
+	private final int count;
 
 	/** private constructor, use the builder to create this object */
 	private DataPoint() {
+		this(0, 0, 0, 0, 0);
 	}
 
 	protected DataPoint(double first, double mean, double second, double third, int count) {
-		this.setFirst(first);
-		this.setMean(mean);
-		this.setSecond(second);
-		this.setThird(third);
-		this.setCount(count);
+		this.first = first;
+		this.mean = mean;
+		this.second = second;
+		this.third = third;
+		this.count = count;
 	}
 
 	/** 1st quartile -- useful as a lower bound */
@@ -38,46 +40,26 @@ public class DataPoint {
 		return first;
 	}
 
-	protected void setFirst(double first) {
-		this.first = first;
-	}
-
 	/** the mean of the observations */
 	public double getMean() {
 		return mean;
 	}
 
-	public void setMean(double mean) {
-		this.mean = mean;
-	}
-
 	/** 2nd quartile -- median value */
 	public double getSecond() {
 		return second;
 	}
 
-	protected void setSecond(double second) {
-		this.second = second;
-	}
-
 	/** 3rd quartile value -- less noisy upper value */
 	public double getThird() {
 		return third;
 	}
 
-	protected void setThird(double third) {
-		this.third = third;
-	}
-
 	/** the total number of measurements */
 	public int getCount() {
 		return count;
 	}
 
-	protected void setCount(int count) {
-		this.count = count;
-	}
-
 	public String toString() {
 		return ReflectionToStringBuilder.toString(this, ToStringStyle.NO_CLASS_NAME_STYLE);
 	}
@@ -0,0 +1,37 @@
+package weather.model;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * A data point together with the time it was collected.
+ *
+ * @author Abdullah Atmaca
+ */
+public class DataPointRecord {
+
+	/** collection time in milliseconds since UTC epoch */
+	private long timestamp;
+
+	private DataPoint dataPoint;
+
+	public DataPointRecord() {
+	}
+
+	public DataPointRecord(long timestamp, DataPoint dataPoint) {
+		this.timestamp = timestamp;
+		this.dataPoint = dataPoint;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public DataPoint getDataPoint() {
+		return dataPoint;
+	}
+
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this, ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
@@ -6,5 +6,26 @@ package weather.model;
  * @author code test administrator
  */
 public enum DataPointType {
-	WIND, TEMPERATURE, HUMIDITY, PRESSURE, CLOUDCOVER, PRECIPITATION
+	WIND, TEMPERATURE, HUMIDITY, PRESSURE, CLOUDCOVER, PRECIPITATION;
+
+	private static final DataPointType[] VALUES = values();
+
+	/**
+	 * Resolve a point type by its name ignoring case, without creating any
+	 * strings as <code>valueOf(name.toUpperCase())</code> would.
+	 *
+	 * @param name
+	 *            the point type name
+	 * @return the point type or null if the name is unknown
+	 */
+	public static DataPointType fromName(String name) {
+		if (name != null) {
+			for (DataPointType type : VALUES) {
+				if (type.name().equalsIgnoreCase(name)) {
+					return type;
+				}
+			}
+		}
+		return null;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package weather.model;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * A collected data point addressed to an airport, one record of a batch
+ * update.
+ *
+ * @author Abdullah Atmaca
+ */
+public class DataPointUpdate {
+
+	/** the three letter IATA code */
+	private String iata;
+
+	/** the point type, see {@link DataPointType} */
+	private String pointType;
+
+	/** the collected data point */
+	private DataPoint dataPoint;
+
+	public DataPointUpdate() {
+	}
+
+	public DataPointUpdate(String iata, String pointType, DataPoint dataPoint) {
+		this.iata = iata;
+		this.pointType = pointType;
+		this.dataPoint = dataPoint;
+	}
+
+	public String getIata() {
+		return iata;
+	}
+
+	public String getPointType() {
+		return pointType;
+	}
+
+	public DataPoint getDataPoint() {
+		return dataPoint;
+	}
+
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this, ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
@@ -0,0 +1,68 @@
+package weather.model;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Aggregate of the mean values of the data points collected in one time
+ * bucket.
+ *
+ * @author Abdullah Atmaca
+ */
+public class RollupBucket {
+
+	/** bucket start in milliseconds since UTC epoch */
+	private long start;
+
+	/** bucket length in milliseconds */
+	private long resolution;
+
+	private double min;
+
+	private double max;
+
+	private double mean;
+
+	/** number of data points aggregated */
+	private long count;
+
+	public RollupBucket() {
+	}
+
+	public RollupBucket(long start, long resolution, double min, double max, double mean, long count) {
+		this.start = start;
+		this.resolution = resolution;
+		this.min = min;
+		this.max = max;
+		this.mean = mean;
+		this.count = count;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getResolution() {
+		return resolution;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this, ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
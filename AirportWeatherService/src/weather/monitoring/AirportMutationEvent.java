@@ -0,0 +1,48 @@
+package weather.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a change of the airport registry, including the
+ * time spent waiting for the registry lock.
+ *
+ * @author Abdullah Atmaca
+ */
+@Name("weather.AirportMutation")
+@Label("Airport Mutation")
+@Category("Weather Service")
+@Description("Airports added to or removed from the registry")
+@StackTrace(false)
+public class AirportMutationEvent extends Event implements WeatherEvents.AirportMutationProbe {
+
+	@Label("Operation")
+	@Description("add, clear, delete or reset")
+	String operation;
+
+	@Label("Airport")
+	@Description("The airport, null if several airports changed")
+	String airport;
+
+	@Label("Airports")
+	@Description("The number of airports added or removed")
+	int airports;
+
+	/**
+	 * End the event and commit it if it is enabled and above its threshold.
+	 */
+	@Override
+	public void complete(String operation, String airport, int airports) {
+		end();
+		if (shouldCommit()) {
+			this.operation = operation;
+			this.airport = airport;
+			this.airports = airports;
+			commit();
+		}
+	}
+}
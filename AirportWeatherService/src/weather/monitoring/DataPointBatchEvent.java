@@ -0,0 +1,50 @@
+package weather.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of the data points of one airport collected in a
+ * batch update, lasting from the airport lookup until the single new snapshot
+ * is published.
+ *
+ * @author Abdullah Atmaca
+ */
+@Name("weather.DataPointBatch")
+@Label("Data Point Batch")
+@Category("Weather Service")
+@Description("Data points collected for an airport in one batch")
+@StackTrace(false)
+@Threshold("1 ms")
+public class DataPointBatchEvent extends Event implements WeatherEvents.DataPointBatchProbe {
+
+	@Label("Airport")
+	String airport;
+
+	@Label("Points")
+	@Description("The data points of the airport in the batch")
+	int points;
+
+	@Label("Accepted")
+	@Description("The data points applied, the others were invalid, of an unknown type or for an unknown airport")
+	int accepted;
+
+	/**
+	 * End the event and commit it if it is enabled and above its threshold.
+	 */
+	@Override
+	public void complete(String airport, int points, int accepted) {
+		end();
+		if (shouldCommit()) {
+			this.airport = airport;
+			this.points = points;
+			this.accepted = accepted;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package weather.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of a data point collected by the weather service,
+ * lasting from the airport lookup until the new snapshot is published.
+ *
+ * @author Abdullah Atmaca
+ */
+@Name("weather.DataPoint")
+@Label("Data Point")
+@Category("Weather Service")
+@Description("A data point collected for an airport")
+@StackTrace(false)
+@Threshold("1 ms")
+public class DataPointEvent extends Event implements WeatherEvents.DataPointProbe {
+
+	@Label("Airport")
+	String airport;
+
+	@Label("Point Type")
+	String pointType;
+
+	@Label("Outcome")
+	@Description("accepted, invalid, unknown airport or unknown type")
+	String outcome;
+
+	/**
+	 * End the event and commit it if it is enabled and above its threshold.
+	 */
+	@Override
+	public void complete(String airport, String pointType, String outcome) {
+		end();
+		if (shouldCommit()) {
+			this.airport = airport;
+			this.pointType = pointType;
+			this.outcome = outcome;
+			commit();
+		}
+	}
+}
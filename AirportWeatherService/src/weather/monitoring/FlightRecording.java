@@ -0,0 +1,48 @@
+package weather.monitoring;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Starts a continuous flight recording with the bundled weather.jfc settings,
+ * keeping the last hour and writing it to a file when the process exits.
+ *
+ * @author Abdullah Atmaca
+ */
+public class FlightRecording {
+
+	public static final String SETTINGS = "weather.jfc";
+
+	private FlightRecording() {
+	}
+
+	/**
+	 * @param destination
+	 *            the file the recording is written to on exit
+	 * @return the started recording
+	 * @throws IOException
+	 *             if the settings can not be read or the file not written
+	 * @throws ParseException
+	 *             if the settings are malformed
+	 */
+	public static Recording start(Path destination) throws IOException, ParseException {
+		try (Reader reader = new InputStreamReader(FlightRecording.class.getResourceAsStream(SETTINGS), StandardCharsets.UTF_8)) {
+			Recording recording = new Recording(Configuration.create(reader));
+			recording.setName("weather");
+			recording.setToDisk(true);
+			recording.setMaxAge(Duration.ofHours(1));
+			recording.setDestination(destination);
+			recording.setDumpOnExit(true);
+			recording.start();
+			return recording;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package weather.monitoring;
+
+/**
+ * The bucket layout of a log-linear histogram in the spirit of HdrHistogram:
+ * values below twice the number of sub-buckets are counted exactly, larger ones
+ * in a fixed number of sub-buckets per power of two, so every value is kept
+ * with a relative error below one over the number of sub-buckets. Finding the
+ * bucket of a value is a few shifts.
+ *
+ * Only the layout is shared, callers keep the counts in whatever array suits
+ * their threading, e.g. a plain long[] per thread or an AtomicLongArray.
+ *
+ * @author Abdullah Atmaca
+ */
+public final class LogLinearBuckets {
+
+	private final int subBucketBits;
+
+	private final int subBuckets;
+
+	/** values below this are counted exactly */
+	private final int linear;
+
+	private final int bucketCount;
+
+	/**
+	 * @param subBucketBits
+	 *            log2 of the sub-buckets per power of two
+	 * @param valueBits
+	 *            values up to 2^valueBits - 1 get their own bucket, larger ones
+	 *            are counted in the last bucket; 63 for all non negative longs
+	 */
+	public LogLinearBuckets(int subBucketBits, int valueBits) {
+		if (subBucketBits < 1 || valueBits <= subBucketBits + 1 || valueBits > 63) {
+			throw new IllegalArgumentException("bad layout " + subBucketBits + "/" + valueBits);
+		}
+		this.subBucketBits = subBucketBits;
+		this.subBuckets = 1 << subBucketBits;
+		this.linear = 2 * subBuckets;
+		this.bucketCount = linear + (valueBits - subBucketBits - 1) * subBuckets;
+	}
+
+	/**
+	 * @return the number of buckets, the length of the count arrays
+	 */
+	public int getBucketCount() {
+		return bucketCount;
+	}
+
+	/**
+	 * @param value
+	 *            a non negative value
+	 * @return the bucket counting the value
+	 */
+	public int index(long value) {
+		if (value < linear) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - subBucketBits;
+		return (int) Math.min(bucketCount - 1, linear + (long) (magnitude - subBucketBits - 1) * subBuckets + ((value >>> shift) - subBuckets));
+	}
+
+	/**
+	 * @param index
+	 *            a bucket
+	 * @return the largest value counted in the bucket
+	 */
+	public long highestEquivalentValue(int index) {
+		if (index < linear) {
+			return index;
+		}
+		int magnitude = (index - linear) / subBuckets + subBucketBits + 1;
+		int shift = magnitude - subBucketBits;
+		long lowest = (long) ((index - linear) % subBuckets + subBuckets) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * @param counts
+	 *            the count of each bucket
+	 * @param total
+	 *            the sum of the counts
+	 * @param max
+	 *            the largest value recorded
+	 * @param percentile
+	 *            a percentile from 0 to 100
+	 * @return the largest value equivalent to the value at the percentile, at
+	 *         most max
+	 */
+	public long valueAtPercentile(long[] counts, long total, long max, double percentile) {
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long count = 0;
+		for (int i = 0; i < bucketCount; i++) {
+			count += counts[i];
+			if (count >= target) {
+				return Math.min(highestEquivalentValue(i), max);
+			}
+		}
+		return max;
+	}
+}
@@ -0,0 +1,57 @@
+package weather.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of a radius query of the weather service.
+ *
+ * @author Abdullah Atmaca
+ */
+@Name("weather.RadiusQuery")
+@Label("Radius Query")
+@Category("Weather Service")
+@Description("A search for the airports within a radius of an airport")
+@StackTrace(false)
+@Threshold("1 ms")
+public class RadiusQueryEvent extends Event implements WeatherEvents.RadiusQueryProbe {
+
+	@Label("Origin")
+	String origin;
+
+	@Label("Radius")
+	@Description("The radius in KM")
+	double radius;
+
+	@Label("Candidates")
+	@Description("The airports in the grid cells scanned, 0 if answered from the cache")
+	int candidates;
+
+	@Label("Results")
+	int results;
+
+	@Label("Cached")
+	@Description("Whether the result was served from the query cache")
+	boolean cached;
+
+	/**
+	 * End the event and commit it if it is enabled and above its threshold.
+	 */
+	@Override
+	public void complete(String origin, double radius, int candidates, int results, boolean cached) {
+		end();
+		if (shouldCommit()) {
+			this.origin = origin;
+			this.radius = radius;
+			this.candidates = candidates;
+			this.results = results;
+			this.cached = cached;
+			commit();
+		}
+	}
+}
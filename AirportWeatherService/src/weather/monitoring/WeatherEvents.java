@@ -0,0 +1,156 @@
+package weather.monitoring;
+
+/**
+ * Begins the flight recorder events of the weather service. Callers only see
+ * the interfaces below: the jdk.jfr event classes are loaded when the first
+ * event begins and only if the JVM has a flight recorder, so the service also
+ * runs on JVMs without one, where every event is a no-op.
+ *
+ * @author Abdullah Atmaca
+ */
+public final class WeatherEvents {
+
+	/** whether jdk.jfr can be loaded */
+	private static final boolean AVAILABLE = isJfrPresent();
+
+	private WeatherEvents() {
+	}
+
+	/** a begun {@link DataPointEvent} */
+	public interface DataPointProbe {
+
+		String ACCEPTED = "accepted";
+
+		String INVALID = "invalid";
+
+		String UNKNOWN_AIRPORT = "unknown airport";
+
+		String UNKNOWN_TYPE = "unknown type";
+
+		void complete(String airport, String pointType, String outcome);
+	}
+
+	/** a begun {@link DataPointBatchEvent} */
+	public interface DataPointBatchProbe {
+
+		void complete(String airport, int points, int accepted);
+	}
+
+	/** a begun {@link RadiusQueryEvent} */
+	public interface RadiusQueryProbe {
+
+		/** @return false if completing the event records nothing */
+		boolean isEnabled();
+
+		void complete(String origin, double radius, int candidates, int results, boolean cached);
+	}
+
+	/** a begun {@link AirportMutationEvent} */
+	public interface AirportMutationProbe {
+
+		String ADD = "add";
+
+		String CLEAR = "clear";
+
+		String DELETE = "delete";
+
+		String RESET = "reset";
+
+		void complete(String operation, String airport, int airports);
+	}
+
+	/** completes without recording anything */
+	private static final class Disabled implements DataPointProbe, DataPointBatchProbe, RadiusQueryProbe, AirportMutationProbe {
+
+		static final Disabled INSTANCE = new Disabled();
+
+		@Override
+		public void complete(String airport, String pointType, String outcome) {
+		}
+
+		@Override
+		public void complete(String airport, int points, int accepted) {
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+
+		@Override
+		public void complete(String origin, double radius, int candidates, int results, boolean cached) {
+		}
+
+		@Override
+		public void complete(String operation, String airport, int airports) {
+		}
+	}
+
+	/**
+	 * Creates the jdk.jfr events, only loaded if {@link #AVAILABLE} so the
+	 * event classes are never resolved without a flight recorder.
+	 */
+	private static final class Recorder {
+
+		static DataPointProbe dataPoint() {
+			DataPointEvent event = new DataPointEvent();
+			event.begin();
+			return event;
+		}
+
+		static DataPointBatchProbe dataPointBatch() {
+			DataPointBatchEvent event = new DataPointBatchEvent();
+			event.begin();
+			return event;
+		}
+
+		static RadiusQueryProbe radiusQuery() {
+			RadiusQueryEvent event = new RadiusQueryEvent();
+			event.begin();
+			return event;
+		}
+
+		static AirportMutationProbe airportMutation() {
+			AirportMutationEvent event = new AirportMutationEvent();
+			event.begin();
+			return event;
+		}
+	}
+
+	/**
+	 * @return whether the JVM has a flight recorder, e.g. for
+	 *         {@link FlightRecording}
+	 */
+	public static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	/** @return a begun data point event */
+	public static DataPointProbe dataPoint() {
+		return AVAILABLE ? Recorder.dataPoint() : Disabled.INSTANCE;
+	}
+
+	/** @return a begun event of the data points of one airport in a batch */
+	public static DataPointBatchProbe dataPointBatch() {
+		return AVAILABLE ? Recorder.dataPointBatch() : Disabled.INSTANCE;
+	}
+
+	/** @return a begun radius query event */
+	public static RadiusQueryProbe radiusQuery() {
+		return AVAILABLE ? Recorder.radiusQuery() : Disabled.INSTANCE;
+	}
+
+	/** @return a begun airport mutation event */
+	public static AirportMutationProbe airportMutation() {
+		return AVAILABLE ? Recorder.airportMutation() : Disabled.INSTANCE;
+	}
+
+	private static boolean isJfrPresent() {
+		try {
+			Class.forName("jdk.jfr.Event", false, WeatherEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+}
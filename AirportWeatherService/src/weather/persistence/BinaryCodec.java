@@ -0,0 +1,72 @@
+package weather.persistence;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+
+/**
+ * The compact binary encoding of data points and atmospheric information
+ * shared by the persistent files. All values are big endian.
+ *
+ * A data point is written as first, mean, second and third (doubles) followed
+ * by count (int). Atmospheric information is written as the last update time
+ * (long), a byte with bit n set if the data point of the {@link DataPointType}
+ * with ordinal n is present, and the present data points in ordinal order.
+ *
+ * @author Abdullah Atmaca
+ */
+public final class BinaryCodec {
+
+	private static final DataPointType[] TYPES = DataPointType.values();
+
+	private BinaryCodec() {
+	}
+
+	public static void writeDataPoint(DataOutput out, DataPoint dp) throws IOException {
+		out.writeDouble(dp.getFirst());
+		out.writeDouble(dp.getMean());
+		out.writeDouble(dp.getSecond());
+		out.writeDouble(dp.getThird());
+		out.writeInt(dp.getCount());
+	}
+
+	public static DataPoint readDataPoint(ByteBuffer in) {
+		return new DataPoint.Builder().withFirst(in.getDouble()).withMean(in.getDouble()).withMedian(in.getDouble())
+				.withLast(in.getDouble()).withCount(in.getInt()).build();
+	}
+
+	public static void writeAtmosphericInformation(DataOutput out, AtmosphericInformation ai) throws IOException {
+		out.writeLong(ai.getLastUpdateTime());
+		int mask = 0;
+		for (DataPointType type : TYPES) {
+			if (ai.getDataPoint(type) != null) {
+				mask |= 1 << type.ordinal();
+			}
+		}
+		out.writeByte(mask);
+		for (DataPointType type : TYPES) {
+			DataPoint dp = ai.getDataPoint(type);
+			if (dp != null) {
+				writeDataPoint(out, dp);
+			}
+		}
+	}
+
+	public static AtmosphericInformation readAtmosphericInformation(ByteBuffer in) {
+		long lastUpdateTime = in.getLong();
+		int mask = in.get();
+		DataPoint[] points = new DataPoint[TYPES.length];
+		for (DataPointType type : TYPES) {
+			if ((mask & 1 << type.ordinal()) != 0) {
+				points[type.ordinal()] = readDataPoint(in);
+			}
+		}
+		return new AtmosphericInformation(points[DataPointType.TEMPERATURE.ordinal()], points[DataPointType.WIND.ordinal()],
+				points[DataPointType.HUMIDITY.ordinal()], points[DataPointType.PRECIPITATION.ordinal()],
+				points[DataPointType.PRESSURE.ordinal()], points[DataPointType.CLOUDCOVER.ordinal()], lastUpdateTime);
+	}
+}
@@ -0,0 +1,95 @@
+package weather.persistence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import weather.service.WeatherService;
+
+/**
+ * Ties the snapshot and the write ahead log together: on startup the latest
+ * snapshot is loaded and the log replayed onto it, a checkpoint writes a new
+ * snapshot and drops the log segments it covers. Either part is optional.
+ *
+ * @author Abdullah Atmaca
+ */
+public class PersistenceManager implements AutoCloseable {
+
+	public static final Logger logger = Logger.getLogger(PersistenceManager.class.getName());
+
+	private final WeatherService weatherService;
+
+	private final SnapshotStore snapshotStore;
+
+	private final Path walBase;
+
+	private final WriteAheadLog.Durability durability;
+
+	private WriteAheadLog wal;
+
+	/**
+	 * @param weatherService
+	 *            the service to persist
+	 * @param snapshotFile
+	 *            the snapshot file or null for no snapshots
+	 * @param walBase
+	 *            the base path of the write ahead log or null for no log
+	 * @param durability
+	 *            the durability mode of the log
+	 */
+	public PersistenceManager(WeatherService weatherService, Path snapshotFile, Path walBase, WriteAheadLog.Durability durability) {
+		this.weatherService = weatherService;
+		this.snapshotStore = snapshotFile == null ? null : new SnapshotStore(snapshotFile, weatherService);
+		this.walBase = walBase;
+		this.durability = durability;
+	}
+
+	/**
+	 * Restore the persisted state and start logging mutations.
+	 *
+	 * @throws IOException
+	 *             if the state can not be restored or the log not opened
+	 */
+	public synchronized void start() throws IOException {
+		if (snapshotStore != null) {
+			logger.info("restored " + snapshotStore.load() + " airports from " + snapshotStore.getFile());
+		}
+		if (walBase != null) {
+			logger.info("replayed " + WriteAheadLog.replay(walBase, weatherService) + " log records from " + walBase);
+			wal = new WriteAheadLog(walBase, durability);
+			weatherService.setJournal(wal);
+		}
+	}
+
+	/**
+	 * Write a snapshot and delete the log segments written before it started.
+	 *
+	 * @throws IOException
+	 *             if the snapshot can not be written
+	 */
+	public synchronized void checkpoint() throws IOException {
+		if (snapshotStore == null) {
+			return;
+		}
+		long firstSegment = wal == null ? 0 : wal.rotate();
+		snapshotStore.write();
+		if (wal != null) {
+			wal.deleteSegmentsBefore(firstSegment);
+		}
+	}
+
+	/**
+	 * Write a final snapshot and stop logging.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			checkpoint();
+		} finally {
+			if (wal != null) {
+				weatherService.setJournal(null);
+				wal.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package weather.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.service.AirportEntry;
+import weather.service.AirportRegistry;
+import weather.service.WeatherService;
+
+/**
+ * Writes the known airports and their latest atmospheric information to a
+ * compact binary snapshot file and restores them on startup.
+ *
+ * The file starts with a header of magic (int), format version (int), creation
+ * time (long) and airport count (int), followed by one record per airport: the
+ * packed IATA code (int), latitude and longitude (doubles) and the atmospheric
+ * information as encoded by {@link BinaryCodec}.
+ *
+ * Snapshots are written to a temporary file which then replaces the previous
+ * snapshot, so a crash while writing never destroys the last good snapshot.
+ * Loading memory maps the file.
+ *
+ * @author Abdullah Atmaca
+ */
+public class SnapshotStore {
+
+	public static final Logger logger = Logger.getLogger(SnapshotStore.class.getName());
+
+	/** "AWS1" */
+	private static final int MAGIC = 0x41575331;
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final Path file;
+
+	private final WeatherService weatherService;
+
+	public SnapshotStore(Path file, WeatherService weatherService) {
+		this.file = file;
+		this.weatherService = weatherService;
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Write a snapshot of all airports.
+	 *
+	 * @return the number of airports written
+	 * @throws IOException
+	 *             if the snapshot can not be written
+	 */
+	public synchronized int write() throws IOException {
+		List<AirportEntry> entries = weatherService.getAirportEntries();
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+			write(out, entries);
+		}
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return entries.size();
+	}
+
+	/**
+	 * Write a snapshot of the airports in the format of the snapshot file.
+	 *
+	 * @param out
+	 *            the output
+	 * @param entries
+	 *            the registry entries of the airports
+	 * @throws IOException
+	 *             if the output fails
+	 */
+	public static void write(DataOutputStream out, List<AirportEntry> entries) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeLong(System.currentTimeMillis());
+		out.writeInt(entries.size());
+		for (AirportEntry entry : entries) {
+			AirportData ad = entry.getAirportData();
+			out.writeInt(entry.getKey());
+			out.writeDouble(ad.getLatitude());
+			out.writeDouble(ad.getLongitude());
+			// a writer journals its data point before publishing it under the entry lock, so
+			// reading under the lock puts every record of the segments a checkpoint drops in here
+			AtmosphericInformation ai;
+			synchronized (entry) {
+				ai = entry.getAtmosphericInformation();
+			}
+			BinaryCodec.writeAtmosphericInformation(out, ai);
+		}
+	}
+
+	/**
+	 * Read a snapshot in the format of the snapshot file.
+	 *
+	 * @param in
+	 *            the snapshot
+	 * @param airports
+	 *            receives the airports
+	 * @param infos
+	 *            receives the atmospheric information of each airport
+	 * @throws IOException
+	 *             if the snapshot is corrupt
+	 */
+	public static void read(ByteBuffer in, List<AirportData> airports, List<AtmosphericInformation> infos) throws IOException {
+		try {
+			if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+				throw new IOException("not a snapshot");
+			}
+			in.getLong();
+			int count = in.getInt();
+			for (int i = 0; i < count; i++) {
+				String iata = AirportRegistry.unpack(in.getInt());
+				airports.add(new AirportData(iata, in.getDouble(), in.getDouble()));
+				infos.add(BinaryCodec.readAtmosphericInformation(in));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("truncated snapshot", e);
+		}
+	}
+
+	/**
+	 * Restore airports and their atmospheric information from the snapshot, if
+	 * there is one. Airports which are already known keep their position and
+	 * only take over atmospheric information newer than their own.
+	 *
+	 * @return the number of airports restored
+	 * @throws IOException
+	 *             if the snapshot can not be read or is corrupt
+	 */
+	public synchronized int load() throws IOException {
+		if (!Files.exists(file)) {
+			return 0;
+		}
+		List<AirportData> airports = new ArrayList<>();
+		List<AtmosphericInformation> infos = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			try {
+				read(in, airports, infos);
+			} catch (IOException e) {
+				throw new IOException(e.getMessage() + " file: " + file, e);
+			}
+		}
+
+		int restored = weatherService.addAirports(airports);
+		for (int i = 0; i < airports.size(); i++) {
+			if (infos.get(i).hasData()) {
+				weatherService.restoreAtmosphericInformation(airports.get(i).getIata(), infos.get(i));
+			}
+		}
+		return restored;
+	}
+}
@@ -0,0 +1,519 @@
+package weather.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import weather.exception.WeatherException;
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+import weather.service.AirportEntry;
+import weather.service.AirportRegistry;
+import weather.service.WeatherJournal;
+import weather.service.WeatherService;
+
+/**
+ * An append only log of the mutations of the {@link WeatherService}, written
+ * by a group commit thread which writes and syncs all records queued since its
+ * last round in one go.
+ *
+ * The log is split into numbered segment files named after the base path, e.g.
+ * weather.wal.1, weather.wal.2. Each record is its length (int) and CRC32
+ * (int) followed by the operation (byte), the time of the mutation (long), the
+ * packed IATA code (int) and an operation specific payload: latitude and
+ * longitude for an added airport, the data point type ordinal and the data
+ * point (see {@link BinaryCodec}) for a data point. Replay stops at the first
+ * torn or corrupt record of a segment.
+ *
+ * All mutations since a snapshot are in the segments created after it was
+ * started, see {@link #rotate()} and {@link #deleteSegmentsBefore(long)}.
+ *
+ * Once a write or sync has failed, or the log has been closed, appending
+ * throws, so the mutation is rejected instead of being applied unlogged.
+ *
+ * @author Abdullah Atmaca
+ */
+public class WriteAheadLog implements WeatherJournal, AutoCloseable {
+
+	public static final Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+
+	/** how long a mutation may be lost after it has been applied */
+	public enum Durability {
+		/** records are written by the log thread but never synced */
+		NONE,
+		/** records are synced by the log thread, callers do not wait */
+		BATCHED,
+		/** callers wait until their record has been synced */
+		REQUEST
+	}
+
+	private static final byte ADD_AIRPORT = 1;
+
+	private static final byte DELETE_AIRPORT = 2;
+
+	private static final byte DATA_POINT = 3;
+
+	private static final byte RESET = 4;
+
+	private static final DataPointType[] TYPES = DataPointType.values();
+
+	private final Path base;
+
+	private final Durability durability;
+
+	/** guards the fields below */
+	private final Object lock = new Object();
+
+	private List<byte[]> pending = new ArrayList<>();
+
+	/** sequence number of the last queued record */
+	private long queued;
+
+	/** sequence number of the last written (and synced if required) record */
+	private long written;
+
+	/** id of the segment the log thread writes to */
+	private long segment;
+
+	/**
+	 * index of the first pending record of the next segment if a rotation has
+	 * been requested by {@link #rotate()}, -1 otherwise
+	 */
+	private int rotateIndex = -1;
+
+	/** the error which stopped the log thread, records are no longer written */
+	private IOException failure;
+
+	private boolean closed;
+
+	private FileChannel channel;
+
+	private final Thread writer;
+
+	/**
+	 * Open a new segment after the existing ones and start the log thread.
+	 *
+	 * @param base
+	 *            the base path of the segment files
+	 * @param durability
+	 *            the durability mode
+	 * @throws IOException
+	 *             if the segment can not be created
+	 */
+	public WriteAheadLog(Path base, Durability durability) throws IOException {
+		this.base = base;
+		this.durability = durability;
+		this.segment = segments(base).isEmpty() ? 1 : segments(base).lastKey() + 1;
+		this.channel = openSegment(segment);
+		this.writer = new Thread(this::run, "wal-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Replay all segments of a log onto the weather service, oldest first. Call
+	 * this before a log for the same base path is opened and set as the
+	 * journal of the service.
+	 *
+	 * @param base
+	 *            the base path of the segment files
+	 * @param weatherService
+	 *            the service to apply the records to
+	 * @return the number of records replayed
+	 * @throws IOException
+	 *             if a segment can not be read
+	 */
+	public static int replay(Path base, WeatherService weatherService) throws IOException {
+		int count = 0;
+		for (Path file : segments(base).values()) {
+			count += replaySegment(file, weatherService);
+		}
+		return count;
+	}
+
+	/**
+	 * Switch to a new segment. All records queued after this call go to the new
+	 * segment.
+	 *
+	 * @return the id of the new segment
+	 */
+	public long rotate() {
+		synchronized (lock) {
+			if (rotateIndex < 0) {
+				rotateIndex = pending.size();
+				lock.notifyAll();
+			}
+			return segment + 1;
+		}
+	}
+
+	/**
+	 * Delete the segments older than the given one, e.g. after a snapshot which
+	 * was started after {@link #rotate()} returned it has been written.
+	 *
+	 * @param id
+	 *            the oldest segment to keep
+	 * @throws IOException
+	 *             if a segment can not be deleted
+	 */
+	public void deleteSegmentsBefore(long id) throws IOException {
+		for (Path file : segments(base).headMap(id).values()) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Override
+	public long airportsAdded(List<AirportData> airports) {
+		List<byte[]> records = new ArrayList<>(airports.size());
+		for (AirportData ad : airports) {
+			records.add(airportAddedRecord(ad));
+		}
+		return append(records);
+	}
+
+	@Override
+	public long airportDeleted(AirportData airport) {
+		return append(Collections.singletonList(airportDeletedRecord(airport)));
+	}
+
+	@Override
+	public long dataPoint(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot) {
+		return append(Collections.singletonList(dataPointRecord(entry, type, dp, snapshot)));
+	}
+
+	@Override
+	public long dataPoints(AirportEntry entry, List<DataPointType> types, List<DataPoint> dps, AtmosphericInformation snapshot) {
+		List<byte[]> records = new ArrayList<>(types.size());
+		for (int i = 0; i < types.size(); i++) {
+			records.add(dataPointRecord(entry, types.get(i), dps.get(i), snapshot));
+		}
+		return append(records);
+	}
+
+	@Override
+	public long reset() {
+		return append(Collections.singletonList(resetRecord()));
+	}
+
+	/**
+	 * Wait until a record has been written, and synced unless the durability
+	 * is {@link Durability#NONE}. Only {@link Durability#REQUEST} waits,
+	 * otherwise the record may still be lost.
+	 *
+	 * @param ticket
+	 *            the sequence number returned when the record was appended
+	 * @throws UncheckedIOException
+	 *             if the record could not be written
+	 */
+	@Override
+	public void awaitDurable(long ticket) {
+		if (durability != Durability.REQUEST) {
+			return;
+		}
+		synchronized (lock) {
+			boolean interrupted = false;
+			while (written < ticket && failure == null) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (written < ticket) {
+				throw new UncheckedIOException("write ahead log failed", failure);
+			}
+		}
+	}
+
+	/**
+	 * @return the record of an added airport, as written to a segment
+	 */
+	public static byte[] airportAddedRecord(AirportData ad) {
+		return record(ADD_AIRPORT, System.currentTimeMillis(), AirportRegistry.pack(ad.getIata()), out -> {
+			out.writeDouble(ad.getLatitude());
+			out.writeDouble(ad.getLongitude());
+		});
+	}
+
+	/**
+	 * @return the record of a deleted airport, as written to a segment
+	 */
+	public static byte[] airportDeletedRecord(AirportData ad) {
+		return record(DELETE_AIRPORT, System.currentTimeMillis(), AirportRegistry.pack(ad.getIata()), out -> {
+		});
+	}
+
+	/**
+	 * @return the record of an applied data point, as written to a segment
+	 */
+	public static byte[] dataPointRecord(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot) {
+		return record(DATA_POINT, snapshot.getLastUpdateTime(), entry.getKey(), out -> {
+			out.writeByte(type.ordinal());
+			BinaryCodec.writeDataPoint(out, dp);
+		});
+	}
+
+	/**
+	 * @return the record of a reset, as written to a segment
+	 */
+	public static byte[] resetRecord() {
+		return record(RESET, System.currentTimeMillis(), 0, out -> {
+		});
+	}
+
+	/**
+	 * Stop the log thread after it has written all queued records.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+
+	private interface Payload {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private static byte[] record(byte op, long time, int key, Payload payload) {
+		byte[] record;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeByte(op);
+			out.writeLong(time);
+			out.writeInt(key);
+			payload.write(out);
+			record = bytes.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(record, 8, record.length - 8);
+		ByteBuffer.wrap(record).putInt(record.length - 8).putInt((int) crc.getValue());
+		return record;
+	}
+
+	/**
+	 * Queue records for the log thread, all of them or none.
+	 *
+	 * @return the sequence number of the last record
+	 * @throws UncheckedIOException
+	 *             if the log has failed
+	 * @throws IllegalStateException
+	 *             if the log has been closed
+	 */
+	private long append(List<byte[]> records) {
+		synchronized (lock) {
+			if (failure != null) {
+				throw new UncheckedIOException("write ahead log failed", failure);
+			}
+			if (closed) {
+				throw new IllegalStateException("write ahead log closed");
+			}
+			pending.addAll(records);
+			queued += records.size();
+			lock.notifyAll();
+			return queued;
+		}
+	}
+
+	private void run() {
+		while (true) {
+			List<byte[]> batch;
+			long upTo;
+			int split;
+			synchronized (lock) {
+				while (pending.isEmpty() && rotateIndex < 0 && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// keep going until closed
+					}
+				}
+				if (pending.isEmpty() && rotateIndex < 0 && closed) {
+					return;
+				}
+				batch = pending;
+				pending = new ArrayList<>();
+				upTo = queued;
+				split = rotateIndex;
+			}
+
+			try {
+				if (split < 0) {
+					write(batch);
+				} else {
+					write(batch.subList(0, split));
+					channel.close();
+					channel = openSegment(segment + 1);
+					write(batch.subList(split, batch.size()));
+				}
+				synchronized (lock) {
+					written = upTo;
+					if (split >= 0) {
+						segment++;
+						rotateIndex = -1;
+					}
+					lock.notifyAll();
+				}
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "write ahead log failed", e);
+				synchronized (lock) {
+					// failed rather than closed: appending throws from now on
+					failure = e;
+					pending.clear();
+					lock.notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+	/** write and, depending on the durability, sync records */
+	private void write(List<byte[]> records) throws IOException {
+		if (records.isEmpty()) {
+			return;
+		}
+		ByteBuffer[] buffers = new ByteBuffer[records.size()];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = ByteBuffer.wrap(records.get(i));
+		}
+		while (buffers[buffers.length - 1].hasRemaining()) {
+			channel.write(buffers);
+		}
+		if (durability != Durability.NONE) {
+			channel.force(false);
+		}
+	}
+
+	private FileChannel openSegment(long id) throws IOException {
+		return FileChannel.open(segmentFile(base, id), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private static Path segmentFile(Path base, long id) {
+		return base.resolveSibling(base.getFileName() + "." + id);
+	}
+
+	/** @return the existing segment files by id */
+	private static TreeMap<Long, Path> segments(Path base) throws IOException {
+		TreeMap<Long, Path> segments = new TreeMap<>();
+		Path dir = base.toAbsolutePath().getParent();
+		if (!Files.isDirectory(dir)) {
+			return segments;
+		}
+		String prefix = base.getFileName() + ".";
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*")) {
+			for (Path file : files) {
+				try {
+					segments.put(Long.parseLong(file.getFileName().toString().substring(prefix.length())), file);
+				} catch (NumberFormatException e) {
+					// not a segment
+				}
+			}
+		}
+		return segments;
+	}
+
+	private static int replaySegment(Path file, WeatherService weatherService) throws IOException {
+		int count = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			while (in.remaining() >= 8) {
+				int length = in.getInt();
+				int checksum = in.getInt();
+				if (length < 13 || length > in.remaining()) {
+					break;
+				}
+				ByteBuffer record = in.slice();
+				record.limit(length);
+				if (!isIntact(record, checksum)) {
+					break;
+				}
+				in.position(in.position() + length);
+				apply(record, weatherService);
+				count++;
+			}
+			if (in.hasRemaining()) {
+				logger.warning("ignoring torn or corrupt tail of " + file + " at " + in.position());
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param record
+	 *            the record after its length and checksum
+	 * @param checksum
+	 *            the checksum written before the record
+	 * @return true if the record matches its checksum
+	 */
+	public static boolean isIntact(ByteBuffer record, int checksum) {
+		CRC32 crc = new CRC32();
+		crc.update(record.duplicate());
+		return (int) crc.getValue() == checksum;
+	}
+
+	/**
+	 * Apply a record to the weather service.
+	 *
+	 * @param record
+	 *            the record after its length and checksum
+	 * @param weatherService
+	 *            the service to apply the record to
+	 */
+	public static void apply(ByteBuffer record, WeatherService weatherService) {
+		byte op = record.get();
+		long time = record.getLong();
+		String iata = AirportRegistry.unpack(record.getInt());
+		switch (op) {
+		case ADD_AIRPORT:
+			weatherService.addAirport(iata, record.getDouble(), record.getDouble());
+			break;
+		case DELETE_AIRPORT:
+			weatherService.deleteAirportData(iata);
+			break;
+		case DATA_POINT:
+			DataPointType type = TYPES[record.get()];
+			try {
+				weatherService.addDataPoint(iata, type, BinaryCodec.readDataPoint(record), time);
+			} catch (WeatherException e) {
+				// the airport has been deleted later on
+			}
+			break;
+		case RESET:
+			weatherService.reset();
+			break;
+		default:
+			logger.warning("unknown write ahead log record " + op);
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package weather.replication;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.persistence.SnapshotStore;
+import weather.persistence.WriteAheadLog;
+import weather.service.AirportEntry;
+import weather.service.WeatherService;
+
+/**
+ * Keeps the {@link WeatherService} of a query only replica in step with a
+ * primary: connects to the {@link ReplicationServer} of the primary, takes
+ * over its snapshot and applies its records in order. After a lost
+ * connection it reconnects and resumes where it stopped, or starts over from
+ * a snapshot if the primary no longer has the records.
+ *
+ * The heartbeats of the primary tell the time up to which the replica has
+ * received all mutations, so the data of the replica is at most
+ * {@link #getStalenessMillis()} behind the primary.
+ *
+ * @author Abdullah Atmaca
+ */
+public class ReplicaClient implements AutoCloseable {
+
+	public static final Logger logger = Logger.getLogger(ReplicaClient.class.getName());
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+	/** without a message for this long the primary is considered lost */
+	private static final int READ_TIMEOUT_MILLIS = (int) (20 * ReplicationServer.HEARTBEAT_MILLIS);
+
+	private static final long RETRY_MILLIS = 500;
+
+	private static volatile ReplicaClient instance;
+
+	private final WeatherService weatherService;
+
+	private final String host;
+
+	private final int port;
+
+	private final Thread thread;
+
+	private final CountDownLatch synced = new CountDownLatch(1);
+
+	private volatile boolean running = true;
+
+	private volatile Socket socket;
+
+	private volatile boolean connected;
+
+	/** the epoch of the primary's log, 0 before the first snapshot */
+	private volatile long epoch;
+
+	/** the sequence number of the next record to apply */
+	private volatile long next;
+
+	/** the primary's time up to which all mutations are applied, 0 before the first heartbeat */
+	private volatile long appliedUntil;
+
+	/**
+	 * @param weatherService
+	 *            the service to keep in step
+	 * @param primary
+	 *            host and replication port of the primary, e.g. localhost:9190
+	 */
+	public ReplicaClient(WeatherService weatherService, String primary) {
+		int colon = primary.lastIndexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("primary not given as host:port: " + primary);
+		}
+		this.weatherService = weatherService;
+		this.host = primary.substring(0, colon);
+		this.port = Integer.parseInt(primary.substring(colon + 1));
+		thread = new Thread(this::run, "replica-client");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Set the replica client of the query endpoints.
+	 */
+	public static void setInstance(ReplicaClient client) {
+		instance = client;
+	}
+
+	/**
+	 * @return the replica client of this server, or null if it is no replica
+	 */
+	public static ReplicaClient getInstance() {
+		return instance;
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Wait until the replica has taken over a snapshot and caught up with the
+	 * records after it.
+	 *
+	 * @return true if the replica caught up within the timeout
+	 */
+	public boolean awaitSynced(long timeout, TimeUnit unit) throws InterruptedException {
+		return synced.await(timeout, unit);
+	}
+
+	/**
+	 * @return how far at most the data of the replica is behind the primary, in
+	 *         milliseconds, or -1 if it has not caught up yet
+	 */
+	public long getStalenessMillis() {
+		long until = appliedUntil;
+		return until == 0 ? -1 : Math.max(0, System.currentTimeMillis() - until);
+	}
+
+	/**
+	 * @return the state of the replication for the ping of the replica
+	 */
+	public Map<String, Object> getStatus() {
+		Map<String, Object> retval = new LinkedHashMap<>();
+		retval.put("primary", host + ":" + port);
+		retval.put("connected", connected);
+		retval.put("sequence", next - 1);
+		retval.put("staleness_ms", getStalenessMillis());
+		return retval;
+	}
+
+	private void run() {
+		while (running) {
+			try (Socket s = new Socket()) {
+				socket = s;
+				s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+				s.setTcpNoDelay(true);
+				s.setSoTimeout(READ_TIMEOUT_MILLIS);
+				follow(s);
+			} catch (IOException | RuntimeException e) {
+				if (running) {
+					logger.log(Level.WARNING, "replication from " + host + ":" + port + " interrupted: " + e);
+				}
+			} finally {
+				connected = false;
+			}
+			try {
+				Thread.sleep(RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void follow(Socket s) throws IOException {
+		DataOutputStream out = new DataOutputStream(s.getOutputStream());
+		out.writeLong(epoch);
+		out.writeLong(next);
+		out.flush();
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+		byte type = in.readByte();
+		long primaryEpoch = in.readLong();
+		long first = in.readLong();
+		if (type == ReplicationServer.SNAPSHOT) {
+			byte[] snapshot = new byte[in.readInt()];
+			in.readFully(snapshot);
+			int airports = applySnapshot(ByteBuffer.wrap(snapshot));
+			logger.info("replica took over " + airports + " airports from a snapshot at " + first);
+		} else if (type != ReplicationServer.RESUME || primaryEpoch != epoch || first != next) {
+			throw new IOException("unexpected answer " + type);
+		}
+		epoch = primaryEpoch;
+		next = first;
+		connected = true;
+
+		while (running) {
+			type = in.readByte();
+			if (type == ReplicationServer.RECORD) {
+				int length = in.readInt();
+				int checksum = in.readInt();
+				byte[] record = new byte[length];
+				in.readFully(record);
+				ByteBuffer buffer = ByteBuffer.wrap(record);
+				if (!WriteAheadLog.isIntact(buffer, checksum)) {
+					throw new IOException("corrupt record " + next);
+				}
+				WriteAheadLog.apply(buffer, weatherService);
+				next++;
+			} else if (type == ReplicationServer.HEARTBEAT) {
+				long until = in.readLong();
+				if (in.readLong() != next - 1) {
+					throw new IOException("records missing before " + next);
+				}
+				appliedUntil = until;
+				synced.countDown();
+			} else {
+				throw new IOException("unexpected message " + type);
+			}
+		}
+	}
+
+	/**
+	 * Make the airports and their atmospheric information those of the
+	 * snapshot, changing only what differs so queries keep being answered.
+	 *
+	 * @return the number of airports of the snapshot
+	 */
+	private int applySnapshot(ByteBuffer snapshot) throws IOException {
+		List<AirportData> airports = new ArrayList<>();
+		List<AtmosphericInformation> infos = new ArrayList<>();
+		SnapshotStore.read(snapshot, airports, infos);
+
+		Map<String, Integer> positions = new HashMap<>();
+		for (int i = 0; i < airports.size(); i++) {
+			positions.put(airports.get(i).getIata(), i);
+		}
+		for (AirportEntry entry : weatherService.getAirportEntries()) {
+			if (!positions.containsKey(entry.getAirportData().getIata())) {
+				weatherService.deleteAirportData(entry.getAirportData().getIata());
+			}
+		}
+
+		List<AirportData> added = new ArrayList<>();
+		for (int i = 0; i < airports.size(); i++) {
+			AirportData ad = airports.get(i);
+			AirportEntry entry = weatherService.findAirportEntry(ad.getIata());
+			if (entry == null) {
+				added.add(ad);
+			} else if (entry.getAirportData().getLatitude() != ad.getLatitude() || entry.getAirportData().getLongitude() != ad.getLongitude()
+					|| entry.getAtmosphericInformation().getLastUpdateTime() > infos.get(i).getLastUpdateTime()) {
+				// registered anew on the primary since
+				weatherService.addAirport(ad.getIata(), ad.getLatitude(), ad.getLongitude());
+			}
+		}
+		weatherService.addAirports(added);
+		for (int i = 0; i < airports.size(); i++) {
+			if (infos.get(i).hasData()) {
+				weatherService.restoreAtmosphericInformation(airports.get(i).getIata(), infos.get(i));
+			}
+		}
+		return airports.size();
+	}
+
+	/**
+	 * Stop following the primary.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		thread.interrupt();
+		Socket s = socket;
+		if (s != null) {
+			s.close();
+		}
+	}
+}
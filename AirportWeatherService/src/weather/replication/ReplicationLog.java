@@ -0,0 +1,147 @@
+package weather.replication;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+import weather.persistence.WriteAheadLog;
+import weather.service.AirportEntry;
+import weather.service.WeatherMutationListener;
+import weather.service.WeatherService;
+
+/**
+ * The ordered stream of the mutations of the {@link WeatherService} of a
+ * primary, numbered from 1 and encoded as {@link WriteAheadLog} records. The
+ * latest records are kept in a ring, the backlog, from which the
+ * {@link ReplicationServer} sends them to the replicas. A replica which falls
+ * further behind than the backlog has to start over from a snapshot.
+ *
+ * The epoch is chosen at random when the log is created, so replicas can tell
+ * whether a sequence number they hold is one of this log.
+ *
+ * @author Abdullah Atmaca
+ */
+public class ReplicationLog implements WeatherMutationListener {
+
+	private final long epoch = new SecureRandom().nextLong() | 1;
+
+	private final byte[][] records;
+
+	/** the time each record was appended, in milliseconds since UTC epoch */
+	private final long[] times;
+
+	/** sequence number of the last appended record, guarded by this */
+	private long sequence;
+
+	/**
+	 * @param backlog
+	 *            the number of records kept for replicas
+	 */
+	public ReplicationLog(int backlog) {
+		if (backlog < 1) {
+			throw new IllegalArgumentException("backlog " + backlog);
+		}
+		records = new byte[backlog][];
+		times = new long[backlog];
+	}
+
+	/**
+	 * @return the random id of this log, never 0
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return the sequence number of the last record, 0 if there is none
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return true if the records from the given sequence number on can be
+	 *         read, i.e. it is in the backlog or the next one
+	 */
+	public synchronized boolean canRead(long from) {
+		return from > sequence - records.length && from > 0 && from <= sequence + 1;
+	}
+
+	/**
+	 * Read records, waiting for them if there are none yet.
+	 *
+	 * @param from
+	 *            the sequence number of the first record to read
+	 * @param max
+	 *            the largest number of records to read
+	 * @param timeoutMillis
+	 *            how long to wait for a record
+	 * @return the records in order, empty if none was appended within the
+	 *         timeout, or null if the first one has left the backlog
+	 */
+	public synchronized List<byte[]> read(long from, int max, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remaining = timeoutMillis;
+		while (from > sequence && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		if (from <= sequence - records.length) {
+			return null;
+		}
+		List<byte[]> retval = new ArrayList<>();
+		for (long s = from; s <= sequence && retval.size() < max; s++) {
+			retval.add(records[index(s)]);
+		}
+		return retval;
+	}
+
+	/**
+	 * @param next
+	 *            the sequence number of the first record a replica has not
+	 *            received yet
+	 * @return the time up to which the replica has received all records: the
+	 *         time the next record was appended, or now if there is none, or
+	 *         -1 if the next record has left the backlog
+	 */
+	public synchronized long getReceivedUntil(long next) {
+		if (next > sequence) {
+			return System.currentTimeMillis();
+		}
+		return next > sequence - records.length ? times[index(next)] : -1;
+	}
+
+	@Override
+	public void onAirportAdded(AirportEntry entry) {
+		append(WriteAheadLog.airportAddedRecord(entry.getAirportData()));
+	}
+
+	@Override
+	public void onAirportDeleted(AirportEntry entry) {
+		append(WriteAheadLog.airportDeletedRecord(entry.getAirportData()));
+	}
+
+	@Override
+	public void onDataPoint(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot) {
+		append(WriteAheadLog.dataPointRecord(entry, type, dp, snapshot));
+	}
+
+	@Override
+	public void onReset() {
+		append(WriteAheadLog.resetRecord());
+	}
+
+	private synchronized void append(byte[] record) {
+		int i = index(++sequence);
+		records[i] = record;
+		times[i] = System.currentTimeMillis();
+		notifyAll();
+	}
+
+	private int index(long seq) {
+		return (int) (seq % records.length);
+	}
+}
@@ -0,0 +1,189 @@
+package weather.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import weather.persistence.SnapshotStore;
+import weather.service.WeatherService;
+
+/**
+ * Serves the {@link ReplicationLog} of a primary to its replicas, one thread
+ * per replica.
+ *
+ * A replica connects and sends the epoch (long) and the sequence number of
+ * the next record (long) it needs, 0 and 0 if it has nothing. If the epoch is
+ * that of the log and the record is in the backlog, the server answers
+ * {@link #RESUME}, the epoch and the sequence number. Otherwise it answers
+ * {@link #SNAPSHOT}, the epoch, the sequence number of the first record after
+ * the snapshot, the length of the snapshot (int) and the snapshot in the
+ * format of the {@link SnapshotStore}. Records appended while the snapshot is
+ * written are sent again after it, replaying them yields the state of the
+ * primary.
+ *
+ * Then the server sends each record as {@link #RECORD} followed by the record
+ * as written to a segment of the {@link weather.persistence.WriteAheadLog},
+ * and after every batch of records, or every {@link #HEARTBEAT_MILLIS} if
+ * there are none, a {@link #HEARTBEAT} with the time up to which all records
+ * have been sent (long) and the sequence number of the last one (long). A
+ * replica which falls behind the backlog is disconnected.
+ *
+ * @author Abdullah Atmaca
+ */
+public class ReplicationServer implements AutoCloseable {
+
+	public static final Logger logger = Logger.getLogger(ReplicationServer.class.getName());
+
+	static final byte SNAPSHOT = 1;
+
+	static final byte RESUME = 2;
+
+	static final byte RECORD = 3;
+
+	static final byte HEARTBEAT = 4;
+
+	/** the longest time between two messages to a replica */
+	static final long HEARTBEAT_MILLIS = 100;
+
+	/** records sent before a heartbeat and a flush */
+	private static final int BATCH_RECORDS = 1024;
+
+	private final WeatherService weatherService;
+
+	private final ReplicationLog log;
+
+	private final ServerSocket serverSocket;
+
+	private final Set<Socket> replicas = ConcurrentHashMap.newKeySet();
+
+	private final Thread acceptor;
+
+	private volatile boolean running = true;
+
+	public ReplicationServer(WeatherService weatherService, ReplicationLog log, int port) throws IOException {
+		this.weatherService = weatherService;
+		this.log = log;
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(port));
+		acceptor = new Thread(this::accept, "replication-acceptor");
+		acceptor.setDaemon(true);
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the number of replicas connected
+	 */
+	public int getReplicaCount() {
+		return replicas.size();
+	}
+
+	public void start() {
+		acceptor.start();
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				replicas.add(socket);
+				Thread sender = new Thread(() -> serve(socket), "replication-sender-" + socket.getPort());
+				sender.setDaemon(true);
+				sender.start();
+			} catch (IOException e) {
+				if (running) {
+					logger.log(Level.SEVERE, e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		String replica = socket.getRemoteSocketAddress().toString();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+			long epoch = in.readLong();
+			long next = in.readLong();
+			if (epoch == log.getEpoch() && log.canRead(next)) {
+				out.writeByte(RESUME);
+				out.writeLong(log.getEpoch());
+				out.writeLong(next);
+				logger.info("replica " + replica + " resumes at " + next);
+			} else {
+				next = log.getSequence() + 1;
+				ByteArrayOutputStream snapshot = new ByteArrayOutputStream(1 << 16);
+				SnapshotStore.write(new DataOutputStream(snapshot), weatherService.getAirportEntries());
+				out.writeByte(SNAPSHOT);
+				out.writeLong(log.getEpoch());
+				out.writeLong(next);
+				out.writeInt(snapshot.size());
+				snapshot.writeTo(out);
+				logger.info("replica " + replica + " starts from a snapshot of " + snapshot.size() + " bytes at " + next);
+			}
+			out.flush();
+
+			while (running) {
+				List<byte[]> records = log.read(next, BATCH_RECORDS, HEARTBEAT_MILLIS);
+				if (records == null) {
+					logger.warning("replica " + replica + " fell behind the backlog");
+					return;
+				}
+				for (byte[] record : records) {
+					out.writeByte(RECORD);
+					out.write(record);
+				}
+				next += records.size();
+				long receivedUntil = log.getReceivedUntil(next);
+				if (receivedUntil < 0) {
+					logger.warning("replica " + replica + " fell behind the backlog");
+					return;
+				}
+				out.writeByte(HEARTBEAT);
+				out.writeLong(receivedUntil);
+				out.writeLong(next - 1);
+				out.flush();
+			}
+		} catch (IOException e) {
+			logger.info("replica " + replica + " disconnected: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			replicas.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closed anyway
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting replicas and disconnect them.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+		for (Socket socket : replicas) {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package weather.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import weather.model.AirportData;
+
+/**
+ * Parses airports in the format of airports.dat, one comma separated line per
+ * airport with the IATA code in the 5th, the latitude in the 7th and the
+ * longitude in the 8th column. The lines are parsed in parallel chunks.
+ *
+ * @author Abdullah Atmaca
+ */
+public class AirportCsvParser {
+
+	/** number of lines parsed by one task */
+	private static final int CHUNK_LINES = 1024;
+
+	/** lines read so far */
+	private final List<String> lines = new ArrayList<>();
+
+	/**
+	 * Read all lines of the input.
+	 *
+	 * @param reader
+	 *            the input
+	 * @return this parser
+	 * @throws IOException
+	 *             if the input can not be read
+	 */
+	public AirportCsvParser read(BufferedReader reader) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (!line.trim().isEmpty()) {
+				lines.add(line);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return the number of non blank lines read
+	 */
+	public int getLineCount() {
+		return lines.size();
+	}
+
+	/**
+	 * @return the airports of all valid lines, in input order
+	 */
+	public List<AirportData> parse() {
+		int chunks = (lines.size() + CHUNK_LINES - 1) / CHUNK_LINES;
+		return IntStream.range(0, chunks).parallel()
+				.mapToObj(c -> parseChunk(c * CHUNK_LINES, Math.min(lines.size(), (c + 1) * CHUNK_LINES)))
+				.flatMap(List::stream)
+				.collect(Collectors.toList());
+	}
+
+	private List<AirportData> parseChunk(int from, int to) {
+		List<AirportData> airports = new ArrayList<>(to - from);
+		for (int i = from; i < to; i++) {
+			AirportData ad = parseLine(lines.get(i));
+			if (ad != null) {
+				airports.add(ad);
+			}
+		}
+		return airports;
+	}
+
+	/**
+	 * @param line
+	 *            a line of airports.dat
+	 * @return the airport or null if the line is not valid
+	 */
+	public static AirportData parseLine(String line) {
+		String[] columns = line.split(",");
+		if (columns.length < 8) {
+			return null;
+		}
+		try {
+			String iataCode = columns[4].replace("\"", "");
+			double latitude = Double.parseDouble(columns[6]);
+			double longitude = Double.parseDouble(columns[7]);
+			return WeatherService.isValidAirport(iataCode, latitude, longitude) ? new AirportData(iataCode, latitude, longitude) : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
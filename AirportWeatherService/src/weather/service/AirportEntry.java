@@ -0,0 +1,136 @@
+package weather.service;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.model.DataPointType;
+
+/**
+ * A single slot of the {@link AirportRegistry}, holding an airport next to its
+ * atmospheric information. The atmospheric information is an immutable
+ * snapshot which collectors replace with compare and set, readers never lock.
+ *
+ * @author Abdullah Atmaca
+ */
+public final class AirportEntry {
+
+	private static final AtomicReferenceFieldUpdater<AirportEntry, AtmosphericInformation> INFO = AtomicReferenceFieldUpdater
+			.newUpdater(AirportEntry.class, AtmosphericInformation.class, "atmosphericInformation");
+
+	/** the packed IATA code, see {@link AirportRegistry#pack(String)} */
+	private final int key;
+
+	/** the airport */
+	private final AirportData airportData;
+
+	/** the latest atmospheric information collected for the airport */
+	private volatile AtmosphericInformation atmosphericInformation;
+
+	/** latitude in radians */
+	final double latitudeRadians;
+
+	/** longitude in radians */
+	final double longitudeRadians;
+
+	final double sinLatitude;
+
+	final double cosLatitude;
+
+	/** position on the unit sphere, see {@link DistanceKernel} */
+	final double x;
+
+	final double y;
+
+	final double z;
+
+	/** number of queries for the airport, see {@link RequestStatistics} */
+	final LongAdder requests = new LongAdder();
+
+	/**
+	 * history of the collected data points by {@link DataPointType} ordinal,
+	 * created on the first data point of a type and guarded by this entry
+	 */
+	final DataPointHistory[] history = new DataPointHistory[DataPointType.values().length];
+
+	/** minute, hour and day rollups by {@link DataPointType} ordinal, like {@link #history} */
+	final DataPointRollup[] rollups = new DataPointRollup[DataPointType.values().length];
+
+	/** 1 while counted by the {@link UpdateTimingWheel}, 0 otherwise */
+	volatile int recent;
+
+	/** position of this entry in the dense entry array of the registry */
+	int index;
+
+	/** whether lookups and radius queries see this entry */
+	final Visibility visibility;
+
+	AirportEntry(int key, AirportData airportData, AtmosphericInformation atmosphericInformation) {
+		this(key, airportData, atmosphericInformation, Visibility.VISIBLE);
+	}
+
+	AirportEntry(int key, AirportData airportData, AtmosphericInformation atmosphericInformation, Visibility visibility) {
+		this.key = key;
+		this.visibility = visibility;
+		this.airportData = airportData;
+		this.atmosphericInformation = atmosphericInformation;
+
+		this.latitudeRadians = Math.toRadians(airportData.getLatitude());
+		this.longitudeRadians = Math.toRadians(airportData.getLongitude());
+		this.sinLatitude = Math.sin(latitudeRadians);
+		this.cosLatitude = Math.cos(latitudeRadians);
+		this.x = cosLatitude * Math.cos(longitudeRadians);
+		this.y = cosLatitude * Math.sin(longitudeRadians);
+		this.z = sinLatitude;
+	}
+
+	public int getKey() {
+		return key;
+	}
+
+	public AirportData getAirportData() {
+		return airportData;
+	}
+
+	public AtmosphericInformation getAtmosphericInformation() {
+		return atmosphericInformation;
+	}
+
+	/**
+	 * Publish a new atmospheric information snapshot if the current one is still
+	 * the expected one.
+	 *
+	 * @param expected
+	 *            the snapshot the update was based on
+	 * @param update
+	 *            the new snapshot
+	 * @return true if the new snapshot was published
+	 */
+	public boolean compareAndSetAtmosphericInformation(AtmosphericInformation expected, AtmosphericInformation update) {
+		return INFO.compareAndSet(this, expected, update);
+	}
+
+	/**
+	 * @return true once the entry is published in the registry and the grid
+	 */
+	boolean isVisible() {
+		return visibility.visible;
+	}
+
+	/**
+	 * Makes entries visible, the entries added in one step share one instance
+	 * so they all become visible with a single write.
+	 */
+	static final class Visibility {
+
+		/** shared by the entries which are visible as soon as they are added */
+		static final Visibility VISIBLE = new Visibility(true);
+
+		volatile boolean visible;
+
+		Visibility(boolean visible) {
+			this.visible = visible;
+		}
+	}
+}
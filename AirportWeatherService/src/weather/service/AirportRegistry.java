@@ -0,0 +1,374 @@
+package weather.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+
+/**
+ * Registry of the known airports keyed by IATA code. The three characters of
+ * the code are packed into a primitive int which is looked up in an open
+ * addressing hash table, so lookup, insert and delete are (amortized) constant
+ * time and a lookup allocates nothing.
+ *
+ * Lookups never lock. Mutations are serialized on the registry and publish
+ * each slot entry first and key second, so a reader which sees a key also sees
+ * its entry. Removed slots are marked with a tombstone rather than shifting
+ * other keys, and a resize publishes a complete new table.
+ *
+ * Entries are also kept in a dense array (removal moves the last entry into
+ * the hole) which makes iterating over all airports cheap.
+ *
+ * The entries added by {@link #addAll(List)} stay invisible to lookups until
+ * {@link #publish(List)}, so they can be added to other indexes first and
+ * then appear everywhere at once.
+ *
+ * @author Abdullah Atmaca
+ */
+public class AirportRegistry {
+
+	/** key marking a free hash table slot */
+	private static final int EMPTY = 0;
+
+	/** key marking a removed hash table slot */
+	private static final int TOMBSTONE = 1;
+
+	/** key returned for codes which can not be packed */
+	public static final int INVALID = -1;
+
+	private static final int MIN_CAPACITY = 16;
+
+	/** the current hash table */
+	private volatile Table table;
+
+	/** all entries, the first size elements are in use, guarded by this */
+	private AirportEntry[] entries;
+
+	private volatile int size;
+
+	/** incremented by every mutation */
+	private volatile long version;
+
+	public AirportRegistry() {
+		table = new Table(MIN_CAPACITY);
+		entries = new AirportEntry[MIN_CAPACITY / 2];
+	}
+
+	/**
+	 * Pack a three letter IATA code into an int. Each character takes 8 bits and
+	 * bit 24 is always set so a valid key is never {@link #EMPTY} or
+	 * {@link #TOMBSTONE}.
+	 *
+	 * @param iataCode
+	 *            the 3 letter code
+	 * @return the packed code or {@link #INVALID} if the code can not be packed
+	 */
+	public static int pack(String iataCode) {
+		if (iataCode == null || iataCode.length() != 3) {
+			return INVALID;
+		}
+		char c0 = iataCode.charAt(0);
+		char c1 = iataCode.charAt(1);
+		char c2 = iataCode.charAt(2);
+		if ((c0 | c1 | c2) > 0xFF) {
+			return INVALID;
+		}
+		return 1 << 24 | c0 << 16 | c1 << 8 | c2;
+	}
+
+	/**
+	 * @param key
+	 *            a packed IATA code
+	 * @return the 3 letter code
+	 * @see #pack(String)
+	 */
+	public static String unpack(int key) {
+		return new String(new char[] { (char) (key >> 16 & 0xFF), (char) (key >> 8 & 0xFF), (char) (key & 0xFF) });
+	}
+
+	/**
+	 * @return the number of airports in the registry
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the version of the registry, incremented by every mutation
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return a copy of all entries
+	 */
+	public synchronized List<AirportEntry> entries() {
+		return new ArrayList<>(Arrays.asList(entries).subList(0, size));
+	}
+
+	/**
+	 * @param iataCode
+	 *            the 3 letter code
+	 * @return the entry of the airport or null if not found
+	 */
+	public AirportEntry find(String iataCode) {
+		int key = pack(iataCode);
+		return key == INVALID ? null : find(key);
+	}
+
+	/**
+	 * @param key
+	 *            a packed IATA code, or any int received from a client
+	 * @return the entry of the airport or null if not found
+	 */
+	public AirportEntry find(int key) {
+		if (key == EMPTY || key == TOMBSTONE) {
+			// never packed, must not match the markers of free slots
+			return null;
+		}
+		Table t = table;
+		int mask = t.mask;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			int k = t.keys.get(i);
+			if (k == key) {
+				// null if the airport is being removed since the key was read
+				AirportEntry entry = t.entries.get(i);
+				return entry != null && entry.isVisible() ? entry : null;
+			} else if (k == EMPTY) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Add an airport, replacing an existing airport with the same IATA code.
+	 *
+	 * @param airportData
+	 *            the airport
+	 * @param atmosphericInformation
+	 *            its atmospheric information
+	 * @return the new entry
+	 * @throws IllegalArgumentException
+	 *             if the IATA code of the airport can not be packed
+	 */
+	public synchronized AirportEntry add(AirportData airportData, AtmosphericInformation atmosphericInformation) {
+		int key = pack(airportData.getIata());
+		if (key == INVALID) {
+			throw new IllegalArgumentException("invalid iata code: " + airportData.getIata());
+		}
+		AirportEntry entry = new AirportEntry(key, airportData, atmosphericInformation);
+
+		Table t = table;
+		int slot = t.slotOf(key);
+		if (slot >= 0) {
+			entry.index = t.entries.get(slot).index;
+			entries[entry.index] = entry;
+			t.entries.set(slot, entry);
+			version++;
+			return entry;
+		}
+
+		// keep the load factor including tombstones at or below 0.5
+		if ((t.used + 1) * 2 > t.capacity()) {
+			t = rehash(t, size + 1);
+		}
+		t.insert(key, entry);
+
+		if (size == entries.length) {
+			entries = Arrays.copyOf(entries, size * 2);
+		}
+		entry.index = size;
+		entries[size] = entry;
+		size++;
+		version++;
+		return entry;
+	}
+
+	/**
+	 * Add several airports in one step. The new airports are inserted into a
+	 * copy of the hash table which is then published, but lookups do not see
+	 * them before {@link #publish(List)} is called with the returned entries.
+	 *
+	 * @param airports
+	 *            the airports, none of them may be in the registry already and
+	 *            their IATA codes must be distinct
+	 * @return the new entries, not visible yet
+	 * @throws IllegalArgumentException
+	 *             if an IATA code can not be packed or is already known
+	 */
+	public synchronized List<AirportEntry> addAll(List<AirportData> airports) {
+		List<AirportEntry> added = new ArrayList<>(airports.size());
+		AirportEntry.Visibility visibility = new AirportEntry.Visibility(false);
+		for (AirportData airportData : airports) {
+			int key = pack(airportData.getIata());
+			if (key == INVALID || find(key) != null) {
+				throw new IllegalArgumentException("invalid or known iata code: " + airportData.getIata());
+			}
+			added.add(new AirportEntry(key, airportData, new AtmosphericInformation(), visibility));
+		}
+
+		Table t = copy(table, size + added.size());
+		for (AirportEntry entry : added) {
+			if (t.slotOf(entry.getKey()) >= 0) {
+				throw new IllegalArgumentException("duplicate iata code: " + entry.getAirportData().getIata());
+			}
+			t.insert(entry.getKey(), entry);
+		}
+
+		if (size + added.size() > entries.length) {
+			entries = Arrays.copyOf(entries, Math.max(entries.length * 2, size + added.size()));
+		}
+		for (AirportEntry entry : added) {
+			entry.index = size;
+			entries[size++] = entry;
+		}
+		table = t;
+		version++;
+		return added;
+	}
+
+	/**
+	 * Make the entries added by one {@link #addAll(List)} visible to lookups
+	 * and radius queries, all with a single volatile write.
+	 *
+	 * @param added
+	 *            the entries returned by addAll
+	 */
+	public synchronized void publish(List<AirportEntry> added) {
+		if (!added.isEmpty()) {
+			added.get(0).visibility.visible = true;
+			// results computed while they were invisible are outdated
+			version++;
+		}
+	}
+
+	/**
+	 * Remove an airport.
+	 *
+	 * @param iataCode
+	 *            the 3 letter code
+	 * @return the removed entry or null if not found
+	 */
+	public synchronized AirportEntry remove(String iataCode) {
+		int key = pack(iataCode);
+		if (key == INVALID) {
+			return null;
+		}
+		Table t = table;
+		int slot = t.slotOf(key);
+		if (slot < 0) {
+			return null;
+		}
+		AirportEntry removed = t.entries.get(slot);
+		// key first, the reverse of insert, so fewer readers find the key without its entry
+		t.keys.set(slot, TOMBSTONE);
+		t.entries.set(slot, null);
+
+		int last = size - 1;
+		entries[removed.index] = entries[last];
+		entries[removed.index].index = removed.index;
+		entries[last] = null;
+		size = last;
+		version++;
+		return removed;
+	}
+
+	/**
+	 * Remove all airports.
+	 */
+	public synchronized void clear() {
+		table = new Table(MIN_CAPACITY);
+		entries = new AirportEntry[MIN_CAPACITY / 2];
+		size = 0;
+		version++;
+	}
+
+	/**
+	 * Build and publish a table sized for the given number of airports, without
+	 * tombstones.
+	 */
+	private Table rehash(Table old, int expectedSize) {
+		Table t = copy(old, expectedSize);
+		table = t;
+		return t;
+	}
+
+	/**
+	 * Copy a table into a new one sized for the given number of airports,
+	 * without tombstones.
+	 */
+	private static Table copy(Table old, int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 4) {
+			capacity *= 2;
+		}
+		Table t = new Table(capacity);
+		for (int j = 0; j < old.capacity(); j++) {
+			int k = old.keys.get(j);
+			if (k != EMPTY && k != TOMBSTONE) {
+				t.insert(k, old.entries.get(j));
+			}
+		}
+		return t;
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * A hash table of packed keys and their entries, {@link #EMPTY} and
+	 * {@link #TOMBSTONE} mark free slots.
+	 */
+	private static final class Table {
+
+		final AtomicIntegerArray keys;
+
+		final AtomicReferenceArray<AirportEntry> entries;
+
+		final int mask;
+
+		/** number of slots holding a key or a tombstone */
+		int used;
+
+		Table(int capacity) {
+			keys = new AtomicIntegerArray(capacity);
+			entries = new AtomicReferenceArray<>(capacity);
+			mask = capacity - 1;
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+
+		/** @return the slot holding the key or -1 */
+		int slotOf(int key) {
+			for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+				int k = keys.get(i);
+				if (k == key) {
+					return i;
+				} else if (k == EMPTY) {
+					return -1;
+				}
+			}
+		}
+
+		/** insert a key which is not in the table into the first empty slot */
+		void insert(int key, AirportEntry entry) {
+			int i = hash(key) & mask;
+			while (keys.get(i) != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			// entry first, so a reader seeing the key sees the entry
+			entries.set(i, entry);
+			keys.set(i, key);
+			used++;
+		}
+	}
+}
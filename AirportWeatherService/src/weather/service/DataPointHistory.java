@@ -0,0 +1,123 @@
+package weather.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+import weather.model.DataPoint;
+import weather.model.DataPointRecord;
+
+/**
+ * A bounded history of the data points of one type collected for one airport,
+ * kept in a ring buffer of parallel primitive arrays. The arrays start small
+ * and double until they reach the capacity, so airports which are rarely
+ * updated stay cheap; once full, appending does not allocate and the oldest
+ * data point is overwritten.
+ *
+ * Not thread safe, the {@link WeatherService} guards histories with the lock
+ * of their registry entry.
+ *
+ * @author Abdullah Atmaca
+ */
+public class DataPointHistory {
+
+	/** length of the arrays of a new history */
+	private static final int INITIAL_LENGTH = 4;
+
+	private final int capacity;
+
+	private long[] timestamps;
+
+	private double[] means;
+
+	private double[] firsts;
+
+	private double[] seconds;
+
+	private double[] thirds;
+
+	private int[] counts;
+
+	/** number of data points ever appended */
+	private long appended;
+
+	/**
+	 * @param capacity
+	 *            the number of data points kept, at least 1
+	 */
+	public DataPointHistory(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("history capacity must be at least 1: " + capacity);
+		}
+		this.capacity = capacity;
+		int length = Math.min(capacity, INITIAL_LENGTH);
+		timestamps = new long[length];
+		means = new double[length];
+		firsts = new double[length];
+		seconds = new double[length];
+		thirds = new double[length];
+		counts = new int[length];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of data points held
+	 */
+	public int size() {
+		return (int) Math.min(appended, timestamps.length);
+	}
+
+	/**
+	 * Append a data point, overwriting the oldest one if the history is full.
+	 *
+	 * @param timestamp
+	 *            collection time in milliseconds since UTC epoch
+	 * @param dp
+	 *            the data point
+	 */
+	public void append(long timestamp, DataPoint dp) {
+		if (appended == timestamps.length && appended < capacity) {
+			// not wrapped yet, the data points keep their positions
+			int length = (int) Math.min(capacity, 2L * timestamps.length);
+			timestamps = Arrays.copyOf(timestamps, length);
+			means = Arrays.copyOf(means, length);
+			firsts = Arrays.copyOf(firsts, length);
+			seconds = Arrays.copyOf(seconds, length);
+			thirds = Arrays.copyOf(thirds, length);
+			counts = Arrays.copyOf(counts, length);
+		}
+		int i = (int) (appended % timestamps.length);
+		timestamps[i] = timestamp;
+		means[i] = dp.getMean();
+		firsts[i] = dp.getFirst();
+		seconds[i] = dp.getSecond();
+		thirds[i] = dp.getThird();
+		counts[i] = dp.getCount();
+		appended++;
+	}
+
+	/**
+	 * Copy the data points collected in a time range, oldest first.
+	 *
+	 * @param from
+	 *            start of the range, inclusive, in milliseconds since UTC epoch
+	 * @param to
+	 *            end of the range, inclusive, in milliseconds since UTC epoch
+	 * @param result
+	 *            the list the data points are added to
+	 */
+	public void copyRange(long from, long to, List<DataPointRecord> result) {
+		int size = size();
+		long first = appended - size;
+		for (long n = first; n < appended; n++) {
+			int i = (int) (n % timestamps.length);
+			if (timestamps[i] >= from && timestamps[i] <= to) {
+				DataPoint dp = new DataPoint.Builder().withMean(means[i]).withFirst(firsts[i]).withMedian(seconds[i]).withLast(thirds[i])
+						.withCount(counts[i]).build();
+				result.add(new DataPointRecord(timestamps[i], dp));
+			}
+		}
+	}
+}
@@ -0,0 +1,406 @@
+package weather.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import weather.exception.PayloadTooLargeException;
+import weather.exception.WeatherException;
+import weather.model.DataPoint;
+
+/**
+ * Reads a {@link DataPoint} from its JSON form straight from the request bytes,
+ * without the intermediate body string and reflective binding of Gson.
+ *
+ * Accepts the documents the collectors send and Gson accepts: the mean, first,
+ * second, third and count fields in any order, missing or null fields left 0,
+ * unknown fields skipped and numbers optionally quoted. Unlike Gson it rejects
+ * numbers too large for a double, which could not be written back as JSON.
+ * The body is read into a buffer owned by the parser and numbers are converted
+ * in place, so apart from the resulting data point parsing only allocates for
+ * numbers with more than 18 significant digits or a large exponent.
+ *
+ * Not thread safe, use {@link #forCurrentThread()}.
+ *
+ * @author Abdullah Atmaca
+ */
+public class DataPointParser {
+
+	private static final ThreadLocal<DataPointParser> parsers = ThreadLocal.withInitial(DataPointParser::new);
+
+	private static final byte[] MEAN = ascii("mean");
+
+	private static final byte[] FIRST = ascii("first");
+
+	private static final byte[] SECOND = ascii("second");
+
+	private static final byte[] THIRD = ascii("third");
+
+	private static final byte[] COUNT = ascii("count");
+
+	/** powers of ten which are exact doubles */
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/** the largest document read from a stream, a data point takes about 100 bytes */
+	public static final int MAX_LENGTH = 64 * 1024;
+
+	/** length of the buffer kept between documents */
+	private static final int BUFFER_LENGTH = 512;
+
+	private byte[] buffer = new byte[BUFFER_LENGTH];
+
+	/** the document being parsed, the buffer or a caller's array */
+	private byte[] data;
+
+	private int pos;
+
+	private int end;
+
+	private double mean;
+
+	private double first;
+
+	private double second;
+
+	private double third;
+
+	private int count;
+
+	/**
+	 * @return the parser of the calling thread
+	 */
+	public static DataPointParser forCurrentThread() {
+		return parsers.get();
+	}
+
+	/**
+	 * Read a data point from a stream holding a single JSON document of at most
+	 * {@link #MAX_LENGTH} bytes. A buffer grown for a long document is dropped
+	 * afterwards, so one large request does not stay with the thread.
+	 *
+	 * @param in
+	 *            the stream, read to its end but not closed
+	 * @return the data point
+	 * @throws IOException
+	 *             if the stream can not be read
+	 * @throws PayloadTooLargeException
+	 *             if the document is longer than {@link #MAX_LENGTH}
+	 * @throws WeatherException
+	 *             if the document is not a valid data point
+	 */
+	public DataPoint parse(InputStream in) throws IOException, WeatherException {
+		try {
+			int length = 0;
+			int n;
+			while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+				length += n;
+				if (length > MAX_LENGTH) {
+					throw new PayloadTooLargeException("data point longer than " + MAX_LENGTH + " bytes");
+				}
+				if (length == buffer.length) {
+					// one byte more than allowed tells a document which is too long
+					buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_LENGTH + 1));
+				}
+			}
+			return parse(buffer, 0, length);
+		} finally {
+			if (buffer.length > BUFFER_LENGTH) {
+				buffer = new byte[BUFFER_LENGTH];
+			}
+		}
+	}
+
+	/**
+	 * Read a data point from a UTF-8 encoded JSON document.
+	 *
+	 * @param bytes
+	 *            the array holding the document
+	 * @param offset
+	 *            start of the document
+	 * @param length
+	 *            length of the document
+	 * @return the data point
+	 * @throws WeatherException
+	 *             if the document is not a valid data point
+	 */
+	public DataPoint parse(byte[] bytes, int offset, int length) throws WeatherException {
+		data = bytes;
+		pos = offset;
+		end = offset + length;
+		mean = 0;
+		first = 0;
+		second = 0;
+		third = 0;
+		count = 0;
+		try {
+			skipWhitespace();
+			readObject();
+			skipWhitespace();
+			if (pos != end) {
+				throw error("unexpected content after the data point");
+			}
+		} finally {
+			data = null;
+		}
+		return new DataPoint.Builder().withMean(mean).withFirst(first).withMedian(second).withLast(third).withCount(count).build();
+	}
+
+	private void readObject() throws WeatherException {
+		expect('{');
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return;
+		}
+		while (true) {
+			skipWhitespace();
+			expect('"');
+			int keyStart = pos;
+			skipStringContent();
+			int keyLength = pos - 1 - keyStart;
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+
+			if (isKey(MEAN, keyStart, keyLength)) {
+				mean = readDouble(mean);
+			} else if (isKey(FIRST, keyStart, keyLength)) {
+				first = readDouble(first);
+			} else if (isKey(SECOND, keyStart, keyLength)) {
+				second = readDouble(second);
+			} else if (isKey(THIRD, keyStart, keyLength)) {
+				third = readDouble(third);
+			} else if (isKey(COUNT, keyStart, keyLength)) {
+				double value = readDouble(count);
+				if ((int) value != value) {
+					throw error("count is not an int");
+				}
+				count = (int) value;
+			} else {
+				skipValue();
+			}
+
+			skipWhitespace();
+			byte b = next();
+			if (b == '}') {
+				return;
+			}
+			if (b != ',') {
+				throw error("expected , or }");
+			}
+		}
+	}
+
+	private boolean isKey(byte[] key, int start, int length) {
+		if (key.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (data[start + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read a number, which may be quoted, or null.
+	 *
+	 * @param defaultValue
+	 *            the value to return for null
+	 */
+	private double readDouble(double defaultValue) throws WeatherException {
+		if (matchLiteral("null")) {
+			return defaultValue;
+		}
+		boolean quoted = peek() == '"';
+		if (quoted) {
+			pos++;
+		}
+		int start = pos;
+		boolean negative = false;
+		if (peek() == '-') {
+			negative = true;
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean exact = true;
+		boolean any = false;
+		while (pos < end && isDigit(data[pos])) {
+			if (digits < 18) {
+				mantissa = mantissa * 10 + (data[pos] - '0');
+				if (mantissa != 0) {
+					digits++;
+				}
+			} else {
+				exact &= data[pos] == '0';
+				exponent++;
+			}
+			pos++;
+			any = true;
+		}
+		if (pos < end && data[pos] == '.') {
+			pos++;
+			while (pos < end && isDigit(data[pos])) {
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (data[pos] - '0');
+					if (mantissa != 0) {
+						digits++;
+					}
+					exponent--;
+				} else {
+					exact &= data[pos] == '0';
+				}
+				pos++;
+				any = true;
+			}
+		}
+		if (!any) {
+			throw error("expected a number");
+		}
+		if (pos < end && (data[pos] == 'e' || data[pos] == 'E')) {
+			pos++;
+			boolean negativeExponent = false;
+			if (pos < end && (data[pos] == '-' || data[pos] == '+')) {
+				negativeExponent = data[pos] == '-';
+				pos++;
+			}
+			int e = 0;
+			boolean anyExponent = false;
+			while (pos < end && isDigit(data[pos])) {
+				e = Math.min(e * 10 + (data[pos] - '0'), 100000);
+				pos++;
+				anyExponent = true;
+			}
+			if (!anyExponent) {
+				throw error("expected an exponent");
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		int numberEnd = pos;
+		if (quoted) {
+			expect('"');
+		}
+
+		double value;
+		if (exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+			// both operands are exact, so the result is correctly rounded
+			value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+			if (negative) {
+				value = -value;
+			}
+		} else {
+			value = Double.parseDouble(new String(data, start, numberEnd - start, StandardCharsets.ISO_8859_1));
+			if (Double.isInfinite(value)) {
+				throw error("number out of range");
+			}
+		}
+		return value;
+	}
+
+	private void skipValue() throws WeatherException {
+		byte b = peek();
+		if (b == '"') {
+			pos++;
+			skipStringContent();
+		} else if (b == '{' || b == '[') {
+			int depth = 0;
+			do {
+				b = next();
+				if (b == '"') {
+					skipStringContent();
+				} else if (b == '{' || b == '[') {
+					depth++;
+				} else if (b == '}' || b == ']') {
+					depth--;
+				}
+			} while (depth > 0);
+		} else {
+			int start = pos;
+			while (pos < end && data[pos] != ',' && data[pos] != '}' && !isWhitespace(data[pos])) {
+				pos++;
+			}
+			if (pos == start) {
+				throw error("expected a value");
+			}
+		}
+	}
+
+	/** skip to after the closing quote of a string whose opening quote was read */
+	private void skipStringContent() throws WeatherException {
+		while (true) {
+			byte b = next();
+			if (b == '"') {
+				return;
+			}
+			if (b == '\\') {
+				next();
+			}
+		}
+	}
+
+	private boolean matchLiteral(String literal) {
+		if (end - pos < literal.length()) {
+			return false;
+		}
+		for (int i = 0; i < literal.length(); i++) {
+			if (data[pos + i] != literal.charAt(i)) {
+				return false;
+			}
+		}
+		pos += literal.length();
+		return true;
+	}
+
+	private void skipWhitespace() {
+		while (pos < end && isWhitespace(data[pos])) {
+			pos++;
+		}
+	}
+
+	private void expect(char c) throws WeatherException {
+		if (next() != c) {
+			throw error("expected " + c);
+		}
+	}
+
+	private byte peek() throws WeatherException {
+		if (pos >= end) {
+			throw error("unexpected end of data point");
+		}
+		return data[pos];
+	}
+
+	private byte next() throws WeatherException {
+		byte b = peek();
+		pos++;
+		return b;
+	}
+
+	private WeatherException error(String message) {
+		return new WeatherException("malformed data point, " + message + " at " + pos);
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+	}
+
+	private static byte[] ascii(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,228 @@
+package weather.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import weather.model.DataPoint;
+import weather.model.RollupBucket;
+
+/**
+ * Minute, hour and day rollups of the data points of one type collected for
+ * one airport. Every data point updates the min, max and mean of its bucket in
+ * each tier, so the coarser tiers keep the aggregates of raw data long after the
+ * finer ones have dropped it. Each tier is a ring buffer of parallel primitive
+ * arrays which starts small and grows when two buckets it has to keep meet in
+ * one slot, so airports which are rarely updated stay cheap; once a tier has
+ * grown to its capacity, recording does not allocate.
+ *
+ * Not thread safe, the {@link WeatherService} guards rollups with the lock of
+ * their registry entry.
+ *
+ * @author Abdullah Atmaca
+ */
+public class DataPointRollup {
+
+	public static final long MINUTE = 60 * 1000L;
+
+	public static final long HOUR = 60 * MINUTE;
+
+	public static final long DAY = 24 * HOUR;
+
+	/** finest tier first */
+	private final Tier[] tiers;
+
+	/**
+	 * @param minutes
+	 *            the number of minute buckets kept, 0 for none
+	 * @param hours
+	 *            the number of hour buckets kept, 0 for none
+	 * @param days
+	 *            the number of day buckets kept, 0 for none
+	 */
+	public DataPointRollup(int minutes, int hours, int days) {
+		if (minutes < 0 || hours < 0 || days < 0) {
+			throw new IllegalArgumentException("negative number of buckets");
+		}
+		List<Tier> list = new ArrayList<>(3);
+		if (minutes > 0) {
+			list.add(new Tier(MINUTE, minutes));
+		}
+		if (hours > 0) {
+			list.add(new Tier(HOUR, hours));
+		}
+		if (days > 0) {
+			list.add(new Tier(DAY, days));
+		}
+		tiers = list.toArray(new Tier[list.size()]);
+	}
+
+	/**
+	 * Add a data point to the bucket of its time in every tier.
+	 *
+	 * @param timestamp
+	 *            collection time in milliseconds since UTC epoch
+	 * @param dp
+	 *            the data point
+	 */
+	public void record(long timestamp, DataPoint dp) {
+		for (Tier tier : tiers) {
+			tier.record(timestamp, dp.getMean());
+		}
+	}
+
+	/**
+	 * Copy the buckets overlapping a time range from the finest tier which still
+	 * holds the start of the range, or the coarsest tier if none does. The
+	 * number of buckets copied is bounded by the tier capacity whatever the
+	 * length of the range.
+	 *
+	 * @param from
+	 *            start of the range, inclusive, in milliseconds since UTC epoch
+	 * @param to
+	 *            end of the range, inclusive, in milliseconds since UTC epoch
+	 * @param result
+	 *            the list the buckets are added to, oldest first
+	 */
+	public void copyRange(long from, long to, List<RollupBucket> result) {
+		if (tiers.length == 0) {
+			return;
+		}
+		Tier tier = tiers[tiers.length - 1];
+		for (Tier t : tiers) {
+			if (t.covers(from)) {
+				tier = t;
+				break;
+			}
+		}
+		tier.copyRange(from, to, result);
+	}
+
+	/**
+	 * One resolution of buckets.
+	 */
+	private static class Tier {
+
+		/** length of the arrays of a new tier */
+		private static final int INITIAL_LENGTH = 4;
+
+		private final long resolution;
+
+		/** the number of buckets kept, the arrays grow up to this length */
+		private final int capacity;
+
+		/** bucket number, time divided by resolution; -1 if unused */
+		private long[] buckets;
+
+		private double[] mins;
+
+		private double[] maxs;
+
+		private double[] sums;
+
+		private long[] counts;
+
+		/** the newest bucket number recorded */
+		private long latest = -1;
+
+		Tier(long resolution, int capacity) {
+			this.resolution = resolution;
+			this.capacity = capacity;
+			allocate(Math.min(capacity, INITIAL_LENGTH));
+		}
+
+		private void allocate(int length) {
+			buckets = new long[length];
+			Arrays.fill(buckets, -1);
+			mins = new double[length];
+			maxs = new double[length];
+			sums = new double[length];
+			counts = new long[length];
+		}
+
+		void record(long timestamp, double value) {
+			long bucket = Math.floorDiv(timestamp, resolution);
+			if (latest >= 0 && bucket <= latest - capacity) {
+				// older than this tier keeps
+				return;
+			}
+			long newest = Math.max(latest, bucket);
+			int i = slot(bucket);
+			while (buckets[i] != bucket && kept(buckets[i], newest) && buckets.length < capacity) {
+				grow(newest);
+				i = slot(bucket);
+			}
+			if (buckets[i] != bucket) {
+				buckets[i] = bucket;
+				mins[i] = value;
+				maxs[i] = value;
+				sums[i] = value;
+				counts[i] = 1;
+			} else {
+				mins[i] = Math.min(mins[i], value);
+				maxs[i] = Math.max(maxs[i], value);
+				sums[i] += value;
+				counts[i]++;
+			}
+			latest = newest;
+		}
+
+		private int slot(long bucket) {
+			return (int) Math.floorMod(bucket, (long) buckets.length);
+		}
+
+		/** @return true if the bucket is used and still kept once newest has been recorded */
+		private boolean kept(long bucket, long newest) {
+			return bucket >= 0 && bucket > newest - capacity;
+		}
+
+		/**
+		 * Double the arrays, or more until the kept buckets have a slot each,
+		 * which they always have at full capacity.
+		 */
+		private void grow(long newest) {
+			long[] oldBuckets = buckets;
+			double[] oldMins = mins;
+			double[] oldMaxs = maxs;
+			double[] oldSums = sums;
+			long[] oldCounts = counts;
+			int length = oldBuckets.length;
+			rehash: while (true) {
+				length = (int) Math.min(capacity, 2L * length);
+				allocate(length);
+				for (int j = 0; j < oldBuckets.length; j++) {
+					if (kept(oldBuckets[j], newest)) {
+						int i = slot(oldBuckets[j]);
+						if (buckets[i] >= 0) {
+							continue rehash;
+						}
+						buckets[i] = oldBuckets[j];
+						mins[i] = oldMins[j];
+						maxs[i] = oldMaxs[j];
+						sums[i] = oldSums[j];
+						counts[i] = oldCounts[j];
+					}
+				}
+				return;
+			}
+		}
+
+		boolean covers(long from) {
+			return latest >= 0 && Math.floorDiv(from, resolution) > latest - capacity;
+		}
+
+		void copyRange(long from, long to, List<RollupBucket> result) {
+			if (latest < 0) {
+				return;
+			}
+			long first = Math.max(Math.floorDiv(from, resolution), latest - capacity + 1);
+			long last = Math.min(Math.floorDiv(to, resolution), latest);
+			for (long bucket = first; bucket <= last; bucket++) {
+				int i = slot(bucket);
+				if (buckets[i] == bucket) {
+					result.add(new RollupBucket(bucket * resolution, resolution, mins[i], maxs[i], sums[i] / counts[i], counts[i]));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package weather.service;
+
+/**
+ * Great circle distance kernels working on airports given as unit vectors on
+ * the sphere, x = cos(lat) cos(lon), y = cos(lat) sin(lon), z = sin(lat).
+ *
+ * The squared chord length between two such points is 2 - 2 cos(c) where c is
+ * the central angle, so it grows monotonically with the distance. A "within
+ * radius?" check is therefore a comparison of the squared chord against a
+ * threshold computed once per query, without any trigonometry per airport.
+ *
+ * The block kernels take parallel primitive arrays and are plain counted loops
+ * without branches so the JIT can vectorize them.
+ *
+ * @author Abdullah Atmaca
+ */
+public final class DistanceKernel {
+
+	private DistanceKernel() {
+	}
+
+	/**
+	 * @return the squared chord length between two unit vectors
+	 */
+	public static double chordSquared(double x1, double y1, double z1, double x2, double y2, double z2) {
+		double dx = x1 - x2;
+		double dy = y1 - y2;
+		double dz = z1 - z2;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * @param radius
+	 *            a distance in KM
+	 * @return the squared chord length matching the distance, a point is within
+	 *         the radius if its squared chord is less or equal to this value
+	 */
+	public static double chordSquaredThreshold(double radius) {
+		if (radius < 0) {
+			return -1;
+		}
+		// the chord stops growing at the antipode
+		double halfAngle = Math.min(radius / WeatherService.R, Math.PI) / 2;
+		double chord = 2 * Math.sin(halfAngle);
+		// allow for rounding, the threshold must never exclude an airport at the exact radius
+		return chord * chord * (1 + 1e-12) + 1e-15;
+	}
+
+	/**
+	 * @param chordSquared
+	 *            the squared chord between two unit vectors
+	 * @return the great circle distance in KM
+	 */
+	public static double distance(double chordSquared) {
+		return 2 * WeatherService.R * Math.asin(Math.min(1, Math.sqrt(chordSquared) / 2));
+	}
+
+	/**
+	 * Compute the squared chord from an origin to a block of points.
+	 *
+	 * @param ox
+	 *            x of the origin
+	 * @param oy
+	 *            y of the origin
+	 * @param oz
+	 *            z of the origin
+	 * @param xs
+	 *            x of the points
+	 * @param ys
+	 *            y of the points
+	 * @param zs
+	 *            z of the points
+	 * @param out
+	 *            receives the squared chords
+	 * @param length
+	 *            number of points
+	 */
+	public static void chordSquared(double ox, double oy, double oz, double[] xs, double[] ys, double[] zs, double[] out, int length) {
+		for (int i = 0; i < length; i++) {
+			double dx = xs[i] - ox;
+			double dy = ys[i] - oy;
+			double dz = zs[i] - oz;
+			out[i] = dx * dx + dy * dy + dz * dz;
+		}
+	}
+
+	/**
+	 * Compute the great circle distance in KM from an origin to a block of
+	 * points.
+	 *
+	 * @see #chordSquared(double, double, double, double[], double[], double[],
+	 *      double[], int)
+	 */
+	public static void distances(double ox, double oy, double oz, double[] xs, double[] ys, double[] zs, double[] out, int length) {
+		chordSquared(ox, oy, oz, xs, ys, zs, out, length);
+		for (int i = 0; i < length; i++) {
+			out[i] = 2 * WeatherService.R * Math.asin(Math.min(1, Math.sqrt(out[i]) / 2));
+		}
+	}
+}
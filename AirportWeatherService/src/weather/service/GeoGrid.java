@@ -0,0 +1,288 @@
+package weather.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+import weather.model.AirportData;
+
+/**
+ * A spatial index of airports on a fixed latitude/longitude grid. A radius
+ * query only visits the cells overlapping the bounding box of the query circle,
+ * taking care of circles which cross the antimeridian or contain a pole, and
+ * runs the exact distance check on the airports of those cells only.
+ *
+ * Cells are immutable and replaced as a whole when an airport is added or
+ * removed, so queries run without locking while mutations are serialized on
+ * the grid. Queries skip entries which the {@link AirportRegistry} has not
+ * published yet.
+ *
+ * @author Abdullah Atmaca
+ */
+public class GeoGrid {
+
+	/** default cell size in degrees */
+	public static final double DEFAULT_CELL_DEGREES = 1.0;
+
+	private final double cellDegrees;
+
+	private final int rows;
+
+	private final int columns;
+
+	/** cells in row major order, null for cells without airports */
+	private volatile AtomicReferenceArray<Cell> cells;
+
+	public GeoGrid() {
+		this(DEFAULT_CELL_DEGREES);
+	}
+
+	/**
+	 * @param cellDegrees
+	 *            the cell size in degrees, should divide 180
+	 */
+	public GeoGrid(double cellDegrees) {
+		this.cellDegrees = cellDegrees;
+		this.rows = (int) Math.ceil(180 / cellDegrees);
+		this.columns = (int) Math.ceil(360 / cellDegrees);
+		this.cells = new AtomicReferenceArray<>(rows * columns);
+	}
+
+	/**
+	 * Add an airport to the grid.
+	 *
+	 * @param entry
+	 *            the registry entry of the airport
+	 */
+	public synchronized void add(AirportEntry entry) {
+		AirportData ad = entry.getAirportData();
+		int i = cellIndex(ad.getLatitude(), ad.getLongitude());
+		Cell cell = cells.get(i);
+		cells.set(i, cell == null ? new Cell(new AirportEntry[] { entry }) : cell.with(entry));
+	}
+
+	/**
+	 * Add several airports in one step. The cells are updated in a copy of the
+	 * grid which is then published, queries see the airports once their
+	 * entries are published by the registry.
+	 *
+	 * @param entries
+	 *            the registry entries of the airports
+	 */
+	public synchronized void addAll(List<AirportEntry> entries) {
+		AtomicReferenceArray<Cell> old = cells;
+		AtomicReferenceArray<Cell> copy = new AtomicReferenceArray<>(old.length());
+		for (int i = 0; i < old.length(); i++) {
+			copy.lazySet(i, old.get(i));
+		}
+		Map<Integer, List<AirportEntry>> byCell = new HashMap<>();
+		for (AirportEntry entry : entries) {
+			AirportData ad = entry.getAirportData();
+			byCell.computeIfAbsent(cellIndex(ad.getLatitude(), ad.getLongitude()), k -> new ArrayList<>()).add(entry);
+		}
+		for (Map.Entry<Integer, List<AirportEntry>> e : byCell.entrySet()) {
+			Cell cell = copy.get(e.getKey());
+			copy.lazySet(e.getKey(), cell == null ? new Cell(e.getValue().toArray(new AirportEntry[0])) : cell.with(e.getValue()));
+		}
+		cells = copy;
+	}
+
+	/**
+	 * Remove an airport from the grid.
+	 *
+	 * @param entry
+	 *            the registry entry of the airport
+	 * @return true if the airport was removed, false if it was not in the grid
+	 */
+	public synchronized boolean remove(AirportEntry entry) {
+		AirportData ad = entry.getAirportData();
+		int i = cellIndex(ad.getLatitude(), ad.getLongitude());
+		Cell cell = cells.get(i);
+		if (cell == null || cell.indexOf(entry) < 0) {
+			return false;
+		}
+		cells.set(i, cell.without(entry));
+		return true;
+	}
+
+	/**
+	 * Remove all airports.
+	 */
+	public synchronized void clear() {
+		cells = new AtomicReferenceArray<>(rows * columns);
+	}
+
+	/**
+	 * Find all airports within the given distance of the origin.
+	 *
+	 * @param origin
+	 *            the registry entry of the airport in the center of the query
+	 *            circle
+	 * @param radius
+	 *            the query radius in KM
+	 * @param result
+	 *            the list the entries of matching airports are added to
+	 * @return the number of airports in the cells scanned
+	 */
+	public int findWithin(AirportEntry origin, double radius, List<AirportEntry> result) {
+		return findWithin(origin, radius, entry -> {
+			result.add(entry);
+			return true;
+		});
+	}
+
+	/**
+	 * Visit the airports within the given distance of the origin as they are
+	 * found. Airports are visited in the same order on every search as long as
+	 * the grid does not change.
+	 *
+	 * @param origin
+	 *            the registry entry of the airport in the center of the query
+	 *            circle
+	 * @param radius
+	 *            the query radius in KM
+	 * @param visitor
+	 *            called with the entry of each matching airport, returns false
+	 *            to stop the search
+	 * @return the number of airports in the cells scanned
+	 */
+	public int findWithin(AirportEntry origin, double radius, Predicate<AirportEntry> visitor) {
+		if (radius < 0) {
+			return 0;
+		}
+		AirportData ad = origin.getAirportData();
+		double delta = Math.toDegrees(radius / WeatherService.R);
+		double latMin = ad.getLatitude() - delta;
+		double latMax = ad.getLatitude() + delta;
+
+		int firstColumn = 0;
+		int lastColumn = columns - 1;
+		// a circle containing a pole covers all longitudes
+		if (latMin > -90 && latMax < 90) {
+			double ratio = Math.sin(Math.toRadians(delta)) / origin.cosLatitude;
+			if (ratio < 1) {
+				double deltaLon = Math.toDegrees(Math.asin(ratio));
+				int first = column(ad.getLongitude() - deltaLon);
+				int last = column(ad.getLongitude() + deltaLon);
+				if (last - first + 1 < columns) {
+					firstColumn = first;
+					lastColumn = last;
+				}
+			}
+		}
+
+		int firstRow = row(Math.max(latMin, -90));
+		int lastRow = row(Math.min(latMax, 90));
+		double threshold = DistanceKernel.chordSquaredThreshold(radius);
+		double[] chords = new double[16];
+		int candidates = 0;
+		AtomicReferenceArray<Cell> cells = this.cells;
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int c = firstColumn; c <= lastColumn; c++) {
+				// columns outside [0, columns) wrap around the antimeridian
+				Cell cell = cells.get(r * columns + Math.floorMod(c, columns));
+				if (cell != null) {
+					if (cell.entries.length > chords.length) {
+						chords = new double[cell.entries.length];
+					}
+					candidates += cell.entries.length;
+					if (!cell.findWithin(origin, threshold, chords, visitor)) {
+						return candidates;
+					}
+				}
+			}
+		}
+		return candidates;
+	}
+
+	private int cellIndex(double latitude, double longitude) {
+		return row(latitude) * columns + Math.floorMod(column(longitude), columns);
+	}
+
+	private int row(double latitude) {
+		return Math.min(rows - 1, Math.max(0, (int) Math.floor((latitude + 90) / cellDegrees)));
+	}
+
+	/** the column of a longitude, not wrapped into [0, columns) */
+	private int column(double longitude) {
+		return (int) Math.floor((longitude + 180) / cellDegrees);
+	}
+
+	/**
+	 * The airports of a single grid cell, with their unit vectors held in
+	 * parallel arrays for the {@link DistanceKernel}. Cells are immutable.
+	 */
+	private static final class Cell {
+
+		final AirportEntry[] entries;
+
+		final double[] xs;
+
+		final double[] ys;
+
+		final double[] zs;
+
+		Cell(AirportEntry[] entries) {
+			this.entries = entries;
+			this.xs = new double[entries.length];
+			this.ys = new double[entries.length];
+			this.zs = new double[entries.length];
+			for (int i = 0; i < entries.length; i++) {
+				xs[i] = entries[i].x;
+				ys[i] = entries[i].y;
+				zs[i] = entries[i].z;
+			}
+		}
+
+		int indexOf(AirportEntry entry) {
+			for (int i = 0; i < entries.length; i++) {
+				if (entries[i] == entry) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		Cell with(AirportEntry entry) {
+			AirportEntry[] copy = Arrays.copyOf(entries, entries.length + 1);
+			copy[entries.length] = entry;
+			return new Cell(copy);
+		}
+
+		Cell with(List<AirportEntry> added) {
+			AirportEntry[] copy = Arrays.copyOf(entries, entries.length + added.size());
+			for (int i = 0; i < added.size(); i++) {
+				copy[entries.length + i] = added.get(i);
+			}
+			return new Cell(copy);
+		}
+
+		/** @return the cell without the entry or null if the cell becomes empty */
+		Cell without(AirportEntry entry) {
+			if (entries.length == 1) {
+				return null;
+			}
+			AirportEntry[] copy = Arrays.copyOf(entries, entries.length - 1);
+			int i = indexOf(entry);
+			if (i < copy.length) {
+				copy[i] = entries[entries.length - 1];
+			}
+			return new Cell(copy);
+		}
+
+		/** @return false if the visitor stopped the search */
+		boolean findWithin(AirportEntry origin, double threshold, double[] chords, Predicate<AirportEntry> visitor) {
+			DistanceKernel.chordSquared(origin.x, origin.y, origin.z, xs, ys, zs, chords, entries.length);
+			for (int i = 0; i < entries.length; i++) {
+				if (chords[i] <= threshold && entries[i].isVisible() && !visitor.test(entries[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
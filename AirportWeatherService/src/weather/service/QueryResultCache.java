@@ -0,0 +1,237 @@
+package weather.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import weather.model.AtmosphericInformation;
+
+/**
+ * A bounded cache of radius query results keyed by airport and radius.
+ *
+ * Every cached result remembers the registry version and the atmospheric
+ * information snapshot of each airport in its neighbourhood. Snapshots are
+ * immutable and replaced on every update, so they serve as per airport version
+ * stamps: an update to one airport only invalidates the results whose
+ * neighbourhood includes it, while adding or removing an airport invalidates
+ * all of them. Validating a hit reads the current snapshot of every airport in
+ * the neighbourhood, so a hit costs O(neighbours) like the grid search it
+ * saves, but without the distance computations and allocations; the cache pays
+ * off for radii with many airports, not by making their cost constant.
+ *
+ * Lookups do not lock. Results sit in a ring of slots; once the cache is full
+ * a clock hand, which keeps its position between evictions, sweeps the ring
+ * and evicts the first result which has not been used since the hand last
+ * passed it.
+ *
+ * @author Abdullah Atmaca
+ */
+public class QueryResultCache {
+
+	private final int capacity;
+
+	private final Map<Key, Result> results = new ConcurrentHashMap<>();
+
+	/** the key of the result in each slot, guarded by this cache */
+	private final Key[] slots;
+
+	/** number of slots in use, guarded by this cache */
+	private int used;
+
+	/** the slot the clock hand points at, guarded by this cache */
+	private int hand;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param capacity
+	 *            the number of results kept, 0 to cache nothing
+	 */
+	public QueryResultCache(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("negative capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.slots = new Key[capacity];
+	}
+
+	/**
+	 * Look up a cached result which is still valid. A hit checks the snapshot
+	 * of each airport in the neighbourhood, see the class comment.
+	 *
+	 * @param origin
+	 *            the airport in the center of the query
+	 * @param radius
+	 *            the query radius in KM
+	 * @param registryVersion
+	 *            the current {@link AirportRegistry#getVersion()}
+	 * @return the atmospheric information with data of the airports within the
+	 *         radius, or null on a miss
+	 */
+	public List<AtmosphericInformation> get(AirportEntry origin, double radius, long registryVersion) {
+		Result result = results.get(new Key(origin.getKey(), radius));
+		if (result == null || !result.isValid(registryVersion)) {
+			misses.increment();
+			return null;
+		}
+		result.referenced = true;
+		hits.increment();
+		return result.infos;
+	}
+
+	/**
+	 * Compute and cache the result of a query.
+	 *
+	 * @param origin
+	 *            the airport in the center of the query
+	 * @param radius
+	 *            the query radius in KM
+	 * @param registryVersion
+	 *            the {@link AirportRegistry#getVersion()} read before the
+	 *            neighbourhood was searched
+	 * @param neighbours
+	 *            the airports within the radius
+	 * @return the atmospheric information with data of the neighbours, which
+	 *         must not be modified
+	 */
+	public List<AtmosphericInformation> put(AirportEntry origin, double radius, long registryVersion, List<AirportEntry> neighbours) {
+		Result result = new Result(registryVersion, neighbours);
+		if (capacity == 0) {
+			return result.infos;
+		}
+		Key key = new Key(origin.getKey(), radius);
+		synchronized (this) {
+			Result old = results.get(key);
+			if (old != null) {
+				result.slot = old.slot;
+			} else {
+				result.slot = used < capacity ? used++ : evict();
+				slots[result.slot] = key;
+			}
+			results.put(key, result);
+		}
+		return result.infos;
+	}
+
+	/**
+	 * Advance the clock hand to a result which has not been referenced since
+	 * the hand last passed it and evict it. Lookups may keep referencing
+	 * results while the hand sweeps, so after two turns the result under the
+	 * hand is evicted anyway.
+	 *
+	 * @return the slot of the evicted result
+	 */
+	private int evict() {
+		for (int step = 0;; step++) {
+			int slot = hand;
+			hand = hand + 1 == capacity ? 0 : hand + 1;
+			Result result = results.get(slots[slot]);
+			if (result.referenced && step < 2 * capacity) {
+				result.referenced = false;
+			} else {
+				results.remove(slots[slot]);
+				return slot;
+			}
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public int size() {
+		return results.size();
+	}
+
+	/**
+	 * Drop all cached results and reset the counters.
+	 */
+	public synchronized void clear() {
+		results.clear();
+		Arrays.fill(slots, null);
+		used = 0;
+		hand = 0;
+		hits.reset();
+		misses.reset();
+	}
+
+	private static final class Key {
+
+		private final int airport;
+
+		private final long radius;
+
+		Key(int airport, double radius) {
+			this.airport = airport;
+			this.radius = Double.doubleToLongBits(radius);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return airport == other.airport && radius == other.radius;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * airport + Long.hashCode(radius);
+		}
+	}
+
+	private static final class Result {
+
+		private final long registryVersion;
+
+		private final AirportEntry[] neighbours;
+
+		/** the snapshot of each neighbour the result was built from */
+		private final AtmosphericInformation[] stamps;
+
+		private final List<AtmosphericInformation> infos;
+
+		/** set on use, cleared by the eviction sweep */
+		private volatile boolean referenced;
+
+		/** the slot of the result in the clock, guarded by the cache */
+		private int slot;
+
+		Result(long registryVersion, List<AirportEntry> neighbours) {
+			this.registryVersion = registryVersion;
+			this.neighbours = neighbours.toArray(new AirportEntry[neighbours.size()]);
+			this.stamps = new AtmosphericInformation[this.neighbours.length];
+			List<AtmosphericInformation> infos = new ArrayList<>();
+			for (int i = 0; i < this.neighbours.length; i++) {
+				stamps[i] = this.neighbours[i].getAtmosphericInformation();
+				if (stamps[i].hasData()) {
+					infos.add(stamps[i]);
+				}
+			}
+			this.infos = Collections.unmodifiableList(infos);
+		}
+
+		boolean isValid(long currentRegistryVersion) {
+			if (registryVersion != currentRegistryVersion) {
+				return false;
+			}
+			for (int i = 0; i < neighbours.length; i++) {
+				if (neighbours[i].getAtmosphericInformation() != stamps[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
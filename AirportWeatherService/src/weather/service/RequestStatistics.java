@@ -0,0 +1,108 @@
+package weather.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Internal performance counters to better understand the most requested
+ * information. Counters are striped {@link LongAdder}s, the per airport counter
+ * lives in the airport's registry entry and query radii are recorded in a
+ * fixed histogram of 1 KM buckets, so recording a request neither locks nor
+ * allocates.
+ *
+ * @author Abdullah Atmaca
+ */
+public class RequestStatistics {
+
+	/** radius histogram buckets, radii of 1000 KM and more share the last one */
+	public static final int RADIUS_BUCKETS = 1001;
+
+	/** total number of requests for airports which are still known */
+	private final LongAdder totalRequests = new LongAdder();
+
+	private final LongAdder[] radiusHistogram = new LongAdder[RADIUS_BUCKETS];
+
+	public RequestStatistics() {
+		for (int i = 0; i < RADIUS_BUCKETS; i++) {
+			radiusHistogram[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a query.
+	 *
+	 * @param entry
+	 *            the queried airport
+	 * @param radius
+	 *            the query radius in KM
+	 */
+	public void record(AirportEntry entry, double radius) {
+		entry.requests.increment();
+		totalRequests.increment();
+		radiusHistogram[bucket(radius)].increment();
+	}
+
+	/**
+	 * Forget the requests of an airport which has been removed.
+	 *
+	 * @param entry
+	 *            the removed airport
+	 */
+	public void remove(AirportEntry entry) {
+		totalRequests.add(-entry.requests.sum());
+	}
+
+	/**
+	 * @param entry
+	 *            an airport
+	 * @return the number of requests for the airport
+	 */
+	public long getRequests(AirportEntry entry) {
+		return entry.requests.sum();
+	}
+
+	/**
+	 * @return the number of requests for all known airports
+	 */
+	public long getTotalRequests() {
+		return totalRequests.sum();
+	}
+
+	/**
+	 * @return the number of requests per 1 KM radius bucket, up to the largest
+	 *         bucket in use or all buckets if none is in use
+	 */
+	public long[] getRadiusHistogram() {
+		long[] hist = new long[RADIUS_BUCKETS];
+		int length = 0;
+		for (int i = 0; i < RADIUS_BUCKETS; i++) {
+			hist[i] = radiusHistogram[i].sum();
+			if (hist[i] != 0) {
+				length = i + 1;
+			}
+		}
+		if (length == 0 || length == RADIUS_BUCKETS) {
+			return hist;
+		}
+		long[] retval = new long[length];
+		System.arraycopy(hist, 0, retval, 0, length);
+		return retval;
+	}
+
+	/**
+	 * Reset all counters except the per airport ones, which go away with their
+	 * registry entries.
+	 */
+	public void reset() {
+		totalRequests.reset();
+		for (LongAdder bucket : radiusHistogram) {
+			bucket.reset();
+		}
+	}
+
+	private static int bucket(double radius) {
+		if (!(radius > 0)) {
+			return 0;
+		}
+		return radius >= RADIUS_BUCKETS - 1 ? RADIUS_BUCKETS - 1 : (int) radius;
+	}
+}
@@ -0,0 +1,168 @@
+package weather.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import weather.model.AtmosphericInformation;
+
+/**
+ * Keeps count of the airports updated within a time window, e.g. the last day,
+ * without scanning all airports. An airport is counted when its first update
+ * arrives and scheduled on a timing wheel at the end of the window. When the
+ * wheel reaches its slot the airport either ages out or, if it has been
+ * updated since, moves on to the slot of its new deadline. Updates to an
+ * airport which is already counted cost a single volatile read.
+ *
+ * The wheel has a resolution of one tick, so an airport may be counted up to
+ * one tick longer than the window.
+ *
+ * @author Abdullah Atmaca
+ */
+public class UpdateTimingWheel {
+
+	private static final AtomicIntegerFieldUpdater<AirportEntry> RECENT = AtomicIntegerFieldUpdater.newUpdater(AirportEntry.class,
+			"recent");
+
+	private final long windowMillis;
+
+	private final long tickMillis;
+
+	private final int mask;
+
+	private final List<List<AirportEntry>> slots;
+
+	/** number of airports updated within the window */
+	private final AtomicInteger count = new AtomicInteger();
+
+	/** the last tick processed, guarded by this */
+	private long currentTick;
+
+	/**
+	 * @param windowMillis
+	 *            length of the window in milliseconds
+	 * @param tickMillis
+	 *            resolution of the wheel in milliseconds
+	 * @param slots
+	 *            number of slots, a power of two
+	 */
+	public UpdateTimingWheel(long windowMillis, long tickMillis, int slots) {
+		if (Integer.bitCount(slots) != 1) {
+			throw new IllegalArgumentException("slots must be a power of two: " + slots);
+		}
+		this.windowMillis = windowMillis;
+		this.tickMillis = tickMillis;
+		this.mask = slots - 1;
+		this.slots = new ArrayList<>(slots);
+		for (int i = 0; i < slots; i++) {
+			this.slots.add(new ArrayList<>());
+		}
+		this.currentTick = System.currentTimeMillis() / tickMillis;
+	}
+
+	/**
+	 * Called after a new snapshot has been published for an airport.
+	 *
+	 * @param entry
+	 *            the updated airport
+	 */
+	public void onUpdate(AirportEntry entry) {
+		if (entry.recent == 0 && !isExpired(entry) && RECENT.compareAndSet(entry, 0, 1)) {
+			count.incrementAndGet();
+			schedule(entry);
+		}
+	}
+
+	/**
+	 * Called after an airport has been removed from the registry.
+	 *
+	 * @param entry
+	 *            the removed airport
+	 */
+	public void onRemove(AirportEntry entry) {
+		if (RECENT.compareAndSet(entry, 1, 0)) {
+			count.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @param now
+	 *            the current time in milliseconds since UTC epoch
+	 * @return the number of airports updated within the window
+	 */
+	public int getCount(long now) {
+		advance(now);
+		return count.get();
+	}
+
+	/**
+	 * Forget all airports.
+	 */
+	public synchronized void reset() {
+		for (List<AirportEntry> slot : slots) {
+			slot.clear();
+		}
+		count.set(0);
+	}
+
+	private synchronized void schedule(AirportEntry entry) {
+		long deadline = entry.getAtmosphericInformation().getLastUpdateTime() + windowMillis;
+		slots.get((int) (deadlineTick(deadline) & mask)).add(entry);
+	}
+
+	private synchronized void advance(long now) {
+		long nowTick = now / tickMillis;
+		// after a full rotation every slot has been visited
+		long from = Math.max(currentTick + 1, nowTick - mask);
+		for (long tick = from; tick <= nowTick; tick++) {
+			expire((int) (tick & mask), now);
+		}
+		currentTick = Math.max(currentTick, nowTick);
+	}
+
+	private void expire(int slotIndex, long now) {
+		List<AirportEntry> slot = slots.get(slotIndex);
+		for (int i = slot.size() - 1; i >= 0; i--) {
+			AirportEntry entry = slot.get(i);
+			if (entry.recent == 0) {
+				// already aged out or removed
+				removeAt(slot, i);
+				continue;
+			}
+			AtmosphericInformation ai = entry.getAtmosphericInformation();
+			long deadline = ai.getLastUpdateTime() + windowMillis;
+			if (now < deadline) {
+				int target = (int) (deadlineTick(deadline) & mask);
+				if (target != slotIndex) {
+					removeAt(slot, i);
+					slots.get(target).add(entry);
+				}
+			} else if (RECENT.compareAndSet(entry, 1, 0)) {
+				count.decrementAndGet();
+				removeAt(slot, i);
+				// an update may have been published before the flag was cleared
+				if (entry.getAtmosphericInformation() != ai && RECENT.compareAndSet(entry, 0, 1)) {
+					count.incrementAndGet();
+					long newDeadline = entry.getAtmosphericInformation().getLastUpdateTime() + windowMillis;
+					slots.get((int) (deadlineTick(newDeadline) & mask)).add(entry);
+				}
+			}
+		}
+	}
+
+	/** snapshots restored from disk may be older than the window */
+	private boolean isExpired(AirportEntry entry) {
+		return entry.getAtmosphericInformation().getLastUpdateTime() + windowMillis <= System.currentTimeMillis();
+	}
+
+	private long deadlineTick(long deadline) {
+		return (deadline + tickMillis - 1) / tickMillis;
+	}
+
+	private static void removeAt(List<AirportEntry> slot, int i) {
+		int last = slot.size() - 1;
+		slot.set(i, slot.get(last));
+		slot.remove(last);
+	}
+}
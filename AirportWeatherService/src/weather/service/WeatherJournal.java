@@ -0,0 +1,69 @@
+package weather.service;
+
+import java.util.List;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+
+/**
+ * Records the mutations of the {@link WeatherService} before they are
+ * published, e.g. a write ahead log. The service calls the journal with the
+ * lock of the mutation held, so the records of one airport are made in
+ * publication order, and a journal which throws rejects the mutation before
+ * anybody has seen it. Waiting until a record is durable happens after the
+ * locks have been released, see {@link #awaitDurable(long)}.
+ *
+ * @author Abdullah Atmaca
+ */
+public interface WeatherJournal {
+
+	/**
+	 * Airports are about to be added or replaced, all or none of them are
+	 * recorded.
+	 *
+	 * @return the ticket of the last record
+	 */
+	long airportsAdded(List<AirportData> airports);
+
+	/**
+	 * An airport is about to be removed.
+	 *
+	 * @return the ticket of the record
+	 */
+	long airportDeleted(AirportData airport);
+
+	/**
+	 * A data point is about to be published with the given snapshot.
+	 *
+	 * @return the ticket of the record
+	 */
+	long dataPoint(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot);
+
+	/**
+	 * Data points are about to be published with one snapshot, all or none of
+	 * them are recorded.
+	 *
+	 * @return the ticket of the last record
+	 */
+	long dataPoints(AirportEntry entry, List<DataPointType> types, List<DataPoint> dps, AtmosphericInformation snapshot);
+
+	/**
+	 * All airports are about to be removed.
+	 *
+	 * @return the ticket of the record
+	 */
+	long reset();
+
+	/**
+	 * Wait until the record with the given ticket, and all records before it,
+	 * are as durable as the journal promises.
+	 *
+	 * @param ticket
+	 *            a ticket returned by this journal
+	 * @throws java.io.UncheckedIOException
+	 *             if the record could not be made durable
+	 */
+	void awaitDurable(long ticket);
+}
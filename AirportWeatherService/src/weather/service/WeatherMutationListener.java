@@ -0,0 +1,53 @@
+package weather.service;
+
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+
+/**
+ * Observes the mutations of the {@link WeatherService}. Listeners are called
+ * synchronously after a mutation has been published. Mutations of one airport
+ * are serialized, so a listener sees them in the order readers see them. A
+ * listener which throws is logged, the mutation stands and the other listeners
+ * are still called. Mutations which must be recorded before they are published
+ * go to the {@link WeatherJournal}.
+ *
+ * @author Abdullah Atmaca
+ */
+public interface WeatherMutationListener {
+
+	/**
+	 * An airport has been added or replaced.
+	 *
+	 * @param entry
+	 *            the registry entry of the airport
+	 */
+	void onAirportAdded(AirportEntry entry);
+
+	/**
+	 * An airport has been removed.
+	 *
+	 * @param entry
+	 *            the registry entry of the removed airport
+	 */
+	void onAirportDeleted(AirportEntry entry);
+
+	/**
+	 * A data point has been applied to an airport.
+	 *
+	 * @param entry
+	 *            the registry entry of the airport
+	 * @param type
+	 *            the data point type
+	 * @param dp
+	 *            the data point
+	 * @param snapshot
+	 *            the atmospheric information published with the data point
+	 */
+	void onDataPoint(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot);
+
+	/**
+	 * All airports have been removed.
+	 */
+	void onReset();
+}
@@ -1,54 +1,151 @@
 package weather.service;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import weather.ServerConfig;
 import weather.exception.WeatherException;
 import weather.model.AirportData;
 import weather.model.AtmosphericInformation;
 import weather.model.DataPoint;
+import weather.model.DataPointRecord;
 import weather.model.DataPointType;
+import weather.model.DataPointUpdate;
+import weather.model.RollupBucket;
+import weather.monitoring.WeatherEvents;
+import weather.monitoring.WeatherEvents.AirportMutationProbe;
+import weather.monitoring.WeatherEvents.DataPointBatchProbe;
+import weather.monitoring.WeatherEvents.DataPointProbe;
+import weather.monitoring.WeatherEvents.RadiusQueryProbe;
 
+/**
+ * Holds the known airports and their latest atmospheric information. All
+ * state is shared by the instances and safe to use from concurrent request
+ * threads: queries never lock, collected data points are published as new
+ * immutable {@link AtmosphericInformation} snapshots with compare and set, and
+ * airport mutations are serialized on the registry. Updates of one airport are
+ * serialized on its registry entry so {@link WeatherMutationListener}s observe
+ * them in publication order.
+ *
+ * A {@link WeatherJournal} records each mutation before it is published, with
+ * the same lock held, and is waited for once the locks are released, so slow
+ * disks delay the caller only. Listeners are called after publication, a
+ * failing listener is logged and does not keep the others from being called.
+ */
 public class WeatherService {
 
+	public static final Logger logger = Logger.getLogger(WeatherService.class.getName());
+
 	/** Earth radius in KM */
 	public static final double R = 6372.8;
 
-	/** AtmosphericInformation for all known airports */
-	private static Map<AirportData, AtmosphericInformation> airportAtmosphericInfoMap = new HashMap<>();
+	/** readings older than this do not count towards the data size */
+	public static final long DATA_SIZE_WINDOW_MILLIS = 86400000;
+
+	/** data points kept per airport and data point type */
+	public static final int HISTORY_CAPACITY = ServerConfig.getHistoryCapacity();
+
+	/** minute, hour and day rollup buckets kept per airport and data point type */
+	private static final int[] ROLLUP_BUCKETS = ServerConfig.getRollupBuckets();
+
+	/** whether any rollup tier is kept */
+	private static final boolean ROLLUPS = ROLLUP_BUCKETS[0] + ROLLUP_BUCKETS[1] + ROLLUP_BUCKETS[2] > 0;
+
+	/** radius query results kept in the {@link QueryResultCache} */
+	public static final int QUERY_CACHE_SIZE = Integer.getInteger("weather.cache.size", 1024);
+
+	/** all known airports and their AtmosphericInformation */
+	private static AirportRegistry airportRegistry = new AirportRegistry();
+
+	/** spatial index of all known airports for radius queries */
+	private static GeoGrid geoGrid = new GeoGrid();
 
 	/**
-	 * Internal performance counter to better understand most requested
-	 * information, this map can be improved but for now provides the basis for
-	 * future performance optimizations. Due to the stateless deployment
-	 * architecture we don't want to write this to disk, but will pull it off
-	 * using a REST request and aggregate with other performance metrics
+	 * Internal performance counters to better understand most requested
+	 * information. Due to the stateless deployment architecture we don't want
+	 * to write this to disk, but will pull it off using a REST request and
+	 * aggregate with other performance metrics
 	 */
-	private static Map<AirportData, Integer> requestFrequency = new HashMap<AirportData, Integer>();
+	private static RequestStatistics requestStatistics = new RequestStatistics();
+
+	/** counts the airports updated within the data size window */
+	private static UpdateTimingWheel recentUpdates = new UpdateTimingWheel(DATA_SIZE_WINDOW_MILLIS, 1000, 4096);
+
+	/** results of recent radius queries */
+	private static QueryResultCache queryCache = new QueryResultCache(QUERY_CACHE_SIZE);
 
-	private static Map<Double, Integer> radiusFreq = new HashMap<Double, Integer>();
+	/** observers of all mutations */
+	private static List<WeatherMutationListener> mutationListeners = new CopyOnWriteArrayList<>();
 
-	public Map<AirportData, AtmosphericInformation> getAirportAtmosphericInfoMap() {
-		return airportAtmosphericInfoMap;
+	/** records mutations before they are published, null for none */
+	private static volatile WeatherJournal journal;
+
+	static {
+		mutationListeners.add(new HistoryRecorder());
+	}
+
+	public void addMutationListener(WeatherMutationListener listener) {
+		mutationListeners.add(listener);
 	}
 
-	public Set<AirportData> getAirports() {
-		return airportAtmosphericInfoMap.keySet();
+	public void removeMutationListener(WeatherMutationListener listener) {
+		mutationListeners.remove(listener);
 	}
 
-	public Collection<AtmosphericInformation> getAtmosphericInformations() {
-		return airportAtmosphericInfoMap.values();
+	/**
+	 * @param journal
+	 *            the journal recording all mutations from now on, null for none
+	 */
+	public void setJournal(WeatherJournal journal) {
+		WeatherService.journal = journal;
 	}
 
-	public Map<AirportData, Integer> getRequestFrequency() {
-		return requestFrequency;
+	public List<AirportData> getAirports() {
+		List<AirportData> airports = new ArrayList<>(airportRegistry.size());
+		for (AirportEntry entry : airportRegistry.entries()) {
+			airports.add(entry.getAirportData());
+		}
+		return airports;
 	}
 
-	public Map<Double, Integer> getRadiusFreq() {
-		return radiusFreq;
+	public List<AtmosphericInformation> getAtmosphericInformations() {
+		List<AtmosphericInformation> infos = new ArrayList<>(airportRegistry.size());
+		for (AirportEntry entry : airportRegistry.entries()) {
+			infos.add(entry.getAtmosphericInformation());
+		}
+		return infos;
+	}
+
+	public List<AirportEntry> getAirportEntries() {
+		return airportRegistry.entries();
+	}
+
+	public RequestStatistics getRequestStatistics() {
+		return requestStatistics;
+	}
+
+	public QueryResultCache getQueryCache() {
+		return queryCache;
+	}
+
+	/**
+	 * @return the number of airports with data updated within the last
+	 *         {@link #DATA_SIZE_WINDOW_MILLIS}
+	 */
+	public int getRecentDataSize() {
+		return recentUpdates.getCount(System.currentTimeMillis());
 	}
 
 	/**
@@ -59,35 +156,55 @@ public class WeatherService {
 	 * @return airport data or null if not found
 	 */
 	public AirportData findAirportData(String iataCode) {
-		return getAirports().stream().filter(ap -> ap.getIata().equals(iataCode)).findFirst().orElse(null);
+		AirportEntry entry = airportRegistry.find(iataCode);
+		return entry == null ? null : entry.getAirportData();
 	}
 
 	/**
 	 * Records information about how often requests are made
 	 *
-	 * @param iata
-	 *            an iata code
+	 * @param entry
+	 *            the registry entry of the queried airport
 	 * @param radius
 	 *            query radius
 	 */
-	public void updateRequestFrequency(AirportData airportData, Double radius) {
-		requestFrequency.put(airportData, requestFrequency.getOrDefault(airportData, 0) + 1);
-		radiusFreq.put(radius, radiusFreq.getOrDefault(radius, 0) + 1);
+	public void updateRequestFrequency(AirportEntry entry, double radius) {
+		requestStatistics.record(entry, radius);
+	}
+
+	/**
+	 * Given an iataCode find the registry entry of the airport
+	 *
+	 * @param iataCode
+	 *            as a string
+	 * @return the registry entry or null if not found
+	 */
+	public AirportEntry findAirportEntry(String iataCode) {
+		return airportRegistry.find(iataCode);
 	}
 
 	/**
-	 * Given an iataCode find the index of airport data
+	 * Given a packed iataCode find the registry entry of the airport, without
+	 * creating the code string
+	 *
+	 * @param key
+	 *            the code packed by {@link AirportRegistry#pack(String)}
+	 * @return the registry entry or null if not found
+	 */
+	public AirportEntry findAirportEntry(int key) {
+		return airportRegistry.find(key);
+	}
+
+	/**
+	 * Given an iataCode find the atmospheric information of the airport
 	 *
 	 * @param iataCode
 	 *            as a string
-	 * @return index of airport data or -1 if not found
+	 * @return atmospheric information or null if not found
 	 */
 	public AtmosphericInformation getAtmosphericInformation(String iataCode) {
-		final AirportData airportData = findAirportData(iataCode);
-		if (airportData == null) {
-			return null;
-		}
-		return airportAtmosphericInfoMap.get(airportData);
+		AirportEntry entry = airportRegistry.find(iataCode);
+		return entry == null ? null : entry.getAtmosphericInformation();
 	}
 
 	/**
@@ -102,12 +219,180 @@ public class WeatherService {
 	public double calculateDistance(AirportData ad1, AirportData ad2) {
 		double deltaLat = Math.toRadians(ad2.getLatitude() - ad1.getLatitude());
 		double deltaLon = Math.toRadians(ad2.getLongitude() - ad1.getLongitude());
-		double a = Math.pow(Math.sin(deltaLat / 2), 2) + Math.pow(Math.sin(deltaLon / 2), 2) * Math.cos(Math.toRadians(ad1.getLatitude()))
-				* Math.cos(Math.toRadians(ad2.getLatitude()));
+		double sinLat = Math.sin(deltaLat / 2);
+		double sinLon = Math.sin(deltaLon / 2);
+		double a = sinLat * sinLat + sinLon * sinLon * Math.cos(Math.toRadians(ad1.getLatitude())) * Math.cos(Math.toRadians(ad2.getLatitude()));
 		double c = 2 * Math.asin(Math.sqrt(a));
 		return R * c;
 	}
 
+	/**
+	 * Distance between two registered airports, using the trigonometry cached
+	 * in their registry entries.
+	 *
+	 * @param e1
+	 *            airport 1
+	 * @param e2
+	 *            airport 2
+	 * @return the distance in KM
+	 */
+	public double calculateDistance(AirportEntry e1, AirportEntry e2) {
+		return DistanceKernel.distance(DistanceKernel.chordSquared(e1.x, e1.y, e1.z, e2.x, e2.y, e2.z));
+	}
+
+	/**
+	 * Find all airports within the given distance of an airport, including the
+	 * airport itself.
+	 *
+	 * @param origin
+	 *            the registry entry of the airport in the center of the query
+	 * @param radius
+	 *            the query radius in KM
+	 * @return the registry entries of the matching airports
+	 */
+	public List<AirportEntry> findAirportsWithin(AirportEntry origin, double radius) {
+		List<AirportEntry> result = new ArrayList<>();
+		geoGrid.findWithin(origin, radius, result);
+		return result;
+	}
+
+	/**
+	 * Visit the airports within the given distance of an airport as they are
+	 * found, without collecting them. The order of the visits is stable while
+	 * no airport is added or removed.
+	 *
+	 * @param origin
+	 *            the registry entry of the airport in the center of the query
+	 * @param radius
+	 *            the query radius in KM
+	 * @param visitor
+	 *            called with the registry entry of each matching airport,
+	 *            returns false to stop the search
+	 */
+	public void visitAirportsWithin(AirportEntry origin, double radius, Predicate<AirportEntry> visitor) {
+		RadiusQueryProbe event = WeatherEvents.radiusQuery();
+		if (!event.isEnabled()) {
+			geoGrid.findWithin(origin, radius, visitor);
+			return;
+		}
+		int[] results = new int[1];
+		int candidates = geoGrid.findWithin(origin, radius, entry -> {
+			results[0]++;
+			return visitor.test(entry);
+		});
+		event.complete(origin.getAirportData().getIata(), radius, candidates, results[0], false);
+	}
+
+	/**
+	 * Retrieve the atmospheric information of all airports with data within the
+	 * given distance of an airport, including the airport itself. Results are
+	 * served from the {@link QueryResultCache} as long as neither the
+	 * neighbourhood nor the weather in it has changed.
+	 *
+	 * @param origin
+	 *            the registry entry of the airport in the center of the query
+	 * @param radius
+	 *            the query radius in KM
+	 * @return the atmospheric information, which must not be modified
+	 */
+	public List<AtmosphericInformation> getAtmosphericInformationWithin(AirportEntry origin, double radius) {
+		RadiusQueryProbe event = WeatherEvents.radiusQuery();
+		long version = airportRegistry.getVersion();
+		List<AtmosphericInformation> result = queryCache.get(origin, radius, version);
+		boolean cached = result != null;
+		int candidates = 0;
+		if (!cached) {
+			List<AirportEntry> neighbours = new ArrayList<>();
+			candidates = geoGrid.findWithin(origin, radius, neighbours);
+			result = queryCache.put(origin, radius, version, neighbours);
+		}
+		event.complete(origin.getAirportData().getIata(), radius, candidates, result.size(), cached);
+		return result;
+	}
+
+	/**
+	 * Retrieve the history of an airport's data points of one type.
+	 *
+	 * @param iataCode
+	 *            the 3 letter IATA code
+	 * @param pointType
+	 *            the point type {@link DataPointType}
+	 * @param from
+	 *            start of the time range, inclusive, in milliseconds since UTC
+	 *            epoch
+	 * @param to
+	 *            end of the time range, inclusive, in milliseconds since UTC
+	 *            epoch
+	 * @return the data points collected in the time range, oldest first, at most
+	 *         the last {@link #HISTORY_CAPACITY}
+	 * @throws WeatherException
+	 *             if the airport or the point type is unknown
+	 */
+	public List<DataPointRecord> getHistory(String iataCode, String pointType, long from, long to) throws WeatherException {
+		AirportEntry entry = findHistoryEntry(iataCode);
+		DataPointType dptype = toDataPointType(pointType);
+
+		List<DataPointRecord> result = new ArrayList<>();
+		synchronized (entry) {
+			DataPointHistory history = entry.history[dptype.ordinal()];
+			if (history != null) {
+				history.copyRange(from, to, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieve the min, max and mean of an airport's data points of one type
+	 * over a time range. The range is answered from the finest of the minute,
+	 * hour and day rollups that still covers its start, so long ranges cost no
+	 * more than short ones.
+	 *
+	 * @param iataCode
+	 *            the 3 letter IATA code
+	 * @param pointType
+	 *            the point type {@link DataPointType}
+	 * @param from
+	 *            start of the time range, inclusive, in milliseconds since UTC
+	 *            epoch
+	 * @param to
+	 *            end of the time range, inclusive, in milliseconds since UTC
+	 *            epoch
+	 * @return the buckets overlapping the time range, oldest first, none if
+	 *         {@link ServerConfig#ROLLUP_BUCKETS} disables all tiers
+	 * @throws WeatherException
+	 *             if the airport or the point type is unknown
+	 */
+	public List<RollupBucket> getRollup(String iataCode, String pointType, long from, long to) throws WeatherException {
+		AirportEntry entry = findHistoryEntry(iataCode);
+		DataPointType dptype = toDataPointType(pointType);
+
+		List<RollupBucket> result = new ArrayList<>();
+		synchronized (entry) {
+			DataPointRollup rollup = entry.rollups[dptype.ordinal()];
+			if (rollup != null) {
+				rollup.copyRange(from, to, result);
+			}
+		}
+		return result;
+	}
+
+	private AirportEntry findHistoryEntry(String iataCode) throws WeatherException {
+		AirportEntry entry = airportRegistry.find(iataCode);
+		if (entry == null) {
+			throw new WeatherException("unknown airport " + iataCode);
+		}
+		return entry;
+	}
+
+	private static DataPointType toDataPointType(String pointType) throws WeatherException {
+		DataPointType dptype = DataPointType.fromName(pointType);
+		if (dptype == null) {
+			throw new WeatherException("unknown point type " + pointType);
+		}
+		return dptype;
+	}
+
 	/**
 	 * Update the airports weather data with the collected data.
 	 *
@@ -122,34 +407,253 @@ public class WeatherService {
 	 *             if the update can not be completed
 	 */
 	public void addDataPoint(String iataCode, String pointType, DataPoint dp) throws WeatherException {
-
+		DataPointProbe event = WeatherEvents.dataPoint();
+		String outcome = DataPointProbe.UNKNOWN_AIRPORT;
 		try {
-			AtmosphericInformation ai = getAtmosphericInformation(iataCode);
-			if (ai != null) {
-				updateAtmosphericInformation(ai, pointType, dp);
+			AirportEntry entry = airportRegistry.find(iataCode);
+			if (entry != null) {
+				updateAtmosphericInformation(entry, pointType, dp);
+				outcome = DataPointProbe.ACCEPTED;
 				return;
 			}
+		} catch (IllegalArgumentException e) {
+			outcome = DataPointProbe.UNKNOWN_TYPE;
 		} catch (Exception e) {
 			// we will throw WeatherException below.
+			outcome = DataPointProbe.INVALID;
+		} finally {
+			event.complete(iataCode, pointType, outcome);
 		}
 
 		throw new WeatherException("update can not be completed");
 	}
 
+	/**
+	 * Update the airports weather data with data collected at the given time,
+	 * e.g. when replaying a log of earlier updates.
+	 *
+	 * @param iataCode
+	 *            the 3 letter IATA code
+	 * @param dptype
+	 *            the point type
+	 * @param dp
+	 *            a datapoint object holding pointType data
+	 * @param updateTime
+	 *            the update time, in milliseconds since UTC epoch
+	 *
+	 * @throws WeatherException
+	 *             if the update can not be completed
+	 */
+	public void addDataPoint(String iataCode, DataPointType dptype, DataPoint dp, long updateTime) throws WeatherException {
+		AirportEntry entry = airportRegistry.find(iataCode);
+		if (entry == null) {
+			WeatherEvents.dataPoint().complete(iataCode, dptype.name(), DataPointProbe.UNKNOWN_AIRPORT);
+			throw new WeatherException("update can not be completed");
+		}
+		addDataPoint(entry, dptype, dp, updateTime);
+	}
+
+	/**
+	 * Update the weather data of an airport which has been looked up already,
+	 * e.g. by {@link #findAirportEntry(int)}.
+	 *
+	 * @param entry
+	 *            the registry entry of the airport
+	 * @param dptype
+	 *            the point type
+	 * @param dp
+	 *            a datapoint object holding pointType data
+	 * @param updateTime
+	 *            the update time, in milliseconds since UTC epoch
+	 *
+	 * @throws WeatherException
+	 *             if the data point is not valid
+	 */
+	public void addDataPoint(AirportEntry entry, DataPointType dptype, DataPoint dp, long updateTime) throws WeatherException {
+		String iataCode = entry.getAirportData().getIata();
+		DataPointProbe event = WeatherEvents.dataPoint();
+		try {
+			publish(entry, dptype, dp, updateTime);
+			event.complete(iataCode, dptype.name(), DataPointProbe.ACCEPTED);
+		} catch (IllegalStateException e) {
+			event.complete(iataCode, dptype.name(), DataPointProbe.INVALID);
+			throw new WeatherException("update can not be completed", e);
+		}
+	}
+
+	/**
+	 * Update an airport's weather data with several collected data points,
+	 * looking the airport up once and publishing a single new snapshot.
+	 *
+	 * @param iataCode
+	 *            the 3 letter IATA code
+	 * @param updates
+	 *            the data points for the airport, their IATA codes are ignored
+	 * @return for each update whether it has been applied, an update is not
+	 *         applied if the airport is unknown, the point type is unknown or
+	 *         the data point is not valid
+	 */
+	public boolean[] addDataPoints(String iataCode, List<DataPointUpdate> updates) {
+		DataPointBatchProbe event = WeatherEvents.dataPointBatch();
+		boolean[] applied = new boolean[updates.size()];
+		AirportEntry entry = airportRegistry.find(iataCode);
+		if (entry == null) {
+			event.complete(iataCode, updates.size(), 0);
+			return applied;
+		}
+
+		DataPointType[] types = new DataPointType[updates.size()];
+		for (int i = 0; i < types.length; i++) {
+			// null if unknown, not applied
+			types[i] = DataPointType.fromName(updates.get(i).getPointType());
+		}
+
+		long now = System.currentTimeMillis();
+		WeatherJournal j = journal;
+		long ticket = 0;
+		AtmosphericInformation current;
+		AtmosphericInformation update;
+		int accepted;
+		synchronized (entry) {
+			current = entry.getAtmosphericInformation();
+			update = current;
+			List<DataPointType> appliedTypes = new ArrayList<>(types.length);
+			List<DataPoint> appliedPoints = new ArrayList<>(types.length);
+			for (int i = 0; i < types.length; i++) {
+				DataPoint dp = updates.get(i).getDataPoint();
+				applied[i] = types[i] != null && dp != null && update.checkValidity(types[i], dp);
+				if (applied[i]) {
+					update = update.update(types[i], dp, now);
+					appliedTypes.add(types[i]);
+					appliedPoints.add(dp);
+				}
+			}
+			accepted = appliedTypes.size();
+			if (update == current) {
+				event.complete(iataCode, updates.size(), accepted);
+				return applied;
+			}
+			if (j != null) {
+				ticket = j.dataPoints(entry, appliedTypes, appliedPoints, update);
+			}
+			setAtmosphericInformation(entry, current, update);
+
+			AtmosphericInformation snapshot = update;
+			notifyListeners(listener -> {
+				for (int i = 0; i < appliedTypes.size(); i++) {
+					listener.onDataPoint(entry, appliedTypes.get(i), appliedPoints.get(i), snapshot);
+				}
+			});
+		}
+
+		recentUpdates.onUpdate(entry);
+		event.complete(iataCode, updates.size(), accepted);
+		if (j != null) {
+			j.awaitDurable(ticket);
+		}
+		return applied;
+	}
+
 	/**
 	 * update atmospheric information with the given data point for the given
-	 * point type
+	 * point type. A new snapshot is published with compare and set, retrying if
+	 * another collector updated the airport concurrently.
 	 *
-	 * @param ai
-	 *            the atmospheric information object to update
+	 * @param entry
+	 *            the registry entry of the airport to update
 	 * @param pointType
 	 *            the data point type as a string
 	 * @param dp
 	 *            the actual data point
 	 */
-	public void updateAtmosphericInformation(AtmosphericInformation ai, String pointType, DataPoint dp) throws Exception {
-		final DataPointType dptype = DataPointType.valueOf(pointType.toUpperCase());
-		ai.update(dptype, dp);
+	public void updateAtmosphericInformation(AirportEntry entry, String pointType, DataPoint dp) throws Exception {
+		final DataPointType dptype = DataPointType.fromName(pointType);
+		if (dptype == null) {
+			throw new IllegalArgumentException("unknown point type " + pointType);
+		}
+		publish(entry, dptype, dp, System.currentTimeMillis());
+	}
+
+	private void publish(AirportEntry entry, DataPointType dptype, DataPoint dp, long updateTime) {
+		WeatherJournal j = journal;
+		long ticket = 0;
+		synchronized (entry) {
+			AtmosphericInformation current = entry.getAtmosphericInformation();
+			AtmosphericInformation update = current.update(dptype, dp, updateTime);
+			if (j != null) {
+				ticket = j.dataPoint(entry, dptype, dp, update);
+			}
+			setAtmosphericInformation(entry, current, update);
+
+			for (WeatherMutationListener listener : mutationListeners) {
+				try {
+					listener.onDataPoint(entry, dptype, dp, update);
+				} catch (RuntimeException e) {
+					listenerFailed(listener, e);
+				}
+			}
+		}
+		recentUpdates.onUpdate(entry);
+		if (j != null) {
+			j.awaitDurable(ticket);
+		}
+	}
+
+	/**
+	 * Publish a snapshot. Called with the lock of the entry held, which all
+	 * writers of the snapshot hold, so the compare and set can not fail.
+	 */
+	private static void setAtmosphericInformation(AirportEntry entry, AtmosphericInformation current, AtmosphericInformation update) {
+		if (!entry.compareAndSetAtmosphericInformation(current, update)) {
+			throw new IllegalStateException("atmospheric information of " + entry.getAirportData().getIata() + " changed without its lock");
+		}
+	}
+
+	/**
+	 * Call every listener, a listener which throws does not keep the others
+	 * from being called.
+	 */
+	private static void notifyListeners(Consumer<WeatherMutationListener> call) {
+		for (WeatherMutationListener listener : mutationListeners) {
+			try {
+				call.accept(listener);
+			} catch (RuntimeException e) {
+				listenerFailed(listener, e);
+			}
+		}
+	}
+
+	private static void listenerFailed(WeatherMutationListener listener, RuntimeException e) {
+		logger.log(Level.SEVERE, "mutation listener " + listener.getClass().getName() + " failed", e);
+	}
+
+	/**
+	 * Replace the atmospheric information of an airport with one restored from
+	 * persistent storage, keeping its original update time. Information which is
+	 * not newer than the current one is ignored.
+	 *
+	 * @param iataCode
+	 *            the 3 letter IATA code
+	 * @param ai
+	 *            the restored atmospheric information
+	 * @return true if the airport is known
+	 */
+	public boolean restoreAtmosphericInformation(String iataCode, AtmosphericInformation ai) {
+		AirportEntry entry = airportRegistry.find(iataCode);
+		if (entry == null) {
+			return false;
+		}
+		synchronized (entry) {
+			AtmosphericInformation current;
+			do {
+				current = entry.getAtmosphericInformation();
+				if (current.getLastUpdateTime() >= ai.getLastUpdateTime()) {
+					return true;
+				}
+			} while (!entry.compareAndSetAtmosphericInformation(current, ai));
+		}
+		recentUpdates.onUpdate(entry);
+		return true;
 	}
 
 	/**
@@ -163,16 +667,101 @@ public class WeatherService {
 	 *            in degrees
 	 *
 	 * @return the added airport
+	 * @throws IllegalArgumentException
+	 *             if the code is not a 3 letter code
 	 */
 	public AirportData addAirport(String iataCode, double latitude, double longitude) {
+		if (AirportRegistry.pack(iataCode) == AirportRegistry.INVALID) {
+			throw new IllegalArgumentException("invalid iata code: " + iataCode);
+		}
 
 		AirportData ad = new AirportData(iataCode, latitude, longitude);
 
-		airportAtmosphericInfoMap.put(ad, new AtmosphericInformation());
+		AirportMutationProbe event = WeatherEvents.airportMutation();
+		WeatherJournal j = journal;
+		long ticket = 0;
+		synchronized (airportRegistry) {
+			if (j != null) {
+				ticket = j.airportsAdded(Collections.singletonList(ad));
+			}
+			AirportEntry old = airportRegistry.find(iataCode);
+			if (old != null) {
+				geoGrid.remove(old);
+				requestStatistics.remove(old);
+				recentUpdates.onRemove(old);
+			}
+			AirportEntry entry = airportRegistry.add(ad, new AtmosphericInformation());
+			geoGrid.add(entry);
+			notifyListeners(listener -> listener.onAirportAdded(entry));
+		}
+		event.complete(AirportMutationProbe.ADD, iataCode, 1);
+		if (j != null) {
+			j.awaitDurable(ticket);
+		}
 
 		return ad;
 	}
 
+	/**
+	 * Add several new airports in one step, skipping airports which are already
+	 * known. Lookups and radius queries see either none or all of the new
+	 * airports.
+	 *
+	 * @param airports
+	 *            the airports to add
+	 * @return the number of airports added
+	 */
+	public int addAirports(List<AirportData> airports) {
+		AirportMutationProbe event = WeatherEvents.airportMutation();
+		WeatherJournal j = journal;
+		long ticket = 0;
+		List<AirportEntry> entries;
+		synchronized (airportRegistry) {
+			List<AirportData> added = new ArrayList<>(airports.size());
+			Set<String> codes = new HashSet<>();
+			for (AirportData ad : airports) {
+				if (AirportRegistry.pack(ad.getIata()) != AirportRegistry.INVALID && airportRegistry.find(ad.getIata()) == null
+						&& codes.add(ad.getIata())) {
+					added.add(ad);
+				}
+			}
+			if (j != null && !added.isEmpty()) {
+				ticket = j.airportsAdded(added);
+			}
+			entries = airportRegistry.addAll(added);
+			geoGrid.addAll(entries);
+			// only now lookups and radius queries see them, all at once
+			airportRegistry.publish(entries);
+			notifyListeners(listener -> {
+				for (AirportEntry entry : entries) {
+					listener.onAirportAdded(entry);
+				}
+			});
+		}
+		event.complete(AirportMutationProbe.ADD, null, entries.size());
+		// one wait for the whole import, outside the registry lock
+		if (j != null && ticket != 0) {
+			j.awaitDurable(ticket);
+		}
+		return entries.size();
+	}
+
+	/**
+	 * Check the parameters of a new airport.
+	 *
+	 * @param iataCode
+	 *            3 letter code
+	 * @param latitude
+	 *            in degrees
+	 * @param longitude
+	 *            in degrees
+	 * @return true if the parameters are valid
+	 */
+	public static boolean isValidAirport(String iataCode, double latitude, double longitude) {
+		return AirportRegistry.pack(iataCode) != AirportRegistry.INVALID && latitude <= 90 && latitude >= -90 && longitude <= 180
+				&& longitude >= -180;
+	}
+
 	/**
 	 * Remove airport from the list
 	 *
@@ -186,21 +775,210 @@ public class WeatherService {
 	 * @return true if airport was added, false - if not (already exists)
 	 */
 	public boolean deleteAirportData(String iata) {
-		AirportData airportData = findAirportData(iata);
-		if (airportData == null) {
-			return false;
+		AirportMutationProbe event = WeatherEvents.airportMutation();
+		WeatherJournal j = journal;
+		long ticket = 0;
+		AirportEntry entry;
+		synchronized (airportRegistry) {
+			entry = airportRegistry.find(iata);
+			if (entry == null) {
+				event.complete(AirportMutationProbe.DELETE, iata, 0);
+				return false;
+			}
+			if (j != null) {
+				ticket = j.airportDeleted(entry.getAirportData());
+			}
+			airportRegistry.remove(iata);
+			geoGrid.remove(entry);
+			notifyListeners(listener -> listener.onAirportDeleted(entry));
+		}
+		requestStatistics.remove(entry);
+		recentUpdates.onRemove(entry);
+		event.complete(AirportMutationProbe.DELETE, iata, 1);
+		if (j != null) {
+			j.awaitDurable(ticket);
 		}
-		airportAtmosphericInfoMap.remove(airportData);
-		requestFrequency.remove(airportData);
 		return true;
 	}
 
+	/**
+	 * Drop the weather data of an airport but keep the airport, e.g. once its
+	 * data has moved to another shard. The history and rollups are dropped
+	 * too, the request statistics are kept. Journaled and replicated as
+	 * registering the airport anew, which drops the data as well.
+	 *
+	 * @param iataCode
+	 *            the 3 letter IATA code
+	 * @return false if the airport is unknown
+	 */
+	public boolean clearWeatherData(String iataCode) {
+		AirportMutationProbe event = WeatherEvents.airportMutation();
+		WeatherJournal j = journal;
+		long ticket = 0;
+		AirportEntry entry;
+		synchronized (airportRegistry) {
+			entry = airportRegistry.find(iataCode);
+			if (entry == null) {
+				event.complete(AirportMutationProbe.CLEAR, iataCode, 0);
+				return false;
+			}
+			synchronized (entry) {
+				if (j != null) {
+					ticket = j.airportsAdded(Collections.singletonList(entry.getAirportData()));
+				}
+				setAtmosphericInformation(entry, entry.getAtmosphericInformation(), new AtmosphericInformation());
+				Arrays.fill(entry.history, null);
+				Arrays.fill(entry.rollups, null);
+				notifyListeners(listener -> listener.onAirportAdded(entry));
+			}
+		}
+		recentUpdates.onRemove(entry);
+		event.complete(AirportMutationProbe.CLEAR, iataCode, 1);
+		if (j != null) {
+			j.awaitDurable(ticket);
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieve all collected data points of an airport with their collection
+	 * times, e.g. to move the airport to another shard. The latest data point
+	 * of a type without history, e.g. one restored from a snapshot, is stamped
+	 * with the update time of the snapshot.
+	 *
+	 * @param iataCode
+	 *            the 3 letter IATA code
+	 * @return the data points by type, oldest first
+	 * @throws WeatherException
+	 *             if the airport is unknown
+	 */
+	public Map<DataPointType, List<DataPointRecord>> getWeatherData(String iataCode) throws WeatherException {
+		AirportEntry entry = findHistoryEntry(iataCode);
+		Map<DataPointType, List<DataPointRecord>> result = new EnumMap<>(DataPointType.class);
+		synchronized (entry) {
+			AtmosphericInformation ai = entry.getAtmosphericInformation();
+			for (DataPointType type : DataPointType.values()) {
+				List<DataPointRecord> records = new ArrayList<>();
+				DataPointHistory history = entry.history[type.ordinal()];
+				if (history != null) {
+					history.copyRange(Long.MIN_VALUE, Long.MAX_VALUE, records);
+				} else if (ai.getDataPoint(type) != null) {
+					records.add(new DataPointRecord(ai.getLastUpdateTime(), ai.getDataPoint(type)));
+				}
+				if (!records.isEmpty()) {
+					result.put(type, records);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replace the weather data of an airport with data points collected
+	 * earlier, e.g. returned by {@link #getWeatherData(String)} on another
+	 * shard. The data of the airport is cleared, then the data points are
+	 * applied oldest first with their collection times, so the history, the
+	 * rollups and the update time are rebuilt as they were collected.
+	 *
+	 * @param iataCode
+	 *            the 3 letter IATA code
+	 * @param data
+	 *            the data points by type
+	 * @throws WeatherException
+	 *             if the airport is unknown or a data point is not valid, the
+	 *             data of the airport is unchanged then
+	 */
+	public void replaceWeatherData(String iataCode, Map<DataPointType, List<DataPointRecord>> data) throws WeatherException {
+		List<DataPointType> types = new ArrayList<>();
+		List<DataPointRecord> records = new ArrayList<>();
+		AtmosphericInformation empty = new AtmosphericInformation();
+		for (Map.Entry<DataPointType, List<DataPointRecord>> points : data.entrySet()) {
+			for (DataPointRecord record : points.getValue()) {
+				if (points.getKey() == null || record == null || record.getDataPoint() == null
+						|| !empty.checkValidity(points.getKey(), record.getDataPoint())) {
+					throw new WeatherException("invalid data point of " + iataCode + ": " + record);
+				}
+				types.add(points.getKey());
+				records.add(record);
+			}
+		}
+		Integer[] order = new Integer[records.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> records.get(i).getTimestamp()));
+
+		if (!clearWeatherData(iataCode)) {
+			throw new WeatherException("unknown airport " + iataCode);
+		}
+		AirportEntry entry = findHistoryEntry(iataCode);
+		for (int i : order) {
+			addDataPoint(entry, types.get(i), records.get(i).getDataPoint(), records.get(i).getTimestamp());
+		}
+	}
+
+	/**
+	 * Records the collected data points in the history and rollups of their
+	 * airport. Called with the lock of the registry entry held.
+	 */
+	private static class HistoryRecorder implements WeatherMutationListener {
+
+		@Override
+		public void onAirportAdded(AirportEntry entry) {
+		}
+
+		@Override
+		public void onAirportDeleted(AirportEntry entry) {
+		}
+
+		@Override
+		public void onDataPoint(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot) {
+			DataPointHistory history = entry.history[type.ordinal()];
+			if (history == null) {
+				history = new DataPointHistory(HISTORY_CAPACITY);
+				entry.history[type.ordinal()] = history;
+			}
+			history.append(snapshot.getLastUpdateTime(), dp);
+
+			if (!ROLLUPS) {
+				return;
+			}
+			DataPointRollup rollup = entry.rollups[type.ordinal()];
+			if (rollup == null) {
+				rollup = new DataPointRollup(ROLLUP_BUCKETS[0], ROLLUP_BUCKETS[1], ROLLUP_BUCKETS[2]);
+				entry.rollups[type.ordinal()] = rollup;
+			}
+			rollup.record(snapshot.getLastUpdateTime(), dp);
+		}
+
+		@Override
+		public void onReset() {
+		}
+	}
+
 	/**
 	 * Reset method
 	 */
 	public void reset() {		
-		airportAtmosphericInfoMap.clear();
-        requestFrequency.clear();
-        radiusFreq.clear();
+		AirportMutationProbe event = WeatherEvents.airportMutation();
+		WeatherJournal j = journal;
+		long ticket = 0;
+		int airports;
+		synchronized (airportRegistry) {
+			if (j != null) {
+				ticket = j.reset();
+			}
+			airports = airportRegistry.size();
+			airportRegistry.clear();
+			geoGrid.clear();
+			notifyListeners(WeatherMutationListener::onReset);
+		}
+        requestStatistics.reset();
+        recentUpdates.reset();
+        queryCache.clear();
+        event.complete(AirportMutationProbe.RESET, null, airports);
+		if (j != null) {
+			j.awaitDurable(ticket);
+		}
 	}
 }
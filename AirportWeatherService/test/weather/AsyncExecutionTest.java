@@ -0,0 +1,62 @@
+package weather;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import weather.exception.PayloadTooLargeException;
+import weather.service.DataPointParser;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class AsyncExecutionTest {
+
+	/** an endless body counting the bytes read from it */
+	private static final class EndlessBody extends InputStream {
+
+		long read;
+
+		@Override
+		public int read() {
+			read++;
+			return ' ';
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			read += len;
+			return len;
+		}
+	}
+
+	@Test
+	public void buffersBodyUpToLimit() throws Exception {
+		byte[] body = new byte[DataPointParser.MAX_LENGTH];
+		body[0] = '{';
+		InputStream buffered = AsyncExecution.buffer(new ByteArrayInputStream(body), DataPointParser.MAX_LENGTH);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int b; (b = buffered.read()) != -1;) {
+			out.write(b);
+		}
+		assertArrayEquals(body, out.toByteArray());
+	}
+
+	@Test
+	public void stopsReadingLongBody() throws Exception {
+		EndlessBody body = new EndlessBody();
+		try {
+			AsyncExecution.buffer(body, DataPointParser.MAX_LENGTH);
+			fail("buffered an endless body");
+		} catch (PayloadTooLargeException e) {
+			// expected
+		}
+		assertEquals(DataPointParser.MAX_LENGTH + 1, body.read);
+	}
+}
@@ -0,0 +1,147 @@
+package weather;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+import weather.persistence.BinaryCodec;
+import weather.service.AirportEntry;
+import weather.service.AirportRegistry;
+import weather.service.WeatherJournal;
+import weather.service.WeatherService;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class BinaryCollectorServerTest {
+
+	private final WeatherService weatherService = new WeatherService();
+
+	private BinaryCollectorServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		weatherService.reset();
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		server = new BinaryCollectorServer(weatherService, 0);
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		weatherService.setJournal(null);
+		weatherService.reset();
+	}
+
+	private static DataPoint dp(double mean) {
+		return new DataPoint.Builder().withFirst(mean).withMean(mean).withMedian(mean).withLast(mean).withCount(1).build();
+	}
+
+	private static void frame(DataOutputStream out, int airport, int type, DataPoint dp) throws IOException {
+		out.writeInt(BinaryCollectorServer.FRAME_LENGTH);
+		out.writeInt(airport);
+		out.writeByte(type);
+		BinaryCodec.writeDataPoint(out, dp);
+	}
+
+	@Test(timeout = 10000)
+	public void answersEveryFrame() throws IOException {
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			int bos = AirportRegistry.pack("BOS");
+			frame(out, bos, DataPointType.WIND.ordinal(), dp(10));
+			frame(out, AirportRegistry.pack("JFK"), DataPointType.WIND.ordinal(), dp(10));
+			frame(out, bos, DataPointType.values().length, dp(10));
+			frame(out, bos, DataPointType.WIND.ordinal(), dp(Double.POSITIVE_INFINITY));
+			// the markers of free registry slots and a key which can not be packed
+			frame(out, 0, DataPointType.WIND.ordinal(), dp(10));
+			frame(out, 1, DataPointType.WIND.ordinal(), dp(10));
+			frame(out, AirportRegistry.INVALID, DataPointType.WIND.ordinal(), dp(10));
+			frame(out, bos, DataPointType.HUMIDITY.ordinal(), dp(40));
+			out.flush();
+
+			byte[] expected = { BinaryCollectorServer.ACCEPTED, BinaryCollectorServer.REJECTED, BinaryCollectorServer.REJECTED,
+					BinaryCollectorServer.REJECTED, BinaryCollectorServer.REJECTED, BinaryCollectorServer.REJECTED, BinaryCollectorServer.REJECTED,
+					BinaryCollectorServer.ACCEPTED };
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals("frame " + i, expected[i], in.readByte());
+			}
+		}
+		AtmosphericInformation ai = weatherService.getAtmosphericInformation("BOS");
+		assertEquals(10, ai.getWind().getMean(), 0);
+		assertEquals(40, ai.getHumidity().getMean(), 0);
+	}
+
+	@Test(timeout = 10000)
+	public void failureClosesOnlyItsConnection() throws IOException {
+		try (Socket bystander = new Socket("localhost", server.getPort()); Socket failing = new Socket("localhost", server.getPort())) {
+			weatherService.setJournal(new FailingJournal());
+			DataOutputStream out = new DataOutputStream(failing.getOutputStream());
+			frame(out, AirportRegistry.pack("BOS"), DataPointType.WIND.ordinal(), dp(10));
+			out.flush();
+			try {
+				new DataInputStream(failing.getInputStream()).readByte();
+				throw new AssertionError("answered");
+			} catch (EOFException | SocketException e) {
+				// closed by the server
+			}
+
+			weatherService.setJournal(null);
+			out = new DataOutputStream(bystander.getOutputStream());
+			frame(out, AirportRegistry.pack("BOS"), DataPointType.WIND.ordinal(), dp(12));
+			out.flush();
+			assertEquals(BinaryCollectorServer.ACCEPTED, new DataInputStream(bystander.getInputStream()).readByte());
+		}
+		assertEquals(12, weatherService.getAtmosphericInformation("BOS").getWind().getMean(), 0);
+	}
+
+	/** a journal whose disk has gone away */
+	private static final class FailingJournal implements WeatherJournal {
+
+		@Override
+		public long airportsAdded(List<AirportData> airports) {
+			throw new IllegalStateException("failed");
+		}
+
+		@Override
+		public long airportDeleted(AirportData airport) {
+			throw new IllegalStateException("failed");
+		}
+
+		@Override
+		public long dataPoint(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot) {
+			throw new UncheckedIOException(new IOException("failed"));
+		}
+
+		@Override
+		public long dataPoints(AirportEntry entry, List<DataPointType> types, List<DataPoint> dps, AtmosphericInformation snapshot) {
+			throw new IllegalStateException("failed");
+		}
+
+		@Override
+		public long reset() {
+			throw new IllegalStateException("failed");
+		}
+
+		@Override
+		public void awaitDurable(long ticket) {
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package weather;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+import weather.cluster.FakeShard;
+import weather.cluster.ShardRouter;
+
+/**
+ * Splitting and merging requests on the router endpoints, with
+ * {@link FakeShard}s.
+ *
+ * @author Abdullah Atmaca
+ */
+public class RouterEndpointTest {
+
+	private static final Gson gson = new Gson();
+
+	private final List<FakeShard> shards = new ArrayList<>();
+
+	private ShardRouter router;
+
+	@Before
+	public void setUp() throws IOException {
+		List<String> urls = new ArrayList<>();
+		for (int s = 0; s < 3; s++) {
+			FakeShard shard = new FakeShard();
+			shards.add(shard);
+			urls.add(shard.getUrl());
+		}
+		router = new ShardRouter(urls);
+		ShardRouter.setInstance(router);
+	}
+
+	@After
+	public void tearDown() {
+		ShardRouter.setInstance(null);
+		for (FakeShard shard : shards) {
+			shard.close();
+		}
+	}
+
+	private static String record(String iata, double mean) {
+		return "{\"iata\":\"" + iata + "\",\"pointType\":\"wind\",\"dataPoint\":{\"mean\":" + mean + ",\"count\":1}}";
+	}
+
+	@Test
+	public void batchIsSplitByOwnerAndAnsweredInOrder() {
+		List<String> codes = Arrays.asList("BOS", "JFK", "LGA", "EWR", "SFO", "LAX", "ORD", "MDW", "ATL");
+		shards.get(router.shardOf("LGA")).rejected.add("LGA");
+		StringBuilder batch = new StringBuilder("[");
+		for (int i = 0; i < codes.size(); i++) {
+			batch.append(record(codes.get(i), i)).append(',');
+			if (i == 4) {
+				// a record without an airport in the middle
+				batch.append("{\"pointType\":\"wind\"},");
+			}
+		}
+		batch.setCharAt(batch.length() - 1, ']');
+
+		Response response = new RouterCollectorEndpoint().updateWeatherBatch(new ByteArrayInputStream(batch.toString().getBytes(StandardCharsets.UTF_8)));
+		assertEquals(200, response.getStatus());
+		int[] expected = { 200, 200, 400, 200, 200, 400, 200, 200, 200, 200 };
+		assertArrayEquals(expected, (int[]) response.getEntity());
+
+		// every shard received the records of its airports, in the order of the batch
+		int received = 0;
+		for (int s = 0; s < shards.size(); s++) {
+			List<String> owned = new ArrayList<>();
+			for (String code : codes) {
+				if (router.shardOf(code) == s) {
+					owned.add(code);
+				}
+			}
+			List<String> sent = new ArrayList<>();
+			for (JsonArray part : shards.get(s).batches) {
+				for (JsonElement record : part) {
+					sent.add(record.getAsJsonObject().get("iata").getAsString());
+				}
+			}
+			assertEquals(owned, sent);
+			assertEquals(owned.isEmpty() ? 0 : 1, shards.get(s).batches.size());
+			received += sent.size();
+		}
+		assertEquals(codes.size(), received);
+	}
+
+	@Test
+	public void unreachableShardFailsOnlyItsRecords() {
+		int down = router.shardOf("BOS");
+		shards.get(down).close();
+		String other = Arrays.asList("JFK", "LGA", "EWR", "SFO", "LAX").stream().filter(code -> router.shardOf(code) != down).findFirst().get();
+		String batch = "[" + record("BOS", 1) + "," + record(other, 2) + "]";
+
+		Response response = new RouterCollectorEndpoint().updateWeatherBatch(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)));
+		assertArrayEquals(new int[] { 502, 200 }, (int[]) response.getEntity());
+	}
+
+	@Test
+	public void radiusQueryConcatenatesShardsInOrder() {
+		shards.get(0).replies.put("/query/weather/BOS/100", "[{\"n\":0},{\"n\":1}]");
+		shards.get(1).replies.put("/query/weather/BOS/100", " [ ] ");
+		shards.get(2).replies.put("/query/weather/BOS/100", "[{\"n\":2}]\n");
+
+		Response response = new RouterQueryEndpoint().weather("BOS", "100", null, null);
+		assertEquals(200, response.getStatus());
+		assertEquals("[{\"n\":0},{\"n\":1},{\"n\":2}]", new String((byte[]) response.getEntity(), StandardCharsets.UTF_8));
+		for (FakeShard shard : shards) {
+			assertEquals(Arrays.asList("GET /query/weather/BOS/100"), shard.requests);
+		}
+	}
+
+	@Test
+	public void radiusQueryPagesMergedResults() {
+		// every shard is asked for up to cursor plus limit results
+		String path = "/query/weather/BOS/100?limit=3&cursor=0";
+		shards.get(0).replies.put(path, "[{\"n\":0},{\"n\":1}]");
+		shards.get(1).replies.put(path, "[]");
+		shards.get(2).replies.put(path, "[{\"n\":2},{\"n\":3},{\"n\":4}]");
+
+		Response response = new RouterQueryEndpoint().weather("BOS", "100", "2", "1");
+		assertEquals(200, response.getStatus());
+		JsonArray page = gson.fromJson((String) response.getEntity(), JsonArray.class);
+		assertEquals(gson.fromJson("[{\"n\":1},{\"n\":2}]", JsonArray.class), page);
+
+		assertEquals(400, new RouterQueryEndpoint().weather("BOS", "100", "-1", null).getStatus());
+		assertEquals(400, new RouterQueryEndpoint().weather("BOS", "100", "x", null).getStatus());
+	}
+
+	@Test
+	public void radiusQueryAnswersLowestFailure() {
+		shards.get(0).replies.put("/query/weather/BOS/100", "[{\"n\":0}]");
+		shards.get(1).failures.put("GET /query/weather/BOS/100", 404);
+		shards.get(2).close();
+
+		assertEquals(404, new RouterQueryEndpoint().weather("BOS", "100", null, null).getStatus());
+	}
+}
@@ -0,0 +1,98 @@
+package weather.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import weather.model.AirportData;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class ConsistentHashTest {
+
+	/** all codes of three capital letters */
+	private static final int CODES = 26 * 26 * 26;
+
+	private static String code(int i) {
+		return new String(new char[] { (char) ('A' + i / 676 % 26), (char) ('A' + i / 26 % 26), (char) ('A' + i % 26) });
+	}
+
+	private static List<String> names(int shards) {
+		List<String> names = new ArrayList<>();
+		for (int s = 0; s < shards; s++) {
+			names.add("http://localhost:" + (9091 + s) + "/");
+		}
+		return names;
+	}
+
+	@Test
+	public void spreadsCodesEvenly() {
+		for (int shards : new int[] { 2, 3, 8, 16 }) {
+			ConsistentHash ring = new ConsistentHash(names(shards));
+			int[] counts = new int[shards];
+			for (int i = 0; i < CODES; i++) {
+				counts[ring.shardOf(code(i))]++;
+			}
+			double mean = (double) CODES / shards;
+			for (int count : counts) {
+				assertTrue(shards + " shards: " + Arrays.toString(counts), Math.abs(count - mean) < mean * 0.2);
+			}
+		}
+	}
+
+	@Test
+	public void sameNamesSameShards() {
+		ConsistentHash a = new ConsistentHash(names(5));
+		ConsistentHash b = new ConsistentHash(names(5));
+		for (int i = 0; i < CODES; i++) {
+			assertEquals(a.shardOf(code(i)), b.shardOf(code(i)));
+			assertEquals(a.shardOf(code(i)), a.shardOf(new AirportData(code(i), 0, 0)));
+		}
+	}
+
+	@Test
+	public void addingShardMovesOnlyItsShare() {
+		ConsistentHash before = new ConsistentHash(names(8));
+		ConsistentHash after = new ConsistentHash(names(9));
+		int moved = 0;
+		for (int i = 0; i < CODES; i++) {
+			int from = before.shardOf(code(i));
+			int to = after.shardOf(code(i));
+			if (from != to) {
+				// only to the new shard, never between the old ones
+				assertEquals(8, to);
+				moved++;
+			}
+		}
+		double share = (double) CODES / 9;
+		assertTrue("moved " + moved, Math.abs(moved - share) < share * 0.2);
+	}
+
+	@Test
+	public void removingShardMovesOnlyItsCodes() {
+		ConsistentHash before = new ConsistentHash(names(8));
+		ConsistentHash after = new ConsistentHash(names(7));
+		for (int i = 0; i < CODES; i++) {
+			int from = before.shardOf(code(i));
+			if (from != 7) {
+				assertEquals(from, after.shardOf(code(i)));
+			}
+		}
+	}
+
+	@Test
+	public void radiusQueriesReachAllShards() {
+		ConsistentHash ring = new ConsistentHash(names(4));
+		BitSet all = new BitSet();
+		all.set(0, 4);
+		assertEquals(all, ring.shardsWithin(new AirportData("BOS", 42.36, -71.01), 0));
+		assertEquals(ring, ring.rebalance(new ArrayList<>(), 1));
+	}
+}
@@ -0,0 +1,162 @@
+package weather.cluster;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import weather.model.AirportData;
+
+/**
+ * A shard on localhost answering the requests of a {@link ShardRouter} from
+ * maps the test fills, recording every request and failing those it is told
+ * to.
+ *
+ * @author Abdullah Atmaca
+ */
+public class FakeShard implements AutoCloseable {
+
+	private static final Gson gson = new Gson();
+
+	private final HttpServer server;
+
+	/** the registered airports by IATA code */
+	public final Map<String, AirportData> airports = new ConcurrentHashMap<>();
+
+	/** the data of the airports as /collect/airport/{iata}/data answers it */
+	public final Map<String, String> data = new ConcurrentHashMap<>();
+
+	/** the update times of the airports with data */
+	public final Map<String, Long> updated = new ConcurrentHashMap<>();
+
+	/** the status to answer by method and path, e.g. "PUT /collect/airport/BOS/data" */
+	public final Map<String, Integer> failures = new ConcurrentHashMap<>();
+
+	/** the bodies of other GET requests by path */
+	public final Map<String, String> replies = new ConcurrentHashMap<>();
+
+	/** airports whose data points of a batch are answered with 400 */
+	public final Set<String> rejected = ConcurrentHashMap.newKeySet();
+
+	/** the batches received */
+	public final List<JsonArray> batches = Collections.synchronizedList(new ArrayList<>());
+
+	/** the method and path of every request */
+	public final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+	public FakeShard() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	public String getUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/";
+	}
+
+	/** register the airports */
+	public void add(AirportData... airports) {
+		for (AirportData ad : airports) {
+			this.airports.put(ad.getIata(), ad);
+		}
+	}
+
+	/** hold data of an airport collected at the given time */
+	public void hold(String iataCode, long updateTime) {
+		data.put(iataCode, "{\"WIND\":[{\"time\":" + updateTime + "}]}");
+		updated.put(iataCode, updateTime);
+	}
+
+	public static String dataPath(String iataCode) {
+		return "/collect/airport/" + iataCode + "/data";
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().toString();
+		byte[] body = ShardClient.readAll(exchange.getRequestBody());
+		requests.add(method + " " + path);
+		Integer failure = failures.get(method + " " + path);
+		String reply = failure == null ? answer(method, path, new String(body, StandardCharsets.UTF_8)) : "";
+		int status = failure != null ? failure : reply == null ? 404 : 200;
+		byte[] bytes = reply == null ? new byte[0] : reply.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length == 0) {
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/** @return the body of a successful reply or null if not found */
+	private String answer(String method, String path, String body) {
+		String[] segments = path.split("/");
+		if (method.equals("GET") && replies.containsKey(path)) {
+			return replies.get(path);
+		} else if (method.equals("GET") && path.equals("/collect/airports")) {
+			return gson.toJson(airports.keySet());
+		} else if (method.equals("GET") && path.equals("/collect/airports/updated")) {
+			return gson.toJson(updated);
+		} else if (method.equals("POST") && path.equals("/collect/weather")) {
+			JsonArray batch = gson.fromJson(body, JsonArray.class);
+			batches.add(batch);
+			int[] statuses = new int[batch.size()];
+			for (int i = 0; i < statuses.length; i++) {
+				JsonElement iata = batch.get(i).getAsJsonObject().get("iata");
+				statuses[i] = rejected.contains(iata.getAsString()) ? 400 : 200;
+			}
+			return gson.toJson(statuses);
+		} else if (segments.length == 4 && segments[2].equals("airport") && method.equals("GET")) {
+			AirportData ad = airports.get(segments[3]);
+			if (ad == null) {
+				return null;
+			}
+			JsonObject airport = new JsonObject();
+			airport.addProperty("iata", ad.getIata());
+			airport.addProperty("latitude", ad.getLatitude());
+			airport.addProperty("longitude", ad.getLongitude());
+			return gson.toJson(airport);
+		} else if (segments.length == 5 && segments[2].equals("airport") && segments[4].equals("data")) {
+			String code = segments[3];
+			if (!airports.containsKey(code)) {
+				return null;
+			}
+			switch (method) {
+			case "GET":
+				return data.getOrDefault(code, "{}");
+			case "PUT":
+				data.put(code, body);
+				updated.put(code, System.currentTimeMillis());
+				return "";
+			case "DELETE":
+				data.remove(code);
+				updated.remove(code);
+				return "";
+			default:
+				return null;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,96 @@
+package weather.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import weather.model.AirportData;
+import weather.service.WeatherService;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class GeoPartitioningTest {
+
+	private final WeatherService weatherService = new WeatherService();
+
+	/** airports in a few clusters, some near the poles and the antimeridian */
+	private static List<AirportData> airports(Random random, int count) {
+		double[][] centers = { { 42, -71 }, { 50, 8 }, { 35, 139 }, { -33, 151 }, { 64, -179.5 }, { -52, 179.8 }, { 88, 0 }, { -89, 45 } };
+		List<AirportData> airports = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			double latitude;
+			double longitude;
+			if (i % 4 == 0) {
+				latitude = random.nextDouble() * 180 - 90;
+				longitude = random.nextDouble() * 360 - 180;
+			} else {
+				double[] center = centers[random.nextInt(centers.length)];
+				latitude = Math.max(-90, Math.min(90, center[0] + random.nextGaussian() * 3));
+				longitude = center[1] + random.nextGaussian() * 3;
+				// wrap around the antimeridian
+				longitude = longitude >= 180 ? longitude - 360 : longitude < -180 ? longitude + 360 : longitude;
+			}
+			airports.add(new AirportData("A" + i, latitude, longitude));
+		}
+		return airports;
+	}
+
+	@Test
+	public void shardsWithinMatchBruteForce() {
+		Random random = new Random(42);
+		for (int shards : new int[] { 1, 2, 3, 16 }) {
+			List<AirportData> airports = airports(random, 2000);
+			GeoPartitioning partitioning = GeoPartitioning.balanced(shards, airports);
+			for (int q = 0; q < 300; q++) {
+				AirportData origin = airports.get(random.nextInt(airports.size()));
+				double radius = q % 3 == 0 ? random.nextDouble() * 5000 : random.nextDouble() * 500;
+
+				BitSet expected = new BitSet(shards);
+				for (AirportData ad : airports) {
+					if (weatherService.calculateDistance(origin, ad) <= radius) {
+						expected.set(partitioning.shardOf(ad));
+					}
+				}
+				BitSet actual = partitioning.shardsWithin(origin, radius);
+				assertTrue(actual.get(partitioning.shardOf(origin)));
+				BitSet missing = (BitSet) expected.clone();
+				missing.andNot(actual);
+				assertTrue("shards " + missing + " missed around " + origin + " within " + radius, missing.isEmpty());
+				assertTrue(actual.length() <= shards);
+			}
+		}
+	}
+
+	@Test
+	public void shardsWithinSmallRadiusAreFew() {
+		Random random = new Random(7);
+		List<AirportData> airports = airports(random, 2000);
+		GeoPartitioning partitioning = GeoPartitioning.balanced(16, airports);
+		int asked = 0;
+		for (AirportData origin : airports.subList(0, 200)) {
+			asked += partitioning.shardsWithin(origin, 100).cardinality();
+		}
+		assertTrue("asked " + asked + " shards for 200 queries", asked < 200 * 4);
+	}
+
+	@Test
+	public void balancedSpreadsAirports() {
+		List<AirportData> airports = airports(new Random(3), 5000);
+		GeoPartitioning partitioning = GeoPartitioning.balanced(8, airports);
+		assertEquals(8, partitioning.getShardCount());
+		assertTrue("imbalance " + partitioning.imbalance(airports), partitioning.imbalance(airports) < 1.2);
+
+		GeoPartitioning empty = new GeoPartitioning(8);
+		assertTrue(empty.imbalance(airports) > 1.2);
+		assertSame(partitioning, partitioning.rebalance(airports, 1.2));
+		assertEquals(partitioning.imbalance(airports), ((GeoPartitioning) empty.rebalance(airports, 1.2)).imbalance(airports), 0);
+	}
+}
@@ -0,0 +1,346 @@
+package weather.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import weather.ServerConfig;
+import weather.cluster.ShardClient.Reply;
+import weather.model.AirportData;
+
+/**
+ * Runs clusters of weather server processes on localhost and talks to them
+ * through their router.
+ *
+ * @author Abdullah Atmaca
+ */
+public class LocalClusterTest {
+
+	private static final Gson gson = new Gson();
+
+	private static final long TIMEOUT_MILLIS = 30000;
+
+	private LocalCluster cluster;
+
+	@After
+	public void tearDown() {
+		System.clearProperty(ServerConfig.CLUSTER_PARTITIONING);
+		System.clearProperty(ServerConfig.CLUSTER_REBALANCE_THRESHOLD);
+		if (cluster != null) {
+			cluster.close();
+		}
+	}
+
+	/** @return a free port followed by the given number of free ports */
+	static int freePorts(int following) throws IOException {
+		for (int attempt = 0; attempt < 100; attempt++) {
+			int port;
+			try (ServerSocket socket = new ServerSocket(0)) {
+				port = socket.getLocalPort();
+			}
+			boolean free = port + following <= 65535;
+			for (int p = port; free && p <= port + following; p++) {
+				try (ServerSocket socket = new ServerSocket(p)) {
+					// free
+				} catch (IOException e) {
+					free = false;
+				}
+			}
+			if (free) {
+				return port;
+			}
+		}
+		throw new IOException("no " + (following + 1) + " free ports in a row");
+	}
+
+	/** start a cluster partitioned by the given strategy */
+	static LocalCluster start(int shards, String partitioning) throws IOException, InterruptedException {
+		System.setProperty(ServerConfig.CLUSTER_PARTITIONING, partitioning);
+		try {
+			return LocalCluster.start(shards, freePorts(shards));
+		} finally {
+			System.clearProperty(ServerConfig.CLUSTER_PARTITIONING);
+		}
+	}
+
+	private static String code(int i) {
+		return new String(new char[] { (char) ('A' + i / 676 % 26), (char) ('A' + i / 26 % 26), (char) ('A' + i % 26) });
+	}
+
+	/** airports from the given code on, around the given location or anywhere if null */
+	static List<AirportData> airports(int first, int count, double[] center, long seed) {
+		Random random = new Random(seed);
+		List<AirportData> airports = new ArrayList<>();
+		for (int i = first; i < first + count; i++) {
+			double latitude = center == null ? random.nextDouble() * 140 - 70 : center[0] + random.nextGaussian();
+			double longitude = center == null ? random.nextDouble() * 360 - 180 : center[1] + random.nextGaussian();
+			airports.add(new AirportData(code(i), latitude, longitude));
+		}
+		return airports;
+	}
+
+	static Reply send(String url, String method, String path, String body, String contentType) {
+		Reply reply = new ShardClient(url).send(method, path, body == null ? null : body.getBytes(StandardCharsets.UTF_8), contentType);
+		assertEquals(method + " " + url + path, 200, reply.getStatus());
+		return reply;
+	}
+
+	static JsonArray getArray(String url, String path) {
+		return gson.fromJson(new String(send(url, "GET", path, null, null).getBody(), StandardCharsets.UTF_8), JsonArray.class);
+	}
+
+	/** register the airports through the router */
+	static void register(LocalCluster cluster, List<AirportData> airports) {
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < airports.size(); i++) {
+			AirportData ad = airports.get(i);
+			csv.append(String.format(Locale.ROOT, "%d,\"%s\",\"\",\"\",\"%s\",\"\",%.6f,%.6f,0,0,\"U\"%n", i, ad.getIata(), ad.getIata(),
+					ad.getLatitude(), ad.getLongitude()));
+		}
+		send(cluster.getRouterUrl(), "POST", "/collect/airports", csv.toString(), "text/plain");
+	}
+
+	static String dataPoint(double mean) {
+		return String.format(Locale.ROOT, "{\"mean\":%s,\"first\":%s,\"second\":%s,\"third\":%s,\"count\":1}", mean, mean - 1, mean, mean + 1);
+	}
+
+	/** collect a wind data point for each airport through the router, in one batch */
+	static void collect(LocalCluster cluster, List<AirportData> airports) {
+		StringBuilder batch = new StringBuilder("[");
+		for (int i = 0; i < airports.size(); i++) {
+			batch.append(i > 0 ? "," : "").append("{\"iata\":\"").append(airports.get(i).getIata()).append("\",\"pointType\":\"wind\",\"dataPoint\":")
+					.append(dataPoint(i)).append('}');
+		}
+		batch.append(']');
+		int[] statuses = gson.fromJson(new String(send(cluster.getRouterUrl(), "POST", "/collect/weather", batch.toString(), "application/json").getBody(),
+				StandardCharsets.UTF_8), int[].class);
+		for (int status : statuses) {
+			assertEquals(200, status);
+		}
+	}
+
+	/** @return the shard holding data of each airport, -1 if several hold data of it, e.g. while it moves */
+	static Map<String, Integer> holders(LocalCluster cluster) {
+		Map<String, Integer> holders = new HashMap<>();
+		for (int s = 0; s < cluster.getShardUrls().size(); s++) {
+			for (String code : ShardRouter.parseUpdateTimes(send(cluster.getShardUrls().get(s), "GET", "/collect/airports/updated", null, null))
+					.keySet()) {
+				holders.merge(code, s, (a, b) -> -1);
+			}
+		}
+		return holders;
+	}
+
+	/** @return the results of a radius query, sorted */
+	static List<String> sorted(JsonArray results) {
+		List<String> retval = new ArrayList<>();
+		for (JsonElement result : results) {
+			retval.add(result.toString());
+		}
+		Collections.sort(retval);
+		return retval;
+	}
+
+	@Test(timeout = 120000)
+	public void forwardsAndScattersByHash() throws Exception {
+		cluster = start(3, "hash");
+		String router = cluster.getRouterUrl();
+		List<AirportData> airports = airports(0, 60, null, 1);
+		register(cluster, airports);
+		// every shard knows every airport
+		for (String shard : cluster.getShardUrls()) {
+			assertEquals(airports.size(), getArray(shard, "/collect/airports").size());
+		}
+
+		collect(cluster, airports.subList(0, 30));
+		for (AirportData ad : airports.subList(30, 40)) {
+			send(router, "POST", "/collect/weather/" + ad.getIata() + "/wind", dataPoint(100), "application/json");
+		}
+		Map<String, Integer> holders = holders(cluster);
+		assertEquals(40, holders.size());
+		Set<Integer> used = new HashSet<>(holders.values());
+		assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), used);
+
+		// the router gathers what every shard owns
+		String origin = airports.get(0).getIata();
+		JsonArray all = getArray(router, "/query/weather/" + origin + "/20000");
+		assertEquals(40, all.size());
+		List<String> gathered = new ArrayList<>();
+		for (String shard : cluster.getShardUrls()) {
+			gathered.addAll(sorted(getArray(shard, "/query/weather/" + origin + "/20000")));
+		}
+		Collections.sort(gathered);
+		assertEquals(gathered, sorted(all));
+
+		// pages cut from the merged results add up to all of them
+		JsonArray paged = new JsonArray();
+		for (int cursor = 0; cursor < 45; cursor += 7) {
+			JsonArray page = getArray(router, "/query/weather/" + origin + "/20000?limit=7&cursor=" + cursor);
+			assertTrue(page.size() <= 7);
+			paged.addAll(page);
+		}
+		assertEquals(all, paged);
+
+		// per airport queries go to the owner
+		for (AirportData ad : airports.subList(28, 34)) {
+			String path = "/query/history/" + ad.getIata() + "/wind";
+			JsonArray history = getArray(router, path);
+			assertEquals(1, history.size());
+			assertEquals(history, getArray(cluster.getShardUrls().get(holders.get(ad.getIata())), path));
+		}
+
+		send(router, "DELETE", "/collect/airport/" + origin, null, null);
+		for (String shard : cluster.getShardUrls()) {
+			assertFalse(getArray(shard, "/collect/airports").toString().contains(origin));
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void rebalanceMovesData() throws Exception {
+		System.setProperty(ServerConfig.CLUSTER_REBALANCE_THRESHOLD, "1.2");
+		cluster = start(2, "geo");
+		String router = cluster.getRouterUrl();
+		List<AirportData> spread = airports(0, 40, null, 2);
+		// most airports registered later are in one region, which unbalances the shards
+		List<AirportData> crowded = airports(40, 200, new double[] { 50, 8 }, 3);
+		List<AirportData> all = new ArrayList<>(spread);
+		all.addAll(crowded);
+
+		// the partitionings the router goes through
+		Partitioning first = new GeoPartitioning(2).rebalance(spread, 1.2);
+		Partitioning second = first.rebalance(all, 1.2);
+		assertNotEquals(first, second);
+		Map<String, Integer> before = new HashMap<>();
+		Map<String, Integer> after = new HashMap<>();
+		for (AirportData ad : spread) {
+			before.put(ad.getIata(), first.shardOf(ad));
+			after.put(ad.getIata(), second.shardOf(ad));
+		}
+		assertNotEquals("no airport with data changes shard", before, after);
+
+		register(cluster, spread);
+		collect(cluster, spread);
+		awaitHolders(cluster, before);
+		String origin = spread.get(0).getIata();
+		List<String> results = sorted(getArray(router, "/query/weather/" + origin + "/20000"));
+		assertEquals(spread.size(), results.size());
+
+		register(cluster, crowded);
+		awaitHolders(cluster, after);
+		// the data moved with its collection times
+		assertEquals(results, sorted(getArray(router, "/query/weather/" + origin + "/20000")));
+		for (AirportData ad : spread) {
+			if (!before.get(ad.getIata()).equals(after.get(ad.getIata()))) {
+				assertEquals(1, getArray(router, "/query/history/" + ad.getIata() + "/wind").size());
+			}
+		}
+	}
+
+	/** wait until the shards hold the data of the airports as expected */
+	static void awaitHolders(LocalCluster cluster, Map<String, Integer> expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!holders(cluster).equals(expected) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(expected, holders(cluster));
+	}
+
+	/** the number of shards all radius queries so far were sent to, from the ping of the router */
+	static double shardsReached(LocalCluster cluster) {
+		JsonObject ping = gson.fromJson(new String(send(cluster.getRouterUrl(), "GET", "/query/ping", null, null).getBody(), StandardCharsets.UTF_8),
+				JsonObject.class);
+		return ping.get("radius_fan_out").getAsDouble() * ping.get("radius_queries").getAsLong();
+	}
+
+	/** @return the results of a radius query without their collection times, which differ between clusters */
+	static List<String> withoutTimes(JsonArray results) {
+		for (JsonElement result : results) {
+			result.getAsJsonObject().remove("lastUpdateTime");
+		}
+		return sorted(results);
+	}
+
+	@Test(timeout = 180000)
+	public void geoFanOutShrinksWithRadius() throws Exception {
+		int shards = 4;
+		List<AirportData> airports = new ArrayList<>();
+		Random random = new Random(5);
+		// regions away from the poles and the antimeridian
+		for (int c = 0; c < 20; c++) {
+			double[] center = { random.nextDouble() * 120 - 60, random.nextDouble() * 340 - 170 };
+			airports.addAll(airports(c * 40, 40, center, c));
+		}
+		String[] origins = new String[40];
+		for (int i = 0; i < origins.length; i++) {
+			origins[i] = airports.get(random.nextInt(airports.size())).getIata();
+		}
+		double[] radii = { 20000, 5000, 1000, 200, 50, 0 };
+
+		LocalCluster hash = start(shards, "hash");
+		List<List<List<String>>> expected = new ArrayList<>();
+		try {
+			register(hash, airports);
+			collect(hash, airports);
+			for (double radius : radii) {
+				double reached = shardsReached(hash);
+				List<List<String>> results = new ArrayList<>();
+				for (String origin : origins) {
+					results.add(withoutTimes(getArray(hash.getRouterUrl(), "/query/weather/" + origin + "/" + radius)));
+				}
+				expected.add(results);
+				// every shard may own an airport of any region
+				assertEquals(shards, (shardsReached(hash) - reached) / origins.length, 1e-9);
+			}
+		} finally {
+			hash.close();
+		}
+
+		cluster = start(shards, "geo");
+		register(cluster, airports);
+		collect(cluster, airports);
+		// wait for the router to partition the airports by region
+		Partitioning partitioning = new GeoPartitioning(shards).rebalance(airports, ServerConfig.getClusterRebalanceThreshold());
+		Map<String, Integer> owners = new HashMap<>();
+		for (AirportData ad : airports) {
+			owners.put(ad.getIata(), partitioning.shardOf(ad));
+		}
+		awaitHolders(cluster, owners);
+
+		double previous = Double.POSITIVE_INFINITY;
+		for (int r = 0; r < radii.length; r++) {
+			double reached = shardsReached(cluster);
+			for (int i = 0; i < origins.length; i++) {
+				assertEquals(origins[i] + " within " + radii[r], expected.get(r).get(i),
+						withoutTimes(getArray(cluster.getRouterUrl(), "/query/weather/" + origins[i] + "/" + radii[r])));
+			}
+			double fanOut = (shardsReached(cluster) - reached) / origins.length;
+			assertTrue("fan-out " + fanOut + " within " + radii[r] + " km after " + previous, fanOut <= previous + 1e-9);
+			previous = fanOut;
+		}
+		// small circles stay within the region of their shard
+		assertTrue("fan-out " + previous + " at the smallest radius", previous < 1.5);
+	}
+}
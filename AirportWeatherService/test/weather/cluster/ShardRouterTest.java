@@ -0,0 +1,150 @@
+package weather.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import weather.model.AirportData;
+
+/**
+ * Moving data between shards, with {@link FakeShard}s.
+ *
+ * @author Abdullah Atmaca
+ */
+public class ShardRouterTest {
+
+	/** two airports in the west and two in the east, split between the shards */
+	private static final List<AirportData> AIRPORTS = Arrays.asList(new AirportData("SFO", 37.62, -122.38), new AirportData("LAX", 33.94, -118.41),
+			new AirportData("NRT", 35.77, 140.39), new AirportData("HND", 35.55, 139.78));
+
+	private final List<FakeShard> shards = new ArrayList<>();
+
+	private ShardRouter router;
+
+	@Before
+	public void setUp() throws IOException {
+		List<String> urls = new ArrayList<>();
+		for (int s = 0; s < 2; s++) {
+			FakeShard shard = new FakeShard();
+			shard.add(AIRPORTS.toArray(new AirportData[AIRPORTS.size()]));
+			shards.add(shard);
+			urls.add(shard.getUrl());
+		}
+		router = new ShardRouter(urls, Partitioning.Strategy.GEO, 1.2);
+		// shard 0 holds the data of all airports
+		for (AirportData ad : AIRPORTS) {
+			shards.get(0).hold(ad.getIata(), 1000);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (FakeShard shard : shards) {
+			shard.close();
+		}
+	}
+
+	/** @return the airports the balanced partitioning gives shard 1 */
+	private List<String> ownedBy1() {
+		GeoPartitioning partitioning = GeoPartitioning.balanced(2, AIRPORTS);
+		List<String> codes = new ArrayList<>();
+		for (AirportData ad : AIRPORTS) {
+			if (partitioning.shardOf(ad) == 1) {
+				codes.add(ad.getIata());
+			}
+		}
+		assertFalse(codes.isEmpty());
+		assertTrue(codes.size() < AIRPORTS.size());
+		return codes;
+	}
+
+	@Test
+	public void loadMovesDataToOwners() {
+		List<String> moving = ownedBy1();
+		// an older copy on shard 1 of an airport shard 0 keeps
+		String kept = AIRPORTS.stream().map(AirportData::getIata).filter(code -> !moving.contains(code)).findFirst().get();
+		shards.get(1).hold(kept, 500);
+		String expected = shards.get(0).data.get(moving.get(0));
+
+		assertEquals(AIRPORTS.size(), router.loadAirports());
+		for (AirportData ad : AIRPORTS) {
+			int owner = moving.contains(ad.getIata()) ? 1 : 0;
+			assertEquals(owner, router.shardOf(ad.getIata()));
+			assertTrue(ad.getIata(), shards.get(owner).data.containsKey(ad.getIata()));
+			assertFalse(ad.getIata(), shards.get(1 - owner).data.containsKey(ad.getIata()));
+		}
+		assertEquals(expected, shards.get(1).data.get(moving.get(0)));
+		assertEquals(0, router.getStaleAirports());
+	}
+
+	@Test
+	public void failedCopyIsRolledBack() {
+		List<String> moving = ownedBy1();
+		for (int status : new int[] { 500, 400 }) {
+			String failing = moving.get(moving.size() - 1);
+			shards.get(1).failures.put("PUT " + FakeShard.dataPath(failing), status);
+			shards.get(1).requests.clear();
+			try {
+				router.loadAirports();
+				fail("loaded although a copy failed");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			// the holder keeps all data, the target none
+			assertEquals(AIRPORTS.size(), shards.get(0).data.size());
+			assertTrue(shards.get(1).data.isEmpty());
+			// a rejected copy changed nothing, any other failure may have
+			assertEquals(status != 400, shards.get(1).requests.contains("DELETE " + FakeShard.dataPath(failing)));
+			for (String code : moving) {
+				if (shards.get(1).requests.contains("PUT " + FakeShard.dataPath(code)) && !code.equals(failing)) {
+					assertTrue(shards.get(1).requests.contains("DELETE " + FakeShard.dataPath(code)));
+				}
+			}
+			shards.get(1).failures.clear();
+		}
+	}
+
+	@Test
+	public void failedClearIsRetried() throws InterruptedException {
+		List<String> moving = ownedBy1();
+		shards.get(0).failures.put("DELETE " + FakeShard.dataPath(moving.get(0)), 500);
+
+		router.loadAirports();
+		assertEquals(1, router.getStaleAirports());
+		assertTrue(shards.get(0).data.containsKey(moving.get(0)));
+		assertTrue(shards.get(1).data.containsKey(moving.get(0)));
+
+		// the next rebalance clears it
+		shards.get(0).failures.clear();
+		router.airportsAdded(new ArrayList<>());
+		long deadline = System.currentTimeMillis() + 10000;
+		while (router.getStaleAirports() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, router.getStaleAirports());
+		assertFalse(shards.get(0).data.containsKey(moving.get(0)));
+		assertTrue(shards.get(1).data.containsKey(moving.get(0)));
+	}
+
+	@Test
+	public void loadFailsWithoutAShard() {
+		shards.get(1).failures.put("GET /collect/airports/updated", 502);
+		try {
+			router.loadAirports();
+			fail("loaded without shard 1");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(AIRPORTS.size(), shards.get(0).data.size());
+	}
+}
@@ -0,0 +1,95 @@
+package weather.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class AtmosphericInformationTest {
+
+	private static final Gson gson = new Gson();
+
+	static DataPoint dp(double mean) {
+		return new DataPoint.Builder().withFirst(mean - 1).withMean(mean).withMedian(mean).withLast(mean + 1).withCount(10).build();
+	}
+
+	@Test
+	public void dataPointIsImmutable() {
+		for (Field field : DataPoint.class.getDeclaredFields()) {
+			int modifiers = field.getModifiers();
+			assertTrue(field.getName(), Modifier.isStatic(modifiers) || Modifier.isPrivate(modifiers) && Modifier.isFinal(modifiers));
+		}
+		for (Method method : DataPoint.class.getDeclaredMethods()) {
+			assertTrue(method.getName(), !method.getName().startsWith("set"));
+		}
+	}
+
+	@Test
+	public void gsonReadsDataPoints() {
+		DataPointUpdate update = gson.fromJson("{\"iata\":\"BOS\",\"pointType\":\"WIND\",\"dataPoint\":{\"mean\":22.5,\"first\":10,"
+				+ "\"second\":20,\"third\":30,\"count\":7}}", DataPointUpdate.class);
+		DataPoint dp = update.getDataPoint();
+		assertEquals(22.5, dp.getMean(), 0);
+		assertEquals(10, dp.getFirst(), 0);
+		assertEquals(20, dp.getSecond(), 0);
+		assertEquals(30, dp.getThird(), 0);
+		assertEquals(7, dp.getCount());
+		assertEquals(dp, gson.fromJson(gson.toJson(dp), DataPoint.class));
+	}
+
+	@Test
+	public void updateLeavesSnapshotUnchanged() {
+		AtmosphericInformation empty = new AtmosphericInformation();
+		byte[] json = empty.toJson();
+		AtmosphericInformation wind = empty.update(DataPointType.WIND, dp(10), 1000);
+		AtmosphericInformation both = wind.update(DataPointType.TEMPERATURE, dp(20), 2000);
+
+		assertNull(empty.getWind());
+		assertArrayEquals(json, empty.toJson());
+		assertNull(wind.getTemperature());
+		assertSame(wind.getWind(), both.getWind());
+		assertEquals(20, both.getTemperature().getMean(), 0);
+		assertEquals(2000, both.getLastUpdateTime());
+		assertEquals(gson.toJson(both), new String(both.toJson(), StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void updateRejectsInvalidPoints() {
+		new AtmosphericInformation().update(DataPointType.PRESSURE, dp(10), 1000);
+	}
+
+	@Test
+	public void rejectsNonFinitePoints() {
+		AtmosphericInformation ai = new AtmosphericInformation();
+		double[] values = { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN };
+		for (double value : values) {
+			assertTrue(!ai.checkValidity(DataPointType.WIND, dp(value)));
+			for (DataPointType type : DataPointType.values()) {
+				double mean = type == DataPointType.PRESSURE ? 700 : 10;
+				assertTrue(!ai.checkValidity(type, new DataPoint.Builder().withFirst(value).withMean(mean).withMedian(mean).withLast(mean).build()));
+				assertTrue(!ai.checkValidity(type, new DataPoint.Builder().withFirst(mean).withMean(mean).withMedian(value).withLast(mean).build()));
+				assertTrue(!ai.checkValidity(type, new DataPoint.Builder().withFirst(mean).withMean(mean).withMedian(mean).withLast(value).build()));
+			}
+		}
+	}
+
+	@Test
+	public void writesRestoredNonFiniteValues() {
+		// snapshots restored from storage are not checked again
+		AtmosphericInformation ai = new AtmosphericInformation(null, dp(Double.POSITIVE_INFINITY), null, null, null, null, 1000);
+		assertTrue(new String(ai.toJson(), StandardCharsets.UTF_8).contains("Infinity"));
+	}
+}
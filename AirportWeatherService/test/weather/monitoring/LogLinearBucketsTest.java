@@ -0,0 +1,64 @@
+package weather.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class LogLinearBucketsTest {
+
+	@Test
+	public void bucketsCoverValuesWithBoundedError() {
+		for (int bits : new int[] { 4, 6 }) {
+			LogLinearBuckets buckets = new LogLinearBuckets(bits, 63);
+			Random random = new Random(bits);
+			for (int i = 0; i < 100000; i++) {
+				long value = random.nextLong() >>> 1 >>> random.nextInt(63);
+				int index = buckets.index(value);
+				long highest = buckets.highestEquivalentValue(index);
+				long lowest = index == 0 ? 0 : buckets.highestEquivalentValue(index - 1) + 1;
+				assertTrue(value + " in bucket " + index, lowest <= value && value <= highest);
+				// the width of a bucket is below 1 / 2^bits of its values
+				assertTrue(highest - lowest < Math.max(1, lowest >> bits));
+			}
+			assertEquals(buckets.getBucketCount() - 1, buckets.index(Long.MAX_VALUE));
+			assertEquals(Long.MAX_VALUE, buckets.highestEquivalentValue(buckets.getBucketCount() - 1));
+		}
+	}
+
+	@Test
+	public void largeValuesGoToTheLastBucket() {
+		LogLinearBuckets buckets = new LogLinearBuckets(4, 40);
+		assertEquals(32 + 35 * 16, buckets.getBucketCount());
+		assertEquals((1L << 40) - 1, buckets.highestEquivalentValue(buckets.getBucketCount() - 1));
+		assertEquals(buckets.getBucketCount() - 1, buckets.index((1L << 40) - 1));
+		assertEquals(buckets.getBucketCount() - 1, buckets.index(1L << 50));
+	}
+
+	@Test
+	public void percentilesMatchSortedValues() {
+		LogLinearBuckets buckets = new LogLinearBuckets(6, 63);
+		Random random = new Random(1);
+		long[] values = new long[10000];
+		long[] counts = new long[buckets.getBucketCount()];
+		long max = 0;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(random.nextGaussian() * 3 + 10);
+			counts[buckets.index(values[i])]++;
+			max = Math.max(max, values[i]);
+		}
+		Arrays.sort(values);
+		for (double percentile : new double[] { 0, 50, 90, 99, 99.9, 100 }) {
+			long exact = values[Math.max(0, (int) Math.ceil(percentile / 100 * values.length) - 1)];
+			long value = buckets.valueAtPercentile(counts, values.length, max, percentile);
+			assertTrue(percentile + ": " + value + " for " + exact, value >= exact && value <= exact + exact / 64);
+		}
+		assertEquals(max, buckets.valueAtPercentile(counts, values.length, max, 100));
+	}
+}
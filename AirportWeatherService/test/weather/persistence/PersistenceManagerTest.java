@@ -0,0 +1,203 @@
+package weather.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+import weather.persistence.WriteAheadLog.Durability;
+import weather.service.AirportEntry;
+import weather.service.WeatherJournal;
+import weather.service.WeatherService;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class PersistenceManagerTest {
+
+	private static final int WRITERS = 4;
+
+	private static final int AIRPORTS_PER_WRITER = 3000;
+
+	private final WeatherService weatherService = new WeatherService();
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		weatherService.setJournal(null);
+		weatherService.reset();
+		dir = Files.createTempDirectory("persistence");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		weatherService.setJournal(null);
+		weatherService.reset();
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	/** a distinct valid code for each i below 26^3 */
+	private static String code(int i) {
+		return new String(new char[] { (char) ('A' + i / 676 % 26), (char) ('A' + i / 26 % 26), (char) ('A' + i % 26) });
+	}
+
+	@Test(timeout = 60000)
+	public void checkpointWhileWritingLosesNothing() throws Exception {
+		Path snapshot = dir.resolve("snapshot");
+		Path wal = dir.resolve("wal");
+		PersistenceManager manager = new PersistenceManager(weatherService, snapshot, wal, Durability.REQUEST);
+		manager.start();
+		try {
+			List<AirportData> airports = new ArrayList<>();
+			for (int i = 0; i < WRITERS * AIRPORTS_PER_WRITER; i++) {
+				airports.add(new AirportData(code(i), i % 180 - 90, i % 360 - 180));
+			}
+			weatherService.addAirports(airports);
+
+			// each airport gets a single data point, so a lost record is never overwritten by a later one
+			AtomicReference<Throwable> failure = new AtomicReference<>();
+			List<Thread> writers = new ArrayList<>();
+			for (int w = 0; w < WRITERS; w++) {
+				int first = w * AIRPORTS_PER_WRITER;
+				Thread writer = new Thread(() -> {
+					try {
+						for (int i = first; i < first + AIRPORTS_PER_WRITER; i++) {
+							weatherService.addDataPoint(code(i), DataPointType.WIND.name(), WriteAheadLogTest.dp(i, 1));
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				});
+				writers.add(writer);
+				writer.start();
+			}
+			while (writers.stream().anyMatch(Thread::isAlive)) {
+				manager.checkpoint();
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+			if (failure.get() != null) {
+				throw new AssertionError(failure.get());
+			}
+			List<String> expected = WriteAheadLogTest.state(weatherService);
+
+			// restart as after a crash, from the last checkpoint and the segments it kept
+			weatherService.setJournal(null);
+			weatherService.reset();
+			PersistenceManager restarted = new PersistenceManager(weatherService, snapshot, wal, Durability.REQUEST);
+			restarted.start();
+			try {
+				assertEquals(expected, WriteAheadLogTest.state(weatherService));
+			} finally {
+				restarted.close();
+			}
+		} finally {
+			manager.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void checkpointWaitsForJournaledDataPoint() throws Exception {
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		Path snapshot = dir.resolve("snapshot");
+		PersistenceManager manager = new PersistenceManager(weatherService, snapshot, null, Durability.REQUEST);
+		manager.start();
+
+		// holds the writer between journaling its data point and publishing it
+		CountDownLatch journaled = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		weatherService.setJournal(new WeatherJournal() {
+
+			@Override
+			public long airportsAdded(List<AirportData> airports) {
+				return 0;
+			}
+
+			@Override
+			public long airportDeleted(AirportData airport) {
+				return 0;
+			}
+
+			@Override
+			public long dataPoint(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot) {
+				journaled.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return 0;
+			}
+
+			@Override
+			public long dataPoints(AirportEntry entry, List<DataPointType> types, List<DataPoint> dps, AtmosphericInformation snapshot) {
+				return 0;
+			}
+
+			@Override
+			public long reset() {
+				return 0;
+			}
+
+			@Override
+			public void awaitDurable(long ticket) {
+			}
+		});
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			try {
+				weatherService.addDataPoint("BOS", DataPointType.WIND.name(), WriteAheadLogTest.dp(10, 1));
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		writer.start();
+		journaled.await();
+
+		Thread checkpoint = new Thread(() -> {
+			try {
+				manager.checkpoint();
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		checkpoint.start();
+		// the snapshot must wait for the entry rather than write it without the journaled point
+		while (checkpoint.isAlive() && checkpoint.getState() != Thread.State.BLOCKED) {
+			Thread.sleep(1);
+		}
+		release.countDown();
+		writer.join();
+		checkpoint.join();
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		weatherService.setJournal(null);
+		List<String> expected = WriteAheadLogTest.state(weatherService);
+
+		weatherService.reset();
+		new PersistenceManager(weatherService, snapshot, null, Durability.REQUEST).start();
+		assertEquals(expected, WriteAheadLogTest.state(weatherService));
+	}
+}
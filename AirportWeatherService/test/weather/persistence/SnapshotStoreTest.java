@@ -0,0 +1,109 @@
+package weather.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.model.DataPointType;
+import weather.model.DataPointUpdate;
+import weather.service.WeatherService;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class SnapshotStoreTest {
+
+	private final WeatherService weatherService = new WeatherService();
+
+	private Path file;
+
+	@Before
+	public void setUp() throws Exception {
+		weatherService.reset();
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		weatherService.addAirports(Arrays.asList(new AirportData("JFK", 40.64, -73.78), new AirportData("LGA", 40.78, -73.87)));
+		weatherService.addDataPoint("BOS", DataPointType.WIND.name(), WriteAheadLogTest.dp(10, 1));
+		weatherService.addDataPoints("JFK", Arrays.asList(new DataPointUpdate("JFK", "PRESSURE", WriteAheadLogTest.dp(700, 2)),
+				new DataPointUpdate("JFK", "CLOUDCOVER", WriteAheadLogTest.dp(30, 3))));
+		file = Files.createTempFile("snapshot", ".bin");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		weatherService.reset();
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void fileRoundTrip() throws IOException {
+		List<String> expected = WriteAheadLogTest.state(weatherService);
+		SnapshotStore store = new SnapshotStore(file, weatherService);
+		assertEquals(3, store.write());
+
+		weatherService.reset();
+		assertEquals(3, store.load());
+		assertEquals(expected, WriteAheadLogTest.state(weatherService));
+	}
+
+	@Test
+	public void missingFileRestoresNothing() throws IOException {
+		Files.delete(file);
+		assertEquals(0, new SnapshotStore(file, weatherService).load());
+	}
+
+	@Test
+	public void streamRoundTrip() throws IOException {
+		byte[] bytes = snapshot();
+		List<AirportData> airports = new ArrayList<>();
+		List<AtmosphericInformation> infos = new ArrayList<>();
+		SnapshotStore.read(ByteBuffer.wrap(bytes), airports, infos);
+		assertEquals(weatherService.getAirports(), airports);
+		assertEquals(3, infos.size());
+		for (int i = 0; i < airports.size(); i++) {
+			AirportData ad = weatherService.findAirportData(airports.get(i).getIata());
+			assertEquals(ad.getLatitude(), airports.get(i).getLatitude(), 0);
+			assertEquals(ad.getLongitude(), airports.get(i).getLongitude(), 0);
+			AtmosphericInformation ai = weatherService.getAtmosphericInformation(ad.getIata());
+			assertEquals(ai.getLastUpdateTime(), infos.get(i).getLastUpdateTime());
+			for (DataPointType type : DataPointType.values()) {
+				assertEquals(ai.getDataPoint(type), infos.get(i).getDataPoint(type));
+			}
+		}
+	}
+
+	@Test
+	public void rejectsCorruptSnapshots() throws IOException {
+		byte[] bytes = snapshot();
+		for (byte[] corrupt : new byte[][] { Arrays.copyOf(bytes, bytes.length - 1), Arrays.copyOf(bytes, 10), new byte[] { 'A', 'W', 'S', '2', 0, 0, 0, 1 } }) {
+			try {
+				SnapshotStore.read(ByteBuffer.wrap(corrupt), new ArrayList<>(), new ArrayList<>());
+				fail("read " + corrupt.length + " bytes");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	private byte[] snapshot() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			SnapshotStore.write(out, weatherService.getAirportEntries());
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,217 @@
+package weather.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+import weather.exception.WeatherException;
+import weather.model.AirportData;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+import weather.model.DataPointUpdate;
+import weather.persistence.WriteAheadLog.Durability;
+import weather.service.AirportEntry;
+import weather.service.WeatherService;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class WriteAheadLogTest {
+
+	private static final Gson gson = new Gson();
+
+	private final WeatherService weatherService = new WeatherService();
+
+	private Path dir;
+
+	private Path base;
+
+	@Before
+	public void setUp() throws IOException {
+		weatherService.setJournal(null);
+		weatherService.reset();
+		dir = Files.createTempDirectory("wal");
+		base = dir.resolve("wal");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		weatherService.setJournal(null);
+		weatherService.reset();
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	static DataPoint dp(double mean, int count) {
+		return new DataPoint.Builder().withFirst(mean).withMean(mean).withMedian(mean).withLast(mean).withCount(count).build();
+	}
+
+	/** every airport with its location and atmospheric information */
+	static List<String> state(WeatherService weatherService) {
+		List<String> state = new ArrayList<>();
+		for (AirportEntry entry : weatherService.getAirportEntries()) {
+			state.add(gson.toJson(entry.getAirportData()) + gson.toJson(entry.getAtmosphericInformation()));
+		}
+		Collections.sort(state);
+		return state;
+	}
+
+	/** the mutations of all kinds a log records */
+	private void mutate() throws WeatherException {
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		weatherService.addAirport("EWR", 40.69, -74.17);
+		weatherService.addAirports(Arrays.asList(new AirportData("JFK", 40.64, -73.78), new AirportData("LGA", 40.78, -73.87)));
+		weatherService.addDataPoint("BOS", DataPointType.WIND.name(), dp(10, 1));
+		weatherService.addDataPoint("JFK", DataPointType.PRESSURE.name(), dp(700, 2));
+		weatherService.addDataPoints("LGA", Arrays.asList(new DataPointUpdate("LGA", "TEMPERATURE", dp(20, 3)),
+				new DataPointUpdate("LGA", "HUMIDITY", dp(50, 4)), new DataPointUpdate("LGA", "UNKNOWN", dp(1, 5))));
+		weatherService.deleteAirportData("EWR");
+		weatherService.addDataPoint("BOS", DataPointType.WIND.name(), dp(12, 6));
+	}
+
+	@Test
+	public void replayRestoresState() throws Exception {
+		for (Durability durability : Durability.values()) {
+			try (WriteAheadLog wal = new WriteAheadLog(base, durability)) {
+				weatherService.setJournal(wal);
+				weatherService.reset();
+				mutate();
+				weatherService.setJournal(null);
+			}
+			List<String> expected = state(weatherService);
+			assertEquals(3, expected.size());
+
+			weatherService.reset();
+			WriteAheadLog.replay(base, weatherService);
+			assertEquals(durability.name(), expected, state(weatherService));
+		}
+	}
+
+	@Test
+	public void replayIgnoresTornTail() throws Exception {
+		try (WriteAheadLog wal = new WriteAheadLog(base, Durability.BATCHED)) {
+			weatherService.setJournal(wal);
+			weatherService.addAirport("BOS", 42.36, -71.01);
+			weatherService.addDataPoint("BOS", DataPointType.WIND.name(), dp(10, 1));
+			weatherService.setJournal(null);
+		}
+		List<String> expected = state(weatherService);
+		Path segment = dir.resolve("wal.1");
+		long intact = Files.size(segment);
+		try (WriteAheadLog wal = new WriteAheadLog(base, Durability.BATCHED)) {
+			weatherService.setJournal(wal);
+			weatherService.addDataPoint("BOS", DataPointType.WIND.name(), dp(20, 2));
+			weatherService.setJournal(null);
+		}
+		// the record in the second segment is torn by a crash
+		Path torn = dir.resolve("wal.2");
+		try (FileChannel channel = FileChannel.open(torn, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		// and the first has garbage after its last record
+		Files.write(segment, new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND);
+
+		weatherService.reset();
+		assertEquals(2, WriteAheadLog.replay(base, weatherService));
+		assertEquals(expected, state(weatherService));
+		assertEquals(intact + 9, Files.size(segment));
+	}
+
+	@Test
+	public void replayStopsAtCorruptRecord() throws Exception {
+		try (WriteAheadLog wal = new WriteAheadLog(base, Durability.BATCHED)) {
+			weatherService.setJournal(wal);
+			weatherService.addAirport("BOS", 42.36, -71.01);
+			weatherService.addAirport("JFK", 40.64, -73.78);
+			weatherService.setJournal(null);
+		}
+		Path segment = dir.resolve("wal.1");
+		byte[] bytes = Files.readAllBytes(segment);
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(segment, bytes);
+
+		weatherService.reset();
+		assertEquals(1, WriteAheadLog.replay(base, weatherService));
+		assertEquals(1, weatherService.getAirportEntries().size());
+		assertNull(weatherService.findAirportData("JFK"));
+	}
+
+	@Test
+	public void closedLogRejectsMutations() throws Exception {
+		WriteAheadLog wal = new WriteAheadLog(base, Durability.BATCHED);
+		wal.close();
+		try {
+			wal.reset();
+			fail("appended to a closed log");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		// the mutation is rejected before anybody sees it
+		weatherService.setJournal(wal);
+		try {
+			weatherService.addAirport("BOS", 42.36, -71.01);
+			fail("added without a log");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertNull(weatherService.findAirportData("BOS"));
+	}
+
+	@Test(timeout = 10000)
+	public void failedLogRejectsMutations() throws Exception {
+		Path full = Paths.get("/dev/full");
+		Assume.assumeTrue(Files.exists(full));
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		try (WriteAheadLog wal = new WriteAheadLog(base, Durability.REQUEST)) {
+			weatherService.setJournal(wal);
+			weatherService.addDataPoint("BOS", DataPointType.WIND.name(), dp(10, 1));
+
+			// the next segment is on a device without space
+			Files.createSymbolicLink(dir.resolve("wal.2"), full);
+			wal.rotate();
+			try {
+				weatherService.addDataPoint("BOS", DataPointType.WIND, dp(20, 2), System.currentTimeMillis());
+				fail("not synced");
+			} catch (UncheckedIOException e) {
+				// expected, the caller waiting for the sync learns about it
+			}
+			try {
+				weatherService.addDataPoint("BOS", DataPointType.WIND.name(), dp(30, 3));
+				fail("appended to a failed log");
+			} catch (WeatherException e) {
+				// expected
+			}
+			assertEquals(20, weatherService.getAtmosphericInformation("BOS").getWind().getMean(), 0);
+			try {
+				wal.awaitDurable(1);
+			} catch (UncheckedIOException e) {
+				fail("the first record has been synced");
+			}
+		}
+	}
+}
@@ -0,0 +1,450 @@
+package weather.replication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+import weather.exception.WeatherException;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+import weather.persistence.SnapshotStore;
+import weather.service.AirportEntry;
+import weather.service.WeatherService;
+
+/**
+ * Replicates between a primary and a replica on localhost within the test
+ * JVM. The weather service keeps its state in static fields, so the replica
+ * runs on its own copy of the classes loaded by a separate class loader.
+ *
+ * @author Abdullah Atmaca
+ */
+public class ReplicationTest {
+
+	private static final Gson gson = new Gson();
+
+	private static final int BACKLOG = 64;
+
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	private final WeatherService weatherService = new WeatherService();
+
+	/** the messages of the replication server */
+	private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+	private final Handler handler = new Handler() {
+
+		@Override
+		public void publish(LogRecord record) {
+			messages.add(record.getMessage());
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	private ReplicationLog log;
+
+	private ReplicationServer server;
+
+	/** between the replica and the primary, to cut their connection */
+	private Proxy proxy;
+
+	private Replica replica;
+
+	@Before
+	public void setUp() throws IOException {
+		weatherService.setJournal(null);
+		weatherService.reset();
+		ReplicationServer.logger.addHandler(handler);
+		log = new ReplicationLog(BACKLOG);
+		weatherService.addMutationListener(log);
+		server = new ReplicationServer(weatherService, log, 0);
+		server.start();
+		proxy = new Proxy(server.getPort());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (replica != null) {
+			replica.close();
+		}
+		proxy.close();
+		server.close();
+		weatherService.removeMutationListener(log);
+		ReplicationServer.logger.removeHandler(handler);
+		weatherService.reset();
+	}
+
+	static DataPoint dp(double mean) {
+		return new DataPoint.Builder().withFirst(mean).withMean(mean).withMedian(mean).withLast(mean).withCount(1).build();
+	}
+
+	/** every airport with its location and atmospheric information */
+	public static List<String> state(WeatherService weatherService) {
+		List<String> state = new ArrayList<>();
+		for (AirportEntry entry : weatherService.getAirportEntries()) {
+			state.add(gson.toJson(entry.getAirportData()) + gson.toJson(entry.getAtmosphericInformation()));
+		}
+		Collections.sort(state);
+		return state;
+	}
+
+	/** add the airports A00, A01.. of a prefix with data points from the given value */
+	private void addAirports(String prefix, int count, double value) throws WeatherException {
+		for (int i = 0; i < count; i++) {
+			String iata = String.format("%s%02d", prefix, i);
+			weatherService.addAirport(iata, 40 + i * 0.1, -70 - i * 0.1);
+			weatherService.addDataPoint(iata, DataPointType.TEMPERATURE.name(), dp(value + i));
+			weatherService.addDataPoint(iata, DataPointType.WIND.name(), dp(value));
+		}
+	}
+
+	private void deleteAirports(String prefix, int from, int to) {
+		for (int i = from; i < to; i++) {
+			weatherService.deleteAirportData(String.format("%s%02d", prefix, i));
+		}
+	}
+
+	/** restart the primary with its state but a log of a new epoch */
+	private void restartPrimary() throws IOException {
+		proxy.cut();
+		server.close();
+		weatherService.removeMutationListener(log);
+		log = new ReplicationLog(BACKLOG);
+		weatherService.addMutationListener(log);
+		server = new ReplicationServer(weatherService, log, 0);
+		server.start();
+		proxy.resume(server.getPort());
+	}
+
+	private int count(String message) {
+		synchronized (messages) {
+			return (int) messages.stream().filter(m -> m.contains(message)).count();
+		}
+	}
+
+	/** wait until the replica applied the last record of the primary and compare their state */
+	private void assertReplicated() throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (System.currentTimeMillis() < deadline
+				&& (replica.getSequence() != log.getSequence() || !replica.state().equals(state(weatherService)))) {
+			Thread.sleep(20);
+		}
+		assertEquals(log.getSequence(), replica.getSequence());
+		assertEquals(state(weatherService), replica.state());
+	}
+
+	@Test
+	public void snapshotThenTailAcrossAddAndDelete() throws Exception {
+		addAirports("A", 20, 10);
+		deleteAirports("A", 15, 20);
+
+		replica = new Replica("localhost:" + proxy.getPort());
+		// mutations while the replica takes over the snapshot are sent after it
+		addAirports("B", 20, 20);
+		deleteAirports("A", 0, 5);
+		assertTrue(replica.awaitSynced());
+		assertReplicated();
+
+		deleteAirports("B", 0, 10);
+		addAirports("A", 5, 30);
+		assertReplicated();
+		assertEquals(1, count("starts from a snapshot"));
+		assertEquals(0, count("resumes"));
+	}
+
+	@Test
+	public void resumeAfterDisconnect() throws Exception {
+		addAirports("A", 10, 10);
+		replica = new Replica("localhost:" + proxy.getPort());
+		assertTrue(replica.awaitSynced());
+		assertReplicated();
+
+		proxy.cut();
+		addAirports("B", 5, 20);
+		deleteAirports("A", 0, 3);
+		assertTrue(log.getSequence() < BACKLOG);
+		proxy.resume(server.getPort());
+		assertReplicated();
+		assertEquals(1, count("starts from a snapshot"));
+		assertEquals(1, count("resumes"));
+	}
+
+	@Test
+	public void snapshotAfterPrimaryRestart() throws Exception {
+		addAirports("A", 10, 10);
+		replica = new Replica("localhost:" + proxy.getPort());
+		assertTrue(replica.awaitSynced());
+		assertReplicated();
+
+		proxy.cut();
+		// never received by the replica, the snapshot of the new epoch must delete them
+		deleteAirports("A", 0, 5);
+		addAirports("B", 3, 20);
+		restartPrimary();
+		// the old sequence numbers mean nothing in the new epoch
+		addAirports("C", 3, 30);
+		assertReplicated();
+		assertEquals(2, count("starts from a snapshot"));
+		assertEquals(0, count("resumes"));
+	}
+
+	@Test
+	public void snapshotAfterFallingBehindBacklog() throws Exception {
+		addAirports("A", 10, 10);
+		replica = new Replica("localhost:" + proxy.getPort());
+		assertTrue(replica.awaitSynced());
+		assertReplicated();
+
+		proxy.cut();
+		long missed = log.getSequence();
+		deleteAirports("A", 0, 5);
+		addAirports("B", BACKLOG, 20);
+		assertFalse(log.canRead(missed + 1));
+		proxy.resume(server.getPort());
+		assertReplicated();
+		assertEquals(2, count("starts from a snapshot"));
+		assertEquals(0, count("resumes"));
+	}
+
+	@Test
+	public void heartbeatSequenceMismatchReconnects() throws Exception {
+		addAirports("A", 5, 10);
+		long epoch = 42;
+		try (ServerSocket primary = new ServerSocket(0)) {
+			primary.setSoTimeout((int) TIMEOUT_MILLIS);
+			replica = new Replica("localhost:" + primary.getLocalPort());
+
+			try (Socket socket = primary.accept()) {
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				assertEquals(0, in.readLong());
+				assertEquals(0, in.readLong());
+				ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+				SnapshotStore.write(new DataOutputStream(snapshot), weatherService.getAirportEntries());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				out.writeByte(ReplicationServer.SNAPSHOT);
+				out.writeLong(epoch);
+				out.writeLong(1);
+				out.writeInt(snapshot.size());
+				snapshot.writeTo(out);
+				// claims record 5 was sent although the replica expects 1 next
+				out.writeByte(ReplicationServer.HEARTBEAT);
+				out.writeLong(System.currentTimeMillis());
+				out.writeLong(5);
+				out.flush();
+				// the replica drops the connection
+				assertEquals(-1, in.read());
+			}
+			assertFalse(replica.isSynced());
+
+			try (Socket socket = primary.accept()) {
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				// reconnects with the epoch and position of the snapshot
+				assertEquals(epoch, in.readLong());
+				assertEquals(1, in.readLong());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				out.writeByte(ReplicationServer.RESUME);
+				out.writeLong(epoch);
+				out.writeLong(1);
+				out.writeByte(ReplicationServer.HEARTBEAT);
+				out.writeLong(System.currentTimeMillis());
+				out.writeLong(0);
+				out.flush();
+				assertTrue(replica.awaitSynced());
+				assertEquals(0, replica.getSequence());
+				assertEquals(state(weatherService), replica.state());
+			}
+		}
+	}
+
+	/**
+	 * Forwards the connections of the replica to the primary, until they are
+	 * cut. While cut, connections are closed as soon as they are accepted.
+	 */
+	private static final class Proxy implements AutoCloseable {
+
+		private final ServerSocket serverSocket;
+
+		private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+
+		/** the port of the primary, or 0 while cut */
+		private volatile int target;
+
+		Proxy(int target) throws IOException {
+			this.target = target;
+			serverSocket = new ServerSocket(0);
+			Thread acceptor = new Thread(this::accept, "replication-proxy");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		private void accept() {
+			while (true) {
+				Socket replica;
+				try {
+					replica = serverSocket.accept();
+				} catch (IOException e) {
+					return;
+				}
+				try {
+					int port = target;
+					if (port == 0) {
+						throw new IOException("cut");
+					}
+					Socket primary = new Socket("localhost", port);
+					sockets.add(replica);
+					sockets.add(primary);
+					forward(replica, primary);
+					forward(primary, replica);
+				} catch (IOException e) {
+					// the replica retries
+					try {
+						replica.close();
+					} catch (IOException e1) {
+						// closed anyway
+					}
+				}
+			}
+		}
+
+		private static void forward(Socket from, Socket to) {
+			Thread forwarder = new Thread(() -> {
+				byte[] buffer = new byte[1 << 16];
+				try {
+					for (int n; (n = from.getInputStream().read(buffer)) >= 0;) {
+						to.getOutputStream().write(buffer, 0, n);
+					}
+				} catch (IOException e) {
+					// cut
+				} finally {
+					try {
+						from.close();
+						to.close();
+					} catch (IOException e) {
+						// closed anyway
+					}
+				}
+			}, "replication-proxy-forwarder");
+			forwarder.setDaemon(true);
+			forwarder.start();
+		}
+
+		/** drop the connection and keep the replica out until resumed */
+		void cut() throws IOException {
+			target = 0;
+			synchronized (sockets) {
+				for (Socket socket : sockets) {
+					socket.close();
+				}
+				sockets.clear();
+			}
+		}
+
+		/** let the replica connect to the primary at the port again */
+		void resume(int port) {
+			target = port;
+		}
+
+		@Override
+		public void close() throws IOException {
+			cut();
+			serverSocket.close();
+		}
+	}
+
+	/**
+	 * A {@link ReplicaClient} with a weather service of its own, driven by
+	 * reflection as its classes are not those of the test.
+	 */
+	private static final class Replica implements AutoCloseable {
+
+		private final URLClassLoader loader;
+
+		private final Object weatherService;
+
+		private final Object client;
+
+		Replica(String primary) throws Exception {
+			List<URL> urls = new ArrayList<>();
+			for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+				urls.add(new File(path).toURI().toURL());
+			}
+			// not delegating to the application class loader, so the weather classes are loaded anew
+			loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), ClassLoader.getSystemClassLoader().getParent());
+			Class<?> serviceClass = loader.loadClass(WeatherService.class.getName());
+			weatherService = serviceClass.newInstance();
+			client = loader.loadClass(ReplicaClient.class.getName()).getConstructor(serviceClass, String.class).newInstance(weatherService,
+					primary);
+			invoke("start");
+		}
+
+		private Object invoke(String method, Object... args) throws Exception {
+			for (Method m : client.getClass().getMethods()) {
+				if (m.getName().equals(method) && m.getParameterCount() == args.length) {
+					return m.invoke(client, args);
+				}
+			}
+			throw new NoSuchMethodException(method);
+		}
+
+		boolean awaitSynced() throws Exception {
+			return (Boolean) invoke("awaitSynced", TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		boolean isSynced() throws Exception {
+			return (Boolean) invoke("awaitSynced", 0L, TimeUnit.MILLISECONDS);
+		}
+
+		/** @return the sequence number of the last record applied */
+		long getSequence() throws Exception {
+			return ((Number) ((Map<?, ?>) invoke("getStatus")).get("sequence")).longValue();
+		}
+
+		@SuppressWarnings("unchecked")
+		List<String> state() throws Exception {
+			return (List<String>) loader.loadClass(ReplicationTest.class.getName()).getDeclaredMethod("state", weatherService.getClass())
+					.invoke(null, weatherService);
+		}
+
+		@Override
+		public void close() throws Exception {
+			invoke("close");
+			weatherService.getClass().getMethod("reset").invoke(weatherService);
+			loader.close();
+		}
+	}
+}
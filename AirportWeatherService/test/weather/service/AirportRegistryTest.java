@@ -0,0 +1,238 @@
+package weather.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class AirportRegistryTest {
+
+	/** a distinct valid code for each i below 26^3 */
+	static String code(int i) {
+		return new String(new char[] { (char) ('A' + i / 676 % 26), (char) ('A' + i / 26 % 26), (char) ('A' + i % 26) });
+	}
+
+	private static AirportData airport(int i) {
+		return new AirportData(code(i), i % 180 - 90, i % 360 - 180);
+	}
+
+	@Test
+	public void packRoundTrip() {
+		assertEquals("BOS", AirportRegistry.unpack(AirportRegistry.pack("BOS")));
+		assertEquals(AirportRegistry.INVALID, AirportRegistry.pack("BOST"));
+		assertEquals(AirportRegistry.INVALID, AirportRegistry.pack(null));
+		assertEquals(AirportRegistry.INVALID, AirportRegistry.pack("\u0100AB"));
+	}
+
+	@Test
+	public void addFindRemove() {
+		AirportRegistry registry = new AirportRegistry();
+		AirportEntry bos = registry.add(new AirportData("BOS", 42.36, -71.01), new AtmosphericInformation());
+		assertSame(bos, registry.find("BOS"));
+		assertSame(bos, registry.find(AirportRegistry.pack("BOS")));
+		assertNull(registry.find("JFK"));
+		assertNull(registry.find("BOST"));
+
+		long version = registry.getVersion();
+		assertSame(bos, registry.remove("BOS"));
+		assertTrue(registry.getVersion() > version);
+		assertNull(registry.find("BOS"));
+		assertNull(registry.remove("BOS"));
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void addReplaces() {
+		AirportRegistry registry = new AirportRegistry();
+		AirportEntry old = registry.add(new AirportData("BOS", 42.36, -71.01), new AtmosphericInformation());
+		AirportEntry replaced = registry.add(new AirportData("BOS", 1, 2), new AtmosphericInformation());
+		assertEquals(1, registry.size());
+		assertSame(replaced, registry.find("BOS"));
+		assertEquals(Arrays.asList(replaced), registry.entries());
+		assertTrue(old != replaced);
+	}
+
+	@Test
+	public void resize() {
+		AirportRegistry registry = new AirportRegistry();
+		for (int i = 0; i < 5000; i++) {
+			registry.add(airport(i), new AtmosphericInformation());
+		}
+		assertEquals(5000, registry.size());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(code(i), registry.find(code(i)).getAirportData().getIata());
+		}
+		assertNull(registry.find(code(5000)));
+		assertDense(registry);
+	}
+
+	@Test
+	public void findSkipsTombstones() {
+		AirportRegistry registry = new AirportRegistry();
+		for (int i = 0; i < 1000; i++) {
+			registry.add(airport(i), new AtmosphericInformation());
+		}
+		// every other key becomes a tombstone in the probe chains of the others
+		for (int i = 0; i < 1000; i += 2) {
+			assertNotNull(registry.remove(code(i)));
+		}
+		for (int i = 0; i < 1000; i++) {
+			AirportEntry entry = registry.find(code(i));
+			if (i % 2 == 0) {
+				assertNull(entry);
+			} else {
+				assertEquals(code(i), entry.getAirportData().getIata());
+			}
+		}
+		assertEquals(500, registry.size());
+		assertDense(registry);
+
+		// removed keys can be added again
+		for (int i = 0; i < 1000; i += 2) {
+			registry.add(airport(i), new AtmosphericInformation());
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertNotNull(registry.find(code(i)));
+		}
+		assertDense(registry);
+	}
+
+	@Test(timeout = 10000)
+	public void tombstonesAreReclaimed() {
+		// a table full of tombstones would make lookups of unknown keys spin
+		AirportRegistry registry = new AirportRegistry();
+		for (int i = 0; i < 17000; i++) {
+			registry.add(airport(i), new AtmosphericInformation());
+			assertNotNull(registry.remove(code(i)));
+			assertNull(registry.find(code(i)));
+		}
+		assertEquals(0, registry.size());
+		assertNull(registry.find("ZZZ"));
+	}
+
+	@Test(timeout = 30000)
+	public void findWhileRemoving() throws InterruptedException {
+		AirportRegistry registry = new AirportRegistry();
+		for (int i = 0; i < 8; i++) {
+			registry.add(airport(i), new AtmosphericInformation());
+		}
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			try {
+				while (running.get()) {
+					for (int i = 0; i < 8; i++) {
+						AirportEntry entry = registry.find(code(i));
+						if (entry != null) {
+							assertEquals(code(i), entry.getAirportData().getIata());
+						}
+					}
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		reader.start();
+		try {
+			// a reader may see the key of a slot a concurrent remove is clearing
+			for (int n = 0; n < 500000 && failure.get() == null; n++) {
+				int i = n % 8;
+				registry.remove(code(i));
+				registry.add(airport(i), new AtmosphericInformation());
+			}
+		} finally {
+			running.set(false);
+			reader.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertEquals(8, registry.size());
+		assertDense(registry);
+	}
+
+	@Test
+	public void addAll() {
+		AirportRegistry registry = new AirportRegistry();
+		registry.add(airport(0), new AtmosphericInformation());
+		List<AirportData> airports = new ArrayList<>();
+		for (int i = 1; i < 3000; i++) {
+			airports.add(airport(i));
+		}
+		List<AirportEntry> added = registry.addAll(airports);
+		assertEquals(2999, added.size());
+		assertEquals(3000, registry.size());
+		// invisible until published
+		assertNotNull(registry.find(code(0)));
+		assertNull(registry.find(code(1)));
+		long version = registry.getVersion();
+		registry.publish(added);
+		assertTrue(registry.getVersion() > version);
+		for (int i = 0; i < 3000; i++) {
+			assertNotNull(registry.find(code(i)));
+		}
+		assertDense(registry);
+	}
+
+	@Test
+	public void addAllRejectsKnownAndDuplicateCodes() {
+		AirportRegistry registry = new AirportRegistry();
+		registry.add(airport(0), new AtmosphericInformation());
+		long version = registry.getVersion();
+		for (List<AirportData> airports : Arrays.asList(Arrays.asList(airport(1), airport(0)), Arrays.asList(airport(1), airport(1)),
+				Arrays.asList(airport(1), new AirportData("TOOLONG", 0, 0)))) {
+			try {
+				registry.addAll(airports);
+				fail("added " + airports);
+			} catch (IllegalArgumentException e) {
+				// expected, nothing added
+			}
+			assertEquals(1, registry.size());
+			assertNull(registry.find(code(1)));
+			assertEquals(version, registry.getVersion());
+		}
+	}
+
+	@Test
+	public void clear() {
+		AirportRegistry registry = new AirportRegistry();
+		for (int i = 0; i < 100; i++) {
+			registry.add(airport(i), new AtmosphericInformation());
+		}
+		registry.clear();
+		assertEquals(0, registry.size());
+		assertTrue(registry.entries().isEmpty());
+		assertNull(registry.find(code(1)));
+	}
+
+	/** the dense entry array holds each registered airport once, at its index */
+	private static void assertDense(AirportRegistry registry) {
+		List<AirportEntry> entries = registry.entries();
+		assertEquals(registry.size(), entries.size());
+		Set<String> codes = new HashSet<>();
+		for (int i = 0; i < entries.size(); i++) {
+			AirportEntry entry = entries.get(i);
+			assertEquals(i, entry.index);
+			assertTrue(codes.add(entry.getAirportData().getIata()));
+			assertSame(entry, registry.find(entry.getKey()));
+		}
+	}
+}
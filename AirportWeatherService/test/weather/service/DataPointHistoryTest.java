@@ -0,0 +1,62 @@
+package weather.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import weather.model.DataPoint;
+import weather.model.DataPointRecord;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class DataPointHistoryTest {
+
+	private static DataPoint dp(int i) {
+		return new DataPoint.Builder().withFirst(i).withMean(i + 0.5).withMedian(i + 1).withLast(i + 2).withCount(i).build();
+	}
+
+	@Test
+	public void keepsTheLatestDataPoints() {
+		for (int capacity : new int[] { 1, 3, 4, 5, 64, 100 }) {
+			DataPointHistory history = new DataPointHistory(capacity);
+			for (int n = 0; n < 3 * capacity + 2; n++) {
+				history.append(1000L * n, dp(n));
+				assertEquals(Math.min(n + 1, capacity), history.size());
+
+				List<DataPointRecord> records = new ArrayList<>();
+				history.copyRange(0, Long.MAX_VALUE, records);
+				assertEquals(history.size(), records.size());
+				for (int r = 0; r < records.size(); r++) {
+					int i = n + 1 - records.size() + r;
+					assertEquals(1000L * i, records.get(r).getTimestamp());
+					assertEquals(dp(i), records.get(r).getDataPoint());
+				}
+			}
+			assertEquals(capacity, history.getCapacity());
+		}
+	}
+
+	@Test
+	public void copiesTimeRange() {
+		DataPointHistory history = new DataPointHistory(10);
+		for (int n = 0; n < 15; n++) {
+			history.append(1000L * n, dp(n));
+		}
+		List<DataPointRecord> records = new ArrayList<>();
+		history.copyRange(7000, 9000, records);
+		assertEquals(3, records.size());
+		assertEquals(dp(7), records.get(0).getDataPoint());
+		records.clear();
+		history.copyRange(0, 4000, records);
+		assertEquals(0, records.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyHistory() {
+		new DataPointHistory(0);
+	}
+}
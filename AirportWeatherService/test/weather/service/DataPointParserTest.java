@@ -0,0 +1,143 @@
+package weather.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+import weather.exception.PayloadTooLargeException;
+import weather.exception.WeatherException;
+import weather.model.DataPoint;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class DataPointParserTest {
+
+	private static final Gson gson = new Gson();
+
+	private final DataPointParser parser = new DataPointParser();
+
+	private DataPoint parse(String json) throws WeatherException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		return parser.parse(bytes, 0, bytes.length);
+	}
+
+	private void assertSameAsGson(String json) throws Exception {
+		DataPoint expected = gson.fromJson(json, DataPoint.class);
+		assertEquals(json, expected, parse(json));
+		assertEquals(json, expected, parser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	private void assertRejected(String json) {
+		try {
+			parse(json);
+			fail("parsed " + json);
+		} catch (WeatherException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void readsWhatGsonReads() throws Exception {
+		for (String json : Arrays.asList("{\"mean\":22.5,\"first\":10,\"second\":20,\"third\":30,\"count\":7}",
+				"{\"count\":7,\"third\":30,\"second\":20,\"first\":10,\"mean\":22.5}", " { \"mean\" : -1.25 ,\n\t\"count\" : 3 } ", "{}",
+				"{\"mean\":null,\"first\":1}", "{\"mean\":\"12.5\",\"count\":\"4\"}", "{\"mean\":1e2,\"first\":1E-2,\"second\":2.5e+1,\"third\":-0.0}",
+				"{\"mean\":0.1,\"first\":0.30000000000000004,\"second\":123456789012345678901234567890,\"third\":1e-320}",
+				"{\"mean\":1.7976931348623157e308,\"count\":2147483647}", "{\"count\":-2147483648,\"mean\":4.9e-324}",
+				"{\"count\":7.0}", "{\"unit\":\"km/h\",\"mean\":5,\"tags\":[1,{\"a\":\"}\"},[]],\"nested\":{\"mean\":99,\"s\":\"\\\"}\"},\"flag\":true}",
+				"{\"mean\":1,\"mean\":2}")) {
+			assertSameAsGson(json);
+		}
+	}
+
+	@Test
+	public void readsRandomDataPointsLikeGson() throws Exception {
+		Random random = new Random(7);
+		for (int i = 0; i < 10000; i++) {
+			List<String> fields = new ArrayList<>();
+			for (String name : new String[] { "mean", "first", "second", "third" }) {
+				if (random.nextInt(5) > 0) {
+					fields.add("\"" + name + "\":" + number(random));
+				}
+			}
+			if (random.nextBoolean()) {
+				fields.add("\"count\":" + (random.nextInt() >> random.nextInt(31)));
+			}
+			Collections.shuffle(fields, random);
+			assertSameAsGson("{" + String.join(random.nextBoolean() ? "," : " , ", fields) + "}");
+		}
+	}
+
+	private static String number(Random random) {
+		switch (random.nextInt(5)) {
+		case 0:
+			return Integer.toString(random.nextInt(2000) - 1000);
+		case 1:
+			return String.format(Locale.ROOT, "%.2f", random.nextDouble() * 200 - 100);
+		case 2:
+			return Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20));
+		case 3:
+			return String.format(Locale.ROOT, "%.25f", random.nextDouble());
+		default:
+			return Long.toString(random.nextLong()) + "e" + (random.nextInt(40) - 20);
+		}
+	}
+
+	@Test
+	public void rejectsMalformedDocuments() {
+		for (String json : Arrays.asList("", " ", "[]", "{", "{\"mean\"}", "{\"mean\":}", "{\"mean\" 1}", "{\"mean\":1,}", "{\"mean\":1 \"first\":2}",
+				"{\"mean\":1}}", "{\"mean\":1} x", "{\"mean\":abc}", "{\"mean\":-}", "{\"mean\":1e}", "{\"mean\":\"1\"", "{\"count\":1.5}",
+				"{\"count\":2147483648}", "{mean:1}", "{\"mean\":1,\"x\":\"unterminated}", "{\"x\":[1,2}")) {
+			assertRejected(json);
+		}
+	}
+
+	@Test
+	public void rejectsNumbersBeyondDouble() {
+		assertRejected("{\"mean\":1e400}");
+		assertRejected("{\"mean\":10,\"first\":-1e400}");
+		assertRejected("{\"mean\":10,\"third\":\"1" + new String(new char[400]).replace('\0', '0') + "\"}");
+		assertRejected("{\"mean\":NaN}");
+		assertRejected("{\"mean\":Infinity}");
+	}
+
+	@Test
+	public void limitsStreamedDocuments() throws Exception {
+		char[] padding = new char[DataPointParser.MAX_LENGTH - 20];
+		Arrays.fill(padding, ' ');
+		String large = "{\"mean\":5" + new String(padding) + "}";
+		assertTrue(large.length() <= DataPointParser.MAX_LENGTH);
+		assertEquals(5, parser.parse(new ByteArrayInputStream(large.getBytes(StandardCharsets.UTF_8))).getMean(), 0);
+		assertEquals(512, bufferLength());
+
+		String tooLarge = "{\"mean\":5" + new String(padding) + new String(padding) + "}";
+		try {
+			parser.parse(new ByteArrayInputStream(tooLarge.getBytes(StandardCharsets.UTF_8)));
+			fail("parsed " + tooLarge.length() + " bytes");
+		} catch (PayloadTooLargeException e) {
+			// expected
+		}
+		assertEquals(512, bufferLength());
+		assertSameAsGson("{\"mean\":5}");
+	}
+
+	private int bufferLength() throws Exception {
+		Field buffer = DataPointParser.class.getDeclaredField("buffer");
+		buffer.setAccessible(true);
+		return ((byte[]) buffer.get(parser)).length;
+	}
+}
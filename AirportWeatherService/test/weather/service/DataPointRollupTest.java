@@ -0,0 +1,105 @@
+package weather.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import weather.model.DataPoint;
+import weather.model.RollupBucket;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class DataPointRollupTest {
+
+	private static DataPoint dp(double mean) {
+		return new DataPoint.Builder().withFirst(mean).withMean(mean).withMedian(mean).withLast(mean).withCount(1).build();
+	}
+
+	@Test
+	public void tiersMatchBruteForce() {
+		Random random = new Random(42);
+		for (int capacity : new int[] { 1, 3, 4, 50, 120 }) {
+			DataPointRollup rollup = new DataPointRollup(capacity, 0, 0);
+			// bucket number to min, max, sum and count
+			TreeMap<Long, double[]> expected = new TreeMap<>();
+			long latest = -1;
+			long bucket = 1000;
+			for (int n = 0; n < 5000; n++) {
+				int jump = random.nextInt(100);
+				// mostly the same or the next minutes, sometimes late or after a gap
+				bucket = Math.max(0, bucket + (jump < 80 ? random.nextInt(3) : jump < 90 ? -random.nextInt(2 * capacity) : random.nextInt(3 * capacity)));
+				double value = random.nextInt(100);
+				rollup.record(bucket * DataPointRollup.MINUTE + random.nextInt(60000), dp(value));
+
+				if (latest < 0 || bucket > latest - capacity) {
+					double[] b = expected.get(bucket);
+					if (b == null) {
+						expected.put(bucket, new double[] { value, value, value, 1 });
+					} else {
+						b[0] = Math.min(b[0], value);
+						b[1] = Math.max(b[1], value);
+						b[2] += value;
+						b[3]++;
+					}
+					latest = Math.max(latest, bucket);
+				}
+				expected.headMap(latest - capacity, true).clear();
+
+				long from = (latest - random.nextInt(2 * capacity)) * DataPointRollup.MINUTE;
+				long to = from + random.nextInt(2 * capacity) * DataPointRollup.MINUTE;
+				List<RollupBucket> buckets = new ArrayList<>();
+				rollup.copyRange(from, to, buckets);
+				List<String> want = new ArrayList<>();
+				for (Map.Entry<Long, double[]> e : expected.subMap(Math.floorDiv(from, DataPointRollup.MINUTE), true,
+						Math.floorDiv(to, DataPointRollup.MINUTE), true).entrySet()) {
+					double[] b = e.getValue();
+					want.add(e.getKey() * DataPointRollup.MINUTE + " " + b[0] + " " + b[1] + " " + b[2] / b[3] + " " + (long) b[3]);
+				}
+				List<String> got = new ArrayList<>();
+				for (RollupBucket b : buckets) {
+					got.add(b.getStart() + " " + b.getMin() + " " + b.getMax() + " " + b.getMean() + " " + b.getCount());
+				}
+				assertEquals("capacity " + capacity + " record " + n, want, got);
+			}
+		}
+	}
+
+	@Test
+	public void answersFromFinestCoveringTier() {
+		DataPointRollup rollup = new DataPointRollup(60, 48, 30);
+		long start = 100 * DataPointRollup.DAY;
+		for (long t = start; t < start + 3 * DataPointRollup.DAY; t += DataPointRollup.MINUTE) {
+			rollup.record(t, dp(1));
+		}
+		long end = start + 3 * DataPointRollup.DAY - 1;
+		assertEquals(DataPointRollup.MINUTE, resolution(rollup, end - 10 * DataPointRollup.MINUTE, end));
+		assertEquals(DataPointRollup.HOUR, resolution(rollup, end - 10 * DataPointRollup.HOUR, end));
+		assertEquals(DataPointRollup.DAY, resolution(rollup, start, end));
+	}
+
+	@Test
+	public void disabledTiers() {
+		DataPointRollup hoursOnly = new DataPointRollup(0, 24, 0);
+		hoursOnly.record(DataPointRollup.DAY, dp(1));
+		assertEquals(DataPointRollup.HOUR, resolution(hoursOnly, DataPointRollup.DAY, DataPointRollup.DAY));
+
+		DataPointRollup none = new DataPointRollup(0, 0, 0);
+		none.record(DataPointRollup.DAY, dp(1));
+		List<RollupBucket> buckets = new ArrayList<>();
+		none.copyRange(0, Long.MAX_VALUE, buckets);
+		assertEquals(0, buckets.size());
+	}
+
+	private static long resolution(DataPointRollup rollup, long from, long to) {
+		List<RollupBucket> buckets = new ArrayList<>();
+		rollup.copyRange(from, to, buckets);
+		return buckets.get(0).getResolution();
+	}
+}
@@ -0,0 +1,115 @@
+package weather.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointType;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class QueryResultCacheTest {
+
+	private static List<AirportEntry> airports(int count) {
+		List<AirportEntry> entries = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			String code = AirportRegistryTest.code(i);
+			entries.add(new AirportEntry(AirportRegistry.pack(code), new AirportData(code, 0, 0), new AtmosphericInformation()));
+		}
+		return entries;
+	}
+
+	@Test
+	public void staysWithinCapacity() {
+		QueryResultCache cache = new QueryResultCache(16);
+		List<AirportEntry> entries = airports(100);
+		for (int round = 0; round < 3; round++) {
+			for (AirportEntry entry : entries) {
+				cache.put(entry, 100, 1, Collections.singletonList(entry));
+				// every result is used before the next one is added
+				assertNotNull(cache.get(entry, 100, 1));
+				assertEquals(true, cache.size() <= 16);
+			}
+		}
+		assertEquals(16, cache.size());
+	}
+
+	@Test
+	public void evictsUnusedResultsFirst() {
+		QueryResultCache cache = new QueryResultCache(4);
+		List<AirportEntry> entries = airports(8);
+		for (int i = 0; i < 4; i++) {
+			cache.put(entries.get(i), 100, 1, Collections.<AirportEntry> emptyList());
+		}
+		cache.get(entries.get(0), 100, 1);
+		cache.get(entries.get(2), 100, 1);
+
+		// the unused results go first, the used ones get a second chance
+		cache.put(entries.get(4), 100, 1, Collections.<AirportEntry> emptyList());
+		assertNull(cache.get(entries.get(1), 100, 1));
+		cache.put(entries.get(5), 100, 1, Collections.<AirportEntry> emptyList());
+		assertNull(cache.get(entries.get(3), 100, 1));
+		assertNotNull(cache.get(entries.get(0), 100, 1));
+		assertNotNull(cache.get(entries.get(2), 100, 1));
+
+		// the hand moves on from where it stopped instead of starting over
+		cache.put(entries.get(6), 100, 1, Collections.<AirportEntry> emptyList());
+		assertNull(cache.get(entries.get(4), 100, 1));
+		assertNotNull(cache.get(entries.get(5), 100, 1));
+		assertEquals(4, cache.size());
+	}
+
+	@Test
+	public void replacingKeepsSize() {
+		QueryResultCache cache = new QueryResultCache(2);
+		List<AirportEntry> entries = airports(1);
+		for (int i = 0; i < 10; i++) {
+			cache.put(entries.get(0), 100, i, entries);
+		}
+		assertEquals(1, cache.size());
+		assertNotNull(cache.get(entries.get(0), 100, 9));
+	}
+
+	@Test
+	public void invalidatedByUpdatesAndRegistryChanges() {
+		QueryResultCache cache = new QueryResultCache(8);
+		List<AirportEntry> entries = airports(3);
+		cache.put(entries.get(0), 100, 1, entries.subList(0, 2));
+		assertNotNull(cache.get(entries.get(0), 100, 1));
+		assertNull(cache.get(entries.get(0), 200, 1));
+		assertNull(cache.get(entries.get(0), 100, 2));
+
+		// outside the neighbourhood
+		update(entries.get(2));
+		assertNotNull(cache.get(entries.get(0), 100, 1));
+		update(entries.get(1));
+		assertNull(cache.get(entries.get(0), 100, 1));
+		assertEquals(Arrays.asList(2L, 3L), Arrays.asList(cache.getHits(), cache.getMisses()));
+	}
+
+	@Test
+	public void zeroCapacityCachesNothing() {
+		QueryResultCache cache = new QueryResultCache(0);
+		List<AirportEntry> entries = airports(1);
+		cache.put(entries.get(0), 100, 1, entries);
+		assertNull(cache.get(entries.get(0), 100, 1));
+		assertEquals(0, cache.size());
+	}
+
+	private static void update(AirportEntry entry) {
+		AtmosphericInformation current = entry.getAtmosphericInformation();
+		DataPoint dp = new DataPoint.Builder().withFirst(1).withMean(1).withMedian(1).withLast(1).withCount(1).build();
+		entry.compareAndSetAtmosphericInformation(current, current.update(DataPointType.WIND, dp, 1000));
+	}
+}
@@ -0,0 +1,210 @@
+package weather.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointRecord;
+import weather.model.DataPointType;
+import weather.model.DataPointUpdate;
+
+/**
+ * Collectors of all point types update the same airports while readers check
+ * that every snapshot they see is consistent and no update is lost.
+ *
+ * @author Abdullah Atmaca
+ */
+public class WeatherServiceConcurrencyTest {
+
+	private static final int AIRPORTS = 20;
+
+	private static final int UPDATES = 20000;
+
+	private static final Gson gson = new Gson();
+
+	private final WeatherService weatherService = new WeatherService();
+
+	@Before
+	public void setUp() {
+		weatherService.reset();
+		for (int i = 0; i < AIRPORTS; i++) {
+			weatherService.addAirport(AirportRegistryTest.code(i), i, i);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		weatherService.reset();
+	}
+
+	@Test(timeout = 60000)
+	public void bulkImportIsAtomic() throws Exception {
+		int batches = 50;
+		int batchSize = 200;
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicBoolean importing = new AtomicBoolean(true);
+		Thread reader = new Thread(() -> {
+			try {
+				AirportEntry origin = weatherService.findAirportEntry(AirportRegistryTest.code(0));
+				while (importing.get()) {
+					for (int b = 0; b < batches; b++) {
+						int first = AIRPORTS + b * batchSize;
+						int looked = lookups(first, batchSize);
+						int found = 0;
+						for (AirportEntry entry : weatherService.findAirportsWithin(origin, 20040)) {
+							int i = index(entry.getAirportData().getIata());
+							if (i >= first && i < first + batchSize) {
+								found++;
+							}
+						}
+						// once one airport of a batch is visible, all of them are
+						// everywhere; a publication between the lookups or during
+						// the search is fine
+						assertTrue(looked == 0 || found == batchSize);
+						assertTrue(found == 0 || lookups(first, batchSize) == batchSize);
+					}
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			}
+		}, "reader");
+		reader.start();
+		for (int b = 0; b < batches; b++) {
+			int first = AIRPORTS + b * batchSize;
+			List<AirportData> batch = new ArrayList<>();
+			for (int i = first; i < first + batchSize; i++) {
+				batch.add(new AirportData(AirportRegistryTest.code(i), i % 180 - 90, i % 360 - 180));
+			}
+			assertEquals(batchSize, weatherService.addAirports(batch));
+			Thread.sleep(1);
+		}
+		importing.set(false);
+		reader.join();
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+	}
+
+	/** the inverse of {@link AirportRegistryTest#code(int)} */
+	private static int index(String code) {
+		return (code.charAt(0) - 'A') * 676 + (code.charAt(1) - 'A') * 26 + code.charAt(2) - 'A';
+	}
+
+	/**
+	 * @return the number of airports found, checking that none is missing
+	 *         after one has been found
+	 */
+	private int lookups(int first, int count) {
+		int found = 0;
+		for (int i = first; i < first + count; i++) {
+			if (weatherService.findAirportEntry(AirportRegistryTest.code(i)) != null) {
+				found++;
+			} else {
+				assertEquals(0, found);
+			}
+		}
+		return found;
+	}
+
+	/** the i-th update of a type, its count tells the order of the updates */
+	private static DataPoint dp(DataPointType type, int i) {
+		double mean = (type == DataPointType.PRESSURE ? 650 : 0) + i % 50;
+		return new DataPoint.Builder().withFirst(mean).withMean(mean).withMedian(mean).withLast(mean).withCount(i).build();
+	}
+
+	@Test(timeout = 60000)
+	public void concurrentUpdatesAndReads() throws Exception {
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicBoolean writing = new AtomicBoolean(true);
+		List<Thread> writers = new ArrayList<>();
+		for (DataPointType type : DataPointType.values()) {
+			writers.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < UPDATES; i++) {
+						String iata = AirportRegistryTest.code(i % AIRPORTS);
+						if (i % 2 == 0) {
+							weatherService.addDataPoint(iata, type.name(), dp(type, i));
+						} else {
+							weatherService.addDataPoints(iata, Collections.singletonList(new DataPointUpdate(iata, type.name(), dp(type, i))));
+						}
+					}
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				}
+			}, "writer-" + type));
+		}
+		List<Thread> readers = new ArrayList<>();
+		for (int r = 0; r < 2; r++) {
+			readers.add(new Thread(() -> {
+				try {
+					int[][] seen = new int[AIRPORTS][DataPointType.values().length];
+					AirportEntry origin = weatherService.findAirportEntry(AirportRegistryTest.code(0));
+					while (writing.get()) {
+						for (int a = 0; a < AIRPORTS; a++) {
+							AtmosphericInformation ai = weatherService.getAtmosphericInformation(AirportRegistryTest.code(a));
+							for (DataPointType type : DataPointType.values()) {
+								DataPoint dp = ai.getDataPoint(type);
+								int count = dp == null ? 0 : dp.getCount() + 1;
+								// a type's updates become visible in order
+								assertTrue(count >= seen[a][type.ordinal()]);
+								seen[a][type.ordinal()] = count;
+							}
+							assertEquals(gson.toJson(ai), new String(ai.toJson(), StandardCharsets.UTF_8));
+						}
+						for (AtmosphericInformation ai : weatherService.getAtmosphericInformationWithin(origin, 20000)) {
+							assertEquals(gson.toJson(ai), new String(ai.toJson(), StandardCharsets.UTF_8));
+						}
+					}
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				}
+			}, "reader-" + r));
+		}
+		for (Thread thread : readers) {
+			thread.start();
+		}
+		for (Thread thread : writers) {
+			thread.start();
+		}
+		for (Thread thread : writers) {
+			thread.join();
+		}
+		writing.set(false);
+		for (Thread thread : readers) {
+			thread.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+
+		for (int a = 0; a < AIRPORTS; a++) {
+			String iata = AirportRegistryTest.code(a);
+			int last = UPDATES - AIRPORTS + a;
+			AtmosphericInformation ai = weatherService.getAtmosphericInformation(iata);
+			for (DataPointType type : DataPointType.values()) {
+				assertEquals(dp(type, last), ai.getDataPoint(type));
+				List<DataPointRecord> history = weatherService.getHistory(iata, type.name(), 0, Long.MAX_VALUE);
+				assertEquals(WeatherService.HISTORY_CAPACITY, history.size());
+				for (int h = 0; h < history.size(); h++) {
+					int i = last - (history.size() - 1 - h) * AIRPORTS;
+					assertEquals(dp(type, i), history.get(h).getDataPoint());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package weather.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import weather.exception.WeatherException;
+import weather.model.AirportData;
+import weather.model.AtmosphericInformation;
+import weather.model.DataPoint;
+import weather.model.DataPointRecord;
+import weather.model.DataPointType;
+import weather.model.DataPointUpdate;
+import weather.monitoring.WeatherEvents;
+
+/**
+ * @author Abdullah Atmaca
+ */
+public class WeatherServiceTest {
+
+	private final WeatherService weatherService = new WeatherService();
+
+	/** fails on every mutation */
+	private final WeatherMutationListener failing = new WeatherMutationListener() {
+
+		@Override
+		public void onAirportAdded(AirportEntry entry) {
+			throw new IllegalStateException("added");
+		}
+
+		@Override
+		public void onAirportDeleted(AirportEntry entry) {
+			throw new IllegalStateException("deleted");
+		}
+
+		@Override
+		public void onDataPoint(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot) {
+			throw new IllegalStateException("data point");
+		}
+
+		@Override
+		public void onReset() {
+			throw new IllegalStateException("reset");
+		}
+	};
+
+	/** records every mutation */
+	private final List<String> seen = new ArrayList<>();
+
+	private final WeatherMutationListener recording = new WeatherMutationListener() {
+
+		@Override
+		public void onAirportAdded(AirportEntry entry) {
+			seen.add("added " + entry.getAirportData().getIata());
+		}
+
+		@Override
+		public void onAirportDeleted(AirportEntry entry) {
+			seen.add("deleted " + entry.getAirportData().getIata());
+		}
+
+		@Override
+		public void onDataPoint(AirportEntry entry, DataPointType type, DataPoint dp, AtmosphericInformation snapshot) {
+			seen.add(type + " " + entry.getAirportData().getIata());
+		}
+
+		@Override
+		public void onReset() {
+			seen.add("reset");
+		}
+	};
+
+	@Before
+	public void setUp() {
+		weatherService.reset();
+		weatherService.addMutationListener(failing);
+		weatherService.addMutationListener(recording);
+	}
+
+	@After
+	public void tearDown() {
+		weatherService.removeMutationListener(failing);
+		weatherService.removeMutationListener(recording);
+		weatherService.reset();
+	}
+
+	private static DataPoint dp(double mean) {
+		return new DataPoint.Builder().withFirst(mean).withMean(mean).withMedian(mean).withLast(mean).withCount(1).build();
+	}
+
+	@Test
+	public void failingListenerDoesNotFailMutations() throws Exception {
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		weatherService.addAirports(Arrays.asList(new AirportData("JFK", 40.64, -73.78)));
+		weatherService.addDataPoint("BOS", DataPointType.WIND.name(), dp(10));
+		boolean[] applied = weatherService.addDataPoints("JFK", Arrays.asList(new DataPointUpdate("JFK", "HUMIDITY", dp(50))));
+		weatherService.deleteAirportData("JFK");
+		weatherService.reset();
+
+		assertEquals(Arrays.asList("added BOS", "added JFK", "WIND BOS", "HUMIDITY JFK", "deleted JFK", "reset"), seen);
+		assertEquals(true, applied[0]);
+	}
+
+	@Test
+	public void failingListenerLeavesUpdatePublished() throws Exception {
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		weatherService.addDataPoint("BOS", DataPointType.WIND.name(), dp(10));
+		weatherService.addDataPoint("BOS", DataPointType.WIND.name(), dp(12));
+
+		assertEquals(12, weatherService.getAtmosphericInformation("BOS").getWind().getMean(), 0);
+		assertEquals(2, weatherService.getHistory("BOS", DataPointType.WIND.name(), 0, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void rejectsNonFiniteDataPoints() throws Exception {
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		DataPoint infinite = dp(Double.POSITIVE_INFINITY);
+		try {
+			// the REST collector
+			weatherService.addDataPoint("BOS", DataPointType.WIND.name(), infinite);
+			fail("accepted " + infinite);
+		} catch (WeatherException e) {
+			// expected
+		}
+		try {
+			// the binary collector and replay
+			weatherService.addDataPoint("BOS", DataPointType.WIND, infinite, 1000);
+			fail("accepted " + infinite);
+		} catch (WeatherException e) {
+			// expected
+		}
+		boolean[] applied = weatherService.addDataPoints("BOS", Arrays.asList(new DataPointUpdate("BOS", "WIND", infinite)));
+		assertEquals(false, applied[0]);
+
+		AirportEntry bos = weatherService.findAirportEntry("BOS");
+		assertEquals(null, bos.getAtmosphericInformation().getWind());
+		weatherService.getAtmosphericInformationWithin(bos, 1000);
+	}
+
+	@Test
+	public void recordsOneEventPerBatch() throws Exception {
+		assumeTrue(WeatherEvents.isAvailable());
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		List<RecordedEvent> events;
+		Path file = Files.createTempFile("weather", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("weather.DataPoint").withThreshold(Duration.ZERO);
+			recording.enable("weather.DataPointBatch").withThreshold(Duration.ZERO);
+			recording.start();
+			weatherService.addDataPoints("BOS", Arrays.asList(new DataPointUpdate("BOS", "WIND", dp(10)),
+					new DataPointUpdate("BOS", "HUMIDITY", dp(-1)), new DataPointUpdate("BOS", "SNOW", dp(1))));
+			weatherService.addDataPoints("XXX", Arrays.asList(new DataPointUpdate("XXX", "WIND", dp(10))));
+			recording.stop();
+			recording.dump(file);
+			events = RecordingFile.readAllEvents(file);
+		} finally {
+			Files.delete(file);
+		}
+
+		List<String> batches = new ArrayList<>();
+		for (RecordedEvent event : events) {
+			assertEquals("weather.DataPointBatch", event.getEventType().getName());
+			batches.add(event.getString("airport") + " " + event.getInt("points") + " " + event.getInt("accepted"));
+		}
+		assertEquals(Arrays.asList("BOS 3 1", "XXX 1 0"), batches);
+	}
+
+	@Test
+	public void clearWeatherDataKeepsAirport() throws Exception {
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		weatherService.addDataPoint("BOS", DataPointType.WIND, dp(10), 1000);
+		seen.clear();
+
+		assertTrue(weatherService.clearWeatherData("BOS"));
+		assertEquals(false, weatherService.clearWeatherData("XXX"));
+
+		AirportEntry bos = weatherService.findAirportEntry("BOS");
+		assertEquals(false, bos.getAtmosphericInformation().hasData());
+		assertEquals(0, weatherService.getHistory("BOS", "WIND", 0, Long.MAX_VALUE).size());
+		assertEquals(0, weatherService.getRollup("BOS", "WIND", 0, Long.MAX_VALUE).size());
+		assertTrue(weatherService.getWeatherData("BOS").isEmpty());
+		// replicated as registering the airport anew
+		assertEquals(Arrays.asList("added BOS"), seen);
+	}
+
+	@Test
+	public void replaceWeatherDataKeepsCollectionTimes() throws Exception {
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		weatherService.addDataPoint("BOS", DataPointType.WIND, dp(10), 60000);
+		weatherService.addDataPoint("BOS", DataPointType.HUMIDITY, dp(50), 120000);
+		weatherService.addDataPoint("BOS", DataPointType.WIND, dp(12), 180000);
+		Map<DataPointType, List<DataPointRecord>> data = weatherService.getWeatherData("BOS");
+		List<DataPointRecord> wind = weatherService.getHistory("BOS", "WIND", 0, Long.MAX_VALUE);
+		String rollup = weatherService.getRollup("BOS", "WIND", 0, Long.MAX_VALUE).toString();
+		AtmosphericInformation before = weatherService.getAtmosphericInformation("BOS");
+
+		weatherService.clearWeatherData("BOS");
+		weatherService.addDataPoint("BOS", DataPointType.PRESSURE, dp(700), 240000);
+		weatherService.replaceWeatherData("BOS", data);
+
+		AtmosphericInformation after = weatherService.getAtmosphericInformation("BOS");
+		assertEquals(new String(before.toJson(), "UTF-8"), new String(after.toJson(), "UTF-8"));
+		assertEquals(180000, after.getLastUpdateTime());
+		assertEquals(wind.toString(), weatherService.getHistory("BOS", "WIND", 0, Long.MAX_VALUE).toString());
+		assertEquals(rollup, weatherService.getRollup("BOS", "WIND", 0, Long.MAX_VALUE).toString());
+		assertEquals(0, weatherService.getHistory("BOS", "PRESSURE", 0, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void replaceWeatherDataRejectsInvalidPoints() throws Exception {
+		weatherService.addAirport("BOS", 42.36, -71.01);
+		weatherService.addDataPoint("BOS", DataPointType.WIND, dp(10), 60000);
+		Map<DataPointType, List<DataPointRecord>> data = weatherService.getWeatherData("BOS");
+		data.put(DataPointType.HUMIDITY, Arrays.asList(new DataPointRecord(1000, dp(50)), new DataPointRecord(2000, dp(150))));
+		try {
+			weatherService.replaceWeatherData("BOS", data);
+			fail("accepted humidity 150");
+		} catch (WeatherException e) {
+			// expected
+		}
+		assertEquals(1, weatherService.getHistory("BOS", "WIND", 0, Long.MAX_VALUE).size());
+		assertEquals(0, weatherService.getHistory("BOS", "HUMIDITY", 0, Long.MAX_VALUE).size());
+	}
+}